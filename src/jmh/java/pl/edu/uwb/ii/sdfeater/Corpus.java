@@ -0,0 +1,125 @@
+package pl.edu.uwb.ii.sdfeater;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * SDF benchmark corpus split into records and their parts
+ */
+class Corpus {
+
+    /**
+     * Whole input file
+     */
+    final byte[] data;
+
+    /**
+     * Raw CTAB atom and bond lines of each record
+     */
+    final List<List<byte[]>> ctabLines = new ArrayList<>();
+
+    /**
+     * Property names and raw value lines of each record
+     */
+    final List<List<Object[]>> properties = new ArrayList<>();
+
+    /**
+     * Fully parsed molecule of each record
+     */
+    final List<Molecule> molecules = new ArrayList<>();
+
+    private Corpus(byte[] data) {
+        this.data = data;
+    }
+
+    /**
+     * Split SDF file the same way as {@link File#parse} does
+     *
+     * @param path SDF file
+     * @return loaded corpus
+     * @throws IOException on read error
+     */
+    static Corpus load(Path path) throws IOException {
+        Corpus corpus = new Corpus(Files.readAllBytes(path));
+        LineReader reader = new LineReader(new ByteArrayInputStream(corpus.data));
+        List<byte[]> ctab = new ArrayList<>();
+        List<Object[]> props = new ArrayList<>();
+        String pName = "";
+        boolean molfileReady = false;
+        while (reader.next()) {
+            byte[] line = Arrays.copyOfRange(reader.buffer(), reader.start(), reader.start() + reader.length());
+            if (reader.startsWith("END", 3)) {
+                molfileReady = true;
+            } else if (!molfileReady) {
+                if (!reader.isPropertiesBlockLine()) {
+                    ctab.add(line);
+                }
+            } else if (!reader.isPropertiesBlockLine()) {
+                if (reader.isPropertyHeader()) {
+                    pName = reader.propertyName();
+                } else if (reader.startsWith("$$$$")) {
+                    Molecule molecule = new Molecule();
+                    for (byte[] l : ctab) {
+                        molecule.addCtabLine(l, 0, l.length);
+                    }
+                    molecule.parseStructure();
+                    for (Object[] p : props) {
+                        molecule.addPropertyByName((String) p[0], decode((byte[]) p[1]));
+                    }
+                    corpus.ctabLines.add(ctab);
+                    corpus.properties.add(props);
+                    corpus.molecules.add(molecule);
+                    ctab = new ArrayList<>();
+                    props = new ArrayList<>();
+                    molfileReady = false;
+                } else if (!reader.isEmpty()) {
+                    props.add(new Object[]{pName, line});
+                }
+            }
+        }
+        return corpus;
+    }
+
+    /**
+     * Decode property value line like {@link File#parse} does; values are
+     * escaped only when emitted
+     */
+    static String decode(byte[] line) {
+        return new String(line, StandardCharsets.UTF_8);
+    }
+
+    int size() {
+        return molecules.size();
+    }
+
+    /**
+     * @return endless stream repeating the corpus
+     */
+    InputStream cyclicStream() {
+        return new InputStream() {
+            private int pos;
+
+            @Override
+            public int read() {
+                int b = data[pos] & 0xff;
+                pos = (pos + 1) % data.length;
+                return b;
+            }
+
+            @Override
+            public int read(byte[] b, int off, int len) {
+                int n = Math.min(len, data.length - pos);
+                System.arraycopy(data, pos, b, off, n);
+                pos = (pos + n) % data.length;
+                return n;
+            }
+        };
+    }
+}
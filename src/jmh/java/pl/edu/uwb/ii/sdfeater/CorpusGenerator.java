@@ -0,0 +1,178 @@
+package pl.edu.uwb.ii.sdfeater;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.Locale;
+import java.util.Random;
+
+/**
+ * Synthetic SDF corpus generator
+ * <p>
+ * Usage: {@code CorpusGenerator <output.sdf> <shape> <records> [seed]}, where
+ * shape is one of:
+ * <ul>
+ * <li>{@code druglike} - small ChEBI-like molecules (10-70 atoms, ~20 properties),</li>
+ * <li>{@code biomolecule} - protein-sized molecules with 50000 atoms,</li>
+ * <li>{@code properties} - small molecules with long multi-valued properties,</li>
+ * <li>{@code special} - values with quotes, backslashes, markup and non-ASCII characters
+ * like {@code examples/chebi_special_char_test.sdf},</li>
+ * <li>{@code mixed} - mostly drug-like records with some of every other shape.</li>
+ * </ul>
+ * Records are generated from a ChEBI-style template and are deterministic for a seed.
+ * Counts and bond lines use wider fields than V2000 allows when molecules
+ * have more than 999 atoms, which SDFEater reads the same way.
+ */
+public class CorpusGenerator {
+
+    private static final String[] ELEMENTS = {"C", "C", "C", "C", "C", "C", "N", "O", "O", "S", "P", "Cl", "F", "H"};
+    private static final String[] SPECIAL_VALUES = {
+            "A catechin with (2<stereo>R</stereo>,3<stereo>R</stereo>)-configuration.",
+            "CC(\\C=C\\[C@@]1(O)C(C)=CC(=O)CC1\"(C)C)=\"\"C\\C(O)=O",
+            "4'-O-Methylisoflavone & 4'-methoxyisoflavone",
+            "(2β,3α)-épi-catechin – Ångström 中文",
+            "1,3-Diaminopropane\\\\n'quoted' \"twice\" <b>bold</b>"};
+
+    private final Writer out;
+    private final Random random;
+    private long id = 1;
+
+    private CorpusGenerator(Writer out, long seed) {
+        this.out = out;
+        this.random = new Random(seed);
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 3) {
+            System.err.println("Usage: CorpusGenerator <output.sdf> <druglike|biomolecule|properties|special|mixed> <records> [seed]");
+            System.exit(1);
+        }
+        long records = Long.parseLong(args[2]);
+        long seed = args.length > 3 ? Long.parseLong(args[3]) : 42;
+        try (BufferedWriter writer = Files.newBufferedWriter(Paths.get(args[0]), StandardCharsets.UTF_8)) {
+            CorpusGenerator generator = new CorpusGenerator(writer, seed);
+            for (long i = 0; i < records; i++) {
+                generator.record(args[1]);
+            }
+        }
+    }
+
+    /**
+     * Write one record of the shape
+     */
+    private void record(String shape) throws IOException {
+        switch (shape) {
+            case "druglike":
+                molecule(10 + random.nextInt(60), 1, false);
+                break;
+            case "biomolecule":
+                molecule(50000, 1, false);
+                break;
+            case "properties":
+                molecule(10 + random.nextInt(30), 50, false);
+                break;
+            case "special":
+                molecule(10 + random.nextInt(30), 2, true);
+                break;
+            case "mixed":
+                int r = random.nextInt(10000);
+                if (r == 0) {
+                    molecule(50000, 1, false);
+                } else if (r < 300) {
+                    molecule(10 + random.nextInt(30), 50, false);
+                } else if (r < 500) {
+                    molecule(10 + random.nextInt(30), 2, true);
+                } else {
+                    molecule(10 + random.nextInt(60), 1, false);
+                }
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown shape: " + shape);
+        }
+    }
+
+    /**
+     * Write molecule with random structure and ChEBI-style properties
+     *
+     * @param atoms        number of atoms
+     * @param multiplicity scale of multi-valued properties
+     * @param special      use values with special characters
+     */
+    private void molecule(int atoms, int multiplicity, boolean special) throws IOException {
+        long chebi = id++;
+        int bonds = atoms - 1 + atoms / 6;
+        boolean wide = atoms > 999;
+
+        out.write("\n  SDFEater" + String.format(Locale.ROOT, "%08d", chebi % 100000000) + "2D\n\n");
+        out.write(wide ? atoms + " " + bonds : String.format(Locale.ROOT, "%3d%3d", atoms, bonds));
+        out.write("  0  0  0  0            999 V2000\n");
+        for (int i = 0; i < atoms; i++) {
+            out.write(String.format(Locale.ROOT, "%10.4f%10.4f%10.4f %-3s 0  0  0  0  0  0  0  0  0  0  0  0\n",
+                    random.nextGaussian() * 10, random.nextGaussian() * 10, wide ? random.nextGaussian() * 10 : 0.0,
+                    ELEMENTS[random.nextInt(ELEMENTS.length)]));
+        }
+        String bondFormat = wide ? "%6d%6d%3d%3d  0  0  0\n" : "%3d%3d%3d%3d  0  0  0\n";
+        for (int i = 0; i < bonds; i++) {
+            int a1 = i < atoms - 1 ? i + 1 : 1 + random.nextInt(atoms);
+            int a2 = i < atoms - 1 ? i + 2 : 1 + random.nextInt(atoms);
+            out.write(String.format(Locale.ROOT, bondFormat, a1, a2, 1 + random.nextInt(2), random.nextInt(10) < 1 ? 6 : 0));
+        }
+        out.write("M  END\n");
+
+        property("ChEBI ID", "CHEBI:" + chebi);
+        property("ChEBI Name", special ? pick() : "compound-" + chebi);
+        property("Star", "3");
+        property("Definition", special ? pick() : "A synthetic compound number " + chebi + " generated for throughput testing of SDFEater.");
+        property("SMILES", special ? SPECIAL_VALUES[1] : "CC1(C)[C@@H]2CC[C@@](C)(C2)C1=O");
+        property("InChIKey", key(chebi));
+        property("InChI", "InChI=1S/C" + atoms + "H" + (atoms * 2) + "O/c1-9(2)7-4-5-10(3,6-7)8(9)11/h7H,4-6H2,1-3H3/t7-,10+/m1/s1");
+        property("Formulae", "C" + atoms + "H" + (atoms * 2) + "O");
+        property("Charge", "0");
+        property("Mass", String.format(Locale.ROOT, "%.5f", atoms * 12.011));
+        property("Monoisotopic Mass", String.format(Locale.ROOT, "%.3f", atoms * 12.0));
+        property("IUPAC Names", special ? pick() : "(1S,4R)-synthetic-" + chebi + "-an-2-one");
+        multiProperty("Synonyms", 3 * multiplicity, special);
+        property("CAS Registry Numbers", (chebi % 9000 + 1000) + "-" + (chebi % 90 + 10) + "-" + (chebi % 10));
+        property("KEGG COMPOUND Database Links", String.format(Locale.ROOT, "C%05d", chebi % 100000));
+        multiProperty("PubMed Citation Links", 2 * multiplicity, false);
+        StringBuilder pubchem = new StringBuilder("CID: " + (70000 + chebi));
+        for (int i = 0; i < multiplicity; i++) {
+            pubchem.append("\nSID: ").append(160000000 + chebi * 100 + i);
+        }
+        property("PubChem Database Links", pubchem.toString());
+        property("Wikipedia Database Links", special ? "1,3-Diaminopropane" : "Compound_" + chebi);
+        property("Last Modified", "25 Feb 2016");
+        out.write("$$$$\n");
+    }
+
+    private String pick() {
+        return SPECIAL_VALUES[random.nextInt(SPECIAL_VALUES.length)];
+    }
+
+    private String key(long n) {
+        StringBuilder key = new StringBuilder();
+        Random r = new Random(n);
+        for (int i = 0; i < 25; i++) {
+            key.append(i == 14 || i == 23 ? '-' : (char) ('A' + r.nextInt(26)));
+        }
+        return key.toString();
+    }
+
+    private void multiProperty(String name, int count, boolean special) throws IOException {
+        StringBuilder values = new StringBuilder();
+        for (int i = 0; i < count; i++) {
+            if (i > 0) {
+                values.append('\n');
+            }
+            values.append(special ? pick() : Long.toString(1000000 + random.nextInt(9000000)));
+        }
+        property(name, values.toString());
+    }
+
+    private void property(String name, String value) throws IOException {
+        out.write("> <" + name + ">\n" + value + "\n\n");
+    }
+}
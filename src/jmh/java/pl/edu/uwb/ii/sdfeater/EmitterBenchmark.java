@@ -0,0 +1,70 @@
+package pl.edu.uwb.ii.sdfeater;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.file.Paths;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Output format benchmarks; one operation writes one parsed molecule
+ * <p>
+ * Output is discarded. For Jena based formats the operation covers adding the
+ * molecule to the model (the model is recreated every iteration); for JSON-LD
+ * it covers building the molecule fragment.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class EmitterBenchmark {
+
+    @Param({"chebi_test.sdf", "drugbank_test2.sdf"})
+    public String corpus;
+
+    @Param({"cypher", "cypheru", "cypherp", "cypherup", "cvme", "smiles", "inchi", "turtle", "ntriples", "nquads", "rdfxml",
+            "rdfthrift", "jsonldhtml", "jsonld", "rdfa", "microdata", "ndjson", "ndjsonfull"})
+    public String format;
+
+    private Corpus data;
+    private SDFEater.Format outputFormat;
+    private final StringBuilder outputStr = new StringBuilder();
+    private PrintStream sink;
+    private ModelBuilder model;
+    private int next;
+
+    @Setup
+    public void setUp() throws IOException {
+        data = Corpus.load(Paths.get("examples", corpus));
+        outputFormat = SDFEater.Format.valueOf(format);
+        SDFEater.periodicTableData();
+        sink = new PrintStream(new OutputStream() {
+            @Override
+            public void write(int b) {
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) {
+            }
+        });
+    }
+
+    @Setup(Level.Iteration)
+    public void resetModel() {
+        model = new ModelBuilder(0, Long.MAX_VALUE);
+    }
+
+    @Benchmark
+    public int emit() {
+        Molecule molecule = data.molecules.get(next);
+        next = (next + 1) % data.size();
+        File.printMolecule(molecule, outputFormat, SDFEater.Subject.iri, outputStr, model, sink);
+        int length = outputStr.length();
+        outputStr.setLength(0);
+        return length;
+    }
+}
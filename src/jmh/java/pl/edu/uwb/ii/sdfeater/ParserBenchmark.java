@@ -0,0 +1,87 @@
+package pl.edu.uwb.ii.sdfeater;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Parser stage benchmarks; one operation processes one molecule, so with
+ * {@code -prof gc} the {@code gc.alloc.rate.norm} metric is bytes per molecule
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ParserBenchmark {
+
+    @Param({"chebi_test.sdf", "drugbank_test2.sdf"})
+    public String corpus;
+
+    private Corpus data;
+    private LineReader reader;
+    private final Molecule molecule = new Molecule();
+    private int next;
+
+    @Setup
+    public void setUp() throws IOException {
+        data = Corpus.load(Paths.get("examples", corpus));
+        reader = new LineReader(data.cyclicStream());
+    }
+
+    private int nextRecord() {
+        int i = next;
+        next = (i + 1) % data.size();
+        return i;
+    }
+
+    /**
+     * Read and classify all lines of one record
+     */
+    @Benchmark
+    public int lineClassification() throws IOException {
+        int classes = 0;
+        while (reader.next()) {
+            if (reader.startsWith("END", 3)) {
+                classes += 1;
+            } else if (reader.isPropertiesBlockLine()) {
+                classes += 2;
+            } else if (reader.isPropertyHeader()) {
+                classes += 3;
+            } else if (reader.startsWith("$$$$")) {
+                return classes;
+            }
+        }
+        return classes;
+    }
+
+    /**
+     * Store raw CTAB lines of one record and tokenize them into atoms and bonds
+     */
+    @Benchmark
+    public int ctabParsing() {
+        molecule.clearAll();
+        for (byte[] line : data.ctabLines.get(nextRecord())) {
+            molecule.addCtabLine(line, 0, line.length);
+        }
+        molecule.parseStructure();
+        return molecule.atoms.size() + molecule.bonds.size();
+    }
+
+    /**
+     * Decode and store all property values of one record
+     */
+    @Benchmark
+    public Molecule propertyIngest() {
+        molecule.clearAll();
+        List<Object[]> properties = data.properties.get(nextRecord());
+        for (Object[] p : properties) {
+            molecule.addPropertyByName((String) p[0], Corpus.decode((byte[]) p[1]));
+        }
+        return molecule;
+    }
+}
@@ -0,0 +1,246 @@
+package pl.edu.uwb.ii.sdfeater;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import org.apache.commons.cli.*;
+
+import java.io.*;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.*;
+
+/**
+ * End-to-end throughput harness
+ * <p>
+ * Runs every requested output format over every corpus, each run in a fresh
+ * JVM, and writes MB/s, molecules/s, peak RSS, peak heap, GC count and GC time
+ * to a JSON report. With {@code --baseline} the results are compared to an
+ * earlier report and the harness exits with status 1 if any run is slower (or
+ * uses more memory) than the tolerance allows.
+ * <p>
+ * Corpora can be generated with {@link CorpusGenerator}.
+ */
+public class ThroughputHarness {
+
+    private static final Gson GSON = new GsonBuilder().setPrettyPrinting().create();
+
+    public static void main(String[] args) throws Exception {
+        Options options = new Options();
+        Option corpus = new Option("c", "corpus", true, "comma-separated SDF corpus files");
+        corpus.setRequired(true);
+        options.addOption(corpus);
+        options.addOption(new Option("f", "formats", true, "comma-separated formats (all by default)"));
+        options.addOption(new Option("r", "report", true, "JSON report file (throughput-report.json by default)"));
+        options.addOption(new Option(null, "baseline", true, "baseline JSON report to compare with"));
+        options.addOption(new Option(null, "tolerance", true, "allowed relative regression (0.10 by default)"));
+        options.addOption(new Option(null, "jvm-args", true, "arguments for worker JVMs (\"-Xmx2g\" by default)"));
+        CommandLine cmd;
+        try {
+            cmd = new DefaultParser().parse(options, args);
+        } catch (ParseException e) {
+            System.err.println("Error: " + e.getMessage());
+            new HelpFormatter().printHelp("ThroughputHarness", options);
+            System.exit(1);
+            return;
+        }
+
+        List<String> formats = new ArrayList<>();
+        if (cmd.hasOption("formats")) {
+            formats.addAll(SDFEater.parseList(cmd.getOptionValue("formats")));
+        } else {
+            for (SDFEater.Format format : SDFEater.Format.values()) {
+                formats.add(format.name());
+            }
+        }
+
+        JsonArray results = new JsonArray();
+        for (String file : cmd.getOptionValue("corpus").split(",")) {
+            Path path = Paths.get(file.trim());
+            long inputBytes = Files.size(path);
+            long molecules = countRecords(path);
+            for (String format : formats) {
+                JsonObject result = run(path, format, cmd.getOptionValue("jvm-args", "-Xmx2g"));
+                double seconds = result.get("seconds").getAsDouble();
+                result.addProperty("corpus", path.getFileName().toString());
+                result.addProperty("format", format);
+                result.addProperty("inputBytes", inputBytes);
+                result.addProperty("molecules", molecules);
+                result.addProperty("mbPerSecond", inputBytes / 1e6 / seconds);
+                result.addProperty("moleculesPerSecond", molecules / seconds);
+                System.err.printf(Locale.ROOT, "%-24s %-11s %8.1f MB/s %10.0f molecules/s %6d MB RSS %5d ms GC%n",
+                        path.getFileName(), format, inputBytes / 1e6 / seconds, molecules / seconds,
+                        result.get("peakRssBytes").getAsLong() >> 20, result.get("gcTimeMs").getAsLong());
+                results.add(result);
+            }
+        }
+
+        JsonObject report = new JsonObject();
+        report.addProperty("javaVersion", System.getProperty("java.version"));
+        report.addProperty("timestamp", new Date().getTime());
+        report.add("results", results);
+        try (Writer writer = Files.newBufferedWriter(Paths.get(cmd.getOptionValue("report", "throughput-report.json")), StandardCharsets.UTF_8)) {
+            GSON.toJson(report, writer);
+        }
+
+        if (cmd.hasOption("baseline")) {
+            double tolerance = Double.parseDouble(cmd.getOptionValue("tolerance", "0.10"));
+            if (compare(results, Paths.get(cmd.getOptionValue("baseline")), tolerance) > 0) {
+                System.exit(1);
+            }
+        }
+    }
+
+    /**
+     * Count SDF records
+     */
+    private static long countRecords(Path path) throws IOException {
+        long records = 0;
+        try (LineReader reader = new LineReader(Files.newInputStream(path))) {
+            while (reader.next()) {
+                if (reader.startsWith("$$$$")) {
+                    records++;
+                }
+            }
+        }
+        return records;
+    }
+
+    /**
+     * Convert corpus in a separate JVM
+     *
+     * @return worker measurements
+     */
+    private static JsonObject run(Path corpus, String format, String jvmArgs) throws IOException, InterruptedException {
+        List<String> command = new ArrayList<>();
+        command.add(Paths.get(System.getProperty("java.home"), "bin", "java").toString());
+        command.addAll(Arrays.asList(jvmArgs.trim().split("\\s+")));
+        command.add("-cp");
+        command.add(System.getProperty("java.class.path"));
+        command.add(Worker.class.getName());
+        command.add(corpus.toString());
+        command.add(format);
+        Process process = new ProcessBuilder(command).redirectError(ProcessBuilder.Redirect.INHERIT).start();
+        String last = null;
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(process.getInputStream(), StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                last = line;
+            }
+        }
+        if (process.waitFor() != 0 || last == null) {
+            throw new IllegalStateException("Conversion of " + corpus + " to " + format + " failed");
+        }
+        return JsonParser.parseString(last).getAsJsonObject();
+    }
+
+    /**
+     * Compare results with baseline report
+     *
+     * @return number of regressions
+     */
+    private static int compare(JsonArray results, Path baselinePath, double tolerance) throws IOException {
+        Map<String, JsonObject> baseline = new HashMap<>();
+        try (Reader reader = Files.newBufferedReader(baselinePath, StandardCharsets.UTF_8)) {
+            for (JsonElement e : JsonParser.parseReader(reader).getAsJsonObject().getAsJsonArray("results")) {
+                JsonObject o = e.getAsJsonObject();
+                baseline.put(o.get("corpus").getAsString() + "/" + o.get("format").getAsString(), o);
+            }
+        }
+        int regressions = 0;
+        for (JsonElement e : results) {
+            JsonObject now = e.getAsJsonObject();
+            String key = now.get("corpus").getAsString() + "/" + now.get("format").getAsString();
+            JsonObject base = baseline.get(key);
+            if (base == null) {
+                continue;
+            }
+            double speed = now.get("mbPerSecond").getAsDouble() / base.get("mbPerSecond").getAsDouble() - 1;
+            if (speed < -tolerance) {
+                System.err.printf(Locale.ROOT, "REGRESSION %s: throughput %.1f%%%n", key, speed * 100);
+                regressions++;
+            }
+            long baseRss = base.get("peakRssBytes").getAsLong();
+            if (baseRss > 0 && now.get("peakRssBytes").getAsLong() > baseRss * (1 + tolerance)) {
+                System.err.printf(Locale.ROOT, "REGRESSION %s: peak RSS %+.1f%%%n", key,
+                        (now.get("peakRssBytes").getAsDouble() / baseRss - 1) * 100);
+                regressions++;
+            }
+        }
+        System.err.println(regressions == 0 ? "No regressions against " + baselinePath : regressions + " regression(s) against " + baselinePath);
+        return regressions;
+    }
+
+    /**
+     * Worker JVM: converts one corpus with output discarded and prints measurements as JSON
+     */
+    public static class Worker {
+
+        public static void main(String[] args) throws IOException {
+            PrintStream stdout = System.out;
+            final long[] outputBytes = {0};
+            System.setOut(new PrintStream(new OutputStream() {
+                @Override
+                public void write(int b) {
+                    outputBytes[0]++;
+                }
+
+                @Override
+                public void write(byte[] b, int off, int len) {
+                    outputBytes[0] += len;
+                }
+            }));
+
+            long start = System.nanoTime();
+            SDFEater.main(new String[]{"-i", args[0], "-f", args[1]});
+            System.out.flush();
+            long nanos = System.nanoTime() - start;
+
+            long gcCount = 0, gcTime = 0;
+            for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+                gcCount += Math.max(gc.getCollectionCount(), 0);
+                gcTime += Math.max(gc.getCollectionTime(), 0);
+            }
+            long peakHeap = 0;
+            for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+                if (pool.getType() == MemoryType.HEAP) {
+                    peakHeap += pool.getPeakUsage().getUsed();
+                }
+            }
+
+            JsonObject result = new JsonObject();
+            result.addProperty("seconds", nanos / 1e9);
+            result.addProperty("outputBytes", outputBytes[0]);
+            result.addProperty("peakRssBytes", peakRss());
+            result.addProperty("peakHeapBytes", peakHeap);
+            result.addProperty("gcCount", gcCount);
+            result.addProperty("gcTimeMs", gcTime);
+            stdout.println(result);
+        }
+
+        /**
+         * @return peak resident set size from /proc (Linux only), -1 if not available
+         */
+        private static long peakRss() {
+            try {
+                for (String line : Files.readAllLines(Paths.get("/proc/self/status"), StandardCharsets.US_ASCII)) {
+                    if (line.startsWith("VmHWM:")) {
+                        return Long.parseLong(line.replaceAll("\\D", "")) * 1024;
+                    }
+                }
+            } catch (IOException | RuntimeException e) {
+                // not Linux
+            }
+            return -1;
+        }
+    }
+}
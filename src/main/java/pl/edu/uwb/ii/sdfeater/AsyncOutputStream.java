@@ -0,0 +1,159 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2017-2019 Łukasz Szeremeta.
+ * Copyright 2018-2019 Dominik Tomaszuk.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package pl.edu.uwb.ii.sdfeater;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * Output stream written by its own thread
+ * <p>
+ * Bytes are collected in chunks, and full chunks are handed over to the
+ * writer thread, so rendering of other formats doesn't wait for the disk.
+ * Errors of the writer thread are thrown by the next write, flush or close.
+ */
+class AsyncOutputStream extends OutputStream {
+
+    private static final int CHUNK = 1 << 16;
+    private static final byte[] END = new byte[0];
+
+    private final OutputStream out;
+    private final BlockingQueue<byte[]> queue = new ArrayBlockingQueue<>(16);
+    private final Thread thread;
+    private volatile IOException failure;
+    private byte[] chunk = new byte[CHUNK];
+    private int length;
+    private boolean closed;
+
+    /**
+     * AsyncOutputStream class constructor
+     *
+     * @param out  stream written by the writer thread; closed with this stream
+     * @param name name of the writer thread
+     */
+    AsyncOutputStream(OutputStream out, String name) {
+        this.out = out;
+        thread = new Thread(() -> {
+            try {
+                for (byte[] bytes = queue.take(); bytes != END; bytes = queue.take()) {
+                    if (failure == null) {
+                        try {
+                            out.write(bytes);
+                        } catch (IOException e) {
+                            failure = e;
+                        }
+                    }
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }, name);
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        if (length == chunk.length) {
+            handOver(chunk);
+            chunk = new byte[CHUNK];
+            length = 0;
+        }
+        chunk[length++] = (byte) b;
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        while (len > 0) {
+            if (length == chunk.length) {
+                handOver(chunk);
+                chunk = new byte[CHUNK];
+                length = 0;
+            }
+            int n = Math.min(len, chunk.length - length);
+            System.arraycopy(b, off, chunk, length, n);
+            length += n;
+            off += n;
+            len -= n;
+        }
+    }
+
+    /**
+     * Hand over collected bytes to the writer thread; they are written later
+     *
+     * @throws IOException if the writer thread failed
+     */
+    @Override
+    public void flush() throws IOException {
+        if (length > 0) {
+            handOver(Arrays.copyOf(chunk, length));
+            length = 0;
+        }
+    }
+
+    /**
+     * Write remaining bytes, wait for the writer thread and close the stream
+     *
+     * @throws IOException if any bytes couldn't be written
+     */
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        try {
+            flush();
+            queue.put(END);
+            thread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while writing output");
+        } finally {
+            out.close();
+        }
+        check();
+    }
+
+    private void handOver(byte[] bytes) throws IOException {
+        check();
+        try {
+            queue.put(bytes);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while writing output");
+        }
+    }
+
+    private void check() throws IOException {
+        if (failure != null) {
+            throw failure;
+        }
+    }
+}
@@ -24,11 +24,11 @@
 package pl.edu.uwb.ii.sdfeater;
 
 /**
- * Atoms data
+ * Atoms data; immutable
  *
  * @author Łukasz Szeremeta 2017
  */
-class Atom {
+public final class Atom {
 
     final String symbol;
     final float x;
@@ -50,6 +50,34 @@ class Atom {
         this.z = z;
     }
 
+    /**
+     * @return atom symbol
+     */
+    public String getSymbol() {
+        return symbol;
+    }
+
+    /**
+     * @return atom x position
+     */
+    public float getX() {
+        return x;
+    }
+
+    /**
+     * @return atom y position
+     */
+    public float getY() {
+        return y;
+    }
+
+    /**
+     * @return atom z position
+     */
+    public float getZ() {
+        return z;
+    }
+
     @Override
     public String toString() {
         return symbol + " (" + x + "," + y + "," + z + ")";
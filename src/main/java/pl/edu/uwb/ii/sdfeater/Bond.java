@@ -24,11 +24,11 @@
 package pl.edu.uwb.ii.sdfeater;
 
 /**
- * Bonds data
+ * Bonds data; immutable
  *
  * @author Łukasz Szeremeta 2017
  */
-class Bond {
+public final class Bond {
 
     final int atom1;
     final byte type;
@@ -50,6 +50,34 @@ class Bond {
         this.stereo = stereo;
     }
 
+    /**
+     * @return first atom id, starting with 1
+     */
+    public int getAtom1() {
+        return atom1;
+    }
+
+    /**
+     * @return bond type
+     */
+    public byte getType() {
+        return type;
+    }
+
+    /**
+     * @return second atom id, starting with 1
+     */
+    public int getAtom2() {
+        return atom2;
+    }
+
+    /**
+     * @return bond stereo
+     */
+    public byte getStereo() {
+        return stereo;
+    }
+
     @Override
     public String toString() {
         return "(" + atom1 + ")--" + type + "--(" + atom2 + ")";
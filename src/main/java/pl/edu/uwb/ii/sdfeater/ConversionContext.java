@@ -0,0 +1,129 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2017-2019 Łukasz Szeremeta.
+ * Copyright 2018-2019 Dominik Tomaszuk.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package pl.edu.uwb.ii.sdfeater;
+
+import java.io.PrintStream;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * State of one conversion job: subject base, database link templates,
+ * Cypher statement size, molecule ID counter and output sink
+ * <p>
+ * Molecules of a job share its context, so IDs continue across records
+ * and start from 0 in each job. Conversions with separate contexts don't
+ * share any mutable state and can run at the same time in one JVM; read-only
+ * resources, such as the periodic table, are loaded once for all of them.
+ */
+class ConversionContext {
+
+    /**
+     * Default molecule subject base for 'iri' subject type
+     */
+    static final String DEFAULT_SUBJECT_BASE = "https://example.com/molecule#entity";
+
+    /**
+     * Default maximum number of atoms and bonds in one Cypher statement
+     */
+    static final int DEFAULT_CYPHER_ROWS = 10000;
+
+    /**
+     * Molecule subject base for 'iri' subject type
+     */
+    final String subjectBase;
+
+    /**
+     * Output of formats written to a single stream
+     */
+    final PrintStream out;
+
+    /**
+     * URL templates of database links
+     */
+    final DatabaseLinks links;
+
+    /**
+     * Maximum number of atoms and bonds in one Cypher statement, 0 if no limit
+     */
+    final int cypherRows;
+
+    private final AtomicLong idCounter = new AtomicLong();
+
+    /**
+     * ConversionContext class constructor, with default subject base and
+     * standard output
+     */
+    ConversionContext() {
+        this(DEFAULT_SUBJECT_BASE, System.out);
+    }
+
+    /**
+     * ConversionContext class constructor
+     *
+     * @param subjectBase molecule subject base for 'iri' subject type
+     * @param out         output of formats written to a single stream
+     */
+    ConversionContext(String subjectBase, PrintStream out) {
+        this(subjectBase, out, DatabaseLinks.builtIn());
+    }
+
+    /**
+     * ConversionContext class constructor
+     *
+     * @param subjectBase molecule subject base for 'iri' subject type
+     * @param out         output of formats written to a single stream
+     * @param links       URL templates of database links
+     */
+    ConversionContext(String subjectBase, PrintStream out, DatabaseLinks links) {
+        this(subjectBase, out, links, DEFAULT_CYPHER_ROWS);
+    }
+
+    /**
+     * ConversionContext class constructor
+     *
+     * @param subjectBase molecule subject base for 'iri' subject type
+     * @param out         output of formats written to a single stream
+     * @param links       URL templates of database links
+     * @param cypherRows  maximum number of atoms and bonds in one Cypher
+     *                    statement, 0 if no limit
+     */
+    ConversionContext(String subjectBase, PrintStream out, DatabaseLinks links, int cypherRows) {
+        if (cypherRows < 0) {
+            throw new IllegalArgumentException("Cypher statement rows can't be negative");
+        }
+        this.subjectBase = subjectBase;
+        this.out = out;
+        this.links = links;
+        this.cypherRows = cypherRows;
+    }
+
+    /**
+     * Create incremental ID
+     *
+     * @return next molecule ID of the job
+     */
+    String createID() {
+        return String.valueOf(idCounter.getAndIncrement());
+    }
+}
@@ -0,0 +1,275 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2017-2019 Łukasz Szeremeta.
+ * Copyright 2018-2019 Dominik Tomaszuk.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package pl.edu.uwb.ii.sdfeater;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.apache.commons.cli.*;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.lang.reflect.Method;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Conversion server for serve mode
+ * <p>
+ * {@code POST /convert?format=<format>[&subject=<type>][&base=<iri>]} converts
+ * the SDF request body and streams the result back with chunked transfer
+ * encoding, molecule by molecule. Each request runs on its own virtual
+ * thread on Java 21 and above, or on a pooled thread otherwise; the number of
+ * conversions running at the same time is limited, and requests waiting too
+ * long for a free slot get 503. {@code GET /health} returns 200.
+ */
+class ConversionServer {
+
+    /**
+     * How long a request waits for a free conversion slot
+     */
+    private static final long QUEUE_TIMEOUT_SECONDS = 30;
+
+    private final HttpServer server;
+    private final ExecutorService executor;
+    private final Semaphore conversions;
+
+    /**
+     * ConversionServer class constructor
+     *
+     * @param address        address to listen on
+     * @param maxConversions maximum number of conversions running at the same time
+     * @throws IOException if address can't be bound
+     */
+    ConversionServer(InetSocketAddress address, int maxConversions) throws IOException {
+        conversions = new Semaphore(maxConversions);
+        executor = newExecutor();
+        server = HttpServer.create(address, 0);
+        server.createContext("/convert", this::convert);
+        server.createContext("/health", exchange -> respond(exchange, 200, "OK"));
+        server.setExecutor(executor);
+    }
+
+    /**
+     * Executor with one virtual thread per task if available (Java 21+),
+     * otherwise with pooled daemon threads
+     *
+     * @return request executor
+     */
+    private static ExecutorService newExecutor() {
+        try {
+            Method virtual = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return (ExecutorService) virtual.invoke(null);
+        } catch (ReflectiveOperationException e) {
+            return Executors.newCachedThreadPool(task -> {
+                Thread thread = new Thread(task, "SDFEater-request");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+    }
+
+    void start() {
+        server.start();
+    }
+
+    /**
+     * Stop accepting requests and wait for running ones
+     *
+     * @param delaySeconds maximum time to wait for running requests
+     */
+    void stop(int delaySeconds) {
+        server.stop(delaySeconds);
+        executor.shutdown();
+    }
+
+    /**
+     * @return port the server listens on
+     */
+    int getPort() {
+        return server.getAddress().getPort();
+    }
+
+    /**
+     * Handle conversion request
+     *
+     * @param exchange HTTP exchange
+     * @throws IOException on network error
+     */
+    private void convert(HttpExchange exchange) throws IOException {
+        try {
+            if (!"POST".equals(exchange.getRequestMethod())) {
+                exchange.getResponseHeaders().set("Allow", "POST");
+                respond(exchange, 405, "Use POST with SDF file as request body");
+                return;
+            }
+            Map<String, String> parameters = parseQuery(exchange.getRequestURI().getRawQuery());
+            SDFEater.Format format;
+            SDFEater.Subject subject;
+            try {
+                format = SDFEater.Format.valueOf(parameters.getOrDefault("format", ""));
+                subject = SDFEater.Subject.valueOf(parameters.getOrDefault("subject", SDFEater.Subject.iri.name()));
+            } catch (IllegalArgumentException e) {
+                respond(exchange, 400, "Incorrect format or subject parameter");
+                return;
+            }
+            if (!conversions.tryAcquire(QUEUE_TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
+                exchange.getResponseHeaders().set("Retry-After", "1");
+                respond(exchange, 503, "Too many conversions");
+                return;
+            }
+            try {
+                exchange.getResponseHeaders().set("Content-Type", contentType(format));
+                exchange.sendResponseHeaders(200, 0);
+                try (SdfReader reader = new SdfReader(exchange.getRequestBody());
+                     MoleculeWriter writer = new MoleculeWriter(format.name(), subject.name(), parameters.get("base"), exchange.getResponseBody())) {
+                    while (true) {
+                        MoleculeView molecule;
+                        try {
+                            molecule = reader.read();
+                        } catch (IllegalArgumentException e) {
+                            System.err.println("Skipped record: " + e.getMessage());
+                            continue;
+                        }
+                        if (molecule == null) {
+                            break;
+                        }
+                        writer.write(molecule);
+                    }
+                }
+            } finally {
+                conversions.release();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            respond(exchange, 503, "Server is stopping");
+        } finally {
+            exchange.close();
+        }
+    }
+
+    /**
+     * Send short plain text response
+     */
+    private static void respond(HttpExchange exchange, int status, String message) throws IOException {
+        byte[] body = (message + "\n").getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=utf-8");
+        exchange.sendResponseHeaders(status, body.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(body);
+        }
+    }
+
+    /**
+     * Parse URL query parameters
+     *
+     * @param query raw query, may be null
+     * @return parameter values by name
+     */
+    static Map<String, String> parseQuery(String query) throws UnsupportedEncodingException {
+        Map<String, String> parameters = new HashMap<>();
+        if (query == null) {
+            return parameters;
+        }
+        for (String pair : query.split("&")) {
+            int eq = pair.indexOf('=');
+            String name = eq < 0 ? pair : pair.substring(0, eq);
+            String value = eq < 0 ? "" : pair.substring(eq + 1);
+            parameters.put(URLDecoder.decode(name, "UTF-8"), URLDecoder.decode(value, "UTF-8"));
+        }
+        return parameters;
+    }
+
+    /**
+     * @param format output format
+     * @return media type of format output
+     */
+    static String contentType(SDFEater.Format format) {
+        switch (format) {
+            case turtle:
+                return "text/turtle; charset=utf-8";
+            case ntriples:
+                return "application/n-triples; charset=utf-8";
+            case nquads:
+                return "application/n-quads; charset=utf-8";
+            case rdfxml:
+                return "application/rdf+xml; charset=utf-8";
+            case rdfthrift:
+                return "application/rdf+thrift";
+            case jsonld:
+                return "application/ld+json; charset=utf-8";
+            case ndjson:
+            case ndjsonfull:
+                return "application/x-ndjson; charset=utf-8";
+            case jsonldhtml:
+            case rdfa:
+            case microdata:
+                return "text/html; charset=utf-8";
+            default:
+                return "text/plain; charset=utf-8";
+        }
+    }
+
+    /**
+     * Run serve mode
+     *
+     * @param args serve mode command line arguments
+     */
+    static void serve(String[] args) {
+        Options options = new Options();
+        Option host = new Option(null, "host", true, "address to listen on (127.0.0.1 by default)");
+        host.setRequired(false);
+        options.addOption(host);
+        Option port = new Option("p", "port", true, "port to listen on (8080 by default)");
+        port.setRequired(false);
+        options.addOption(port);
+        Option maxConversions = new Option(null, "max-conversions", true, "maximum number of conversions running at the same time (number of processors by default)");
+        maxConversions.setRequired(false);
+        options.addOption(maxConversions);
+        HelpFormatter formatter = new HelpFormatter();
+        try {
+            CommandLine cmd = new DefaultParser().parse(options, args);
+            ConversionServer server = new ConversionServer(
+                    new InetSocketAddress(cmd.getOptionValue("host", "127.0.0.1"), Integer.parseInt(cmd.getOptionValue("port", "8080"))),
+                    Integer.parseInt(cmd.getOptionValue("max-conversions", String.valueOf(Runtime.getRuntime().availableProcessors()))));
+            server.start();
+            Runtime.getRuntime().addShutdownHook(new Thread(() -> server.stop(5)));
+            System.err.println("SDFEater listening on http://" + cmd.getOptionValue("host", "127.0.0.1") + ":" + server.getPort() + "/convert");
+        } catch (IllegalArgumentException | ParseException e) {
+            System.err.println("Incorrect option selected" + (e.getMessage() != null ? ": " + e.getMessage() : ""));
+            formatter.printHelp("SDFEater.jar serve", options);
+        } catch (IOException e) {
+            System.err.println("Error: " + e.getMessage());
+            System.exit(2);
+        }
+    }
+}
@@ -0,0 +1,309 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2017-2019 Łukasz Szeremeta.
+ * Copyright 2018-2019 Dominik Tomaszuk.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package pl.edu.uwb.ii.sdfeater;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Registry of URL templates turning SDF property values into links to
+ * database pages
+ * <p>
+ * Templates are JSON: {@code links} are used by formats writing database
+ * links (cypheru, cypherup, cvme), {@code urls} by the schema.org
+ * {@code url} property of other formats. Each SDF property maps to a URL
+ * with a {@code {value}} placeholder, or to an object (or array of objects,
+ * the first matching is used) with {@code url} and optional {@code prefix}
+ * (values must start with it; it is cut off), {@code space} (replacement of
+ * spaces in value) and {@code property} (name under which links are
+ * stored). Values matching no template are stored unchanged.
+ * <p>
+ * Built-in templates are read from database_links.json; a user file adds
+ * templates or replaces built-in ones of the same SDF properties, so a new
+ * database needs no code change.
+ */
+class DatabaseLinks {
+
+    private final Map<String, Link> links;
+    private final Map<String, Link> urls;
+
+    private DatabaseLinks(Map<String, Link> links, Map<String, Link> urls) {
+        this.links = links;
+        this.urls = urls;
+    }
+
+    /**
+     * Get built-in templates
+     *
+     * @return built-in templates, shared by all conversions
+     */
+    static DatabaseLinks builtIn() {
+        return BuiltIn.LINKS;
+    }
+
+    /**
+     * Load user templates over built-in ones
+     *
+     * @param file JSON file with templates
+     * @return built-in templates with user templates added or replacing them
+     * @throws IOException if file can't be read
+     */
+    static DatabaseLinks load(Path file) throws IOException {
+        DatabaseLinks builtIn = builtIn();
+        Map<String, Link> links = new HashMap<>(builtIn.links);
+        Map<String, Link> urls = new HashMap<>(builtIn.urls);
+        try (Reader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            read(reader, links, urls);
+        }
+        return new DatabaseLinks(links, urls);
+    }
+
+    /**
+     * Get template of database links of property; resolved once per property
+     * and applied to each of its values
+     *
+     * @param property SDF property name
+     * @return template of links, null if values of property aren't links
+     */
+    Link link(String property) {
+        return links.get(property);
+    }
+
+    /**
+     * Get schema.org url of property value
+     *
+     * @param property SDF property name
+     * @param value    SDF property value
+     * @return URL of database page, or value if property has no template
+     */
+    String url(String property, String value) {
+        Link url = urls.get(property);
+        if (url == null) {
+            return value;
+        }
+        Template template = url.match(value);
+        return template != null ? template.apply(value) : value;
+    }
+
+    private static void read(Reader reader, Map<String, Link> links, Map<String, Link> urls) {
+        JsonElement root = JsonParser.parseReader(reader);
+        if (!root.isJsonObject()) {
+            throw new IllegalArgumentException("database links must be a JSON object");
+        }
+        readSection(root.getAsJsonObject().get("links"), links);
+        readSection(root.getAsJsonObject().get("urls"), urls);
+    }
+
+    private static void readSection(JsonElement section, Map<String, Link> templates) {
+        if (section == null) {
+            return;
+        }
+        for (Map.Entry<String, JsonElement> entry : section.getAsJsonObject().entrySet()) {
+            List<Template> list = new ArrayList<>();
+            if (entry.getValue().isJsonArray()) {
+                JsonArray array = entry.getValue().getAsJsonArray();
+                for (JsonElement template : array) {
+                    list.add(Template.of(entry.getKey(), template));
+                }
+            } else {
+                list.add(Template.of(entry.getKey(), entry.getValue()));
+            }
+            templates.put(entry.getKey(), new Link(list.toArray(new Template[0])));
+        }
+    }
+
+    /**
+     * Built-in templates; loaded on first use
+     */
+    private static final class BuiltIn {
+        static final DatabaseLinks LINKS = loadBuiltIn();
+
+        private static DatabaseLinks loadBuiltIn() {
+            Map<String, Link> links = new HashMap<>();
+            Map<String, Link> urls = new HashMap<>();
+            try (Reader reader = new InputStreamReader(DatabaseLinks.class.getResourceAsStream("database_links.json"), StandardCharsets.UTF_8)) {
+                read(reader, links, urls);
+            } catch (IOException e) {
+                throw new IllegalStateException("can't read built-in database links", e);
+            }
+            return new DatabaseLinks(Collections.unmodifiableMap(links), Collections.unmodifiableMap(urls));
+        }
+    }
+
+    /**
+     * Templates of one SDF property
+     */
+    static final class Link {
+        private final Template[] templates;
+        private final boolean renames;
+
+        private Link(Template[] templates) {
+            this.templates = templates;
+            boolean renames = false;
+            for (Template template : templates) {
+                renames |= template.property != null;
+            }
+            this.renames = renames;
+        }
+
+        /**
+         * Get first template matching value
+         *
+         * @param value SDF property value
+         * @return template, null if value is written unchanged
+         */
+        Template match(String value) {
+            for (Template template : templates) {
+                if (value.startsWith(template.prefix)) {
+                    return template;
+                }
+            }
+            return null;
+        }
+
+        /**
+         * @return true if some values are written under another property name
+         */
+        boolean renames() {
+            return renames;
+        }
+
+        /**
+         * Get name under which value is written
+         *
+         * @param property SDF property name
+         * @param value    SDF property value
+         * @return property name of matching template, or SDF property name
+         */
+        String property(String property, String value) {
+            Template template = match(value);
+            return template != null && template.property != null ? template.property : property;
+        }
+
+        /**
+         * Get link of value
+         *
+         * @param value SDF property value
+         * @return URL of first matching template, or value if none matches
+         */
+        String apply(String value) {
+            Template template = match(value);
+            return template != null ? template.apply(value) : value;
+        }
+    }
+
+    /**
+     * URL template split around its value placeholder
+     */
+    static final class Template {
+        private final String head;
+        private final String tail;
+        private final String prefix;
+        private final String space;
+        private final String property;
+
+        private Template(String url, String prefix, String space, String property) {
+            int value = url.indexOf("{value}");
+            if (value < 0) {
+                throw new IllegalArgumentException("URL template without {value}: " + url);
+            }
+            this.head = url.substring(0, value);
+            this.tail = url.substring(value + "{value}".length());
+            this.prefix = prefix;
+            this.space = space;
+            this.property = property;
+        }
+
+        private static Template of(String key, JsonElement element) {
+            if (element.isJsonPrimitive()) {
+                return new Template(element.getAsString(), "", null, null);
+            }
+            if (!element.isJsonObject() || !element.getAsJsonObject().has("url")) {
+                throw new IllegalArgumentException("database link of " + key + " needs url");
+            }
+            JsonObject object = element.getAsJsonObject();
+            return new Template(object.get("url").getAsString(), object.has("prefix") ? object.get("prefix").getAsString() : "",
+                    object.has("space") ? object.get("space").getAsString() : null,
+                    object.has("property") ? object.get("property").getAsString() : null);
+        }
+
+        /**
+         * Get link of value
+         *
+         * @param value SDF property value matching this template
+         * @return URL
+         */
+        String apply(String value) {
+            return appendTo(new StringBuilder(head.length() + value.length() - prefix.length() + tail.length()), value).toString();
+        }
+
+        /**
+         * Append link of value, so emitters write it without building the URL string
+         *
+         * @param out   output buffer
+         * @param value SDF property value matching this template
+         * @return output buffer
+         */
+        StringBuilder appendTo(StringBuilder out, String value) {
+            out.append(head);
+            int from = prefix.length();
+            if (space == null) {
+                out.append(value, from, value.length());
+            } else {
+                for (int i = from; i < value.length(); i++) {
+                    char c = value.charAt(i);
+                    if (c == ' ') {
+                        out.append(space);
+                    } else {
+                        out.append(c);
+                    }
+                }
+            }
+            return out.append(tail);
+        }
+
+        /**
+         * @return true if link of some value could be a number, as when
+         * template is only the value
+         */
+        boolean mayBeNumber() {
+            return head.matches("[-.\\d]*") && tail.matches("[-.\\d]*");
+        }
+    }
+}
@@ -0,0 +1,337 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2017-2019 Łukasz Szeremeta.
+ * Copyright 2018-2019 Dominik Tomaszuk.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package pl.edu.uwb.ii.sdfeater;
+
+import org.apache.commons.cli.*;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+import static java.nio.file.StandardWatchEventKinds.*;
+
+/**
+ * Watch mode: converts SDF files dropped into a directory
+ * <p>
+ * A file is taken when it didn't change for the debounce time or, with a
+ * marker suffix, when the marker file (e.g. {@code file.sdf.ready}) appears,
+ * so writers that can't write atomically can signal completion. Files are
+ * converted by a fixed pool of workers in the same warm JVM; the output is
+ * written under a temporary name and renamed when complete. The input is then
+ * moved to {@code done}, or to {@code failed} together with an error
+ * description. On exit, files being converted are finished; files whose
+ * conversion was cut short stay in the directory and their partial outputs
+ * are deleted at the next start.
+ */
+class DirectoryWatcher {
+
+    /**
+     * Time given to conversions in progress when the JVM exits
+     */
+    static final long SHUTDOWN_MILLIS = 60000;
+
+    private final Path directory;
+    private final Path output;
+    private final Path done;
+    private final Path failed;
+    private final SDFEater.Format format;
+    private final SDFEater.Subject subject;
+    private final String subjectBase;
+    private final long debounceMillis;
+    private final String marker;
+    private final ExecutorService workers;
+    /**
+     * Time of last change of files waiting for the debounce time
+     */
+    private final Map<Path, Long> pending = new HashMap<>();
+    /**
+     * Files submitted to workers and not finished yet
+     */
+    private final Set<Path> converting = ConcurrentHashMap.newKeySet();
+    private volatile boolean running = true;
+
+    /**
+     * DirectoryWatcher class constructor
+     *
+     * @param directory      watched directory
+     * @param output         output directory
+     * @param format         output format
+     * @param subject        subject type
+     * @param subjectBase    molecule subject base for iri subject type, null for default
+     * @param workers        number of files converted at the same time
+     * @param debounceMillis time without changes after which a file is complete
+     * @param marker         suffix of completion marker files, null to use debounce only
+     * @throws IOException if directories can't be created
+     */
+    DirectoryWatcher(Path directory, Path output, SDFEater.Format format, SDFEater.Subject subject, String subjectBase,
+                     int workers, long debounceMillis, String marker) throws IOException {
+        this.directory = directory;
+        this.output = Files.createDirectories(output);
+        this.done = Files.createDirectories(directory.resolve("done"));
+        this.failed = Files.createDirectories(directory.resolve("failed"));
+        this.format = format;
+        this.subject = subject;
+        this.subjectBase = subjectBase;
+        this.debounceMillis = debounceMillis;
+        this.marker = marker;
+        this.workers = Executors.newFixedThreadPool(workers);
+    }
+
+    /**
+     * Watch directory until {@link #stop()} is called; files already in the
+     * directory are converted too
+     *
+     * @throws IOException if directory can't be watched
+     */
+    void run() throws IOException {
+        // outputs of conversions cut short by previous exit
+        try (DirectoryStream<Path> parts = Files.newDirectoryStream(output, "*.part")) {
+            for (Path part : parts) {
+                Files.deleteIfExists(part);
+            }
+        }
+        try (WatchService watcher = directory.getFileSystem().newWatchService()) {
+            directory.register(watcher, ENTRY_CREATE, ENTRY_MODIFY);
+            try (DirectoryStream<Path> files = Files.newDirectoryStream(directory)) {
+                for (Path file : files) {
+                    changed(file.getFileName());
+                }
+            }
+            while (running) {
+                WatchKey key;
+                try {
+                    key = watcher.poll(Math.max(10, debounceMillis / 4), TimeUnit.MILLISECONDS);
+                } catch (InterruptedException e) {
+                    break;
+                }
+                if (key != null) {
+                    for (WatchEvent<?> event : key.pollEvents()) {
+                        if (event.kind() != OVERFLOW) {
+                            changed((Path) event.context());
+                        }
+                    }
+                    key.reset();
+                }
+                submitReady();
+            }
+        } finally {
+            workers.shutdown();
+        }
+    }
+
+    /**
+     * Stop watching; files being converted are finished, files waiting for a
+     * worker are left for the next start
+     */
+    void stop() {
+        running = false;
+    }
+
+    /**
+     * Wait for conversions started before {@link #stop()}
+     *
+     * @param timeoutMillis maximum wait time
+     * @return true if all conversions finished
+     * @throws InterruptedException if interrupted while waiting
+     */
+    boolean awaitTermination(long timeoutMillis) throws InterruptedException {
+        return workers.awaitTermination(timeoutMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Note change of a directory entry
+     *
+     * @param name entry name
+     */
+    private void changed(Path name) {
+        String fileName = name.toString();
+        if (marker != null) {
+            if (fileName.endsWith(".sdf" + marker)) {
+                pending.put(directory.resolve(fileName.substring(0, fileName.length() - marker.length())), 0L);
+            } else if (fileName.endsWith(".sdf") && Files.exists(directory.resolve(fileName + marker))) {
+                // data file shown after its marker
+                pending.put(directory.resolve(name), 0L);
+            }
+        } else if (fileName.endsWith(".sdf")) {
+            pending.put(directory.resolve(name), System.currentTimeMillis());
+        }
+    }
+
+    /**
+     * Submit files which didn't change for the debounce time, or whose
+     * markers appeared; a marker waits until its data file is visible
+     */
+    private void submitReady() {
+        long now = System.currentTimeMillis();
+        Iterator<Map.Entry<Path, Long>> entries = pending.entrySet().iterator();
+        while (entries.hasNext()) {
+            Map.Entry<Path, Long> entry = entries.next();
+            if (now - entry.getValue() < debounceMillis) {
+                continue;
+            }
+            Path file = entry.getKey();
+            boolean exists = Files.isRegularFile(file);
+            if (!exists && marker != null && Files.exists(directory.resolve(file.getFileName() + marker))) {
+                continue;
+            }
+            entries.remove();
+            if (exists && converting.add(file)) {
+                workers.execute(() -> {
+                    try {
+                        if (running) {
+                            convert(file);
+                        }
+                    } finally {
+                        converting.remove(file);
+                    }
+                });
+            }
+        }
+    }
+
+    /**
+     * Convert one file and move it to done or failed directory
+     *
+     * @param file SDF file
+     */
+    private void convert(Path file) {
+        String name = file.getFileName().toString();
+        String baseName = name.substring(0, name.length() - ".sdf".length());
+        Path target = output.resolve(baseName + "." + format.extension());
+        Path partial = output.resolve(baseName + "." + format.extension() + ".part");
+        long skipped = 0;
+        try {
+            try (SdfReader reader = SdfReader.open(file);
+                 OutputStream out = Files.newOutputStream(partial);
+                 MoleculeWriter writer = new MoleculeWriter(format.name(), subject.name(), subjectBase, out)) {
+                while (true) {
+                    MoleculeView molecule;
+                    try {
+                        molecule = reader.read();
+                    } catch (IllegalArgumentException e) {
+                        System.err.println(name + ": skipped record: " + e.getMessage());
+                        skipped++;
+                        continue;
+                    }
+                    if (molecule == null) {
+                        break;
+                    }
+                    writer.write(molecule);
+                }
+            }
+            Files.move(partial, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            Files.move(file, done.resolve(name), StandardCopyOption.REPLACE_EXISTING);
+            System.err.println(name + ": converted to " + target + (skipped > 0 ? ", " + skipped + " records skipped" : ""));
+        } catch (IOException | RuntimeException e) {
+            System.err.println(name + ": conversion failed: " + e);
+            try {
+                Files.deleteIfExists(partial);
+                Files.move(file, failed.resolve(name), StandardCopyOption.REPLACE_EXISTING);
+                try (PrintWriter error = new PrintWriter(Files.newBufferedWriter(failed.resolve(name + ".error"), StandardCharsets.UTF_8))) {
+                    e.printStackTrace(error);
+                }
+            } catch (IOException moveError) {
+                System.err.println(name + ": can't be moved to " + failed + ": " + moveError);
+            }
+        } finally {
+            if (marker != null) {
+                try {
+                    Files.deleteIfExists(directory.resolve(name + marker));
+                } catch (IOException e) {
+                    System.err.println(name + ": can't delete marker: " + e);
+                }
+            }
+        }
+    }
+
+    /**
+     * Run watch mode
+     *
+     * @param args watch mode command line arguments
+     */
+    static void watch(String[] args) {
+        Options options = new Options();
+        Option directory = new Option("d", "directory", true, "directory to watch for SDF files");
+        directory.setRequired(true);
+        options.addOption(directory);
+        Option formatarg = new Option("f", "format", true, "output format");
+        formatarg.setRequired(true);
+        options.addOption(formatarg);
+        Option output = new Option("o", "output", true, "output directory ('output' in watched directory by default)");
+        output.setRequired(false);
+        options.addOption(output);
+        Option subject = new Option("s", "subject", true, "subject type (iri, uuid, bnode; iri by default)");
+        subject.setRequired(false);
+        options.addOption(subject);
+        Option base = new Option("b", "base", true, "molecule subject base for 'iri' subject type");
+        base.setRequired(false);
+        options.addOption(base);
+        Option workers = new Option(null, "workers", true, "number of files converted at the same time (number of processors by default)");
+        workers.setRequired(false);
+        options.addOption(workers);
+        Option debounce = new Option(null, "debounce", true, "milliseconds without changes after which a file is complete (2000 by default)");
+        debounce.setRequired(false);
+        options.addOption(debounce);
+        Option marker = new Option(null, "marker", true, "suffix of completion marker files, e.g. '.ready' to convert file.sdf when file.sdf.ready appears");
+        marker.setRequired(false);
+        options.addOption(marker);
+        HelpFormatter formatter = new HelpFormatter();
+        try {
+            CommandLine cmd = new DefaultParser().parse(options, args);
+            Path dir = Paths.get(cmd.getOptionValue("directory"));
+            DirectoryWatcher watcher = new DirectoryWatcher(dir,
+                    Paths.get(cmd.getOptionValue("output", dir.resolve("output").toString())),
+                    SDFEater.Format.valueOf(cmd.getOptionValue("format")),
+                    SDFEater.Subject.valueOf(cmd.getOptionValue("subject", SDFEater.Subject.iri.name())),
+                    cmd.getOptionValue("base"),
+                    Integer.parseInt(cmd.getOptionValue("workers", String.valueOf(Runtime.getRuntime().availableProcessors()))),
+                    Long.parseLong(cmd.getOptionValue("debounce", "2000")),
+                    cmd.getOptionValue("marker"));
+            // on Ctrl-C or SIGTERM, let workers finish their files before the JVM exits
+            Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+                watcher.stop();
+                try {
+                    if (!watcher.awaitTermination(SHUTDOWN_MILLIS)) {
+                        System.err.println("SDFEater stopped before conversions finished; they are repeated at the next start");
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }));
+            System.err.println("SDFEater watching " + dir.toAbsolutePath());
+            watcher.run();
+        } catch (IllegalArgumentException | ParseException e) {
+            System.err.println("Incorrect option selected" + (e.getMessage() != null ? ": " + e.getMessage() : ""));
+            formatter.printHelp("SDFEater.jar watch", options);
+        } catch (IOException e) {
+            System.err.println("Error: " + e.getMessage());
+            System.exit(2);
+        }
+    }
+}
@@ -0,0 +1,289 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2017-2019 Łukasz Szeremeta.
+ * Copyright 2018-2019 Dominik Tomaszuk.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package pl.edu.uwb.ii.sdfeater;
+
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Cross-record duplicate detection by property value (e.g. InChIKey)
+ * <p>
+ * Keys are reduced to 128-bit fingerprints and kept in an off-heap open
+ * addressing set, split into independently locked stripes so that concurrent
+ * callers never contend on a single lock. When a stripe would outgrow its share
+ * of the memory budget, its fingerprints are folded into an off-heap Bloom
+ * filter of the same size and the stripe continues probabilistically: it never
+ * lets a duplicate through, but may drop a small fraction of unique records.
+ */
+class DuplicateFilter {
+
+    /**
+     * Number of stripes (power of two)
+     */
+    private static final int STRIPES = 64;
+
+    /**
+     * Bytes per fingerprint slot
+     */
+    private static final int SLOT = 16;
+
+    /**
+     * Initial slots per stripe (power of two)
+     */
+    private static final int INITIAL_SLOTS = 1024;
+
+    /**
+     * Bloom filter hash functions
+     */
+    private static final int BLOOM_HASHES = 7;
+
+    /**
+     * Property used as record key
+     */
+    private final String property;
+
+    private final Stripe[] stripes = new Stripe[STRIPES];
+
+    private final LongAdder duplicates = new LongAdder();
+
+    /**
+     * DuplicateFilter class constructor
+     *
+     * @param property    property name used as record key
+     * @param memoryBytes memory budget for all stripes in bytes
+     */
+    DuplicateFilter(String property, long memoryBytes) {
+        this.property = property;
+        long stripeBytes = Math.max(memoryBytes / STRIPES, (long) INITIAL_SLOTS * SLOT);
+        for (int i = 0; i < STRIPES; i++) {
+            stripes[i] = new Stripe(stripeBytes);
+        }
+    }
+
+    /**
+     * Compute 64-bit hash of String with seed (FNV-1a with MurmurHash3 finalizer)
+     *
+     * @param s    String to hash
+     * @param seed hash seed
+     * @return 64-bit hash
+     */
+    static long hash(String s, long seed) {
+        long h = 0xcbf29ce484222325L ^ seed;
+        for (int i = 0; i < s.length(); i++) {
+            h ^= s.charAt(i);
+            h *= 0x100000001b3L;
+        }
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+
+    /**
+     * Check if molecule key was already seen and remember it
+     *
+     * @param molecule molecule to check
+     * @return true if molecule key was seen before, false if it's new or molecule has no key
+     */
+    boolean isDuplicate(Molecule molecule) {
+        List<String> values = molecule.getPropertiesByName(property);
+        if (values == null || values.isEmpty()) {
+            return false;
+        }
+        return isDuplicate(values.get(0));
+    }
+
+    /**
+     * Check if key was already seen and remember it
+     *
+     * @param key key to check
+     * @return true if key was seen before
+     */
+    boolean isDuplicate(String key) {
+        long h1 = hash(key, 0L);
+        long h2 = hash(key, 0x9e3779b97f4a7c15L);
+        if (h1 == 0 && h2 == 0) {
+            h1 = 1;  // (0, 0) marks empty slot
+        }
+        boolean duplicate = !stripes[(int) (h2 >>> 58) & (STRIPES - 1)].add(h1, h2);
+        if (duplicate) {
+            duplicates.increment();
+        }
+        return duplicate;
+    }
+
+    /**
+     * @return property used as record key
+     */
+    String getProperty() {
+        return property;
+    }
+
+    /**
+     * @return number of records recognized as duplicates
+     */
+    long getDuplicates() {
+        return duplicates.sum();
+    }
+
+    /**
+     * @return true if any stripe switched to probabilistic mode
+     */
+    boolean isApproximate() {
+        for (Stripe stripe : stripes) {
+            if (stripe.isApproximate()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Print duplicates summary to stderr
+     */
+    void printSummary() {
+        System.err.println("Duplicates removed (" + property + "): " + getDuplicates()
+                + (isApproximate() ? " (memory budget exceeded, probabilistic filter used)" : ""));
+    }
+
+    /**
+     * Single independently locked part of the set
+     */
+    private static final class Stripe {
+
+        private final long maxBytes;
+        private ByteBuffer table = ByteBuffer.allocateDirect(INITIAL_SLOTS * SLOT);
+        private int mask = INITIAL_SLOTS - 1;
+        private int size;
+        private ByteBuffer bloom;
+        private long bloomMask;
+
+        Stripe(long maxBytes) {
+            this.maxBytes = maxBytes;
+        }
+
+        synchronized boolean isApproximate() {
+            return bloom != null;
+        }
+
+        /**
+         * Add fingerprint
+         *
+         * @return true if fingerprint was not present
+         */
+        synchronized boolean add(long h1, long h2) {
+            if (bloom != null) {
+                return bloomAdd(h1, h2);
+            }
+            int slot = (int) h1 & mask;
+            while (true) {
+                long s1 = table.getLong(slot * SLOT);
+                long s2 = table.getLong(slot * SLOT + 8);
+                if (s1 == 0 && s2 == 0) {
+                    break;
+                }
+                if (s1 == h1 && s2 == h2) {
+                    return false;
+                }
+                slot = (slot + 1) & mask;
+            }
+            if ((size + 1) * 2L > mask + 1) {
+                if ((mask + 1) * 2L * SLOT <= maxBytes) {
+                    resize();
+                } else {
+                    switchToBloom();
+                    return bloomAdd(h1, h2);
+                }
+                slot = (int) h1 & mask;
+                while (table.getLong(slot * SLOT) != 0 || table.getLong(slot * SLOT + 8) != 0) {
+                    slot = (slot + 1) & mask;
+                }
+            }
+            table.putLong(slot * SLOT, h1);
+            table.putLong(slot * SLOT + 8, h2);
+            size++;
+            return true;
+        }
+
+        private void resize() {
+            ByteBuffer old = table;
+            int oldSlots = mask + 1;
+            table = ByteBuffer.allocateDirect(oldSlots * 2 * SLOT);
+            mask = oldSlots * 2 - 1;
+            for (int i = 0; i < oldSlots; i++) {
+                long s1 = old.getLong(i * SLOT);
+                long s2 = old.getLong(i * SLOT + 8);
+                if (s1 != 0 || s2 != 0) {
+                    int slot = (int) s1 & mask;
+                    while (table.getLong(slot * SLOT) != 0 || table.getLong(slot * SLOT + 8) != 0) {
+                        slot = (slot + 1) & mask;
+                    }
+                    table.putLong(slot * SLOT, s1);
+                    table.putLong(slot * SLOT + 8, s2);
+                }
+            }
+        }
+
+        /**
+         * Fold exact fingerprints into Bloom filter taking the whole stripe budget
+         */
+        private void switchToBloom() {
+            long bits = Long.highestOneBit(Math.min(maxBytes, Integer.MAX_VALUE) * 8);
+            bloom = ByteBuffer.allocateDirect((int) (bits / 8));
+            bloomMask = bits - 1;
+            for (int i = 0; i <= mask; i++) {
+                long s1 = table.getLong(i * SLOT);
+                long s2 = table.getLong(i * SLOT + 8);
+                if (s1 != 0 || s2 != 0) {
+                    bloomAdd(s1, s2);
+                }
+            }
+            table = null;
+        }
+
+        /**
+         * Kirsch-Mitzenmacher double hashing over the Bloom bit array
+         *
+         * @return true if at least one bit was not set before
+         */
+        private boolean bloomAdd(long h1, long h2) {
+            boolean added = false;
+            for (int i = 0; i < BLOOM_HASHES; i++) {
+                long bit = (h1 + i * h2) & bloomMask;
+                int index = (int) (bit >>> 3);
+                byte b = bloom.get(index);
+                byte m = (byte) (1 << (bit & 7));
+                if ((b & m) == 0) {
+                    bloom.put(index, (byte) (b | m));
+                    added = true;
+                }
+            }
+            return added;
+        }
+    }
+}
@@ -24,13 +24,20 @@
  */
 package pl.edu.uwb.ii.sdfeater;
 
-import java.io.BufferedReader;
+
 import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.InputStreamReader;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.file.Paths;
 import java.time.Year;
-
-import static pl.edu.uwb.ii.sdfeater.SDFEater.jenaModel;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
 
 /**
  * Class responsible for all file operations
@@ -45,6 +52,62 @@ class File {
      */
     private final String filename;
 
+    /**
+     * Optional cross-record duplicate filter
+     */
+    private DuplicateFilter duplicateFilter;
+
+    /**
+     * Optional record filter
+     */
+    private RecordFilter recordFilter;
+
+    /**
+     * Properties to keep (null for all) and to drop (null for none)
+     */
+    private Set<String> includedProperties, excludedProperties;
+
+    /**
+     * Conversion statistics, null if not collected
+     */
+    private Stats stats;
+
+    /**
+     * Progress report, null if disabled
+     */
+    private Progress progress;
+
+    /**
+     * Handling of records that can't be converted
+     */
+    private RecordErrors recordErrors = new RecordErrors(null, -1);
+
+    /**
+     * Manifest of previous conversion for --incremental, null to convert all records
+     */
+    private Manifest manifest;
+
+    /**
+     * Worker threads and memory budget in bytes for building Jena model
+     */
+    private int modelWorkers = ModelBuilder.DEFAULT_WORKERS;
+    private long modelMemory = ModelBuilder.defaultMemory();
+
+    /**
+     * First and last record number to convert from parse cache, null for all
+     */
+    private long[] recordRange;
+
+    /**
+     * Number of molecules of each RDFa and Microdata page, 0 to write one document
+     */
+    private int htmlPages;
+
+    /**
+     * True if JVM has JDK Flight Recorder
+     */
+    private static final boolean FLIGHT_RECORDER = hasFlightRecorder();
+
     /**
      * File class constructor
      *
@@ -54,6 +117,120 @@ class File {
         this.filename = filename;
     }
 
+    /**
+     * Drop records whose key was already seen
+     *
+     * @param duplicateFilter duplicate filter, null to keep all records
+     */
+    void setDuplicateFilter(DuplicateFilter duplicateFilter) {
+        this.duplicateFilter = duplicateFilter;
+    }
+
+    /**
+     * Keep only records matching the filter
+     *
+     * @param recordFilter record filter, null to keep all records
+     */
+    void setRecordFilter(RecordFilter recordFilter) {
+        this.recordFilter = recordFilter;
+    }
+
+    /**
+     * Keep only selected SDF properties; values of other properties are skipped
+     * without decoding or storing them
+     *
+     * @param included names of properties to keep, null to keep all
+     * @param excluded names of properties to drop, null to drop none
+     */
+    void setPropertyProjection(Set<String> included, Set<String> excluded) {
+        this.includedProperties = included;
+        this.excludedProperties = excluded;
+    }
+
+    /**
+     * Collect conversion statistics and report them after parsing
+     *
+     * @param stats statistics collector, null to disable
+     */
+    void setStats(Stats stats) {
+        this.stats = stats;
+    }
+
+    /**
+     * Report progress periodically while parsing
+     *
+     * @param progress progress report, null to disable
+     */
+    void setProgress(Progress progress) {
+        this.progress = progress;
+    }
+
+    /**
+     * Set handling of records that can't be converted; by default they are
+     * only reported to standard error
+     *
+     * @param recordErrors error handling
+     */
+    void setRecordErrors(RecordErrors recordErrors) {
+        this.recordErrors = recordErrors;
+    }
+
+    /**
+     * Convert only records added or changed since the conversion which wrote
+     * the manifest, and delete removed ones
+     *
+     * @param manifest record manifest, null to convert all records
+     */
+    void setManifest(Manifest manifest) {
+        this.manifest = manifest;
+    }
+
+    /**
+     * Set how Jena model of turtle, rdfxml and rdfthrift formats is built
+     *
+     * @param workers number of worker threads, 0 to build it in the reading thread
+     * @param memory  memory budget in bytes; graphs above it are moved to temporary files
+     */
+    void setModelBuilding(int workers, long memory) {
+        this.modelWorkers = workers;
+        this.modelMemory = memory;
+    }
+
+    /**
+     * Convert only a range of records; input must be a parse cache
+     *
+     * @param first first record number, starting with 1
+     * @param last  last record number
+     */
+    void setRecordRange(long first, long last) {
+        this.recordRange = new long[]{first, last};
+    }
+
+    /**
+     * Write RDFa and Microdata as a directory of pages with index page and
+     * sitemap, see {@link HtmlPages}; the directory is named as the output
+     * file, without extension
+     *
+     * @param moleculesPerPage number of molecules of each page, 1 for page per molecule
+     */
+    void setHtmlPages(int moleculesPerPage) {
+        if (moleculesPerPage < 1) {
+            throw new IllegalArgumentException("HTML page needs at least one molecule");
+        }
+        this.htmlPages = moleculesPerPage;
+    }
+
+    /**
+     * Check if property passes --properties and --exclude-properties lists
+     *
+     * @param name property name
+     * @return true if property may be written to the output
+     */
+    private boolean isProjected(String name) {
+        return (includedProperties == null || includedProperties.contains(name))
+                && (excludedProperties == null || !excludedProperties.contains(name));
+    }
+
     /**
      * Reads and retrieves data from the input file and then writes it to the
      * appropriate program structures
@@ -63,329 +240,772 @@ class File {
      * @param subject  Subject type
      */
     void parse(Molecule molecule, SDFEater.Format format, SDFEater.Subject subject) {
-        StringBuilder output_str = new StringBuilder();
+        parse(molecule, Collections.singletonList(format), subject, null);
+    }
+
+    /**
+     * Reads the input file once and writes it in several formats; each record
+     * is parsed once and rendered by every format
+     *
+     * @param molecule Molecule object to which values from the file will be entered
+     * @param formats  Output formats
+     * @param subject  Subject type
+     * @param output   path prefix of output files, see {@link #outputPath}; null
+     *                 to write the only format to the output of molecule context
+     */
+    void parse(Molecule molecule, List<SDFEater.Format> formats, SDFEater.Subject subject, String output) {
+        if (output == null && formats.size() != 1) {
+            throw new IllegalArgumentException("several formats need an output path");
+        }
+        FlightEvents events = FLIGHT_RECORDER ? new FlightEvents() : null;
+        if (stats != null) {
+            stats.start();
+        }
+        if (progress != null) {
+            // pipes and other special files have no known size
+            java.io.File input = new java.io.File(filename);
+            progress.start(input.isFile() ? input.length() : -1);
+        }
+        List<Target> targets = new ArrayList<>();
+        ModelBuilder model = null;
         try {
-            FileInputStream fstream = new FileInputStream(filename);
-            BufferedReader br = new BufferedReader(new InputStreamReader(fstream));
-            String strLine;
-            String pName = "";    // current property name
-            boolean molfileReady = false;
-            String[] tokens;
-
-            /* Do something BEFORE file reading */
-            switch (format) {
-                // JSON-LD with HTML
-                case jsonldhtml:
-                    output_str.append("<!DOCTYPE html>\n" +
-                            "<html lang=\"en\">\n" +
-                            "  <head>\n" +
-                            "    <title>Example Document</title>\n" +
-                            "    <script type=\"application/ld+json\">\n" +
-                            "{\n" +
-                            "  \"@graph\" : [\n" +
-                            "    {\n" +
-                            "      \"@id\": \"https://github.com/lszeremeta/SDFEater\",\n" +
-                            "      \"@type\": \"http://schema.org/Organization\",\n" +
-                            "      \"http://schema.org/name\": \"SDFEater\"\n" +
-                            "    },\n" +
-                            "    {\n" +
-                            "      \"@id\": \"#\",\n" +
-                            "      \"@type\": \"http://schema.org/Dataset\",\n" +
-                            "      \"http://schema.org/about\": {\n" +
-                            "        \"@id\": \"https://github.com/lszeremeta/SDFEater\"\n" +
-                            "      },\n" +
-                            "      \"http://schema.org/description\": \"This is a dataset of molecules generated by SDFEater.\",\n" +
-                            "      \"http://schema.org/keywords\": [\n" +
-                            "        \"molecules\",\n" +
-                            "        \"cheminformatics\",\n" +
-                            "        \"chemical compounds\"\n" +
-                            "      ],\n" +
-                            "      \"http://schema.org/license\": {\n" +
-                            "        \"@id\": \"https://creativecommons.org/licenses/by/3.0/\"\n" +
-                            "      },\n" +
-                            "      \"http://schema.org/name\": \"Molecules\",\n" +
-                            "      \"http://schema.org/creator\": {\n" +
-                            "        \"@id\": \"https://github.com/lszeremeta/SDFEater\"\n" +
-                            "      },\n" +
-                            "      \"http://schema.org/temporal\": \"" + Year.now().toString() + "\",\n" +
-                            "      \"http://schema.org/url\": \"https://github.com/lszeremeta/SDFEater\"\n" +
-                            "    },\n");
-                    break;
-                case jsonld:
-                    output_str.append(
-                            "{\n" +
-                                    "  \"@graph\" : [\n" +
-                                    "    {\n" +
-                                    "      \"@id\": \"https://github.com/lszeremeta/SDFEater\",\n" +
-                                    "      \"@type\": \"http://schema.org/Organization\",\n" +
-                                    "      \"http://schema.org/name\": \"SDFEater\"\n" +
-                                    "    },\n" +
-                                    "    {\n" +
-                                    "      \"@id\": \"#\",\n" +
-                                    "      \"@type\": \"http://schema.org/Dataset\",\n" +
-                                    "      \"http://schema.org/about\": {\n" +
-                                    "        \"@id\": \"https://github.com/lszeremeta/SDFEater\"\n" +
-                                    "      },\n" +
-                                    "      \"http://schema.org/description\": \"This is a dataset of molecules generated by SDFEater.\",\n" +
-                                    "      \"http://schema.org/keywords\": [\n" +
-                                    "        \"molecules\",\n" +
-                                    "        \"cheminformatics\",\n" +
-                                    "        \"chemical compounds\"\n" +
-                                    "      ],\n" +
-                                    "      \"http://schema.org/license\": {\n" +
-                                    "        \"@id\": \"https://creativecommons.org/licenses/by/3.0/\"\n" +
-                                    "      },\n" +
-                                    "      \"http://schema.org/name\": \"Molecules\",\n" +
-                                    "      \"http://schema.org/creator\": {\n" +
-                                    "        \"@id\": \"https://github.com/lszeremeta/SDFEater\"\n" +
-                                    "      },\n" +
-                                    "      \"http://schema.org/temporal\": \"" + Year.now().toString() + "\",\n" +
-                                    "      \"http://schema.org/url\": \"https://github.com/lszeremeta/SDFEater\"\n" +
-                                    "    },\n");
-                    break;
-                // RDFa
-                case rdfa:
-                    System.out.println("<!DOCTYPE html>");
-                    System.out.println("<html lang='en'>");
-                    System.out.println("  <head>");
-                    System.out.println("    <title>Example Document</title>");
-                    System.out.println("  </head>");
-                    System.out.println("  <body vocab='http://schema.org/'>");
-                    System.out.println("    <div typeof='schema:Dataset'>\n" +
-                            "      <div rel='schema:creator'>\n" +
-                            "        <div typeof='schema:Organization' about='https://github.com/lszeremeta/SDFEater'>\n" +
-                            "          <div property='schema:name' content='SDFEater'></div>\n" +
-                            "        </div>\n" +
-                            "      </div>\n" +
-                            "      <div property='schema:keywords' content='cheminformatics'></div>\n" +
-                            "      <div property='schema:keywords' content='molecules'></div>\n" +
-                            "      <div property='schema:keywords' content='chemical compounds'></div>\n" +
-                            "      <div property='schema:temporal' content='" + Year.now().toString() + "'></div>\n" +
-                            "      <div property='schema:name' content='Molecules'></div>\n" +
-                            "      <div rel='schema:license' resource='https://creativecommons.org/licenses/by/3.0/'></div>\n" +
-                            "      <div property='schema:description' content='This is a dataset of molecules generated by SDFEater.'></div>\n" +
-                            "      <div rel='schema:about' resource='https://github.com/lszeremeta/SDFEater'></div>\n" +
-                            "      <div property='schema:url' content='https://github.com/lszeremeta/SDFEater'></div>\n" +
-                            "    </div>");
-                    break;
-                // Microdata
-                case microdata:
-                    System.out.println("<!DOCTYPE html>");
-                    System.out.println("<html lang='en'>");
-                    System.out.println("  <head>");
-                    System.out.println("    <title>Example Document</title>");
-                    System.out.println("  </head>");
-                    System.out.println("  <body>");
-                    System.out.println("    <div itemscope itemtype='http://schema.org/Dataset'>\n" +
-                            "      <div itemprop='name' content='Molecules'></div>\n" +
-                            "      <div itemprop='keywords' content='cheminformatics'></div>\n" +
-                            "      <div itemprop='keywords' content='molecules'></div>\n" +
-                            "      <div itemprop='keywords' content='chemical compounds'></div>\n" +
-                            "      <div itemprop='temporal' content='" + Year.now().toString() + "'></div>\n" +
-                            "      <div itemprop='url' content='https://github.com/lszeremeta/SDFEater'></div>\n" +
-                            "      <div itemprop='description' content='This is a dataset of molecules generated by SDFEater.'></div>\n" +
-                            "      <div itemprop='creator' itemscope itemtype='http://schema.org/Organization'>\n" +
-                            "        <div itemprop='name' content='SDFEater'></div>\n" +
-                            "      </div>\n" +
-                            "      <div itemprop='license' content='https://creativecommons.org/licenses/by/3.0/'></div>\n" +
-                            "    </div>");
-                    break;
-                default:
+            for (SDFEater.Format format : formats) {
+                AsyncOutputStream file = null;
+                HtmlPages pages = null;
+                OutputStream measured = molecule.context.out;
+                if (htmlPages > 0 && format.html()) {
+                    if (output == null) {
+                        throw new IllegalArgumentException("HTML pages need an output path");
+                    }
+                    String path = outputPath(output, format, formats);
+                    pages = new HtmlPages(format, Paths.get(path.substring(0, path.lastIndexOf('.'))), htmlPages,
+                            molecule.context.subjectBase, HtmlPages.DEFAULT_WRITERS);
+                    measured = pages.fragments();
+                } else if (output != null) {
+                    file = new AsyncOutputStream(new FileOutputStream(outputPath(output, format, formats)), "sdfeater-writer-" + format);
+                    measured = file;
+                }
+                if (stats != null) {
+                    measured = stats.wrapOutput(measured);
+                }
+                if (events != null) {
+                    measured = events.wrapOutput(measured);
+                }
+                // formats written from Jena model share one model
+                boolean addsToModel = format.usesJenaModel() && model == null;
+                if (addsToModel) {
+                    model = new ModelBuilder(modelWorkers, modelMemory);
+                }
+                targets.add(new Target(format, subject, format.linksDatabases() ? molecule.context.links : null,
+                        format.usesJenaModel() ? model : null, addsToModel, events,
+                        measured != molecule.context.out ? new PrintStream(measured, false, "UTF-8") : molecule.context.out, file, pages));
+            }
+            convert(molecule, targets, model);
+        } catch (IOException e) {
+            System.err.println("Error while opening output: " + e.toString());
+            System.exit(2);
+        } finally {
+            for (Target target : targets) {
+                target.out.flush();
+            }
+            if (progress != null) {
+                progress.stop();
+            }
+            if (stats != null) {
+                stats.report();
+            }
+        }
+    }
+
+    /**
+     * Get path of output file of format
+     *
+     * @param output  path prefix of output files
+     * @param format  Output format
+     * @param formats all output formats
+     * @return prefix with extension of format, and with format name if other
+     * format has the same extension (e.g. chebi.cypher, chebi.cypheru.cypher)
+     */
+    static String outputPath(String output, SDFEater.Format format, List<SDFEater.Format> formats) {
+        for (SDFEater.Format other : formats) {
+            if (other != format && other.extension().equals(format.extension())) {
+                return output + "." + format.name() + "." + format.extension();
+            }
+        }
+        return output + "." + format.extension();
+    }
+
+    /**
+     * Check if JDK Flight Recorder API is available (Java 8u262 and above)
+     *
+     * @return true if jdk.jfr classes can be loaded
+     */
+    private static boolean hasFlightRecorder() {
+        try {
+            Class.forName("jdk.jfr.Event");
+            return true;
+        } catch (ClassNotFoundException | LinkageError e) {
+            return false;
+        }
+    }
+
+    /**
+     * Read atom or bond count from V2000 counts line
+     *
+     * @param line   trimmed counts line
+     * @param column first column of 3-character field
+     * @return count, -1 if line is not a V2000 counts line
+     */
+    private static int countsLineValue(String line, int column) {
+        // fixed columns are counted from the end, as leading spaces are trimmed
+        int shift = 39 - line.length();
+        if (!line.endsWith("V2000") || shift < 0) {
+            return -1;
+        }
+        try {
+            return Integer.parseInt(line.substring(Math.max(0, column - shift), Math.max(0, column + 3 - shift)).trim());
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * Convert the input file
+     *
+     * @param molecule Molecule object to which values from the file will be entered
+     * @param targets  output formats and their destinations
+     * @param model    Jena model builder shared by formats using it, null if none does
+     */
+    private void convert(Molecule molecule, List<Target> targets, ModelBuilder model) {
+        try {
+            // properties read by filters, and those of them only filters may see
+            Set<String> filterProperties = new HashSet<>();
+            if (recordFilter != null) {
+                filterProperties.addAll(recordFilter.getPropertyNames());
+            }
+            if (duplicateFilter != null) {
+                filterProperties.add(duplicateFilter.getProperty());
+            }
+            if (manifest != null) {
+                filterProperties.add(manifest.getProperty());
+            }
+            Set<String> filterOnlyProperties = new HashSet<>();
+            for (String name : filterProperties) {
+                if (!isProjected(name)) {
+                    filterOnlyProperties.add(name);
+                }
+            }
+            // properties used by any of formats, null if one of them uses all
+            Set<String> formatProperties = new HashSet<>();
+            for (Target target : targets) {
+                if (target.format.properties == null) {
+                    formatProperties = null;
                     break;
+                }
+                formatProperties.addAll(target.format.properties);
+            }
+
+            long emitStart = stats != null ? System.nanoTime() : 0;
+            for (Target target : targets) {
+                if (target.pages == null) {
+                    printHeader(target.format, target.output_str, target.out);
+                }
+            }
+            if (stats != null) {
+                stats.emit(System.nanoTime() - emitStart, false);
             }
 
-            while ((strLine = br.readLine()) != null) {
-                strLine = strLine.trim().replace("\\", "\\\\").replace("'", "\\'");
+            if (ParseCache.isCache(Paths.get(filename))) {
+                readCache(molecule, targets, formatProperties, filterProperties, filterOnlyProperties);
+            } else if (recordRange != null) {
+                throw new IOException("--records needs a parse cache written by the compile command");
+            } else {
+                readText(molecule, targets, formatProperties, filterProperties, filterOnlyProperties);
+            }
+            recordErrors.close();
+            if (manifest != null) {
+                deleteRemoved(targets);
+            }
+        } catch (IOException e) {
+            System.err.println("Error while parsing file: " + e.toString());
+            try {
+                recordErrors.close();
+                if (manifest != null) {
+                    manifest.close();
+                }
+            } catch (IOException ignored) {
+                // already failing
+            }
+            System.exit(2);
+        }
 
-                if (strLine.startsWith("END", 3)) {
-                    molfileReady = true;
-                } else if (!molfileReady && !strLine.matches("M\\s+\\w+.*")) {
-                    // TODO: V3000
+        recordErrors.printSummary();
 
-                    tokens = strLine.split("\\s+");
+        if (duplicateFilter != null) {
+            duplicateFilter.printSummary();
+        }
 
-                    if (tokens.length == 16) {
-                        molecule.atoms.add(new Atom(tokens[3], Float.parseFloat(tokens[0]), Float.parseFloat(tokens[1]), Float.parseFloat(tokens[2])));
+        long emitStart = stats != null ? System.nanoTime() : 0;
+        for (Target target : targets) {
+            if (target.pages == null) {
+                printFooter(target.format, target.output_str, target.model, target.out);
+            }
+        }
+        if (stats != null) {
+            stats.emit(System.nanoTime() - emitStart, false);
+        }
+        if (model != null) {
+            try {
+                model.close();
+            } catch (IOException e) {
+                System.err.println("Error while deleting temporary files: " + e.toString());
+            }
+        }
+        for (Target target : targets) {
+            if (target.file != null || target.pages != null) {
+                target.out.flush();
+                try {
+                    if (target.file != null) {
+                        target.file.close();
+                    } else {
+                        target.pages.close();
                     }
+                } catch (IOException e) {
+                    System.err.println("Error while writing output: " + e.toString());
+                    System.exit(2);
+                }
+            }
+        }
+    }
 
-                    // V2000, V3000; comment text exclusion
-                    if ((tokens.length == 7 && !tokens[6].startsWith("V") && isInt(tokens[0]) || tokens.length == 6 && isInt(tokens[0]))) {
-                        molecule.bonds.add(new Bond(Integer.parseInt(tokens[0]), Byte.parseByte(tokens[2]), Integer.parseInt(tokens[1]), Byte.parseByte(tokens[3])));
+    /**
+     * Check if any of formats uses atoms and bonds
+     *
+     * @param targets output formats
+     * @return true if CTAB block has to be read
+     */
+    private static boolean usesStructure(List<Target> targets) {
+        for (Target target : targets) {
+            if (target.format.structure) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Check if values of property have to be read
+     *
+     * @param name             property name
+     * @param formatProperties properties used by output formats, null if all of them
+     * @param filterProperties properties read by filters
+     * @return true if property is written or filtered on
+     */
+    private boolean isUsed(String name, Set<String> formatProperties, Set<String> filterProperties) {
+        return filterProperties.contains(name) || isProjected(name) && (formatProperties == null || formatProperties.contains(name));
+    }
+
+    /**
+     * Convert records of SDF file
+     *
+     * @param molecule             Molecule object to which values from the file will be entered
+     * @param targets              output formats and their destinations
+     * @param formatProperties     properties used by output formats, null if all of them
+     * @param filterProperties     properties read by filters
+     * @param filterOnlyProperties properties read by filters, but not written
+     * @throws IOException if file can't be read or too many records failed
+     */
+    private void readText(Molecule molecule, List<Target> targets, Set<String> formatProperties, Set<String> filterProperties,
+                          Set<String> filterOnlyProperties) throws IOException {
+        boolean structure = usesStructure(targets);
+        FlightEvents events = targets.get(0).events;
+        InputStream in = new FileInputStream(filename);
+        LineReader reader = new LineReader(stats != null ? stats.wrapInput(in) : in);
+        String pName = "";    // current property name
+        boolean molfileReady = false;
+        boolean skipRecord = false;   // filter already rejected current record
+        boolean skipProperty = false;   // current property is not used
+
+        // current record position, for errors and Flight Recorder events
+        long ordinal = 0, recordOffset = 0, recordLineNumber = 0;
+        int recordLine = 0, atomCount = -1, bondCount = -1;
+        Object recordEvent = null;
+        boolean collectRecord = recordErrors.isCollecting();
+        long recordHash = 0;
+
+        while (reader.next()) {
+            if (recordLine++ == 0) {
+                ordinal++;
+                recordOffset = reader.position();
+                recordLineNumber = reader.lineNumber();
+                recordHash = Manifest.contentHashStart();
+                if (events != null) {
+                    recordEvent = events.beginRecord();
+                    atomCount = bondCount = -1;
+                }
+            } else if (recordLine == 4 && recordEvent != null) {
+                String counts = reader.string();
+                atomCount = countsLineValue(counts, 0);
+                bondCount = countsLineValue(counts, 3);
+            }
+            boolean recordEnd = reader.startsWith("$$$$");
+            if (recordEnd) {
+                recordLine = 0;
+                if (recordEvent != null) {
+                    events.endRecord(recordEvent, ordinal, recordOffset, reader.nextPosition() - recordOffset, atomCount, bondCount);
+                    recordEvent = null;
+                }
+                if (stats != null) {
+                    stats.record();
+                }
+                if (progress != null) {
+                    progress.record(reader.nextPosition());
+                }
+            } else {
+                if (collectRecord) {
+                    recordErrors.line(reader);
+                }
+                if (manifest != null) {
+                    recordHash = reader.hashLine(recordHash);
+                }
+            }
+
+            if (skipRecord || recordEnd && !molfileReady) {
+                // rejected record: only look for its end
+                if (recordEnd) {
+                    if (!skipRecord) {
+                        recordErrors.reject(ordinal, recordOffset, recordLineNumber, "record without M  END line");
                     }
-                } else if (molfileReady && !strLine.matches("M\\s+\\w+.*")) {
-                    // SDF file parse
-                    if (strLine.replaceAll("\\s+", "").startsWith("><")) {
-                        pName = strLine.split("<")[1];
-                        pName = pName.substring(0, pName.length() - 1);
-                    } else if (strLine.startsWith("$$$$")) {
-                        switch (format) {
-                            case cypher:
-                            case cypheru:
-                                molecule.printCypherMolecule();
-                                molecule.printCypherAtoms();
-                                molecule.printCypherBonds();
-                                System.out.println(';');
-                                break;
-                            case cypherp:
-                            case cypherup:
-                                molecule.printCypherMolecule();
-                                molecule.printCypherAtomsWithPeriodicTableData();
-                                molecule.printCypherBonds();
-                                System.out.println(';');
-                                break;
-                            case cvme:
-                                molecule.printChemSKOSMolecule();
-                                molecule.printChemSKOSAtomsAndBonds();
-                                break;
-                            case smiles:
-                                molecule.printSMILES();
-                                break;
-                            case inchi:
-                                molecule.printInChI();
-                                break;
-                            case turtle:
-                            case ntriples:
-                            case rdfxml:
-                            case rdfthrift:
-                                molecule.addToJenaModel(subject);
-                                break;
-                            case jsonldhtml:
-                            case jsonld:
-                                output_str.append(molecule.constructJSONLDMolecule(subject));
-                                break;
-                            case rdfa:
-                                molecule.printRDFaMolecule(subject);
-                                break;
-                            case microdata:
-                                molecule.printMicrodataMolecule(subject);
-                                break;
-                            default:
-                                break;
-                        }
-                        molecule.clearAll();
-                        molfileReady = false;
-                        //} else if (strLine.isEmpty()) {
-                    } else if (!strLine.isEmpty()) {
-                        if (format == SDFEater.Format.cypheru || format == SDFEater.Format.cypherup || format == SDFEater.Format.cvme) {
-                            // Database links
-                            switch (pName) {
-                                case "Agricola Citation Links":
-                                    molecule.addPropertyByName(pName, "https://agricola.nal.usda.gov/cgi-bin/Pwebrecon.cgi?Search_Arg=" + strLine + "&DB=local&CNT=25&Search_Code=GKEY%5E&STARTDB=AGRIDB");
-                                    break;
-                                case "ArrayExpress Database Links":
-                                    molecule.addPropertyByName(pName, "https://www.ebi.ac.uk/arrayexpress/experiments/" + strLine);
-                                    break;
-                                case "BioModels Database Links":
-                                    molecule.addPropertyByName(pName, "https://www.ebi.ac.uk/biomodels-main/" + strLine);
-                                    break;
-                                case "ChEBI ID":
-                                    molecule.addPropertyByName(pName, "https://www.ebi.ac.uk/chebi/searchId.do?chebiId=" + strLine.substring(6));
-                                    break;
-                                case "DrugBank Database Links":
-                                    molecule.addPropertyByName(pName, "https://www.drugbank.ca/drugs/" + strLine);
-                                    break;
-                                case "ECMDB Database Links":
-                                    molecule.addPropertyByName(pName, "http://ecmdb.ca/compounds/" + strLine);
-                                    break;
-                                case "HMDB Database Links":
-                                    // metabolites
-                                    molecule.addPropertyByName(pName, "http://www.hmdb.ca/metabolites/" + strLine);
-                                    break;
-                                case "IntAct Database Links":
-                                    molecule.addPropertyByName(pName, "https://www.ebi.ac.uk/intact/interaction/" + strLine);
-                                    break;
-                                case "IntEnz Database Links":
-                                    strLine = strLine.replaceAll(" ", "+");
-                                    molecule.addPropertyByName(pName, "http://www.ebi.ac.uk/intenz/query?q=" + strLine);
-                                    break;
-                                case "KEGG COMPOUND Database Links":
-                                    molecule.addPropertyByName(pName, "http://www.genome.jp/dbget-bin/www_bget?cpd:" + strLine);
-                                    break;
-                                case "KEGG DRUG Database Links":
-                                    molecule.addPropertyByName(pName, "http://www.genome.jp/dbget-bin/www_bget?dr:" + strLine);
-                                    break;
-                                case "KEGG GLYCAN Database Links":
-                                    molecule.addPropertyByName(pName, "http://www.genome.jp/dbget-bin/www_bget?gl:" + strLine);
-                                    break;
-                                case "KNApSAcK Database Links":
-                                    molecule.addPropertyByName(pName, "http://kanaya.naist.jp/knapsack_jsp/information.jsp?word=" + strLine);
-                                    break;
-                                case "LIPID MAPS instance Database Links":
-                                    molecule.addPropertyByName(pName, "http://www.lipidmaps.org/data/LMSDRecord.php?LMID=" + strLine);
-                                    break;
-                                case "MetaCyc Database Links":
-                                    molecule.addPropertyByName(pName, "https://metacyc.org/compound?orgid=META&id=" + strLine);
-                                    break;
-                                case "Patent Database Links":
-                                    molecule.addPropertyByName(pName, "https://worldwide.espacenet.com/searchResults?query=" + strLine);
-                                    break;
-                                case "PDBeChem Database Links":
-                                    molecule.addPropertyByName(pName, "http://www.ebi.ac.uk/pdbe-srv/pdbechem/chemicalCompound/show/" + strLine);
-                                    break;
-                                case "PubChem Database Links":
-                                    // custom key value for compound and substance links
-                                    switch (strLine.substring(0, 3)) {
-                                        case "CID":
-                                            molecule.addPropertyByName("PubChem Database Molecule Links", "https://pubchem.ncbi.nlm.nih.gov/compound/" + strLine.substring(5));
-                                            break;
-                                        case "SID":
-                                            molecule.addPropertyByName("PubChem Database Substance Links", "https://pubchem.ncbi.nlm.nih.gov/substance/" + strLine.substring(5));
-                                            break;
-                                    }
-                                    break;
-                                case "PubMed Central Citation Links":
-                                    molecule.addPropertyByName(pName, "https://www.ncbi.nlm.nih.gov/pmc/articles/" + strLine + "/");
-                                    break;
-                                case "PubMed Citation Links":
-                                    molecule.addPropertyByName(pName, "https://www.ncbi.nlm.nih.gov/pubmed/?term=" + strLine);
-                                    break;
-                                case "Reactome Database Links":
-                                    molecule.addPropertyByName(pName, "https://reactome.org/content/detail/" + strLine);
-                                    break;
-                                case "RESID Database Links":
-                                    molecule.addPropertyByName(pName, "http://pir.georgetown.edu/cgi-bin/resid?id=" + strLine);
-                                    break;
-                                case "Rhea Database Links":
-                                    molecule.addPropertyByName(pName, "https://www.rhea-db.org/reaction?id=" + strLine);
-                                    break;
-                                case "SABIO-RK Database Links":
-                                    molecule.addPropertyByName(pName, "http://sabio.h-its.org/reacdetails.jsp?reactid=" + strLine);
-                                    break;
-                                case "UM-BBD compID Database Links":
-                                    molecule.addPropertyByName(pName, "http://eawag-bbd.ethz.ch/servlets/pageservlet?ptype=c&compID=" + strLine);
-                                    break;
-                                case "UniProt Database Links":
-                                    molecule.addPropertyByName(pName, "https://www.uniprot.org/uniprot/" + strLine);
-                                    break;
-                                case "Wikipedia Database Links":
-                                    molecule.addPropertyByName(pName, "https://en.wikipedia.org/wiki/" + strLine);
-                                    break;
-                                case "YMDB Database Links":
-                                    molecule.addPropertyByName(pName, "http://www.ymdb.ca/compounds/" + strLine);
-                                    break;
-                                default:
-                                    molecule.addPropertyByName(pName, strLine);
-                            }
-                        } else {
-                            molecule.addPropertyByName(pName, strLine);
-                        }
+                    recordErrors.clear();
+                    molecule.clearAll();
+                    molfileReady = false;
+                    skipRecord = false;
+                }
+                continue;
+            }
+
+            if (reader.startsWith("END", 3)) {
+                molfileReady = true;
+            } else if (!molfileReady) {
+                // atoms and bonds are tokenized later, only if the output format uses them
+                if (structure && !reader.isPropertiesBlockLine()) {
+                    molecule.addCtabLine(reader.buffer(), reader.start(), reader.length());
+                }
+            } else if (!reader.isPropertiesBlockLine()) {
+                // SDF file parse
+                if (reader.isPropertyHeader()) {
+                    // previous property is complete, so filter may already know the result
+                    if (recordFilter != null && Boolean.FALSE.equals(recordFilter.test(molecule, false))) {
+                        skipRecord = true;
+                        continue;
+                    }
+                    pName = reader.propertyName();
+                    // values of properties nobody uses are skipped without decoding
+                    skipProperty = !isUsed(pName, formatProperties, filterProperties);
+                } else if (recordEnd) {
+                    completeRecord(molecule, targets, filterOnlyProperties, Manifest.contentHash(recordHash), null, ordinal, recordOffset, recordLineNumber);
+                    molfileReady = false;
+                    //} else if (strLine.isEmpty()) {
+                } else if (!skipProperty && !reader.isEmpty()) {
+                    long t = stats != null ? System.nanoTime() : 0;
+                    molecule.addPropertyByName(pName, reader.string());
+                    if (stats != null) {
+                        stats.property(System.nanoTime() - t);
                     }
                 }
             }
-            br.close();
-            fstream.close();
-        } catch (IOException | NumberFormatException e) {
-            System.err.println("Error while parsing file: " + e.toString());
-            System.exit(2);
         }
+        reader.close();
+    }
+
+    /**
+     * Convert records of parse cache; only properties that are used are
+     * decoded, and atoms and bonds only for formats using them
+     *
+     * @param molecule             Molecule object to which values from the file will be entered
+     * @param targets              output formats and their destinations
+     * @param formatProperties     properties used by output formats, null if all of them
+     * @param filterProperties     properties read by filters
+     * @param filterOnlyProperties properties read by filters, but not written
+     * @throws IOException if file can't be read or too many records failed
+     */
+    private void readCache(Molecule molecule, List<Target> targets, Set<String> formatProperties, Set<String> filterProperties,
+                           Set<String> filterOnlyProperties) throws IOException {
+        boolean structure = usesStructure(targets);
+        // records with malformed CTAB block are still written by formats not using it
+        boolean onlyStructure = true;
+        for (Target target : targets) {
+            onlyStructure &= target.format.structure;
+        }
+        try (ParseCache.Reader cache = new ParseCache.Reader(Paths.get(filename))) {
+            for (int b = 0; b < cache.blocks(); b++) {
+                if (recordRange != null && (cache.firstOrdinal(b) > recordRange[1]
+                        || b + 1 < cache.blocks() && cache.firstOrdinal(b + 1) <= recordRange[0])) {
+                    continue;
+                }
+                ParseCache.Block block = cache.block(b);
+                for (int i = 0; i < block.size(); i++) {
+                    long ordinal = block.ordinal(i);
+                    if (recordRange != null && (ordinal < recordRange[0] || ordinal > recordRange[1])) {
+                        continue;
+                    }
+                    if (stats != null) {
+                        stats.record();
+                    }
+                    byte error = block.error(i);
+                    if (error != ParseCache.NO_ERROR && recordErrors.isCollecting()) {
+                        recordErrors.record(block.raw(i));
+                    }
+                    boolean structureError = error == ParseCache.STRUCTURE_ERROR && structure;
+                    if (error == ParseCache.RECORD_ERROR || structureError && onlyStructure) {
+                        recordErrors.reject(ordinal, block.offset(i), block.line(i), block.errorReason(i));
+                        recordErrors.clear();
+                        continue;
+                    }
+                    block.load(i, molecule, name -> isUsed(name, formatProperties, filterProperties), structure && !structureError);
+                    completeRecord(molecule, targets, filterOnlyProperties, block.hash(i), structureError ? block.errorReason(i) : null,
+                            ordinal, block.offset(i), block.line(i));
+                }
+                if (progress != null) {
+                    progress.record(cache.end(b));
+                }
+            }
+        }
+    }
+
+    /**
+     * Filter and write complete record; record that can't be written is rejected
+     *
+     * @param molecule             complete record
+     * @param targets              output formats and their destinations
+     * @param filterOnlyProperties properties read by filters, but not written
+     * @param hash                 record content hash
+     * @param structureError       reason why CTAB block couldn't be read, null if it was
+     * @param ordinal              record number
+     * @param offset               record position in SDF file
+     * @param line                 first line number of record in SDF file
+     * @throws IOException if too many records failed, or manifest can't be written
+     */
+    private void completeRecord(Molecule molecule, List<Target> targets, Set<String> filterOnlyProperties, long hash,
+                                String structureError, long ordinal, long offset, long line) throws IOException {
+        try {
+            if (isAccepted(molecule)) {
+                String key = manifest != null ? recordKey(molecule) : null;
+                String failure = structureError;
+                if (key == null || isChanged(key, hash, targets)) {
+                    for (String name : filterOnlyProperties) {
+                        molecule.removeProperty(name);
+                    }
+                    failure = emitMolecule(molecule, targets, structureError);
+                }
+                if (failure != null) {
+                    recordErrors.reject(ordinal, offset, line, failure);
+                } else if (key != null) {
+                    manifest.add(key, hash);
+                }
+            }
+        } catch (RuntimeException e) {
+            recordErrors.reject(ordinal, offset, line, e.toString());
+        }
+        recordErrors.clear();
+        molecule.clearAll();
+    }
+
+    /**
+     * Get value of manifest key property
+     *
+     * @param molecule complete record
+     * @return first value of key property, null if record has none
+     */
+    private String recordKey(Molecule molecule) {
+        List<String> values = molecule.getPropertiesByName(manifest.getProperty());
+        return values == null || values.isEmpty() ? null : values.get(0);
+    }
+
+    /**
+     * Check record against manifest of previous conversion; the previous
+     * version of changed record is deleted first
+     *
+     * @param key     record key
+     * @param hash    record content hash
+     * @param targets output formats and their destinations
+     * @return true if record is new or changed
+     * @throws IOException if tombstone can't be written
+     */
+    private boolean isChanged(String key, long hash, List<Target> targets) throws IOException {
+        Manifest.Change change = manifest.check(key, hash);
+        if (change == Manifest.Change.CHANGED) {
+            delete("changed", key, targets);
+        }
+        return change != Manifest.Change.UNCHANGED;
+    }
+
+    /**
+     * Delete records of previous conversion which are no longer in the input,
+     * and replace previous manifest
+     *
+     * @param targets output formats and their destinations
+     * @throws IOException if manifest or tombstones can't be written
+     */
+    private void deleteRemoved(List<Target> targets) throws IOException {
+        IOException[] error = new IOException[1];
+        manifest.removed(key -> {
+            try {
+                delete("removed", key, targets);
+            } catch (IOException e) {
+                error[0] = e;
+            }
+        });
+        if (error[0] != null) {
+            throw error[0];
+        }
+        manifest.commit();
+    }
+
+    /**
+     * Delete record written by previous conversion: Cypher formats get
+     * DETACH DELETE statement matching the key as they wrote it, other
+     * formats a tombstone
+     *
+     * @param change  removed or changed
+     * @param key     record key
+     * @param targets output formats and their destinations
+     * @throws IOException if tombstone can't be written
+     */
+    private void delete(String change, String key, List<Target> targets) throws IOException {
+        boolean tombstone = false;
+        for (Target target : targets) {
+            if (target.format.extension().equals("cypher")) {
+                target.out.println(Molecule.cypherDeletion(manifest.getProperty(), key, target.links));
+            } else {
+                tombstone = true;
+            }
+        }
+        if (tombstone) {
+            manifest.tombstone(change, key);
+        }
+    }
 
-        /* Do something AFTER file reading */
+    /**
+     * Check complete record against --where and --dedup-by filters
+     *
+     * @param molecule complete record
+     * @return true if record should be written
+     */
+    private boolean isAccepted(Molecule molecule) {
+        if (recordFilter != null && !Boolean.TRUE.equals(recordFilter.test(molecule, true))) {
+            return false;
+        }
+        return duplicateFilter == null || !duplicateFilter.isDuplicate(molecule);
+    }
+
+    /**
+     * Write molecule in every format; atoms and bonds are parsed before
+     * anything is written, so malformed CTAB block doesn't leave partial
+     * output. Formats using them skip such record, other formats write it.
+     *
+     * @param molecule       complete record
+     * @param targets        output formats and their destinations
+     * @param structureError reason why CTAB block couldn't be read, null if it was
+     * @return reason why record couldn't be written by some format, null if
+     * all formats wrote it
+     */
+    private String emitMolecule(Molecule molecule, List<Target> targets, String structureError) {
+        String failure = structureError;
+        if (failure == null && usesStructure(targets)) {
+            long t = stats != null ? System.nanoTime() : 0;
+            try {
+                molecule.parseStructure();
+            } catch (RuntimeException e) {
+                failure = e.toString();
+            }
+            if (stats != null) {
+                stats.ctab(System.nanoTime() - t, molecule.atoms.size(), molecule.bonds.size());
+            }
+        }
+        long t = stats != null ? System.nanoTime() : 0;
+        for (Target target : targets) {
+            if (failure != null && target.format.structure || target.model != null && !target.addsToModel) {
+                continue;
+            }
+            FlightEvents events = target.events;
+            Object emitEvent = events != null ? events.beginEmit() : null;
+            int position = target.pages != null ? target.pages.position() : 0;
+            printMolecule(molecule, target.format, target.subject, target.output_str, target.model, target.out);
+            if (target.pages != null) {
+                target.out.flush();
+                target.pages.endMolecule(molecule.schemaOrgName(), position);
+            }
+            if (emitEvent != null) {
+                events.endEmit(emitEvent, target.format);
+            }
+        }
+        if (stats != null) {
+            stats.emit(System.nanoTime() - t, true);
+        }
+        return failure;
+    }
+
+    /**
+     * Write beginning of the output, before any molecule
+     *
+     * @param format     Output format
+     * @param output_str output buffer of formats written at the end
+     * @param out        output stream
+     */
+    static void printHeader(SDFEater.Format format, StringBuilder output_str, PrintStream out) {
         switch (format) {
-            case turtle:
-                jenaModel.write(System.out, "TURTLE");
+            // JSON-LD with HTML
+            case jsonldhtml:
+                output_str.append("<!DOCTYPE html>\n" +
+                        "<html lang=\"en\">\n" +
+                        "  <head>\n" +
+                        "    <title>Example Document</title>\n" +
+                        "    <script type=\"application/ld+json\">\n" +
+                        "{\n" +
+                        "  \"@graph\" : [\n" +
+                        "    {\n" +
+                        "      \"@id\": \"https://github.com/lszeremeta/SDFEater\",\n" +
+                        "      \"@type\": \"http://schema.org/Organization\",\n" +
+                        "      \"http://schema.org/name\": \"SDFEater\"\n" +
+                        "    },\n" +
+                        "    {\n" +
+                        "      \"@id\": \"#\",\n" +
+                        "      \"@type\": \"http://schema.org/Dataset\",\n" +
+                        "      \"http://schema.org/about\": {\n" +
+                        "        \"@id\": \"https://github.com/lszeremeta/SDFEater\"\n" +
+                        "      },\n" +
+                        "      \"http://schema.org/description\": \"This is a dataset of molecules generated by SDFEater.\",\n" +
+                        "      \"http://schema.org/keywords\": [\n" +
+                        "        \"molecules\",\n" +
+                        "        \"cheminformatics\",\n" +
+                        "        \"chemical compounds\"\n" +
+                        "      ],\n" +
+                        "      \"http://schema.org/license\": {\n" +
+                        "        \"@id\": \"https://creativecommons.org/licenses/by/3.0/\"\n" +
+                        "      },\n" +
+                        "      \"http://schema.org/name\": \"Molecules\",\n" +
+                        "      \"http://schema.org/creator\": {\n" +
+                        "        \"@id\": \"https://github.com/lszeremeta/SDFEater\"\n" +
+                        "      },\n" +
+                        "      \"http://schema.org/temporal\": \"" + Year.now().toString() + "\",\n" +
+                        "      \"http://schema.org/url\": \"https://github.com/lszeremeta/SDFEater\"\n" +
+                        "    },\n");
                 break;
-            case ntriples:
-                jenaModel.write(System.out, "NTRIPLES");
+            case jsonld:
+                output_str.append(
+                        "{\n" +
+                                "  \"@graph\" : [\n" +
+                                "    {\n" +
+                                "      \"@id\": \"https://github.com/lszeremeta/SDFEater\",\n" +
+                                "      \"@type\": \"http://schema.org/Organization\",\n" +
+                                "      \"http://schema.org/name\": \"SDFEater\"\n" +
+                                "    },\n" +
+                                "    {\n" +
+                                "      \"@id\": \"#\",\n" +
+                                "      \"@type\": \"http://schema.org/Dataset\",\n" +
+                                "      \"http://schema.org/about\": {\n" +
+                                "        \"@id\": \"https://github.com/lszeremeta/SDFEater\"\n" +
+                                "      },\n" +
+                                "      \"http://schema.org/description\": \"This is a dataset of molecules generated by SDFEater.\",\n" +
+                                "      \"http://schema.org/keywords\": [\n" +
+                                "        \"molecules\",\n" +
+                                "        \"cheminformatics\",\n" +
+                                "        \"chemical compounds\"\n" +
+                                "      ],\n" +
+                                "      \"http://schema.org/license\": {\n" +
+                                "        \"@id\": \"https://creativecommons.org/licenses/by/3.0/\"\n" +
+                                "      },\n" +
+                                "      \"http://schema.org/name\": \"Molecules\",\n" +
+                                "      \"http://schema.org/creator\": {\n" +
+                                "        \"@id\": \"https://github.com/lszeremeta/SDFEater\"\n" +
+                                "      },\n" +
+                                "      \"http://schema.org/temporal\": \"" + Year.now().toString() + "\",\n" +
+                                "      \"http://schema.org/url\": \"https://github.com/lszeremeta/SDFEater\"\n" +
+                                "    },\n");
+                break;
+            // RDFa and Microdata
+            case rdfa:
+            case microdata:
+                printHTMLHeader(format, "Example Document", out);
+                break;
+            default:
+                break;
+        }
+    }
+
+    /**
+     * Write beginning of RDFa or Microdata document, with dataset description
+     *
+     * @param format rdfa or microdata
+     * @param title  document title
+     * @param out    output stream
+     */
+    static void printHTMLHeader(SDFEater.Format format, String title, PrintStream out) {
+        switch (format) {
+            case rdfa:
+                out.println("<!DOCTYPE html>");
+                out.println("<html lang='en'>");
+                out.println("  <head>");
+                out.println("    <title>" + Molecule.htmlEscape(title, false) + "</title>");
+                out.println("  </head>");
+                out.println("  <body vocab='http://schema.org/'>");
+                out.println("    <div typeof='schema:Dataset'>\n" +
+                        "      <div rel='schema:creator'>\n" +
+                        "        <div typeof='schema:Organization' about='https://github.com/lszeremeta/SDFEater'>\n" +
+                        "          <div property='schema:name' content='SDFEater'></div>\n" +
+                        "        </div>\n" +
+                        "      </div>\n" +
+                        "      <div property='schema:keywords' content='cheminformatics'></div>\n" +
+                        "      <div property='schema:keywords' content='molecules'></div>\n" +
+                        "      <div property='schema:keywords' content='chemical compounds'></div>\n" +
+                        "      <div property='schema:temporal' content='" + Year.now().toString() + "'></div>\n" +
+                        "      <div property='schema:name' content='Molecules'></div>\n" +
+                        "      <div rel='schema:license' resource='https://creativecommons.org/licenses/by/3.0/'></div>\n" +
+                        "      <div property='schema:description' content='This is a dataset of molecules generated by SDFEater.'></div>\n" +
+                        "      <div rel='schema:about' resource='https://github.com/lszeremeta/SDFEater'></div>\n" +
+                        "      <div property='schema:url' content='https://github.com/lszeremeta/SDFEater'></div>\n" +
+                        "    </div>");
+                break;
+            case microdata:
+                out.println("<!DOCTYPE html>");
+                out.println("<html lang='en'>");
+                out.println("  <head>");
+                out.println("    <title>" + Molecule.htmlEscape(title, false) + "</title>");
+                out.println("  </head>");
+                out.println("  <body>");
+                out.println("    <div itemscope itemtype='http://schema.org/Dataset'>\n" +
+                        "      <div itemprop='name' content='Molecules'></div>\n" +
+                        "      <div itemprop='keywords' content='cheminformatics'></div>\n" +
+                        "      <div itemprop='keywords' content='molecules'></div>\n" +
+                        "      <div itemprop='keywords' content='chemical compounds'></div>\n" +
+                        "      <div itemprop='temporal' content='" + Year.now().toString() + "'></div>\n" +
+                        "      <div itemprop='url' content='https://github.com/lszeremeta/SDFEater'></div>\n" +
+                        "      <div itemprop='description' content='This is a dataset of molecules generated by SDFEater.'></div>\n" +
+                        "      <div itemprop='creator' itemscope itemtype='http://schema.org/Organization'>\n" +
+                        "        <div itemprop='name' content='SDFEater'></div>\n" +
+                        "      </div>\n" +
+                        "      <div itemprop='license' content='https://creativecommons.org/licenses/by/3.0/'></div>\n" +
+                        "    </div>");
+                break;
+            default:
+                break;
+        }
+    }
+
+    /**
+     * Write end of the output, after all molecules; formats collecting data
+     * in Jena model or output buffer are written here
+     *
+     * @param format     Output format
+     * @param output_str output buffer of formats written at the end
+     * @param model      Jena model builder of RDF formats
+     * @param out        output stream
+     */
+    static void printFooter(SDFEater.Format format, StringBuilder output_str, ModelBuilder model, PrintStream out) {
+        switch (format) {
+            case turtle:
+                model.build().write(out, "TURTLE");
                 break;
             case jsonld:
                 output_str.setLength(output_str.length() - 2);
@@ -439,7 +1059,7 @@ class File {
                         "    \"schema\" : \"http://schema.org/\"\n" +
                         "  }\n" +
                         "}");
-                System.out.println(output_str);
+                out.println(output_str);
                 break;
             // JSON-LD with HTML
             case jsonldhtml:
@@ -497,31 +1117,135 @@ class File {
                         "    </script>\n" +
                         "  </head>\n" +
                         "</html>");
-                System.out.println(output_str);
+                out.println(output_str);
                 break;
             case rdfxml:
-                jenaModel.write(System.out, "RDF/XML");
+                model.build().write(out, "RDF/XML");
                 break;
             case rdfthrift:
-                jenaModel.write(System.out, "RDFTHRIFT");
+                model.build().write(out, "RDFTHRIFT");
                 break;
             // RDFa and Microdata
             case rdfa:
             case microdata:
-                System.out.println("  </body>");
-                System.out.println("</html>");
+                out.println("  </body>");
+                out.println("</html>");
                 break;
             default:
                 break;
         }
     }
 
-    private boolean isInt(String s) {
-        try {
-            Integer.parseInt(s);
-        } catch (NumberFormatException e) {
-            return false;
+    /**
+     * Write single molecule in the output format
+     *
+     * @param molecule   molecule to write
+     * @param format     Output format
+     * @param subject    Subject type
+     * @param output_str buffer for formats written as a whole after reading the file
+     * @param model      Jena model builder of RDF formats
+     * @param out        output stream
+     */
+    static void printMolecule(Molecule molecule, SDFEater.Format format, SDFEater.Subject subject, StringBuilder output_str, ModelBuilder model, PrintStream out) {
+        // records keep values as in the file; emitters link them while writing
+        DatabaseLinks links = format.linksDatabases() ? molecule.context.links : null;
+        switch (format) {
+            case cypher:
+            case cypheru:
+                molecule.printCypher(false, links, out);
+                out.println(';');
+                break;
+            case cypherp:
+            case cypherup:
+                molecule.printCypher(true, links, out);
+                out.println(';');
+                break;
+            case cvme:
+                molecule.printChemSKOSMolecule(links, out);
+                molecule.printChemSKOSAtomsAndBonds(out);
+                break;
+            case smiles:
+                molecule.printSMILES(out);
+                break;
+            case inchi:
+                molecule.printInChI(out);
+                break;
+            case turtle:
+            case rdfxml:
+            case rdfthrift:
+                model.add(molecule, subject);
+                break;
+            case ntriples:
+            case nquads:
+                molecule.printNTriplesMolecule(subject, format == SDFEater.Format.nquads, out);
+                break;
+            case jsonldhtml:
+            case jsonld:
+                output_str.append(molecule.constructJSONLDMolecule(subject));
+                break;
+            case rdfa:
+                molecule.printRDFaMolecule(subject, out);
+                break;
+            case microdata:
+                molecule.printMicrodataMolecule(subject, out);
+                break;
+            case ndjson:
+            case ndjsonfull:
+                molecule.printNDJSONMolecule(subject, format == SDFEater.Format.ndjsonfull, out);
+                break;
+            default:
+                break;
+        }
+    }
+
+    /**
+     * Output format and destination of a conversion
+     */
+    private static final class Target {
+        final SDFEater.Format format;
+        final SDFEater.Subject subject;
+        /**
+         * Templates of database links, null if format writes values as they are
+         */
+        final DatabaseLinks links;
+        /**
+         * Output buffer of formats written at the end
+         */
+        final StringBuilder output_str = new StringBuilder();
+        /**
+         * Jena model builder of RDF formats, null for other formats
+         */
+        final ModelBuilder model;
+        /**
+         * True if molecules are added to the model by this format; other
+         * formats sharing the model only write it
+         */
+        final boolean addsToModel;
+        /**
+         * Flight Recorder events, null if JFR is not available
+         */
+        final FlightEvents events;
+        final PrintStream out;
+        /**
+         * Output file written by its own thread, null for standard output
+         */
+        final AsyncOutputStream file;
+        /**
+         * Pages of RDFa and Microdata, null if written as one document
+         */
+        final HtmlPages pages;
+
+        Target(SDFEater.Format format, SDFEater.Subject subject, DatabaseLinks links, ModelBuilder model, boolean addsToModel,
+               FlightEvents events, PrintStream out, AsyncOutputStream file, HtmlPages pages) {
+            this.format = format;
+            this.subject = subject;
+            this.links = links;
+            this.model = model;
+            this.addsToModel = addsToModel;
+            this.events = events;
+            this.out = out;
+            this.file = file;
+            this.pages = pages;
         }
-        return true;
     }
 }
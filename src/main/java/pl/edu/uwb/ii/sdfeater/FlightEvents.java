@@ -0,0 +1,216 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2017-2019 Łukasz Szeremeta.
+ * Copyright 2018-2019 Dominik Tomaszuk.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package pl.edu.uwb.ii.sdfeater;
+
+import jdk.jfr.*;
+
+import java.io.BufferedOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * JDK Flight Recorder events for records and output
+ * <p>
+ * Event objects are only created when their event type is enabled in a
+ * running recording, so without a recording the cost is one check per
+ * record. This class is loaded only if the JVM has {@code jdk.jfr}; callers
+ * pass events around as {@link Object}.
+ */
+class FlightEvents {
+
+    /**
+     * Bytes written by emitters, counted only if a recording was running
+     * when conversion started
+     */
+    private long written = -1;
+
+    /**
+     * Check if any recording is running
+     *
+     * @return true if some recording is running
+     */
+    static boolean isRecording() {
+        if (!FlightRecorder.isInitialized()) {
+            return false;
+        }
+        for (Recording recording : FlightRecorder.getFlightRecorder().getRecordings()) {
+            if (recording.getState() == RecordingState.RUNNING) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Count output bytes of emitters and record writes to the underlying
+     * output as flush events; does nothing if no recording is running
+     *
+     * @param out underlying output
+     * @return output for emitters
+     */
+    OutputStream wrapOutput(OutputStream out) {
+        if (!isRecording()) {
+            return out;
+        }
+        written = 0;
+        OutputStream flushed = new FilterOutputStream(out) {
+            @Override
+            public void write(byte[] b, int off, int len) throws IOException {
+                OutputFlushed event = new OutputFlushed();
+                event.begin();
+                out.write(b, off, len);
+                event.end();
+                if (event.shouldCommit()) {
+                    event.bytes = len;
+                    event.commit();
+                }
+            }
+        };
+        return new FilterOutputStream(new BufferedOutputStream(flushed, 64 * 1024)) {
+            @Override
+            public void write(int b) throws IOException {
+                written++;
+                out.write(b);
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) throws IOException {
+                written += len;
+                out.write(b, off, len);
+            }
+        };
+    }
+
+    /**
+     * Begin record parsed event
+     *
+     * @return event, null if it is disabled
+     */
+    Object beginRecord() {
+        RecordParsed event = new RecordParsed();
+        if (!event.isEnabled()) {
+            return null;
+        }
+        event.begin();
+        return event;
+    }
+
+    /**
+     * Commit record parsed event
+     *
+     * @param record  event from {@link #beginRecord()}
+     * @param ordinal record number, starting with 1
+     * @param offset  input offset of the record
+     * @param size    record size in bytes
+     * @param atoms   number of atoms, -1 if unknown
+     * @param bonds   number of bonds, -1 if unknown
+     */
+    void endRecord(Object record, long ordinal, long offset, long size, int atoms, int bonds) {
+        RecordParsed event = (RecordParsed) record;
+        event.end();
+        if (event.shouldCommit()) {
+            event.ordinal = ordinal;
+            event.offset = offset;
+            event.size = size;
+            event.atoms = atoms;
+            event.bonds = bonds;
+            event.commit();
+        }
+    }
+
+    /**
+     * Begin molecule emitted event
+     *
+     * @return event, null if it is disabled
+     */
+    Object beginEmit() {
+        MoleculeEmitted event = new MoleculeEmitted();
+        if (!event.isEnabled()) {
+            return null;
+        }
+        event.bytes = written;
+        event.begin();
+        return event;
+    }
+
+    /**
+     * Commit molecule emitted event
+     *
+     * @param emit   event from {@link #beginEmit()}
+     * @param format output format
+     */
+    void endEmit(Object emit, SDFEater.Format format) {
+        MoleculeEmitted event = (MoleculeEmitted) emit;
+        event.end();
+        if (event.shouldCommit()) {
+            event.format = format.name();
+            event.bytes = event.bytes < 0 || written < 0 ? -1 : written - event.bytes;
+            event.commit();
+        }
+    }
+
+    @Name("pl.edu.uwb.ii.sdfeater.RecordParsed")
+    @Label("Record Parsed")
+    @Category("SDFEater")
+    @Description("SDF record read from input, from its first line to $$$$")
+    static class RecordParsed extends Event {
+        @Label("Ordinal")
+        long ordinal;
+        @Label("Offset")
+        @DataAmount
+        long offset;
+        @Label("Size")
+        @DataAmount
+        long size;
+        @Label("Atoms")
+        int atoms;
+        @Label("Bonds")
+        int bonds;
+    }
+
+    @Name("pl.edu.uwb.ii.sdfeater.MoleculeEmitted")
+    @Label("Molecule Emitted")
+    @Category("SDFEater")
+    @Description("Molecule written in the output format")
+    static class MoleculeEmitted extends Event {
+        @Label("Format")
+        String format;
+        @Label("Output Size")
+        @Description("Bytes written, -1 if recording started after conversion")
+        @DataAmount
+        long bytes;
+    }
+
+    @Name("pl.edu.uwb.ii.sdfeater.OutputFlushed")
+    @Label("Output Flushed")
+    @Category("SDFEater")
+    @Description("Buffered output handed to the underlying stream")
+    static class OutputFlushed extends Event {
+        @Label("Size")
+        @DataAmount
+        long bytes;
+    }
+}
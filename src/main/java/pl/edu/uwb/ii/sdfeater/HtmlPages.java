@@ -0,0 +1,292 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2017-2019 Łukasz Szeremeta.
+ * Copyright 2018-2019 Dominik Tomaszuk.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package pl.edu.uwb.ii.sdfeater;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * Static HTML site of RDFa or Microdata molecules: pages of a fixed number
+ * of molecules (or one page per molecule), an index page linking them and
+ * a sitemap
+ * <p>
+ * Molecule fragments are written by the reading thread to the current page
+ * buffer, see {@link #fragments()}; complete pages are written to files by
+ * writer threads. Sitemap URLs are relative to the directory of molecule
+ * subject base, e.g. https://example.com/ for the default base.
+ */
+class HtmlPages implements Closeable {
+
+    /**
+     * Default number of threads writing pages
+     */
+    static final int DEFAULT_WRITERS = Math.min(4, Runtime.getRuntime().availableProcessors());
+
+    /**
+     * Maximum number of URLs in one sitemap file
+     */
+    static final int SITEMAP_URLS = 50000;
+
+    private static final Page END = new Page(null, null, null);
+
+    private final SDFEater.Format format;
+    private final Path directory;
+    private final int moleculesPerPage;
+    private final String siteBase;
+    private final ByteArrayOutputStream fragments = new ByteArrayOutputStream();
+    private final BlockingQueue<Page> queue;
+    private final List<Thread> threads = new ArrayList<>();
+    private volatile IOException failure;
+
+    /**
+     * File names and titles of written pages, in order
+     */
+    private final List<String[]> pages = new ArrayList<>();
+    private int molecules;
+    private String firstName;
+    private String lastName;
+
+    /**
+     * HtmlPages class constructor
+     *
+     * @param format           rdfa or microdata
+     * @param directory        directory of pages, created if it doesn't exist
+     * @param moleculesPerPage number of molecules of each page, 1 for page per molecule
+     * @param subjectBase      molecule subject base, its directory is the base of sitemap URLs
+     * @param writers          number of threads writing pages
+     * @throws IOException if directory can't be created
+     */
+    HtmlPages(SDFEater.Format format, Path directory, int moleculesPerPage, String subjectBase, int writers) throws IOException {
+        if (moleculesPerPage < 1) {
+            throw new IllegalArgumentException("HTML page needs at least one molecule");
+        }
+        this.format = format;
+        this.directory = Files.createDirectories(directory);
+        this.moleculesPerPage = moleculesPerPage;
+        this.siteBase = subjectBase.substring(0, subjectBase.lastIndexOf('/') + 1);
+        this.queue = new ArrayBlockingQueue<>(2 * Math.max(1, writers));
+        for (int i = 0; i < Math.max(1, writers); i++) {
+            Thread thread = new Thread(() -> {
+                try {
+                    for (Page page = queue.take(); page != END; page = queue.take()) {
+                        if (failure == null) {
+                            try {
+                                page.write(this.directory, this.format);
+                            } catch (IOException e) {
+                                failure = e;
+                            }
+                        }
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }, "sdfeater-html-" + i);
+            thread.setDaemon(true);
+            thread.start();
+            threads.add(thread);
+        }
+    }
+
+    /**
+     * Get buffer of current page, to which molecule fragments are written
+     *
+     * @return page buffer
+     */
+    OutputStream fragments() {
+        return fragments;
+    }
+
+    /**
+     * Complete molecule written to page buffer; the page is handed over to
+     * writers when it has all its molecules
+     *
+     * @param name     molecule name, null if it has none
+     * @param position buffer size before the molecule was written; nothing
+     *                 is counted if the molecule wrote no fragment
+     * @throws UncheckedIOException if page can't be written
+     */
+    void endMolecule(String name, int position) {
+        if (fragments.size() == position) {
+            return;
+        }
+        molecules++;
+        if (firstName == null) {
+            firstName = name;
+        }
+        lastName = name;
+        if (molecules == moleculesPerPage) {
+            endPage();
+        }
+    }
+
+    /**
+     * Get size of page buffer
+     *
+     * @return number of bytes of molecules on current page
+     */
+    int position() {
+        return fragments.size();
+    }
+
+    private void endPage() {
+        int number = pages.size() + 1;
+        String file;
+        String title;
+        if (moleculesPerPage == 1) {
+            file = "molecule-" + number + ".html";
+            title = firstName != null ? firstName : "Molecule " + number;
+        } else {
+            file = "page-" + number + ".html";
+            title = firstName != null && lastName != null ? "Molecules " + firstName + " to " + lastName : "Molecules, page " + number;
+        }
+        pages.add(new String[]{file, title});
+        put(new Page(file, title, fragments.toByteArray()));
+        fragments.reset();
+        molecules = 0;
+        firstName = null;
+        lastName = null;
+    }
+
+    private void put(Page page) {
+        if (failure != null) {
+            throw new UncheckedIOException(failure);
+        }
+        try {
+            queue.put(page);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while writing HTML pages", e);
+        }
+    }
+
+    /**
+     * Write last page, index page and sitemap, and wait for writers
+     *
+     * @throws IOException if any file can't be written
+     */
+    @Override
+    public void close() throws IOException {
+        if (molecules > 0) {
+            endPage();
+        }
+        for (int i = 0; i < threads.size(); i++) {
+            put(END);
+        }
+        for (Thread thread : threads) {
+            try {
+                thread.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted while writing HTML pages", e);
+            }
+        }
+        if (failure != null) {
+            throw failure;
+        }
+        writeIndex();
+        writeSitemap();
+    }
+
+    private void writeIndex() throws IOException {
+        StringBuilder list = new StringBuilder("    <ul>\n");
+        for (String[] page : pages) {
+            list.append("      <li><a href='").append(page[0]).append("'>");
+            Molecule.appendHTMLString(list, page[1], false);
+            list.append("</a></li>\n");
+        }
+        list.append("    </ul>\n");
+        new Page("index.html", "Molecules", list.toString().getBytes(StandardCharsets.UTF_8)).write(directory, format);
+    }
+
+    private void writeSitemap() throws IOException {
+        List<String> urls = new ArrayList<>(pages.size() + 1);
+        urls.add(siteBase + "index.html");
+        for (String[] page : pages) {
+            urls.add(siteBase + page[0]);
+        }
+        if (urls.size() <= SITEMAP_URLS) {
+            writeSitemap(directory.resolve("sitemap.xml"), "urlset", urls);
+            return;
+        }
+        List<String> sitemaps = new ArrayList<>();
+        for (int start = 0; start < urls.size(); start += SITEMAP_URLS) {
+            String file = "sitemap-" + (sitemaps.size() + 1) + ".xml";
+            writeSitemap(directory.resolve(file), "urlset", urls.subList(start, Math.min(start + SITEMAP_URLS, urls.size())));
+            sitemaps.add(siteBase + file);
+        }
+        writeSitemap(directory.resolve("sitemap.xml"), "sitemapindex", sitemaps);
+    }
+
+    private static void writeSitemap(Path file, String root, List<String> urls) throws IOException {
+        String entry = root.equals("urlset") ? "url" : "sitemap";
+        StringBuilder xml = new StringBuilder("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n<")
+                .append(root).append(" xmlns=\"http://www.sitemaps.org/schemas/sitemap/0.9\">\n");
+        for (String url : urls) {
+            xml.append("  <").append(entry).append("><loc>");
+            Molecule.appendHTMLString(xml, url, false);
+            xml.append("</loc></").append(entry).append(">\n");
+        }
+        xml.append("</").append(root).append(">\n");
+        Files.write(file, xml.toString().getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Page waiting for writer
+     */
+    private static final class Page {
+        final String file;
+        final String title;
+        final byte[] body;
+
+        Page(String file, String title, byte[] body) {
+            this.file = file;
+            this.title = title;
+            this.body = body;
+        }
+
+        void write(Path directory, SDFEater.Format format) throws IOException {
+            try (PrintStream out = new PrintStream(new BufferedOutputStream(Files.newOutputStream(directory.resolve(file))), false, "UTF-8")) {
+                File.printHTMLHeader(format, title, out);
+                out.write(body);
+                File.printFooter(format, null, null, out);
+                if (out.checkError()) {
+                    throw new IOException("Can't write " + directory.resolve(file));
+                }
+            }
+        }
+    }
+}
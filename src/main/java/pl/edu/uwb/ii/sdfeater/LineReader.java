@@ -0,0 +1,309 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2017-2019 Łukasz Szeremeta.
+ * Copyright 2018-2019 Dominik Tomaszuk.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package pl.edu.uwb.ii.sdfeater;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Byte-level line reader for SDF files
+ * <p>
+ * Lines are kept as ranges of an internal byte buffer and are only decoded
+ * to String on request, so lines the output format doesn't use can be
+ * classified and skipped without any decoding or allocation. All checks work
+ * on the line with leading and trailing whitespace removed, like
+ * {@link String#trim()}.
+ */
+class LineReader implements Closeable {
+
+    private final InputStream in;
+    private byte[] buf = new byte[64 * 1024];
+    /**
+     * Number of valid bytes in buffer
+     */
+    private int limit;
+    /**
+     * Buffer index of the byte after current line terminator
+     */
+    private int next;
+    /**
+     * Input offset of buf[0]
+     */
+    private long bufferOffset;
+    private int lineStart;
+    private long lineNumber;
+    private boolean eof;
+
+    /**
+     * Trimmed current line bounds
+     */
+    private int start, end;
+
+    /**
+     * LineReader class constructor
+     *
+     * @param in input stream (buffering is done by LineReader)
+     */
+    LineReader(InputStream in) {
+        this.in = in;
+    }
+
+    /**
+     * Advance to the next line
+     *
+     * @return false if there are no more lines
+     * @throws IOException on read error
+     */
+    boolean next() throws IOException {
+        int from = next;
+        int scan = from;
+        int nl;
+        while ((nl = indexOfNewline(scan)) < 0) {
+            if (eof) {
+                if (from >= limit) {
+                    return false;
+                }
+                nl = limit;  // last line without terminator
+                break;
+            }
+            // keep partial line and read more
+            if (from > 0) {
+                System.arraycopy(buf, from, buf, 0, limit - from);
+                bufferOffset += from;
+                limit -= from;
+                from = 0;
+            } else if (limit == buf.length) {
+                byte[] bigger = new byte[buf.length * 2];
+                System.arraycopy(buf, 0, bigger, 0, limit);
+                buf = bigger;
+            }
+            scan = limit;
+            int n = in.read(buf, limit, buf.length - limit);
+            if (n < 0) {
+                eof = true;
+            } else {
+                limit += n;
+            }
+        }
+        lineStart = from;
+        next = nl + 1;
+        lineNumber++;
+
+        start = from;
+        end = nl;
+        while (start < end && (buf[start] & 0xff) <= ' ') {
+            start++;
+        }
+        while (end > start && (buf[end - 1] & 0xff) <= ' ') {
+            end--;
+        }
+        return true;
+    }
+
+    private int indexOfNewline(int from) {
+        for (int i = from; i < limit; i++) {
+            if (buf[i] == '\n') {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * @return input byte offset of the current line start
+     */
+    long position() {
+        return bufferOffset + lineStart;
+    }
+
+    /**
+     * @return input byte offset after the current line
+     */
+    long nextPosition() {
+        return bufferOffset + Math.min(next, limit);
+    }
+
+    /**
+     * Fold trimmed current line and a line terminator into FNV-1a hash
+     *
+     * @param hash hash of previous lines
+     * @return updated hash
+     */
+    long hashLine(long hash) {
+        for (int i = start; i < end; i++) {
+            hash ^= buf[i] & 0xff;
+            hash *= 0x100000001b3L;
+        }
+        hash ^= '\n';
+        hash *= 0x100000001b3L;
+        return hash;
+    }
+
+    /**
+     * Copy current line as read, with its terminator
+     *
+     * @param out destination
+     */
+    void copyLine(ByteArrayOutputStream out) {
+        out.write(buf, lineStart, rawLength());
+    }
+
+    /**
+     * Copy current line as read, with its terminator
+     *
+     * @param dest   destination, with at least {@link #rawLength()} bytes from offset
+     * @param offset destination offset
+     */
+    void copyLine(byte[] dest, int offset) {
+        System.arraycopy(buf, lineStart, dest, offset, rawLength());
+    }
+
+    /**
+     * @return length of current line as read, with its terminator
+     */
+    int rawLength() {
+        return Math.min(next, limit) - lineStart;
+    }
+
+    /**
+     * @return 1-based number of the current line
+     */
+    long lineNumber() {
+        return lineNumber;
+    }
+
+    /**
+     * @return length of trimmed line in bytes
+     */
+    int length() {
+        return end - start;
+    }
+
+    boolean isEmpty() {
+        return end == start;
+    }
+
+    /**
+     * @param i index in trimmed line
+     * @return byte at index
+     */
+    byte byteAt(int i) {
+        return buf[start + i];
+    }
+
+    /**
+     * Check if trimmed line starts with ASCII prefix at offset
+     */
+    boolean startsWith(String prefix, int offset) {
+        if (offset < 0 || end - start - offset < prefix.length()) {
+            return false;
+        }
+        for (int i = 0; i < prefix.length(); i++) {
+            if (buf[start + offset + i] != prefix.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    boolean startsWith(String prefix) {
+        return startsWith(prefix, 0);
+    }
+
+    /**
+     * Check for SDF data header, e.g. {@code > <ChEBI ID>}
+     */
+    boolean isPropertyHeader() {
+        if (isEmpty() || buf[start] != '>') {
+            return false;
+        }
+        int i = start + 1;
+        while (i < end && (buf[i] & 0xff) <= ' ') {
+            i++;
+        }
+        return i < end && buf[i] == '<';
+    }
+
+    /**
+     * Get property name from SDF data header
+     *
+     * @return name between first '&lt;' and following '&gt;'
+     */
+    String propertyName() {
+        int i = start;
+        while (buf[i] != '<') {
+            i++;
+        }
+        int nameStart = ++i;
+        while (i < end && buf[i] != '>') {
+            i++;
+        }
+        return new String(buf, nameStart, i - nameStart, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Check for CTAB properties line, e.g. {@code M  CHG  1   3   1}
+     */
+    boolean isPropertiesBlockLine() {
+        if (length() < 3 || buf[start] != 'M' || (buf[start + 1] & 0xff) > ' ') {
+            return false;
+        }
+        int i = start + 1;
+        while (i < end && (buf[i] & 0xff) <= ' ') {
+            i++;
+        }
+        if (i == end) {
+            return false;
+        }
+        byte b = buf[i];
+        return b >= '0' && b <= '9' || b >= 'A' && b <= 'Z' || b >= 'a' && b <= 'z' || b == '_';
+    }
+
+    /**
+     * @return trimmed line decoded as UTF-8
+     */
+    String string() {
+        return new String(buf, start, end - start, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Raw access to trimmed line bytes; valid until next call of {@link #next()}
+     */
+    byte[] buffer() {
+        return buf;
+    }
+
+    int start() {
+        return start;
+    }
+
+    @Override
+    public void close() throws IOException {
+        in.close();
+    }
+}
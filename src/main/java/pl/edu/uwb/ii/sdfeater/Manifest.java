@@ -0,0 +1,356 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2017-2019 Łukasz Szeremeta.
+ * Copyright 2018-2019 Dominik Tomaszuk.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package pl.edu.uwb.ii.sdfeater;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+
+/**
+ * Record manifest for --incremental conversion
+ * <p>
+ * The manifest stores a content hash for each record key, in input order.
+ * Entries are front-coded (shared prefix length with the previous key,
+ * suffix, 8-byte hash), so sequential IDs such as {@code CHEBI:12345} take
+ * about 13 bytes. For lookups, the previous manifest is loaded into an
+ * off-heap open addressing table of 64-bit key fingerprints and content
+ * hashes (16 bytes per slot, at most 75% full), and read once more at the end
+ * to find removed keys. The new manifest replaces the old one only when the
+ * conversion completes.
+ */
+class Manifest implements Closeable {
+
+    /**
+     * Result of checking a record against the previous manifest
+     */
+    enum Change {
+        ADDED, CHANGED, UNCHANGED
+    }
+
+    private static final int MAGIC = 0x53444d31; // "SDM1"
+    private static final int SLOT = 16;
+    /**
+     * Slots per off-heap segment (1 GB)
+     */
+    private static final int SEGMENT_SLOTS = 1 << 26;
+    private static final long SEEN = Long.MIN_VALUE;
+
+    private final Path path;
+    private final Path next;
+    private final String property;
+    private final boolean previous;
+    private ByteBuffer[] segments = new ByteBuffer[0];
+    private long mask;
+    private final DataOutputStream out;
+    private PrintWriter tombstones;
+    private byte[] lastKey = new byte[0];
+    private long count;
+
+    /**
+     * Manifest class constructor; loads previous manifest if it exists
+     *
+     * @param path     manifest file path
+     * @param property SDF property identifying records, e.g. ChEBI ID
+     * @throws IOException if previous manifest can't be read or is for another property
+     */
+    Manifest(Path path, String property) throws IOException {
+        this.path = path;
+        this.property = property;
+        this.previous = Files.exists(path);
+        if (previous) {
+            load();
+        }
+        Path parent = path.toAbsolutePath().getParent();
+        next = Files.createTempFile(parent, path.getFileName().toString(), ".tmp");
+        out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(next), 1 << 16));
+        out.writeInt(MAGIC);
+        out.writeUTF(property);
+        out.writeLong(-1);  // entry count, written on close
+    }
+
+    /**
+     * @return SDF property identifying records
+     */
+    String getProperty() {
+        return property;
+    }
+
+    /**
+     * Compute 64-bit key fingerprint; 0 marks empty slots
+     */
+    private static long fingerprint(String key) {
+        long h = DuplicateFilter.hash(key, 0x6a09e667f3bcc908L);
+        return h == 0 ? 1 : h;
+    }
+
+    /**
+     * Finish record content hash computed with {@link LineReader#hashLine(long)}
+     *
+     * @param hash FNV-1a hash of record lines
+     * @return content hash without the seen flag bit
+     */
+    static long contentHash(long hash) {
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        return hash & ~SEEN;
+    }
+
+    /**
+     * Initial value for {@link LineReader#hashLine(long)}
+     */
+    static long contentHashStart() {
+        return 0xcbf29ce484222325L;
+    }
+
+    /**
+     * Read entries of previous manifest
+     */
+    private interface EntryConsumer {
+        void accept(String key, long hash);
+    }
+
+    private long read(EntryConsumer consumer) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(path), 1 << 16))) {
+            if (in.readInt() != MAGIC) {
+                throw new IOException(path + " is not an SDFEater manifest");
+            }
+            String manifestProperty = in.readUTF();
+            if (!manifestProperty.equals(property)) {
+                throw new IOException(path + " has keys of " + manifestProperty + ", not " + property);
+            }
+            long entries = in.readLong();
+            if (entries < 0) {
+                throw new IOException(path + " is incomplete");
+            }
+            byte[] key = new byte[64];
+            for (long i = 0; i < entries; i++) {
+                int shared = readVarInt(in);
+                int suffix = readVarInt(in);
+                if (shared + suffix > key.length) {
+                    byte[] bigger = new byte[Math.max(key.length * 2, shared + suffix)];
+                    System.arraycopy(key, 0, bigger, 0, shared);
+                    key = bigger;
+                }
+                in.readFully(key, shared, suffix);
+                consumer.accept(new String(key, 0, shared + suffix, StandardCharsets.UTF_8), in.readLong());
+            }
+            return entries;
+        }
+    }
+
+    /**
+     * Load previous manifest into lookup table
+     */
+    private void load() throws IOException {
+        long entries;
+        try (DataInputStream in = new DataInputStream(Files.newInputStream(path))) {
+            in.readInt();
+            in.readUTF();
+            entries = in.readLong();
+        }
+        long slots = Long.highestOneBit(Math.max(16, entries * 4 / 3 + 1)) << 1;
+        mask = slots - 1;
+        segments = new ByteBuffer[(int) ((slots + SEGMENT_SLOTS - 1) / SEGMENT_SLOTS)];
+        for (int i = 0; i < segments.length; i++) {
+            segments[i] = ByteBuffer.allocateDirect((int) Math.min(SEGMENT_SLOTS, slots - (long) i * SEGMENT_SLOTS) * SLOT);
+        }
+        read((key, hash) -> {
+            long fp = fingerprint(key);
+            long slot = find(fp);
+            setSlot(slot, fp, hash & ~SEEN);
+        });
+    }
+
+    /**
+     * Find slot of fingerprint, or the empty slot where it belongs
+     */
+    private long find(long fp) {
+        long slot = fp & mask;
+        while (true) {
+            long stored = segment(slot).getLong(offset(slot));
+            if (stored == 0 || stored == fp) {
+                return slot;
+            }
+            slot = (slot + 1) & mask;
+        }
+    }
+
+    private ByteBuffer segment(long slot) {
+        return segments[(int) (slot / SEGMENT_SLOTS)];
+    }
+
+    private static int offset(long slot) {
+        return (int) (slot % SEGMENT_SLOTS) * SLOT;
+    }
+
+    private void setSlot(long slot, long fp, long value) {
+        ByteBuffer segment = segment(slot);
+        segment.putLong(offset(slot), fp);
+        segment.putLong(offset(slot) + 8, value);
+    }
+
+    /**
+     * Check record against previous manifest; the key is no longer reported
+     * as removed
+     *
+     * @param key  record key
+     * @param hash record content hash from {@link #contentHash(long)}
+     * @return change of the record since previous conversion
+     */
+    Change check(String key, long hash) {
+        if (!previous) {
+            return Change.ADDED;
+        }
+        long fp = fingerprint(key);
+        long slot = find(fp);
+        ByteBuffer segment = segment(slot);
+        if (segment.getLong(offset(slot)) == 0) {
+            return Change.ADDED;
+        }
+        long stored = segment.getLong(offset(slot) + 8);
+        segment.putLong(offset(slot) + 8, stored | SEEN);
+        return (stored & ~SEEN) == hash ? Change.UNCHANGED : Change.CHANGED;
+    }
+
+    /**
+     * Add converted record to the new manifest
+     *
+     * @param key  record key
+     * @param hash record content hash from {@link #contentHash(long)}
+     * @throws IOException if new manifest can't be written
+     */
+    void add(String key, long hash) throws IOException {
+        byte[] bytes = key.getBytes(StandardCharsets.UTF_8);
+        int shared = 0;
+        int max = Math.min(bytes.length, lastKey.length);
+        while (shared < max && bytes[shared] == lastKey[shared]) {
+            shared++;
+        }
+        writeVarInt(out, shared);
+        writeVarInt(out, bytes.length - shared);
+        out.write(bytes, shared, bytes.length - shared);
+        out.writeLong(hash);
+        lastKey = bytes;
+        count++;
+    }
+
+    /**
+     * Report keys of previous manifest which were not in this conversion
+     *
+     * @param removed consumer of removed keys
+     * @throws IOException if previous manifest can't be read
+     */
+    void removed(java.util.function.Consumer<String> removed) throws IOException {
+        if (!previous) {
+            return;
+        }
+        read((key, hash) -> {
+            long slot = find(fingerprint(key));
+            if ((segment(slot).getLong(offset(slot) + 8) & SEEN) == 0) {
+                removed.accept(key);
+            }
+        });
+    }
+
+    /**
+     * Write tombstone of removed or changed record to {@code <manifest>.tombstones},
+     * for formats which can't express deletions
+     *
+     * @param change kind of change, e.g. removed
+     * @param key    record key
+     * @throws IOException if tombstone file can't be created
+     */
+    void tombstone(String change, String key) throws IOException {
+        if (tombstones == null) {
+            tombstones = new PrintWriter(Files.newBufferedWriter(tombstonesPath(), StandardCharsets.UTF_8));
+        }
+        tombstones.println(change + "\t" + key);
+    }
+
+    /**
+     * Complete new manifest and replace the previous one with it
+     *
+     * @throws IOException if manifest can't be written
+     */
+    void commit() throws IOException {
+        out.close();
+        if (tombstones == null) {
+            // tombstones of previous conversion don't apply to this one
+            Files.deleteIfExists(tombstonesPath());
+        }
+        closeTombstones();
+        try (RandomAccessFile file = new RandomAccessFile(next.toFile(), "rw")) {
+            file.seek(4 + 2 + property.getBytes(StandardCharsets.UTF_8).length);
+            file.writeLong(count);
+        }
+        Files.move(next, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Discard new manifest if it wasn't committed
+     */
+    @Override
+    public void close() throws IOException {
+        out.close();
+        closeTombstones();
+        Files.deleteIfExists(next);
+    }
+
+    private Path tombstonesPath() {
+        return path.resolveSibling(path.getFileName() + ".tombstones");
+    }
+
+    private void closeTombstones() throws IOException {
+        if (tombstones != null) {
+            tombstones.close();
+            if (tombstones.checkError()) {
+                throw new IOException("Can't write tombstones of " + path);
+            }
+        }
+    }
+
+    private static void writeVarInt(DataOutputStream out, int value) throws IOException {
+        while ((value & ~0x7f) != 0) {
+            out.write((value & 0x7f) | 0x80);
+            value >>>= 7;
+        }
+        out.write(value);
+    }
+
+    private static int readVarInt(DataInputStream in) throws IOException {
+        int value = 0;
+        for (int shift = 0; ; shift += 7) {
+            int b = in.readUnsignedByte();
+            value |= (b & 0x7f) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+    }
+}
@@ -0,0 +1,623 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2017-2019 Łukasz Szeremeta.
+ * Copyright 2018-2019 Dominik Tomaszuk.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package pl.edu.uwb.ii.sdfeater;
+
+import org.apache.jena.datatypes.TypeMapper;
+import org.apache.jena.graph.Factory;
+import org.apache.jena.graph.Graph;
+import org.apache.jena.graph.Node;
+import org.apache.jena.graph.NodeFactory;
+import org.apache.jena.graph.Triple;
+import org.apache.jena.graph.impl.GraphBase;
+import org.apache.jena.rdf.model.Model;
+import org.apache.jena.rdf.model.ModelFactory;
+import org.apache.jena.util.iterator.ExtendedIterator;
+import org.apache.jena.util.iterator.NiceIterator;
+import org.apache.jena.util.iterator.NullIterator;
+import org.apache.jena.util.iterator.WrappedIterator;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * Builder of Jena model for formats written as a whole (turtle, rdfxml, rdfthrift)
+ * <p>
+ * Molecule triples are created in the calling thread, so subject IDs follow
+ * input order, and added to graphs of worker threads (partitions). A
+ * partition over its share of the memory budget spills its graph to a
+ * temporary file as a run of triples sorted by subject, followed by a table
+ * of subject offsets; only the position of each run's table stays on heap.
+ * The built model is a read-only union of the partitions; triples of a
+ * subject are found by binary search of the tables, other patterns scan the
+ * runs. Partitions don't need to be merged, as each
+ * molecule has its own subject.
+ */
+class ModelBuilder implements Closeable {
+
+    /**
+     * Estimated heap size of triple in in-memory graph, without literal text
+     */
+    private static final long TRIPLE_BYTES = 160;
+    private static final List<Triple> END = new ArrayList<>();
+    private static final byte URI = 0, BLANK = 1, LITERAL = 2;
+
+    /**
+     * Default number of worker threads
+     */
+    static final int DEFAULT_WORKERS = Math.min(4, Runtime.getRuntime().availableProcessors());
+
+    /**
+     * Default memory budget: a quarter of maximum heap size, leaving the
+     * rest for the writer
+     *
+     * @return memory budget in bytes
+     */
+    static long defaultMemory() {
+        return Runtime.getRuntime().maxMemory() / 4;
+    }
+
+    private final List<Partition> partitions = new ArrayList<>();
+    private final List<BlockingQueue<List<Triple>>> queues = new ArrayList<>();
+    private final List<Thread> threads = new ArrayList<>();
+    private int next;
+    private volatile IOException failure;
+    private boolean blankObjects;
+    private Model model;
+
+    /**
+     * ModelBuilder class constructor
+     *
+     * @param workers number of worker threads, 0 to add triples in the calling thread
+     * @param memory  memory budget in bytes of in-memory graphs
+     */
+    ModelBuilder(int workers, long memory) {
+        long partitionMemory = memory / Math.max(1, workers);
+        for (int i = 0; i < Math.max(1, workers); i++) {
+            partitions.add(new Partition(partitionMemory));
+        }
+        for (int i = 0; i < workers; i++) {
+            Partition partition = partitions.get(i);
+            BlockingQueue<List<Triple>> queue = new ArrayBlockingQueue<>(256);
+            Thread thread = new Thread(() -> {
+                try {
+                    for (List<Triple> triples = queue.take(); triples != END; triples = queue.take()) {
+                        if (failure == null) {
+                            try {
+                                partition.add(triples);
+                            } catch (IOException e) {
+                                failure = e;
+                            }
+                        }
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }, "sdfeater-model-" + i);
+            thread.setDaemon(true);
+            thread.start();
+            queues.add(queue);
+            threads.add(thread);
+        }
+    }
+
+    /**
+     * Add main molecule data
+     *
+     * @param molecule molecule
+     * @param subject  subject type
+     * @throws UncheckedIOException if graph can't be spilled to disk
+     */
+    void add(Molecule molecule, SDFEater.Subject subject) {
+        check();
+        List<Triple> triples = molecule.jenaTriples(subject);
+        for (Triple triple : triples) {
+            blankObjects |= triple.getObject().isBlank();
+        }
+        if (queues.isEmpty()) {
+            try {
+                partitions.get(0).add(triples);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            return;
+        }
+        try {
+            queues.get(next).put(triples);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while adding molecule", e);
+        }
+        next = (next + 1) % queues.size();
+    }
+
+    private void check() {
+        if (failure != null) {
+            throw new UncheckedIOException(failure);
+        }
+    }
+
+    /**
+     * Wait for workers and get model of all added molecules; molecules can't
+     * be added afterwards
+     *
+     * @return read-only model with prefixes of RDF formats
+     * @throws UncheckedIOException if graph can't be spilled to disk
+     */
+    Model build() {
+        if (model != null) {
+            return model;
+        }
+        for (BlockingQueue<List<Triple>> queue : queues) {
+            try {
+                queue.put(END);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("Interrupted while building model", e);
+            }
+        }
+        for (Thread thread : threads) {
+            try {
+                thread.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("Interrupted while building model", e);
+            }
+        }
+        check();
+        boolean spilled = false;
+        for (Partition partition : partitions) {
+            try {
+                partition.finish();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            spilled |= partition.spill != null;
+        }
+        Graph graph = partitions.size() == 1 && !spilled ? partitions.get(0).graph : new PartitionedGraph();
+        model = ModelFactory.createModelForGraph(graph);
+        model.setNsPrefixes(SDFEater.createJenaModel().getNsPrefixMap());
+        return model;
+    }
+
+    /**
+     * Stop workers and delete spilled graphs
+     *
+     * @throws IOException if temporary files can't be deleted
+     */
+    @Override
+    public void close() throws IOException {
+        for (Thread thread : threads) {
+            thread.interrupt();
+        }
+        IOException error = null;
+        for (Partition partition : partitions) {
+            try {
+                partition.close();
+            } catch (IOException e) {
+                error = e;
+            }
+        }
+        if (error != null) {
+            throw error;
+        }
+    }
+
+    /**
+     * Graph of one worker, with triples spilled to disk
+     */
+    private static final class Partition implements Closeable {
+        private final long memory;
+        private Graph graph = Factory.createGraphMem();
+        private long bytes;
+        private Path spill;
+        private OutputStream spillOut;
+        private long spillSize;
+        private long spilledTriples;
+        private FileChannel channel;
+        /**
+         * Spilled runs: offset of subject offset table and number of subjects
+         */
+        private final List<long[]> runs = new ArrayList<>();
+        /**
+         * Scans of spill file not read to the end, closed with partition
+         */
+        private final Set<SpillIterator> open = new HashSet<>();
+        private final ByteBuffer probe = ByteBuffer.allocate(8);
+        /**
+         * Run and group index of last subject found in spill file
+         */
+        private int lastRun = -1;
+        private long lastGroup;
+
+        Partition(long memory) {
+            this.memory = memory;
+        }
+
+        void add(List<Triple> triples) throws IOException {
+            for (Triple triple : triples) {
+                graph.add(triple);
+                bytes += TRIPLE_BYTES;
+                if (triple.getObject().isLiteral()) {
+                    bytes += 2L * triple.getObject().getLiteralLexicalForm().length();
+                }
+            }
+            if (bytes > memory) {
+                spill();
+            }
+        }
+
+        /**
+         * Write graph sorted by subject to spill file and clear it
+         */
+        private void spill() throws IOException {
+            if (spill == null) {
+                spill = Files.createTempFile("sdfeater-model", ".bin");
+                spill.toFile().deleteOnExit();
+                spillOut = new BufferedOutputStream(Files.newOutputStream(spill), 1 << 16);
+            }
+            Map<Node, List<Triple>> subjects = new TreeMap<>(Comparator.comparing(ModelBuilder::subjectKey));
+            for (Iterator<Triple> it = graph.find(); it.hasNext(); ) {
+                Triple triple = it.next();
+                subjects.computeIfAbsent(triple.getSubject(), s -> new ArrayList<>()).add(triple);
+            }
+            ByteArrayOutputStream group = new ByteArrayOutputStream();
+            DataOutputStream groupOut = new DataOutputStream(group);
+            // group offsets are written to the file as the run's table
+            ByteArrayOutputStream table = new ByteArrayOutputStream(8 * subjects.size());
+            DataOutputStream tableOut = new DataOutputStream(table);
+            for (Map.Entry<Node, List<Triple>> entry : subjects.entrySet()) {
+                group.reset();
+                writeNode(groupOut, entry.getKey());
+                groupOut.writeInt(entry.getValue().size());
+                for (Triple triple : entry.getValue()) {
+                    writeNode(groupOut, triple.getPredicate());
+                    writeNode(groupOut, triple.getObject());
+                }
+                tableOut.writeLong(spillSize);
+                group.writeTo(spillOut);
+                spillSize += group.size();
+                spilledTriples += entry.getValue().size();
+            }
+            graph = Factory.createGraphMem();
+            runs.add(new long[]{spillSize, subjects.size()});
+            table.writeTo(spillOut);
+            spillSize += table.size();
+            bytes = 0;
+        }
+
+        void finish() throws IOException {
+            if (spillOut != null) {
+                spillOut.close();
+                spillOut = null;
+                channel = FileChannel.open(spill, StandardOpenOption.READ);
+            }
+        }
+
+        /**
+         * Get triples of subject; all of them were added at once, so they
+         * are either in the graph or in one spilled run
+         *
+         * @param subject concrete subject
+         * @return triples of subject, null if partition has none
+         */
+        List<Triple> subjectTriples(Node subject) {
+            List<Triple> triples = graph.find(subject, Node.ANY, Node.ANY).toList();
+            if (!triples.isEmpty() || spill == null) {
+                return triples.isEmpty() ? null : triples;
+            }
+            String key = subjectKey(subject);
+            try {
+                // writers look subjects up in scan order, so the group after
+                // the last one found is tried first
+                long offset = -1;
+                if (lastRun >= 0 && lastGroup + 1 < runs.get(lastRun)[1] && key.equals(readKey(runs.get(lastRun), lastGroup + 1))) {
+                    offset = groupOffset(runs.get(lastRun), ++lastGroup);
+                }
+                for (int i = 0; i < runs.size() && offset < 0; i++) {
+                    int run = (Math.max(lastRun, 0) + i) % runs.size();
+                    long group = findGroup(runs.get(run), key);
+                    if (group >= 0) {
+                        lastRun = run;
+                        lastGroup = group;
+                        offset = groupOffset(runs.get(run), group);
+                    }
+                }
+                if (offset < 0) {
+                    return null;
+                }
+                channel.position(offset);
+                readGroup(new DataInputStream(new BufferedInputStream(Channels.newInputStream(channel), 1024)), triples);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            return triples;
+        }
+
+        /**
+         * Find triples of pattern in spill file
+         */
+        ExtendedIterator<Triple> findSpilled(Triple pattern) {
+            if (spill == null) {
+                return NullIterator.instance();
+            }
+            return new SpillIterator().filterKeep(pattern::matches);
+        }
+
+        /**
+         * Binary search of run's table for subject group
+         *
+         * @param run     offset of table and number of subjects
+         * @param subject subject key in the order of spilled groups
+         * @return index of subject group, -1 if run has no triples of subject
+         */
+        private long findGroup(long[] run, String subject) throws IOException {
+            long low = 0;
+            long high = run[1] - 1;
+            while (low <= high) {
+                long middle = (low + high) >>> 1;
+                int comparison = readKey(run, middle).compareTo(subject);
+                if (comparison < 0) {
+                    low = middle + 1;
+                } else if (comparison > 0) {
+                    high = middle - 1;
+                } else {
+                    return middle;
+                }
+            }
+            return -1;
+        }
+
+        private long groupOffset(long[] run, long group) throws IOException {
+            return read(run[0] + 8 * group, 8).getLong(0);
+        }
+
+        /**
+         * Read subject key of group; subject node is its type and string
+         */
+        private String readKey(long[] run, long group) throws IOException {
+            long offset = groupOffset(run, group);
+            ByteBuffer node = read(offset, 5);
+            byte type = node.get(0);
+            byte[] label = new byte[node.getInt(1)];
+            read(offset + 5, ByteBuffer.wrap(label));
+            return (char) type + new String(label, StandardCharsets.UTF_8);
+        }
+
+        private ByteBuffer read(long offset, int length) throws IOException {
+            probe.clear().limit(length);
+            return read(offset, probe);
+        }
+
+        private ByteBuffer read(long offset, ByteBuffer buffer) throws IOException {
+            while (buffer.hasRemaining()) {
+                if (channel.read(buffer, offset + buffer.position()) < 0) {
+                    throw new EOFException();
+                }
+            }
+            return buffer;
+        }
+
+        @Override
+        public void close() throws IOException {
+            for (SpillIterator iterator : new ArrayList<>(open)) {
+                iterator.close();
+            }
+            if (spillOut != null) {
+                spillOut.close();
+            }
+            if (channel != null) {
+                channel.close();
+            }
+            if (spill != null) {
+                Files.deleteIfExists(spill);
+            }
+        }
+
+        /**
+         * Sequential reader of all spilled triples; the file is opened on
+         * first read and closed at its end, by the consumer, or with the
+         * partition if the consumer stops early without closing
+         */
+        private final class SpillIterator extends NiceIterator<Triple> {
+            private DataInputStream in;
+            private final List<Triple> group = new ArrayList<>();
+            private int run;
+            private long remainingGroups;
+            private int position;
+
+            @Override
+            public boolean hasNext() {
+                if (position < group.size()) {
+                    return true;
+                }
+                group.clear();
+                position = 0;
+                try {
+                    if (in == null) {
+                        if (run == runs.size()) {
+                            return false;
+                        }
+                        in = new DataInputStream(new BufferedInputStream(Files.newInputStream(spill), 1 << 16));
+                        open.add(this);
+                        remainingGroups = runs.get(0)[1];
+                    }
+                    while (remainingGroups == 0) {
+                        if (++run == runs.size()) {
+                            close();
+                            return false;
+                        }
+                        // skip table of previous run
+                        in.skipBytes(8 * (int) runs.get(run - 1)[1]);
+                        remainingGroups = runs.get(run)[1];
+                    }
+                    readGroup(in, group);
+                } catch (IOException e) {
+                    close();
+                    throw new UncheckedIOException(e);
+                }
+                remainingGroups--;
+                return true;
+            }
+
+            @Override
+            public Triple next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                return group.get(position++);
+            }
+
+            @Override
+            public void close() {
+                run = runs.size();
+                group.clear();
+                position = 0;
+                if (in == null) {
+                    return;
+                }
+                open.remove(this);
+                try {
+                    in.close();
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                } finally {
+                    in = null;
+                }
+            }
+        }
+    }
+
+    /**
+     * Order of subject groups in spilled runs: node type and string as
+     * written, so runs are searched without reading nodes
+     */
+    private static String subjectKey(Node subject) {
+        if (subject.isURI()) {
+            return (char) URI + subject.getURI();
+        } else if (subject.isBlank()) {
+            return (char) BLANK + subject.getBlankNodeLabel();
+        }
+        return (char) LITERAL + subject.toString();
+    }
+
+    private static void readGroup(DataInputStream in, List<Triple> triples) throws IOException {
+        Node subject = readNode(in);
+        for (int count = in.readInt(); count > 0; count--) {
+            triples.add(Triple.create(subject, readNode(in), readNode(in)));
+        }
+    }
+
+    private static void writeNode(DataOutputStream out, Node node) throws IOException {
+        if (node.isURI()) {
+            out.writeByte(URI);
+            writeString(out, node.getURI());
+        } else if (node.isBlank()) {
+            out.writeByte(BLANK);
+            writeString(out, node.getBlankNodeLabel());
+        } else {
+            out.writeByte(LITERAL);
+            writeString(out, node.getLiteralLexicalForm());
+            writeString(out, node.getLiteralLanguage());
+            writeString(out, node.getLiteralDatatypeURI());
+        }
+    }
+
+    private static Node readNode(DataInputStream in) throws IOException {
+        byte type = in.readByte();
+        if (type == URI) {
+            return NodeFactory.createURI(readString(in));
+        } else if (type == BLANK) {
+            return NodeFactory.createBlankNode(readString(in));
+        }
+        String lexical = readString(in);
+        String language = readString(in);
+        String datatype = readString(in);
+        return language.isEmpty() ? NodeFactory.createLiteral(lexical, TypeMapper.getInstance().getSafeTypeByName(datatype))
+                : NodeFactory.createLiteral(lexical, language);
+    }
+
+    /**
+     * Strings are written with int length, as literals may be longer than
+     * {@link DataOutputStream#writeUTF(String)} allows
+     */
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        byte[] bytes = new byte[in.readInt()];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Read-only union of partitions
+     */
+    private final class PartitionedGraph extends GraphBase {
+
+        @Override
+        protected ExtendedIterator<Triple> graphBaseFind(Triple pattern) {
+            if (pattern.getObject().isBlank() && !blankObjects) {
+                // pretty writers check if each blank subject is used as object
+                return NullIterator.instance();
+            }
+            if (pattern.getSubject().isConcrete()) {
+                // each molecule has its own subject, kept by one partition
+                for (Partition partition : partitions) {
+                    List<Triple> triples = partition.subjectTriples(pattern.getSubject());
+                    if (triples != null) {
+                        return WrappedIterator.create(triples.iterator()).filterKeep(pattern::matches);
+                    }
+                }
+                return NullIterator.instance();
+            }
+            ExtendedIterator<Triple> triples = NullIterator.instance();
+            for (Partition partition : partitions) {
+                triples = triples.andThen(partition.graph.find(pattern)).andThen(partition.findSpilled(pattern));
+            }
+            return triples;
+        }
+
+        @Override
+        protected int graphBaseSize() {
+            long size = 0;
+            for (Partition partition : partitions) {
+                size += partition.graph.size() + partition.spilledTriples;
+            }
+            return (int) Math.min(Integer.MAX_VALUE, size);
+        }
+    }
+}
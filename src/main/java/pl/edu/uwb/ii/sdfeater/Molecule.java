@@ -24,20 +24,17 @@
  */
 package pl.edu.uwb.ii.sdfeater;
 
-import com.google.gson.GsonBuilder;
-import org.apache.jena.rdf.model.Property;
-import org.apache.jena.rdf.model.Resource;
-import org.apache.jena.rdf.model.ResourceFactory;
+import org.apache.jena.graph.Node;
+import org.apache.jena.graph.NodeFactory;
+import org.apache.jena.graph.Triple;
 import org.apache.jena.vocabulary.RDF;
 
+import java.io.PrintStream;
 import java.net.MalformedURLException;
 import java.net.URISyntaxException;
 import java.net.URL;
+import java.nio.charset.StandardCharsets;
 import java.util.*;
-import java.util.concurrent.atomic.AtomicLong;
-
-import static pl.edu.uwb.ii.sdfeater.SDFEater.jenaModel;
-import static pl.edu.uwb.ii.sdfeater.SDFEater.periodic_table_data;
 
 /**
  * Class that stores information about chemical molecule
@@ -54,39 +51,164 @@ class Molecule {
     private static final byte UNDERLINE = 1;
 
     /**
-     * Incremental ID
+     * SDF keys used by schema.org based formats (RDF, JSON-LD, RDFa, Microdata)
+     */
+    static final String[] SCHEMA_ORG_KEYS = {"ChEBI ID", "DATABASE_ID", "DRUGBANK_ID", "SMILES", "Formulae", "FORMULA", "Definition",
+            "InChIKey", "INCHI_KEY", "InChI", "INCHI_IDENTIFIER", "Mass", "MOLECULAR_WEIGHT", "IUPAC Names", "JCHEM_IUPAC",
+            "CAS Registry Numbers", "CAS_NUMBER", "Synonyms", "SYNONYMS", "ChEBI Name", "COMMON_NAME", "GENERIC_NAME"};
+
+    /**
+     * SDF keys used by CVME format
+     */
+    static final String[] CVME_KEYS = {"SMILES", "Formulae", "Definition", "InChIKey", "InChI", "Mass", "IUPAC Names",
+            "CAS Registry Numbers", "Synonyms", "PubMed Citation Links", "KNApSAcK Database Links",
+            "LIPID MAPS instance Database Links", "UniProt Database Links", "Rhea Database Links",
+            "KEGG COMPOUND Database Links", "Patent Database Links", "PubChem Database Links"};
+
+    /**
+     * Schema.org names and N-Triples predicates (with surrounding spaces) of
+     * SDF keys in schema.org based formats
+     */
+    private static final Map<String, String> SCHEMA_ORG_NAMES = new HashMap<>();
+    private static final Map<String, String> NTRIPLES_PREDICATES = new HashMap<>();
+    private static final String NTRIPLES_TYPE = " <http://www.w3.org/1999/02/22-rdf-syntax-ns#type> \"http://schema.org/MolecularEntity\"";
+
+    static {
+        String[][] keys = {{"ChEBI ID", "url"}, {"DATABASE_ID", "url"}, {"DRUGBANK_ID", "url"}, {"SMILES", "smiles"},
+                {"Formulae", "molecularFormula"}, {"FORMULA", "molecularFormula"}, {"Definition", "description"},
+                {"InChIKey", "inChIKey"}, {"INCHI_KEY", "inChIKey"}, {"InChI", "inChI"}, {"INCHI_IDENTIFIER", "inChI"},
+                {"Mass", "molecularWeight"}, {"MOLECULAR_WEIGHT", "molecularWeight"}, {"IUPAC Names", "iupacName"},
+                {"JCHEM_IUPAC", "iupacName"}, {"CAS Registry Numbers", "identifier"}, {"CAS_NUMBER", "identifier"},
+                {"Synonyms", "alternateName"}, {"SYNONYMS", "alternateName"}, {"ChEBI Name", "name"},
+                {"COMMON_NAME", "name"}, {"GENERIC_NAME", "name"}};
+        for (String[] key : keys) {
+            String iri = "http://schema.org/" + key[1];
+            SCHEMA_ORG_NAMES.put(key[0], key[1]);
+            NTRIPLES_PREDICATES.put(key[0], " <" + iri + "> ");
+        }
+    }
+
+    /**
+     * Jena nodes of schema.org predicates; created on first use, so that Jena
+     * is initialized only by formats built with it
      */
-    private static final AtomicLong idCounter = new AtomicLong();
+    private static final class JenaNodes {
+        static final Map<String, Node> PREDICATES = new HashMap<>();
+        static final Node TYPE = NodeFactory.createLiteral("http://schema.org/MolecularEntity");
+
+        static {
+            SCHEMA_ORG_NAMES.forEach((key, name) -> PREDICATES.put(key, NodeFactory.createURI("http://schema.org/" + name)));
+        }
+    }
+
     /**
-     * Stores atoms data
+     * Stores atoms data; filled lazily from raw CTAB lines, see {@link #parseStructure()}
      */
     final List<Atom> atoms = new ArrayList<>();
 
     /**
-     * Stores bonds data
+     * Stores bonds data; filled lazily from raw CTAB lines, see {@link #parseStructure()}
      */
     final List<Bond> bonds = new ArrayList<>();
+
     /**
-     * Stores all properties of the chemical molecule
+     * Raw CTAB atom and bond lines, separated by '\n'
      */
-    private final Map<String, List<String>> properties = new HashMap<>();
+    private byte[] ctab = new byte[4096];
+    private int ctabLength;
+    /**
+     * Stores all properties of the chemical molecule, in file order, so
+     * output is the same for the same input
+     */
+    private final Map<String, List<String>> properties = new LinkedHashMap<>();
 
     /**
-     * Subject base of molecule
+     * Conversion job of molecule, with its subject base and ID counter
      */
-    String subjectBase = "https://example.com/molecule#entity";
+    final ConversionContext context;
 
     private UUID uuid;
 
+    /**
+     * Subject ID and schema.org values, shared by all formats written from
+     * the molecule; created when first needed
+     */
+    private String id;
+    private String iri;
+    private List<String[]> schemaOrgProperties;
+
+    /**
+     * Molecule class constructor, in a new conversion job with default subject base
+     */
     Molecule() {
+        this(new ConversionContext());
+    }
+
+    /**
+     * Molecule class constructor
+     *
+     * @param context conversion job of molecule
+     */
+    Molecule(ConversionContext context) {
+        this.context = context;
         uuid = UUID.randomUUID();
     }
 
     /**
-     * Create incremental ID
+     * Get incremental ID of molecule, the same for all formats
+     *
+     * @return molecule ID
+     */
+    private String subjectID() {
+        if (id == null) {
+            id = context.createID();
+        }
+        return id;
+    }
+
+    /**
+     * Get subject IRI of molecule for 'iri' subject type
+     *
+     * @return subject base followed by molecule ID
      */
-    private static String createID() {
-        return String.valueOf(idCounter.getAndIncrement());
+    private String subjectIRI() {
+        if (iri == null) {
+            iri = context.subjectBase + subjectID();
+        }
+        return iri;
+    }
+
+    /**
+     * Get schema.org properties of molecule, in file order
+     *
+     * @return SDF key, schema.org property name and value of each property
+     * used by schema.org based formats
+     */
+    private List<String[]> schemaOrgProperties() {
+        if (schemaOrgProperties == null) {
+            schemaOrgProperties = new ArrayList<>();
+            for (Map.Entry<String, List<String>> entry : properties.entrySet()) {
+                String name = SCHEMA_ORG_NAMES.get(entry.getKey());
+                if (name != null) {
+                    schemaOrgProperties.add(new String[]{entry.getKey(), name, context.links.url(entry.getKey(), entry.getValue().get(0))});
+                }
+            }
+        }
+        return schemaOrgProperties;
+    }
+
+    /**
+     * Get schema.org name of molecule
+     *
+     * @return value of first property mapped to schema.org name, null if none
+     */
+    String schemaOrgName() {
+        for (String[] property : schemaOrgProperties()) {
+            if ("name".equals(property[1])) {
+                return property[2];
+            }
+        }
+        return null;
     }
 
     /**
@@ -121,34 +243,110 @@ class Molecule {
         properties.get(propertyName).add(propertyValue); // adds property value to list
     }
 
+    /**
+     * Remove property with all its values
+     *
+     * @param propertyName property name (key)
+     */
+    void removeProperty(String propertyName) {
+        properties.remove(propertyName);
+    }
+
+    /**
+     * Store raw CTAB line to be parsed only if output format needs atoms and bonds
+     *
+     * @param bytes  buffer with line
+     * @param offset line start
+     * @param length line length
+     */
+    void addCtabLine(byte[] bytes, int offset, int length) {
+        if (ctabLength + length + 1 > ctab.length) {
+            ctab = Arrays.copyOf(ctab, Math.max(ctab.length * 2, ctabLength + length + 1));
+        }
+        System.arraycopy(bytes, offset, ctab, ctabLength, length);
+        ctabLength += length;
+        ctab[ctabLength++] = '\n';
+    }
+
+    /**
+     * Parse stored raw CTAB lines into atoms and bonds
+     */
+    void parseStructure() {
+        int lineStart = 0;
+        for (int i = 0; i < ctabLength; i++) {
+            if (ctab[i] == '\n') {
+                parseCtabLine(new String(ctab, lineStart, i - lineStart, StandardCharsets.ISO_8859_1));
+                lineStart = i + 1;
+            }
+        }
+        ctabLength = 0;
+    }
+
+    /**
+     * Parse atom or bond line of the CTAB block
+     *
+     * @param strLine CTAB line
+     */
+    private void parseCtabLine(String strLine) {
+        // TODO: V3000
+
+        String[] tokens = strLine.split("\\s+");
+
+        if (tokens.length == 16) {
+            atoms.add(new Atom(tokens[3], Float.parseFloat(tokens[0]), Float.parseFloat(tokens[1]), Float.parseFloat(tokens[2])));
+        }
+
+        // V2000, V3000; comment text exclusion
+        if ((tokens.length == 7 && !tokens[6].startsWith("V") && isInt(tokens[0]) || tokens.length == 6 && isInt(tokens[0]))) {
+            bonds.add(new Bond(Integer.parseInt(tokens[0]), Byte.parseByte(tokens[2]), Integer.parseInt(tokens[1]), Byte.parseByte(tokens[3])));
+        }
+    }
+
+    private boolean isInt(String s) {
+        try {
+            Integer.parseInt(s);
+        } catch (NumberFormatException e) {
+            return false;
+        }
+        return true;
+    }
+
     /**
      * Print properties keys and its values
+     *
+     * @param out output stream
      */
-    void printProperties() {
+    void printProperties(PrintStream out) {
         for (Map.Entry<String, List<String>> entry : properties.entrySet()) {
             String key = entry.getKey();
             List<String> values = entry.getValue();
-            System.out.println("Key = " + key);
-            System.out.println("Values = " + values);
+            out.println("Key = " + key);
+            out.println("Values = " + values);
         }
     }
 
     /**
      * Print atoms data
+     *
+     * @param out output stream
      */
-    void printAtoms() {
+    void printAtoms(PrintStream out) {
+        parseStructure();
         for (Atom atom : atoms) {
-            System.out.println(atom.toString());
+            out.println(atom.toString());
         }
     }
 
     /**
      * Print bonds data
+     *
+     * @param out output stream
      */
-    void printBonds() {
+    void printBonds(PrintStream out) {
+        parseStructure();
         for (Bond bond : bonds) {
             try {
-                System.out.println("(" + atoms.get(bond.atom1 - 1).symbol + "[" + bond.atom1 + "])--" + bond.type + "--(" + atoms.get(bond.atom2 - 1).symbol + "[" + bond.atom2 + "])");
+                out.println("(" + atoms.get(bond.atom1 - 1).symbol + "[" + bond.atom1 + "])--" + bond.type + "--(" + atoms.get(bond.atom2 - 1).symbol + "[" + bond.atom2 + "])");
             } catch (Exception e) {
                 System.err.println("Error in printBonds(): " + e.toString());
             }
@@ -162,51 +360,126 @@ class Molecule {
      * @param propertyName property name (key)
      * @return list of property values
      */
-    List getPropertiesByName(String propertyName) {
+    List<String> getPropertiesByName(String propertyName) {
         return properties.get(propertyName);
     }
 
+    /**
+     * Print molecule, its atoms and bonds in Cypher; molecules with more
+     * atoms and bonds than the job allows in one statement are written in
+     * chunks, see {@link #printCypherChunks(boolean, PrintStream)}
+     *
+     * @param periodicTable true to add periodic table data to atoms
+     * @param links         templates of database links, null to write values as they are
+     * @param out           output stream
+     */
+    void printCypher(boolean periodicTable, DatabaseLinks links, PrintStream out) {
+        parseStructure();
+        boolean chunked = context.cypherRows > 0 && atoms.size() + bonds.size() > context.cypherRows;
+        printCypherMolecule(chunked, links, out);
+        if (chunked) {
+            printCypherChunks(periodicTable, out);
+        } else {
+            printCypherAtoms(periodicTable, out);
+            printCypherBonds(out);
+        }
+    }
+
     /**
      * Print main molecule data in Cypher
+     *
+     * @param storeUUID true to store molecule UUID, by which chunked
+     *                  statements find the molecule
+     * @param links     templates of database links, null to write values as they are
+     * @param out       output stream
      */
-    void printCypherMolecule() {
-        StringBuilder val_tmp = new StringBuilder();
-        StringBuilder query_str = new StringBuilder("CREATE (c" + addUUID(UNDERLINE) + ":Molecule {");
+    private void printCypherMolecule(boolean storeUUID, DatabaseLinks links, PrintStream out) {
+        StringBuilder query_str = new StringBuilder("CREATE (c").append(addUUID(UNDERLINE)).append(":Molecule {");
 
-        for (Map.Entry<String, List<String>> entry : properties.entrySet()) {
-            String key = entry.getKey();
+        // links are appended straight from values; only properties whose
+        // links move to other names are grouped first
+        Map<String, List<String>> renamed = links != null ? renamedLinks(links) : null;
+        for (Map.Entry<String, List<String>> entry : (renamed != null ? renamed : properties).entrySet()) {
             List<String> values = entry.getValue();
-            query_str.append(key.replaceAll("\\s+|-", "").replaceAll("CAS Registry Numbers|CAS_NUMBER", "CASNumber")).append(": ");
+            DatabaseLinks.Link link = links != null && renamed == null ? links.link(entry.getKey()) : null;
+            query_str.append(cypherPropertyName(entry.getKey())).append(": ");
 
             if (values.size() > 1) {
                 query_str.append("[");
                 for (String value : values) {
-                    val_tmp.append(printValueAsNumberOrStringInCypher(value));
+                    appendCypherLink(query_str, link, value);
                 }
-                val_tmp = new StringBuilder(val_tmp.substring(0, val_tmp.length() - 2));
-                query_str.append(val_tmp).append("], ");
-                val_tmp = new StringBuilder();
+                query_str.setLength(query_str.length() - 2);
+                query_str.append("], ");
             } else {
-                String value = values.get(0);
-                query_str.append(printValueAsNumberOrStringInCypher(value));
+                appendCypherLink(query_str, link, values.get(0));
             }
         }
+        if (storeUUID) {
+            query_str.append("uuid: '").append(uuid).append("', ");
+        }
 
-        query_str = new StringBuilder(query_str.substring(0, query_str.length() - 2) + "})");
+        if (!properties.isEmpty() || storeUUID) {
+            query_str.setLength(query_str.length() - 2);
+        }
+        out.println(query_str.append("})"));
+    }
 
-        System.out.println(query_str);
+    /**
+     * Group property values as formats with database links write them:
+     * links of values are stored under names of their templates, in order
+     * of first occurrence
+     *
+     * @param links templates of database links
+     * @return properties with links, null if no template of record moves
+     * links to another name, so values can be linked while written
+     */
+    private Map<String, List<String>> renamedLinks(DatabaseLinks links) {
+        boolean renames = false;
+        for (String key : properties.keySet()) {
+            DatabaseLinks.Link link = links.link(key);
+            if (link != null && link.renames()) {
+                renames = true;
+                break;
+            }
+        }
+        if (!renames) {
+            return null;
+        }
+        Map<String, List<String>> renamed = new LinkedHashMap<>();
+        for (Map.Entry<String, List<String>> entry : properties.entrySet()) {
+            DatabaseLinks.Link link = links.link(entry.getKey());
+            for (String value : entry.getValue()) {
+                String key = link != null ? link.property(entry.getKey(), value) : entry.getKey();
+                renamed.computeIfAbsent(key, k -> new ArrayList<>(1)).add(link != null ? link.apply(value) : value);
+            }
+        }
+        return renamed;
     }
 
     /**
      * Print main molecule data in CVME
+     *
+     * @param links templates of database links
+     * @param out   output stream
      */
-    void printChemSKOSMolecule() {
+    void printChemSKOSMolecule(DatabaseLinks links, PrintStream out) {
         StringBuilder val_tmp = new StringBuilder();
         StringBuilder query_str = new StringBuilder();
 
-        for (Map.Entry<String, List<String>> entry : properties.entrySet()) {
+        // CVME tells URLs from other values by their text, so links are built as strings
+        Map<String, List<String>> renamed = renamedLinks(links);
+        for (Map.Entry<String, List<String>> entry : (renamed != null ? renamed : properties).entrySet()) {
             String key = entry.getKey();
             List<String> values = entry.getValue();
+            DatabaseLinks.Link link = renamed == null ? links.link(key) : null;
+            if (link != null) {
+                List<String> linked = new ArrayList<>(values.size());
+                for (String value : values) {
+                    linked.add(link.apply(value));
+                }
+                values = linked;
+            }
             //query_str += key.replaceAll("\\s+", "");
             if ("SMILES".equals(key)) {
                 String value = values.get(0);
@@ -325,82 +598,206 @@ class Molecule {
             }
 
         }
-        System.out.println(query_str);
+        out.println(query_str);
     }
 
     /**
-     * Add main molecule data to Jena model
+     * Create Jena triples of main molecule data
      *
      * @param subject subject type
+     * @return triples of molecule, empty if it has no properties
      */
-    void addToJenaModel(SDFEater.Subject subject) {
-        Resource me = ResourceFactory.createResource();
+    List<Triple> jenaTriples(SDFEater.Subject subject) {
+        List<Triple> triples = new ArrayList<>(properties.size() + 1);
+        if (properties.isEmpty()) {
+            return triples;
+        }
+        Node me;
+        if (subject == SDFEater.Subject.uuid) {
+            me = NodeFactory.createURI("urn:uuid:" + uuid);
+        } else if (subject == SDFEater.Subject.bnode) {
+            me = NodeFactory.createBlankNode();
+        } else {
+            me = NodeFactory.createURI(subjectIRI());
+        }
+
+        triples.add(Triple.create(me, RDF.Nodes.type, JenaNodes.TYPE));
+        for (String[] property : schemaOrgProperties()) {
+            triples.add(Triple.create(me, JenaNodes.PREDICATES.get(property[0]), NodeFactory.createLiteral(property[2])));
+        }
+        return triples;
+    }
 
-        if (subject == SDFEater.Subject.iri) {
-            me = ResourceFactory.createResource(subjectBase + createID());
-        } else if (subject == SDFEater.Subject.uuid) {
-            me = ResourceFactory.createResource("urn:uuid:" + uuid);
+    /**
+     * Print main molecule data in N-Triples, or in N-Quads with a named graph
+     * of the molecule, without building Jena model
+     *
+     * @param subject subject type
+     * @param quads   true for N-Quads
+     * @param out     output stream
+     */
+    void printNTriplesMolecule(SDFEater.Subject subject, boolean quads, PrintStream out) {
+        if (properties.isEmpty()) {
+            return;
+        }
+        String me;
+        if (subject == SDFEater.Subject.uuid) {
+            me = "<urn:uuid:" + uuid + ">";
         } else if (subject == SDFEater.Subject.bnode) {
-            me = ResourceFactory.createResource();
+            me = "_:b" + addUUID(STRIKE).replace("-", "");
+        } else {
+            me = "<" + subjectIRI() + ">";
+        }
+        String end = quads ? " " + me + " .\n" : " .\n";
+
+        StringBuilder output_str = new StringBuilder(1024);
+        output_str.append(me).append(NTRIPLES_TYPE).append(end);
+        for (String[] property : schemaOrgProperties()) {
+            output_str.append(me).append(NTRIPLES_PREDICATES.get(property[0])).append('"');
+            appendNTriplesString(output_str, property[2]);
+            output_str.append('"').append(end);
         }
+        out.print(output_str);
+    }
 
-        for (Map.Entry<String, List<String>> entry : properties.entrySet()) {
+    /**
+     * Print molecule as one self-contained line of JSON: subject, all
+     * properties (values of multi-valued ones as arrays) and, if requested,
+     * atom and bond tables as parallel arrays
+     *
+     * @param subject   subject type
+     * @param structure true to add atoms and bonds
+     * @param out       output stream
+     */
+    void printNDJSONMolecule(SDFEater.Subject subject, boolean structure, PrintStream out) {
+        StringBuilder output_str = new StringBuilder(1024);
+        output_str.append("{\"id\":");
+        if (subject == SDFEater.Subject.uuid) {
+            appendJSONString(output_str, "urn:uuid:" + uuid);
+        } else if (subject == SDFEater.Subject.bnode) {
+            appendJSONString(output_str, "_:b" + addUUID(STRIKE).replace("-", ""));
+        } else {
+            appendJSONString(output_str, subjectIRI());
+        }
 
-            String key = entry.getKey();
+        output_str.append(",\"properties\":{");
+        boolean first = true;
+        for (Map.Entry<String, List<String>> entry : properties.entrySet()) {
+            if (!first) {
+                output_str.append(',');
+            }
+            first = false;
+            appendJSONString(output_str, entry.getKey());
+            output_str.append(':');
             List<String> values = entry.getValue();
-            jenaModel.add(me, RDF.type, "http://schema.org/MolecularEntity");
-
-            if ("ChEBI ID".equals(key)) {
-                String value = "https://www.ebi.ac.uk/chebi/searchId.do?chebiId=" + values.get(0);
-                Property p = jenaModel.createProperty("http://schema.org/url");
-                jenaModel.add(me, p, value);
-            } else if ("DATABASE_ID".equals(key) || "DRUGBANK_ID".equals(key)) {
-                String value = "https://go.drugbank.com/drugs/" + values.get(0);
-                Property p = jenaModel.createProperty("http://schema.org/url");
-                jenaModel.add(me, p, value);
-            } else if ("SMILES".equals(key)) {
-                String value = values.get(0);
-                Property p = jenaModel.createProperty("http://schema.org/smiles");
-                jenaModel.add(me, p, value);
-            } else if ("Formulae".equals(key) || "FORMULA".equals(key)) {
-                String value = values.get(0);
-                Property p = jenaModel.createProperty("http://schema.org/molecularFormula");
-                jenaModel.add(me, p, value);
-            } else if ("Definition".equals(key)) {
-                String value = values.get(0);
-                Property p = jenaModel.createProperty("http://schema.org/description");
-                jenaModel.add(me, p, value);
-            } else if ("InChIKey".equals(key) || "INCHI_KEY".equals(key)) {
-                String value = values.get(0);
-                Property p = jenaModel.createProperty("http://schema.org/inChIKey");
-                jenaModel.add(me, p, value);
-            } else if ("InChI".equals(key) || "INCHI_IDENTIFIER".equals(key)) {
-                String value = values.get(0);
-                Property p = jenaModel.createProperty("http://schema.org/inChI");
-                jenaModel.add(me, p, value);
-            } else if ("Mass".equals(key) || "MOLECULAR_WEIGHT".equals(key)) {
-                String value = values.get(0);
-                Property p = jenaModel.createProperty("http://schema.org/molecularWeight");
-                jenaModel.add(me, p, value);
-            } else if ("IUPAC Names".equals(key) || "JCHEM_IUPAC".equals(key)) {
-                String value = values.get(0);
-                Property p = jenaModel.createProperty("http://schema.org/iupacName");
-                jenaModel.add(me, p, value);
-            } else if ("CAS Registry Numbers".equals(key) || "CAS_NUMBER".equals((key))) {
-                String value = values.get(0);
-                Property p = jenaModel.createProperty("http://schema.org/identifier");
-                jenaModel.add(me, p, value);
-            } else if ("Synonyms".equals(key) || "SYNONYMS".equals(key)) {
-                String value = values.get(0);
-                Property p = jenaModel.createProperty("http://schema.org/alternateName");
-                jenaModel.add(me, p, value);
-            } else if ("ChEBI Name".equals(key) || "COMMON_NAME".equals(key) || "GENERIC_NAME".equals(key)) {
-                String value = values.get(0);
-                Property p = jenaModel.createProperty("http://schema.org/name");
-                jenaModel.add(me, p, value);
+            if (values.size() == 1) {
+                appendJSONString(output_str, values.get(0));
+            } else {
+                output_str.append('[');
+                for (int i = 0; i < values.size(); i++) {
+                    if (i > 0) {
+                        output_str.append(',');
+                    }
+                    appendJSONString(output_str, values.get(i));
+                }
+                output_str.append(']');
+            }
+        }
+        output_str.append('}');
+
+        if (structure) {
+            parseStructure();
+            output_str.append(",\"atoms\":{\"symbol\":[");
+            for (int i = 0; i < atoms.size(); i++) {
+                if (i > 0) {
+                    output_str.append(',');
+                }
+                appendJSONString(output_str, atoms.get(i).symbol);
+            }
+            output_str.append("],\"x\":[");
+            for (int i = 0; i < atoms.size(); i++) {
+                appendJSONNumber(output_str.append(i > 0 ? "," : ""), atoms.get(i).x);
+            }
+            output_str.append("],\"y\":[");
+            for (int i = 0; i < atoms.size(); i++) {
+                appendJSONNumber(output_str.append(i > 0 ? "," : ""), atoms.get(i).y);
+            }
+            output_str.append("],\"z\":[");
+            for (int i = 0; i < atoms.size(); i++) {
+                appendJSONNumber(output_str.append(i > 0 ? "," : ""), atoms.get(i).z);
             }
+            output_str.append("]},\"bonds\":{\"atom1\":[");
+            for (int i = 0; i < bonds.size(); i++) {
+                output_str.append(i > 0 ? "," : "").append(bonds.get(i).atom1);
+            }
+            output_str.append("],\"atom2\":[");
+            for (int i = 0; i < bonds.size(); i++) {
+                output_str.append(i > 0 ? "," : "").append(bonds.get(i).atom2);
+            }
+            output_str.append("],\"type\":[");
+            for (int i = 0; i < bonds.size(); i++) {
+                output_str.append(i > 0 ? "," : "").append(bonds.get(i).type);
+            }
+            output_str.append("],\"stereo\":[");
+            for (int i = 0; i < bonds.size(); i++) {
+                output_str.append(i > 0 ? "," : "").append(bonds.get(i).stereo);
+            }
+            output_str.append("]}");
+        }
+        out.print(output_str.append("}\n"));
+    }
+
+    /**
+     * Append coordinate as JSON number, null if it's not finite
+     *
+     * @param output_str output buffer
+     * @param value      coordinate
+     */
+    private static void appendJSONNumber(StringBuilder output_str, float value) {
+        if (Float.isFinite(value)) {
+            output_str.append(value);
+        } else {
+            output_str.append("null");
         }
+    }
 
+    /**
+     * Append string escaped for N-Triples literal
+     *
+     * @param output_str output buffer
+     * @param value      literal value
+     */
+    static void appendNTriplesString(StringBuilder output_str, String value) {
+        int from = 0;
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c >= ' ' && c != '"' && c != '\\') {
+                continue;
+            }
+            output_str.append(value, from, i);
+            from = i + 1;
+            switch (c) {
+                case '"':
+                    output_str.append("\\\"");
+                    break;
+                case '\\':
+                    output_str.append("\\\\");
+                    break;
+                case '\n':
+                    output_str.append("\\n");
+                    break;
+                case '\r':
+                    output_str.append("\\r");
+                    break;
+                case '\t':
+                    output_str.append("\\t");
+                    break;
+                default:
+                    output_str.append(String.format("\\u%04X", (int) c));
+                    break;
+            }
+        }
+        output_str.append(value, from, value.length());
     }
 
     /**
@@ -412,47 +809,10 @@ class Molecule {
     StringBuilder constructJSONLDMolecule(SDFEater.Subject subject) {
         StringBuilder output_str = new StringBuilder();
 
-        for (Map.Entry<String, List<String>> entry : properties.entrySet()) {
-            String key = entry.getKey();
-            List<String> values = entry.getValue();
-
-            if ("ChEBI ID".equals(key)) {
-                String value = "https://www.ebi.ac.uk/chebi/searchId.do?chebiId=" + values.get(0);
-                output_str.append("      \"url\" : ").append(printValueAsNumberOrStringInJSONLD(value)).append(",\n");
-            } else if ("DATABASE_ID".equals(key) || "DRUGBANK_ID".equals(key)) {
-                String value = "https://go.drugbank.com/drugs/" + values.get(0);
-                output_str.append("      \"url\" : ").append(printValueAsNumberOrStringInJSONLD(value)).append(",\n");
-            } else if ("SMILES".equals(key)) {
-                String value = values.get(0);
-                output_str.append("      \"smiles\" : ").append(printValueAsNumberOrStringInJSONLD(value)).append(",\n");
-            } else if ("Formulae".equals(key) || "FORMULA".equals(key)) {
-                String value = values.get(0);
-                output_str.append("      \"molecularFormula\" : ").append(printValueAsNumberOrStringInJSONLD(value)).append(",\n");
-            } else if ("Definition".equals(key)) {
-                String value = values.get(0);
-                output_str.append("      \"description\" : ").append(printValueAsNumberOrStringInJSONLD(value)).append(",\n");
-            } else if ("InChIKey".equals(key) || "INCHI_KEY".equals(key)) {
-                String value = values.get(0);
-                output_str.append("      \"inChIKey\" : ").append(printValueAsNumberOrStringInJSONLD(value)).append(",\n");
-            } else if ("InChI".equals(key) || "INCHI_IDENTIFIER".equals(key)) {
-                String value = values.get(0);
-                output_str.append("      \"inChI\" : ").append(printValueAsNumberOrStringInJSONLD(value)).append(",\n");
-            } else if ("Mass".equals(key) || "MOLECULAR_WEIGHT".equals(key)) {
-                String value = values.get(0);
-                output_str.append("      \"molecularWeight\" : ").append(printValueAsNumberOrStringInJSONLD(value)).append(",\n");
-            } else if ("IUPAC Names".equals(key) || "JCHEM_IUPAC".equals(key)) {
-                String value = values.get(0);
-                output_str.append("      \"iupacName\" : ").append(printValueAsNumberOrStringInJSONLD(value)).append(",\n");
-            } else if ("CAS Registry Numbers".equals(key) || "CAS_NUMBER".equals((key))) {
-                String value = values.get(0);
-                output_str.append("      \"identifier\" : ").append(printValueAsNumberOrStringInJSONLD(value)).append(",\n");
-            } else if ("Synonyms".equals(key) || "SYNONYMS".equals(key)) {
-                String value = values.get(0);
-                output_str.append("      \"alternateName\" : ").append(printValueAsNumberOrStringInJSONLD(value)).append(",\n");
-            } else if ("ChEBI Name".equals(key) || "COMMON_NAME".equals(key) || "GENERIC_NAME".equals(key)) {
-                String value = values.get(0);
-                output_str.append("      \"name\" : ").append(printValueAsNumberOrStringInJSONLD(value)).append(",\n");
-            }
+        for (String[] property : schemaOrgProperties()) {
+            output_str.append("      \"").append(property[1]).append("\" : ");
+            appendJSONLDValue(output_str, property[2]);
+            output_str.append(",\n");
         }
 
         if (output_str.length() > 0) {
@@ -460,11 +820,13 @@ class Molecule {
 
             start_part.append("    {\n");
             if (subject == SDFEater.Subject.iri) {
-                start_part.append("      \"@id\" : " + printValueAsNumberOrStringInJSONLD(subjectBase + createID()) + ",\n");
+                start_part.append("      \"@id\" : ");
+                appendJSONLDValue(start_part, subjectIRI());
+                start_part.append(",\n");
             } else if (subject == SDFEater.Subject.uuid) {
                 start_part.append("      \"@id\" : \"urn:uuid:" + uuid + "\",\n");
             } else if (subject == SDFEater.Subject.bnode) {
-                start_part.append("      \"@id\" : \"_:b" + createID() + "\",\n");
+                start_part.append("      \"@id\" : \"_:b" + subjectID() + "\",\n");
             }
             start_part.append("      \"@type\" : \"http://schema.org/MolecularEntity\",\n");
 
@@ -481,71 +843,44 @@ class Molecule {
      * Print main molecule data in RDFa
      *
      * @param subject subject type
+     * @param out     output stream
      */
-    void printRDFaMolecule(SDFEater.Subject subject) {
+    void printRDFaMolecule(SDFEater.Subject subject, PrintStream out) {
         StringBuilder output_str = new StringBuilder();
-        for (Map.Entry<String, List<String>> entry : properties.entrySet()) {
-            String key = entry.getKey();
-            List<String> values = entry.getValue();
-
-            if ("ChEBI ID".equals(key)) {
-                String value = "https://www.ebi.ac.uk/chebi/searchId.do?chebiId=" + values.get(0);
-                output_str.append("      <a href='").append(htmlEscape(value, true)).append("' rel='schema:url'>").append(htmlEscape(value, false)).append("</a>\n");
-            } else if ("DATABASE_ID".equals(key) || "DRUGBANK_ID".equals(key)) {
-                String value = "https://go.drugbank.com/drugs/" + values.get(0);
-                output_str.append("      <a href='").append(htmlEscape(value, true)).append("' rel='schema:url'>").append(htmlEscape(value, false)).append("</a>\n");
-            } else if ("SMILES".equals(key)) {
-                String value = values.get(0);
-                output_str.append("      <div property='schema:smiles'>").append(htmlEscape(value, false)).append("</div>\n");
-            } else if ("Formulae".equals(key) || "FORMULA".equals(key)) {
-                String value = values.get(0);
-                output_str.append("      <div property='schema:molecularFormula'>").append(htmlEscape(value, false)).append("</div>\n");
-            } else if ("Definition".equals(key)) {
-                String value = values.get(0);
-                output_str.append("      <div property='schema:description'>").append(htmlEscape(value, false)).append("</div>\n");
-            } else if ("InChIKey".equals(key) || "INCHI_KEY".equals(key)) {
-                String value = values.get(0);
-                output_str.append("      <div property='schema:inChIKey'>").append(htmlEscape(value, false)).append("</div>\n");
-            } else if ("InChI".equals(key) || "INCHI_IDENTIFIER".equals(key)) {
-                String value = values.get(0);
-                output_str.append("      <div property='schema:inChI'>").append(htmlEscape(value, false)).append("</div>\n");
-            } else if ("Mass".equals(key) || "MOLECULAR_WEIGHT".equals(key)) {
-                String value = values.get(0);
-                output_str.append("      <div property='schema:molecularWeight'>").append(htmlEscape(value, false)).append("</div>\n");
-            } else if ("IUPAC Names".equals(key) || "JCHEM_IUPAC".equals(key)) {
-                String value = values.get(0);
-                output_str.append("      <div property='schema:iupacName'>").append(htmlEscape(value, false)).append("</div>\n");
-            } else if ("CAS Registry Numbers".equals(key) || "CAS_NUMBER".equals((key))) {
-                String value = values.get(0);
-                output_str.append("      <div property='schema:identifier'>").append(htmlEscape(value, false)).append("</div>\n");
-            } else if ("Synonyms".equals(key) || "SYNONYMS".equals(key)) {
-                String value = values.get(0);
-                output_str.append("      <div property='schema:alternateName'>").append(htmlEscape(value, false)).append("</div>\n");
-            } else if ("ChEBI Name".equals(key) || "COMMON_NAME".equals(key) || "GENERIC_NAME".equals(key)) {
-                String value = values.get(0);
-                output_str.append("      <div property='schema:name'>").append(htmlEscape(value, false)).append("</div>\n");
+        for (String[] property : schemaOrgProperties()) {
+            String value = property[2];
+            if ("url".equals(property[1])) {
+                output_str.append("      <a href='");
+                appendHTMLString(output_str, value, true);
+                output_str.append("' rel='schema:url'>");
+                appendHTMLString(output_str, value, false);
+                output_str.append("</a>\n");
+            } else {
+                output_str.append("      <div property='schema:").append(property[1]).append("'>");
+                appendHTMLString(output_str, value, false);
+                output_str.append("</div>\n");
             }
         }
 
         if (output_str.length() > 0) {
             if (subject == SDFEater.Subject.iri) {
-                String mID = createID();
-                System.out.print("    <div typeof='schema:MolecularEntity' about='" + htmlEscape(subjectBase + mID, true) + "'");
+                String mID = subjectID();
+                out.print("    <div typeof='schema:MolecularEntity' about='" + htmlEscape(subjectIRI(), true) + "'");
 
-                if (subjectBase.contains("#")) {
-                    System.out.print(" id='" + subjectBase.substring(subjectBase.lastIndexOf('#') + 1) + mID + "'");
+                if (context.subjectBase.contains("#")) {
+                    out.print(" id='" + context.subjectBase.substring(context.subjectBase.lastIndexOf('#') + 1) + mID + "'");
                 }
 
-                System.out.print(">\n");
+                out.print(">\n");
 
             } else if (subject == SDFEater.Subject.uuid) {
-                System.out.println("    <div typeof='schema:MolecularEntity' about='urn:uuid:" + uuid + "'>");
+                out.println("    <div typeof='schema:MolecularEntity' about='urn:uuid:" + uuid + "'>");
             } else if (subject == SDFEater.Subject.bnode) {
-                System.out.println("    <div typeof='schema:MolecularEntity' about='_:b" + createID() + "'>");
+                out.println("    <div typeof='schema:MolecularEntity' about='_:b" + subjectID() + "'>");
             }
 
-            System.out.print(output_str);
-            System.out.println("    </div>");
+            out.print(output_str);
+            out.println("    </div>");
         }
 
     }
@@ -554,70 +889,43 @@ class Molecule {
      * Print main molecule data in Microdata
      *
      * @param subject subject type
+     * @param out     output stream
      */
-    void printMicrodataMolecule(SDFEater.Subject subject) {
+    void printMicrodataMolecule(SDFEater.Subject subject, PrintStream out) {
         StringBuilder output_str = new StringBuilder();
-        for (Map.Entry<String, List<String>> entry : properties.entrySet()) {
-            String key = entry.getKey();
-            List<String> values = entry.getValue();
-
-            if ("ChEBI ID".equals(key)) {
-                String value = "https://www.ebi.ac.uk/chebi/searchId.do?chebiId=" + values.get(0);
-                output_str.append("      <a href='").append(htmlEscape(value, true)).append("' itemprop='url'>").append(htmlEscape(value, false)).append("</a>\n");
-            } else if ("DATABASE_ID".equals(key) || "DRUGBANK_ID".equals(key)) {
-                String value = "https://go.drugbank.com/drugs/" + values.get(0);
-                output_str.append("      <a href='").append(htmlEscape(value, true)).append("' itemprop='url'>").append(htmlEscape(value, false)).append("</a>\n");
-            } else if ("SMILES".equals(key)) {
-                String value = values.get(0);
-                output_str.append("      <div itemprop='smiles'>").append(htmlEscape(value, false)).append("</div>\n");
-            } else if ("Formulae".equals(key) || "FORMULA".equals(key)) {
-                String value = values.get(0);
-                output_str.append("      <div itemprop='molecularFormula'>").append(htmlEscape(value, false)).append("</div>\n");
-            } else if ("Definition".equals(key)) {
-                String value = values.get(0);
-                output_str.append("      <div itemprop='description'>").append(htmlEscape(value, false)).append("</div>\n");
-            } else if ("InChIKey".equals(key) || "INCHI_KEY".equals(key)) {
-                String value = values.get(0);
-                output_str.append("      <div itemprop='inChIKey'>").append(htmlEscape(value, false)).append("</div>\n");
-            } else if ("InChI".equals(key) || "INCHI_IDENTIFIER".equals(key)) {
-                String value = values.get(0);
-                output_str.append("      <div itemprop='inChI'>").append(htmlEscape(value, false)).append("</div>\n");
-            } else if ("Mass".equals(key) || "MOLECULAR_WEIGHT".equals(key)) {
-                String value = values.get(0);
-                output_str.append("      <div itemprop='molecularWeight'>").append(htmlEscape(value, false)).append("</div>\n");
-            } else if ("IUPAC Names".equals(key) || "JCHEM_IUPAC".equals(key)) {
-                String value = values.get(0);
-                output_str.append("      <div itemprop='iupacName'>").append(htmlEscape(value, false)).append("</div>\n");
-            } else if ("CAS Registry Numbers".equals(key) || "CAS_NUMBER".equals((key))) {
-                String value = values.get(0);
-                output_str.append("      <div itemprop='identifier'>").append(htmlEscape(value, false)).append("</div>\n");
-            } else if ("Synonyms".equals(key) || "SYNONYMS".equals(key)) {
-                String value = values.get(0);
-                output_str.append("      <div itemprop='alternateName'>").append(htmlEscape(value, false)).append("</div>\n");
-            } else if ("ChEBI Name".equals(key) || "COMMON_NAME".equals(key) || "GENERIC_NAME".equals(key)) {
-                String value = values.get(0);
-                output_str.append("      <div itemprop='name'>").append(htmlEscape(value, false)).append("</div>\n");
+        for (String[] property : schemaOrgProperties()) {
+            String value = property[2];
+            if ("url".equals(property[1])) {
+                output_str.append("      <a href='");
+                appendHTMLString(output_str, value, true);
+                output_str.append("' itemprop='url'>");
+                appendHTMLString(output_str, value, false);
+                output_str.append("</a>\n");
+            } else {
+                output_str.append("      <div itemprop='").append(property[1]).append("'>");
+                appendHTMLString(output_str, value, false);
+                output_str.append("</div>\n");
             }
         }
 
         if (output_str.length() > 0) {
             if (subject == SDFEater.Subject.iri) {
-                String mID = createID();
-                System.out.print("    <div itemscope itemtype='http://schema.org/MolecularEntity' itemid='" + htmlEscape(subjectBase + mID, true) + "'");
+                String mID = subjectID();
+                out.print("    <div itemscope itemtype='http://schema.org/MolecularEntity' itemid='" + htmlEscape(subjectIRI(), true) + "'");
 
-                if (subjectBase.contains("#")) {
-                    System.out.print(" id='" + subjectBase.substring(subjectBase.lastIndexOf('#') + 1) + mID + "'");
+                if (context.subjectBase.contains("#")) {
+                    out.print(" id='" + context.subjectBase.substring(context.subjectBase.lastIndexOf('#') + 1) + mID + "'");
                 }
 
-                System.out.print(">\n");
+                out.print(">\n");
             } else if (subject == SDFEater.Subject.uuid) {
-                System.out.println("    <div itemscope itemtype='http://schema.org/MolecularEntity' itemid='urn:uuid:" + uuid + "'>");
+                out.println("    <div itemscope itemtype='http://schema.org/MolecularEntity' itemid='urn:uuid:" + uuid + "'>");
             } else if (subject == SDFEater.Subject.bnode) {
-                System.out.println("    <div itemscope itemtype='http://schema.org/MolecularEntity' itemid='_:b" + createID() + "'>");
+                out.println("    <div itemscope itemtype='http://schema.org/MolecularEntity' itemid='_:b" + subjectID() + "'>");
             }
 
-            System.out.print(output_str);
-            System.out.println("    </div>");
+            out.print(output_str);
+            out.println("    </div>");
         }
 
     }
@@ -634,36 +942,159 @@ class Molecule {
         } else if (isURL(value)) {
             return "<" + value + ">";
         } else {
-            return "'" + value + "'";
+            StringBuilder literal = new StringBuilder(value.length() + 8);
+            appendQuotedString(literal, value);
+            return literal.toString();
+        }
+    }
+
+    /**
+     * Property name used in Cypher Molecule nodes
+     *
+     * @param key SDF property name
+     * @return Cypher property name
+     */
+    static String cypherPropertyName(String key) {
+        return key.replaceAll("\\s+|-", "").replaceAll("CAS Registry Numbers|CAS_NUMBER", "CASNumber");
+    }
+
+    /**
+     * Cypher statement deleting molecule with its atoms and bonds
+     *
+     * @param key   SDF property identifying molecules
+     * @param value property value of molecule to delete
+     * @param links templates of database links the molecule was written with, null if none
+     * @return Cypher statement
+     */
+    static String cypherDeletion(String key, String value, DatabaseLinks links) {
+        DatabaseLinks.Link link = links != null ? links.link(key) : null;
+        StringBuilder literal = new StringBuilder();
+        appendCypherLink(literal, link, value);
+        return "MATCH (c:Molecule {" + cypherPropertyName(link != null ? link.property(key, value) : key) + ": " + literal.substring(0, literal.length() - 2)
+                + "})\nOPTIONAL MATCH (c)-[:RELATED]->(a:Atom)\nDETACH DELETE c, a;";
+    }
+
+    /**
+     * Append value in Cypher output, as its database link if it matches a
+     * template; the link is written into the buffer without building its URL
+     *
+     * @param query_str output buffer
+     * @param link      templates of property, null to write value as it is
+     * @param value     SDF property value; followed by ", "
+     */
+    private static void appendCypherLink(StringBuilder query_str, DatabaseLinks.Link link, String value) {
+        DatabaseLinks.Template template = link != null ? link.match(value) : null;
+        if (template == null) {
+            appendCypherValue(query_str, value);
+        } else if (template.mayBeNumber()) {
+            appendCypherValue(query_str, template.apply(value));
+        } else {
+            query_str.append('\'');
+            int from = query_str.length();
+            template.appendTo(query_str, value);
+            for (int i = from; i < query_str.length(); i++) {
+                char c = query_str.charAt(i);
+                if (c == '\\' || c == '\'') {
+                    query_str.insert(i++, '\\');
+                }
+            }
+            query_str.append("', ");
         }
     }
 
     /**
      * Detect if value is number and use this in Cypher output
      *
-     * @param value Value to check
-     * @return value, if number and 'value', if not
+     * @param query_str output buffer
+     * @param value     Value to append: as is, if number, and 'value', if not; followed by ", "
      */
-    private String printValueAsNumberOrStringInCypher(String value) {
+    private static void appendCypherValue(StringBuilder query_str, String value) {
         if (isNumber(value)) {
-            return value + ", ";
+            query_str.append(value);
         } else {
-            return "'" + value + "', ";
+            appendQuotedString(query_str, value);
+        }
+        query_str.append(", ");
+    }
+
+    /**
+     * Append string in apostrophes, as in Cypher and Turtle, escaping
+     * backslashes and apostrophes
+     *
+     * @param output_str output buffer
+     * @param value      raw value
+     */
+    static void appendQuotedString(StringBuilder output_str, String value) {
+        output_str.append('\'');
+        int from = 0;
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '\\' || c == '\'') {
+                output_str.append(value, from, i).append('\\');
+                from = i;
+            }
         }
+        output_str.append(value, from, value.length()).append('\'');
     }
 
     /**
      * Detect if value is number and use this in JSON-LD output
      *
-     * @param value Value to check
-     * @return valid JSON value
+     * @param output_str output buffer
+     * @param value      Value to append: as is, if number, and JSON string, if not
      */
-    private String printValueAsNumberOrStringInJSONLD(String value) {
+    private static void appendJSONLDValue(StringBuilder output_str, String value) {
         if (isNumber(value)) {
-            return value;
+            output_str.append(value);
         } else {
-            return new GsonBuilder().disableHtmlEscaping().create().toJson(value);
+            appendJSONString(output_str, value);
+        }
+    }
+
+    /**
+     * Append JSON string, escaped like Gson does without HTML escaping
+     *
+     * @param output_str output buffer
+     * @param value      raw value
+     */
+    static void appendJSONString(StringBuilder output_str, String value) {
+        output_str.append('"');
+        int from = 0;
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c >= ' ' && c != '"' && c != '\\' && c != '\u2028' && c != '\u2029') {
+                continue;
+            }
+            output_str.append(value, from, i);
+            from = i + 1;
+            switch (c) {
+                case '"':
+                    output_str.append("\\\"");
+                    break;
+                case '\\':
+                    output_str.append("\\\\");
+                    break;
+                case '\t':
+                    output_str.append("\\t");
+                    break;
+                case '\b':
+                    output_str.append("\\b");
+                    break;
+                case '\n':
+                    output_str.append("\\n");
+                    break;
+                case '\r':
+                    output_str.append("\\r");
+                    break;
+                case '\f':
+                    output_str.append("\\f");
+                    break;
+                default:
+                    output_str.append(String.format("\\u%04x", (int) c));
+                    break;
+            }
         }
+        output_str.append(value, from, value.length()).append('"');
     }
 
     /**
@@ -675,38 +1106,75 @@ class Molecule {
      * @param quote Escape quotation marks too? True - escape " and ', false - don't escape.
      * @return Escaped HTML value
      */
-    private String htmlEscape(String value, boolean quote) {
-        String escapedValue = value.replace("&", "&amp;").replace("<", "&lt;").replace(">", "&gt;");
+    static String htmlEscape(String value, boolean quote) {
+        StringBuilder escapedValue = new StringBuilder(value.length() + 16);
+        appendHTMLString(escapedValue, value, quote);
+        return escapedValue.toString();
+    }
 
-        if (quote) {
-            escapedValue = escapedValue.replace("\"", "&quot;");
-            escapedValue = escapedValue.replace("'", "&#x27;");
+    /**
+     * Append HTML-escaped value
+     *
+     * @param output_str output buffer
+     * @param value      raw value
+     * @param quote      escape " and ' too, for attribute values
+     */
+    static void appendHTMLString(StringBuilder output_str, String value, boolean quote) {
+        int from = 0;
+        for (int i = 0; i < value.length(); i++) {
+            String entity;
+            switch (value.charAt(i)) {
+                case '&':
+                    entity = "&amp;";
+                    break;
+                case '<':
+                    entity = "&lt;";
+                    break;
+                case '>':
+                    entity = "&gt;";
+                    break;
+                case '"':
+                    entity = quote ? "&quot;" : null;
+                    break;
+                case '\'':
+                    entity = quote ? "&#x27;" : null;
+                    break;
+                default:
+                    entity = null;
+                    break;
+            }
+            if (entity != null) {
+                output_str.append(value, from, i).append(entity);
+                from = i + 1;
+            }
         }
-
-        return escapedValue;
+        output_str.append(value, from, value.length());
     }
 
     /**
      * Print atoms and bonds as skos:example property in CVME
+     *
+     * @param out output stream
      */
-    void printChemSKOSAtomsAndBonds() {
-        System.out.println("<urn:uuid:" + addUUID(STRIKE) + "> skos:example \"\"\"\n");
-        System.out.println("  CT\n");
+    void printChemSKOSAtomsAndBonds(PrintStream out) {
+        parseStructure();
+        out.println("<urn:uuid:" + addUUID(STRIKE) + "> skos:example \"\"\"\n");
+        out.println("  CT\n");
         int atomsSize = atoms.size();
         int bondsSize = bonds.size();
         if (atomsSize >= 0 && atomsSize <= 9) {
-            System.out.print("  " + atomsSize);
+            out.print("  " + atomsSize);
         } else if (atomsSize >= 10 && atomsSize <= 99) {
-            System.out.print(" " + atomsSize);
+            out.print(" " + atomsSize);
         } else {
-            System.out.print(atomsSize);
+            out.print(atomsSize);
         }
         if (bondsSize >= 0 && bondsSize <= 9) {
-            System.out.println("  " + bondsSize + "  0  0  0  0            999 V2000");
+            out.println("  " + bondsSize + "  0  0  0  0            999 V2000");
         } else if (bondsSize >= 10 && bondsSize <= 99) {
-            System.out.println(" " + bondsSize + "  0  0  0  0            999 V2000");
+            out.println(" " + bondsSize + "  0  0  0  0            999 V2000");
         } else {
-            System.out.println(bondsSize + "  0  0  0  0            999 V2000");
+            out.println(bondsSize + "  0  0  0  0            999 V2000");
         }
         for (Atom atom : atoms) {
             float x = atom.x;
@@ -773,7 +1241,7 @@ class Molecule {
             }
             line += "0  0  0  0  0  0  0  0  0  0  0  0";
             line = line.replace("\n", "").replace(",", ".");
-            System.out.println(line);
+            out.println(line);
         }
         for (Bond bond : bonds) {
             int atom1 = bond.atom1;
@@ -797,16 +1265,18 @@ class Molecule {
             }
             line += "  " + type;
             line += "  " + stereo + "  0  0  0";
-            System.out.println(line);
+            out.println(line);
         }
-        System.out.print("M  END");
-        System.out.println("\"\"\" .");
+        out.print("M  END");
+        out.println("\"\"\" .");
     }
 
     /**
      * Print SMILES form SDF
+     *
+     * @param out output stream
      */
-    void printSMILES() {
+    void printSMILES(PrintStream out) {
         String query_str = "";
 
         for (Map.Entry<String, List<String>> entry : properties.entrySet()) {
@@ -817,13 +1287,15 @@ class Molecule {
             }
 
         }
-        System.out.println(query_str);
+        out.println(query_str);
     }
 
     /**
      * Print InChI form SDF
+     *
+     * @param out output stream
      */
-    void printInChI() {
+    void printInChI(PrintStream out) {
         String query_str = "";
 
         for (Map.Entry<String, List<String>> entry : properties.entrySet()) {
@@ -834,57 +1306,57 @@ class Molecule {
             }
 
         }
-        System.out.println(query_str);
+        out.println(query_str);
     }
 
     /**
      * Print atoms data and Molecule-Atom relations in Cypher
+     *
+     * @param periodicTable true to add periodic table data
+     * @param out           output stream
      */
-    void printCypherAtoms() {
+    private void printCypherAtoms(boolean periodicTable, PrintStream out) {
         if (!atoms.isEmpty()) {
+            StringBuilder str = new StringBuilder();
             int it = 1;
             for (Atom atom : atoms) {
-                System.out.println("CREATE (a" + it + addUUID(UNDERLINE) + ":Atom {symbol: '" + atom.symbol + "', x: " + atom.x + ", y: " + atom.y + ", z: " + atom.z + "})");
+                str.append("CREATE (a").append(it).append(addUUID(UNDERLINE)).append(":Atom {");
+                appendCypherAtomProperties(str, atom, periodicTable);
+                str.append("})\n");
                 it++;
             }
+            out.print(str);
 
-            printCypherMoleculeAtomRelation();
+            printCypherMoleculeAtomRelation(out);
         }
     }
 
     /**
-     * Print atoms data with additional periodic table data and Molecule-Atom
-     * relations in Cypher
+     * Append Cypher properties of atom, without braces
+     *
+     * @param str           output buffer
+     * @param atom          atom
+     * @param periodicTable true to add periodic table data
      */
-    void printCypherAtomsWithPeriodicTableData() {
-        if (!atoms.isEmpty()) {
-            StringBuilder str = new StringBuilder();
-            int it = 1;
-            for (Atom atom : atoms) {
-                str.append("CREATE (a").append(it).append(addUUID(UNDERLINE)).append(":Atom {symbol: '").append(atom.symbol).append("', x: ").append(atom.x).append(", y: ").append(atom.y).append(", z: ").append(atom.z);
-
-                try {
-                    for (Map.Entry<String, Object> entry : getAtomPeriodicDataByAtomSymbol(atom.symbol).entrySet()) {
-                        String key = entry.getKey();
-                        Object value = entry.getValue();
-
-                        str.append(", ").append(key).append(": ");
-                        if (isNumber(value.toString())) {
-                            str.append(value);
-                        } else {
-                            str.append("'").append(value).append("'");
-                        }
-                    }
-                } catch (Exception e) {
-                    //System.err.println("WARNING: No additional data could be found in the periodic table for " + atom.symbol);
-                }
+    private void appendCypherAtomProperties(StringBuilder str, Atom atom, boolean periodicTable) {
+        str.append("symbol: '").append(atom.symbol).append("', x: ").append(atom.x).append(", y: ").append(atom.y).append(", z: ").append(atom.z);
+        if (!periodicTable) {
+            return;
+        }
+        try {
+            for (Map.Entry<String, Object> entry : getAtomPeriodicDataByAtomSymbol(atom.symbol).entrySet()) {
+                String key = entry.getKey();
+                Object value = entry.getValue();
 
-                str.append("})\n");
-                it++;
+                str.append(", ").append(key).append(": ");
+                if (isNumber(value.toString())) {
+                    str.append(value);
+                } else {
+                    str.append("'").append(value).append("'");
+                }
             }
-            System.out.print(str);
-
-            printCypherMoleculeAtomRelation();
+        } catch (Exception e) {
+            //System.err.println("WARNING: No additional data could be found in the periodic table for " + atom.symbol);
         }
     }
 
@@ -895,51 +1367,106 @@ class Molecule {
      * @return All periodic table data
      */
     private Map<String, Object> getAtomPeriodicDataByAtomSymbol(String symbol) {
-        return periodic_table_data.get(symbol);
+        return SDFEater.periodicTableData().get(symbol);
     }
 
     /**
      * Print Molecule-Atom relations in Cypher
+     *
+     * @param out output stream
      */
-    private void printCypherMoleculeAtomRelation() {
+    private void printCypherMoleculeAtomRelation(PrintStream out) {
         if (!atoms.isEmpty()) {
             StringBuilder query_str = new StringBuilder("CREATE");
 
             for (int i = 1; i <= atoms.size(); i++) {
-                query_str.append("\n(c").append(addUUID(UNDERLINE)).append(")-[:RELATED]->(a").append(i).append(addUUID(UNDERLINE)).append("),");
+                query_str.append(i > 1 ? ",\n(c" : "\n(c").append(addUUID(UNDERLINE)).append(")-[:RELATED]->(a").append(i).append(addUUID(UNDERLINE)).append(")");
             }
-            query_str = new StringBuilder(query_str.substring(0, query_str.length() - 1));
-            System.out.println(query_str);
+            out.println(query_str);
         }
     }
 
     /**
      * Print bonds data in Cypher
+     *
+     * @param out output stream
      */
-    void printCypherBonds() {
+    private void printCypherBonds(PrintStream out) {
         if (!bonds.isEmpty()) {
             StringBuilder query_str = new StringBuilder("CREATE");
-            for (Bond bond : bonds) {
-                query_str.append("\n(a").append(bond.atom1).append(addUUID(UNDERLINE)).append(")-[:BOND_WITH {");
+            for (int i = 0; i < bonds.size(); i++) {
+                Bond bond = bonds.get(i);
+                query_str.append(i > 0 ? ",\n(a" : "\n(a").append(bond.atom1).append(addUUID(UNDERLINE)).append(")-[:BOND_WITH {");
+                appendCypherBondProperties(query_str, bond);
+                query_str.append("}]->(a").append(bond.atom2).append(addUUID(UNDERLINE)).append(")");
+            }
+            out.println(query_str);
+        }
+    }
 
-                if (!"0".equals(bondTypeNumberToString(bond.type))) {
-                    query_str.append("type: \"").append(bondTypeNumberToString(bond.type)).append("\"");
-                }
+    /**
+     * Append Cypher properties of bond, without braces
+     *
+     * @param query_str output buffer
+     * @param bond      bond
+     */
+    private void appendCypherBondProperties(StringBuilder query_str, Bond bond) {
+        String type = bondTypeNumberToString(bond.type);
+        String stereo = bondStereoNumberToString(bond.stereo, bond.type);
+        if (!"0".equals(type)) {
+            query_str.append("type: \"").append(type).append("\"");
+        }
 
-                if (!"0".equals(bondTypeNumberToString(bond.type)) && !"0".equals(bondStereoNumberToString(bond.stereo, bond.type))) {
-                    query_str.append(", ");
-                }
+        if (!"0".equals(type) && !"0".equals(stereo)) {
+            query_str.append(", ");
+        }
 
-                if (!"0".equals(bondStereoNumberToString(bond.stereo, bond.type))) {
-                    query_str.append("stereo: ").append(bondStereoNumberToString(bond.stereo, bond.type));
-                }
+        if (!"0".equals(stereo)) {
+            query_str.append("stereo: ").append(stereo);
+        }
+    }
 
-                query_str.append("}]->(a").append(bond.atom2).append(addUUID(UNDERLINE)).append("),");
+    /**
+     * Print atoms, Molecule-Atom relations and bonds of large molecule in
+     * Cypher statements of at most as many rows as the job allows
+     * <p>
+     * Each statement unwinds a list of atoms or bonds, and finds the molecule
+     * by its uuid and atoms by their molecule and id properties, instead of
+     * variables of one huge statement. Statements are separated with
+     * semicolons; the last one is terminated by the caller.
+     *
+     * @param periodicTable true to add periodic table data to atoms
+     * @param out           output stream
+     */
+    private void printCypherChunks(boolean periodicTable, PrintStream out) {
+        int rows = context.cypherRows;
+        StringBuilder query_str = new StringBuilder();
+        for (int start = 0; start < atoms.size(); start += rows) {
+            out.println(';');
+            query_str.append("UNWIND [");
+            for (int i = start; i < Math.min(start + rows, atoms.size()); i++) {
+                query_str.append(i > start ? ",\n{" : "{");
+                appendCypherAtomProperties(query_str, atoms.get(i), periodicTable);
+                query_str.append(", molecule: '").append(uuid).append("', id: ").append(i + 1).append('}');
             }
-            query_str = new StringBuilder(query_str.substring(0, query_str.length() - 1));
-            System.out.println(query_str);
+            query_str.append("] AS atom\nMATCH (c:Molecule {uuid: '").append(uuid).append("'})\nCREATE (c)-[:RELATED]->(a:Atom)\nSET a = atom");
+            out.println(query_str);
+            query_str.setLength(0);
+        }
+        for (int start = 0; start < bonds.size(); start += rows) {
+            out.println(';');
+            query_str.append("UNWIND [");
+            for (int i = start; i < Math.min(start + rows, bonds.size()); i++) {
+                Bond bond = bonds.get(i);
+                query_str.append(i > start ? ",\n{from: " : "{from: ").append(bond.atom1).append(", to: ").append(bond.atom2).append(", properties: {");
+                appendCypherBondProperties(query_str, bond);
+                query_str.append("}}");
+            }
+            query_str.append("] AS bond\nMATCH (a1:Atom {molecule: '").append(uuid).append("', id: bond.from}), (a2:Atom {molecule: '").append(uuid)
+                    .append("', id: bond.to})\nCREATE (a1)-[b:BOND_WITH]->(a2)\nSET b = bond.properties");
+            out.println(query_str);
+            query_str.setLength(0);
         }
-
     }
 
     /**
@@ -1031,7 +1558,11 @@ class Molecule {
         properties.clear();
         atoms.clear();
         bonds.clear();
+        ctabLength = 0;
         uuid = UUID.randomUUID();
+        id = null;
+        iri = null;
+        schemaOrgProperties = null;
     }
 
     /**
@@ -1040,7 +1571,7 @@ class Molecule {
      * @param s String to check
      * @return true if number, false if not
      */
-    private boolean isNumber(String s) {
+    private static boolean isNumber(String s) {
         String regex = "-?\\d+(\\.\\d+)?";
         return s.matches(regex);
     }
@@ -0,0 +1,215 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2017-2019 Łukasz Szeremeta.
+ * Copyright 2018-2019 Dominik Tomaszuk.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package pl.edu.uwb.ii.sdfeater;
+
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Publisher of molecules with backpressure
+ * <p>
+ * Interfaces follow {@code java.util.concurrent.Flow} (and Reactive Streams),
+ * which SDFEater can't use directly as it runs on Java 8; on Java 9 and above
+ * a {@code Flow.Subscriber} can be adapted by delegating the four methods.
+ * Molecules are read only when the subscriber requested them, one task at a
+ * time on the executor, and the reader is closed on completion, error or
+ * cancellation.
+ */
+public final class MoleculePublisher {
+
+    private final SdfReader reader;
+    private final Executor executor;
+    private final AtomicBoolean subscribed = new AtomicBoolean();
+
+    MoleculePublisher(SdfReader reader, Executor executor) {
+        this.reader = reader;
+        this.executor = executor;
+    }
+
+    /**
+     * Subscribe; only one subscriber is allowed
+     *
+     * @param subscriber subscriber
+     */
+    public void subscribe(Subscriber subscriber) {
+        if (!subscribed.compareAndSet(false, true)) {
+            subscriber.onSubscribe(new Subscription() {
+                @Override
+                public void request(long n) {
+                }
+
+                @Override
+                public void cancel() {
+                }
+            });
+            subscriber.onError(new IllegalStateException("MoleculePublisher allows only one subscriber"));
+            return;
+        }
+        ReaderSubscription subscription = new ReaderSubscription(subscriber);
+        subscriber.onSubscribe(subscription);
+    }
+
+    /**
+     * Receiver of molecules, like {@code Flow.Subscriber<MoleculeView>}
+     */
+    public interface Subscriber {
+        void onSubscribe(Subscription subscription);
+
+        void onNext(MoleculeView molecule);
+
+        void onError(Throwable throwable);
+
+        void onComplete();
+    }
+
+    /**
+     * Link between publisher and subscriber, like {@code Flow.Subscription}
+     */
+    public interface Subscription {
+        /**
+         * Request more molecules
+         *
+         * @param n number of molecules, positive; other values end the subscription with {@code onError}
+         */
+        void request(long n);
+
+        /**
+         * Stop receiving molecules
+         */
+        void cancel();
+    }
+
+    /**
+     * Subscription delivering molecules while there is demand
+     */
+    private final class ReaderSubscription implements Subscription, Runnable {
+        private final Subscriber subscriber;
+        private final AtomicLong demand = new AtomicLong();
+        /**
+         * Number of pending drain requests; drain runs only when it rises from 0
+         */
+        private final AtomicInteger pending = new AtomicInteger();
+        private Iterator<MoleculeView> molecules;
+        private volatile boolean done;
+        /**
+         * Invalid request, signalled by the next drain so that subscriber
+         * methods are called only from {@link #run()}
+         */
+        private volatile Throwable error;
+
+        ReaderSubscription(Subscriber subscriber) {
+            this.subscriber = subscriber;
+        }
+
+        @Override
+        public void request(long n) {
+            if (done) {
+                return;
+            }
+            if (n <= 0) {
+                if (error == null) {
+                    error = new IllegalArgumentException("non-positive request: " + n);
+                }
+                drain();
+                return;
+            }
+            long current, updated;
+            do {
+                current = demand.get();
+                updated = current + n < 0 ? Long.MAX_VALUE : current + n;
+            } while (!demand.compareAndSet(current, updated));
+            drain();
+        }
+
+        @Override
+        public void cancel() {
+            done = true;
+            drain();
+        }
+
+        private void drain() {
+            if (pending.getAndIncrement() == 0) {
+                executor.execute(this);
+            }
+        }
+
+        @Override
+        public void run() {
+            int missed = 1;
+            do {
+                if (error != null) {
+                    terminate(error);
+                    return;
+                }
+                if (done) {
+                    close();
+                    return;
+                }
+                try {
+                    if (molecules == null) {
+                        molecules = reader.iterator();
+                    }
+                    long delivered = 0;
+                    long requested = demand.get();
+                    while (delivered < requested && !done && error == null) {
+                        if (!molecules.hasNext()) {
+                            done = true;
+                            close();
+                            subscriber.onComplete();
+                            return;
+                        }
+                        subscriber.onNext(molecules.next());
+                        delivered++;
+                    }
+                    demand.addAndGet(-delivered);
+                } catch (RuntimeException e) {
+                    terminate(e);
+                    return;
+                }
+                missed = pending.addAndGet(-missed);
+            } while (missed != 0);
+        }
+
+        private void terminate(Throwable error) {
+            if (!done) {
+                done = true;
+                close();
+                subscriber.onError(error);
+            }
+        }
+
+        private void close() {
+            try {
+                reader.close();
+            } catch (IOException e) {
+                // nothing more to read
+            }
+        }
+    }
+}
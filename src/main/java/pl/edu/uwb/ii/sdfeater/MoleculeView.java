@@ -0,0 +1,114 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2017-2019 Łukasz Szeremeta.
+ * Copyright 2018-2019 Dominik Tomaszuk.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package pl.edu.uwb.ii.sdfeater;
+
+import java.util.*;
+
+/**
+ * Immutable molecule read by {@link SdfReader}
+ * <p>
+ * Property values are kept as in the SDF file, without any escaping, and in
+ * file order. Views may be shared between threads.
+ */
+public final class MoleculeView {
+
+    private final long ordinal;
+    private final Map<String, List<String>> properties;
+    private final List<Atom> atoms;
+    private final List<Bond> bonds;
+
+    /**
+     * MoleculeView class constructor
+     *
+     * @param ordinal    record number, starting with 1
+     * @param properties property values by name; taken over, not copied
+     * @param atoms      atoms
+     * @param bonds      bonds
+     */
+    MoleculeView(long ordinal, Map<String, List<String>> properties, List<Atom> atoms, List<Bond> bonds) {
+        this.ordinal = ordinal;
+        for (Map.Entry<String, List<String>> entry : properties.entrySet()) {
+            entry.setValue(Collections.unmodifiableList(entry.getValue()));
+        }
+        this.properties = Collections.unmodifiableMap(properties);
+        this.atoms = Collections.unmodifiableList(new ArrayList<>(atoms));
+        this.bonds = Collections.unmodifiableList(new ArrayList<>(bonds));
+    }
+
+    /**
+     * @return record number in the input, starting with 1
+     */
+    public long getOrdinal() {
+        return ordinal;
+    }
+
+    /**
+     * @return all property values by property name, in file order
+     */
+    public Map<String, List<String>> getProperties() {
+        return properties;
+    }
+
+    /**
+     * Get values of property
+     *
+     * @param name property name
+     * @return property values, empty if there is no such property
+     */
+    public List<String> getPropertyValues(String name) {
+        List<String> values = properties.get(name);
+        return values != null ? values : Collections.<String>emptyList();
+    }
+
+    /**
+     * Get first value of property
+     *
+     * @param name property name
+     * @return first property value, null if there is no such property
+     */
+    public String getProperty(String name) {
+        List<String> values = properties.get(name);
+        return values != null && !values.isEmpty() ? values.get(0) : null;
+    }
+
+    /**
+     * @return atoms in CTAB order; bond atom ids are 1-based indexes of this list
+     */
+    public List<Atom> getAtoms() {
+        return atoms;
+    }
+
+    /**
+     * @return bonds
+     */
+    public List<Bond> getBonds() {
+        return bonds;
+    }
+
+    @Override
+    public String toString() {
+        return "MoleculeView{ordinal=" + ordinal + ", properties=" + properties.keySet() + ", atoms=" + atoms.size() + ", bonds=" + bonds.size() + "}";
+    }
+}
@@ -0,0 +1,156 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2017-2019 Łukasz Szeremeta.
+ * Copyright 2018-2019 Dominik Tomaszuk.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package pl.edu.uwb.ii.sdfeater;
+
+
+import java.io.*;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Writer of molecules in one of SDFEater output formats
+ * <p>
+ * Formats with a document header write it when the writer is created and
+ * close the document in {@link #close()}. Formats written as a whole
+ * (turtle, rdfxml, rdfthrift, jsonld, jsonldhtml) collect molecules until
+ * {@link #close()}. Each writer has its own state, so writers may be used in
+ * different threads at the same time; a single writer is synchronized.
+ */
+public final class MoleculeWriter implements Closeable, Flushable {
+
+    private final SDFEater.Format format;
+    private final SDFEater.Subject subject;
+    private final ConversionContext context;
+    private final PrintStream out;
+    private final StringBuilder output_str = new StringBuilder();
+    private final ModelBuilder model;
+    private boolean closed;
+
+    /**
+     * MoleculeWriter class constructor, with IRI subjects and default subject base
+     *
+     * @param format output format name, e.g. cypher, jsonld, ntriples
+     * @param out    output; closed with the writer
+     * @throws IOException              if header can't be written
+     * @throws IllegalArgumentException if format is unknown
+     */
+    public MoleculeWriter(String format, OutputStream out) throws IOException {
+        this(format, SDFEater.Subject.iri.name(), null, out);
+    }
+
+    /**
+     * MoleculeWriter class constructor
+     *
+     * @param format      output format name, e.g. cypher, jsonld, ntriples
+     * @param subject     subject type: iri, uuid or bnode
+     * @param subjectBase molecule subject base for iri subject type, null for default
+     * @param out         output; closed with the writer
+     * @throws IOException              if header can't be written
+     * @throws IllegalArgumentException if format or subject type is unknown
+     */
+    public MoleculeWriter(String format, String subject, String subjectBase, OutputStream out) throws IOException {
+        this.format = SDFEater.Format.valueOf(format);
+        this.subject = SDFEater.Subject.valueOf(subject);
+        this.out = new PrintStream(new BufferedOutputStream(out, 64 * 1024), false, "UTF-8");
+        this.context = new ConversionContext(subjectBase != null ? subjectBase : ConversionContext.DEFAULT_SUBJECT_BASE, this.out);
+        this.model = this.format.usesJenaModel() ? new ModelBuilder(0, ModelBuilder.defaultMemory()) : null;
+        File.printHeader(this.format, output_str, this.out);
+        check();
+    }
+
+    /**
+     * MoleculeWriter class constructor for channels
+     *
+     * @param format  output format name, e.g. cypher, jsonld, ntriples
+     * @param channel output; closed with the writer
+     * @throws IOException              if header can't be written
+     * @throws IllegalArgumentException if format is unknown
+     */
+    public MoleculeWriter(String format, WritableByteChannel channel) throws IOException {
+        this(format, Channels.newOutputStream(channel));
+    }
+
+    /**
+     * Write molecule
+     *
+     * @param view molecule
+     * @throws IOException if output can't be written
+     */
+    public synchronized void write(MoleculeView view) throws IOException {
+        if (closed) {
+            throw new IOException("MoleculeWriter is closed");
+        }
+        Molecule molecule = new Molecule(context);
+        for (Map.Entry<String, List<String>> property : view.getProperties().entrySet()) {
+            for (String value : property.getValue()) {
+                molecule.addPropertyByName(property.getKey(), value);
+            }
+        }
+        molecule.atoms.addAll(view.getAtoms());
+        molecule.bonds.addAll(view.getBonds());
+        File.printMolecule(molecule, format, subject, output_str, model, out);
+        check();
+    }
+
+    @Override
+    public synchronized void flush() throws IOException {
+        out.flush();
+        check();
+    }
+
+    /**
+     * Finish the document and close the output
+     *
+     * @throws IOException if output can't be written
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        try {
+            File.printFooter(format, output_str, model, out);
+            out.flush();
+            check();
+        } finally {
+            if (model != null) {
+                model.close();
+            }
+            out.close();
+        }
+    }
+
+    /**
+     * PrintStream hides write errors, so they are checked after each operation
+     */
+    private void check() throws IOException {
+        if (out.checkError()) {
+            throw new IOException("Error while writing " + format + " output");
+        }
+    }
+}
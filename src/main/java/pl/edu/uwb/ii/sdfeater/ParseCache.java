@@ -0,0 +1,662 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2017-2019 Łukasz Szeremeta.
+ * Copyright 2018-2019 Dominik Tomaszuk.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package pl.edu.uwb.ii.sdfeater;
+
+import org.apache.commons.cli.*;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.function.Predicate;
+
+/**
+ * Binary parse cache of SDF file, written by the {@code compile} command
+ * <p>
+ * Records are stored in blocks of up to {@value #BLOCK_RECORDS} records;
+ * a block of large records is closed earlier, once its columns pass
+ * {@value #BLOCK_BYTES} bytes.
+ * Each block can be decoded on its own, so the file can be memory-mapped
+ * and split by record ranges. A block has a dictionary of its strings
+ * (property keys and values, element symbols, errors), so repeated values
+ * such as definitions are stored once, followed by columns: per-record
+ * ordinal, position in the SDF file, content hash and counts, then atom
+ * element ids and coordinates, bond arrays, property key and value ids,
+ * and raw bytes of records with errors. The block index is at the end of
+ * the file.
+ * <p>
+ * Records with malformed atoms or bonds are kept with the error, so
+ * conversion from the cache rejects exactly the records the SDF conversion
+ * would, and writes the same reject records.
+ */
+class ParseCache {
+
+    private static final int MAGIC = 0x53444643; // "SDFC"
+    private static final int VERSION = 3;
+    static final int BLOCK_RECORDS = 4096;
+    static final int BLOCK_BYTES = 64 * 1024 * 1024;
+
+    /**
+     * Kinds of record errors: structure errors only matter for formats
+     * using atoms and bonds
+     */
+    static final byte NO_ERROR = 0, STRUCTURE_ERROR = 1, RECORD_ERROR = 2;
+
+    /**
+     * Check if file is a parse cache
+     *
+     * @param path file path
+     * @return true if file starts with parse cache header; pipes are never
+     * read, as their data couldn't be read again
+     * @throws IOException if file can't be read
+     */
+    static boolean isCache(Path path) throws IOException {
+        if (!Files.isRegularFile(path)) {
+            return false;
+        }
+        try (DataInputStream in = new DataInputStream(Files.newInputStream(path))) {
+            return in.readInt() == MAGIC;
+        } catch (EOFException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Compile SDF file into parse cache
+     *
+     * @param input  SDF file
+     * @param output cache file
+     * @return number of records
+     * @throws IOException if input can't be read or output can't be written
+     */
+    static long compile(Path input, Path output) throws IOException {
+        return compile(input, output, BLOCK_BYTES);
+    }
+
+    /**
+     * Compile SDF file into parse cache
+     *
+     * @param input      SDF file
+     * @param output     cache file
+     * @param blockBytes size after which block is closed
+     * @return number of records
+     * @throws IOException if input can't be read or output can't be written
+     */
+    static long compile(Path input, Path output, long blockBytes) throws IOException {
+        try (LineReader reader = new LineReader(Files.newInputStream(input));
+             FileChannel channel = FileChannel.open(output, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            BlockWriter block = new BlockWriter();
+            List<long[]> index = new ArrayList<>();
+            ByteBuffer header = ByteBuffer.allocate(8).putInt(MAGIC).putInt(VERSION);
+            header.flip();
+            writeFully(channel, header);
+
+            Molecule structure = new Molecule();
+            Map<String, List<String>> properties = new LinkedHashMap<>();
+            List<String> values = null;
+            boolean molfileReady = false;
+            // raw bytes of current record, kept in cache if it has errors
+            Bytes raw = new Bytes();
+            long ordinal = 0, offset = 0, line = -1, hash = 0, records = 0;
+            while (reader.next()) {
+                if (line < 0) {
+                    ordinal++;
+                    offset = reader.position();
+                    line = reader.lineNumber();
+                    hash = Manifest.contentHashStart();
+                }
+                if (!reader.startsWith("$$$$")) {
+                    hash = reader.hashLine(hash);
+                    reader.copyLine(raw);
+                } else {
+                    byte error = NO_ERROR;
+                    String reason = null;
+                    if (!molfileReady) {
+                        error = RECORD_ERROR;
+                        reason = "record without M  END line";
+                    } else {
+                        try {
+                            structure.parseStructure();
+                        } catch (RuntimeException e) {
+                            error = STRUCTURE_ERROR;
+                            reason = e.toString();
+                            structure.atoms.clear();
+                            structure.bonds.clear();
+                        }
+                    }
+                    block.add(ordinal, offset, line, hash, error, reason, properties, structure, raw);
+                    records++;
+                    if (block.size() == BLOCK_RECORDS || block.bytes() >= blockBytes) {
+                        index.add(block.write(channel));
+                    }
+                    structure.clearAll();
+                    properties.clear();
+                    raw.reset();
+                    values = null;
+                    molfileReady = false;
+                    line = -1;
+                    continue;
+                }
+                if (reader.startsWith("END", 3)) {
+                    molfileReady = true;
+                } else if (!molfileReady) {
+                    if (!reader.isPropertiesBlockLine()) {
+                        structure.addCtabLine(reader.buffer(), reader.start(), reader.length());
+                    }
+                } else if (!reader.isPropertiesBlockLine()) {
+                    if (reader.isPropertyHeader()) {
+                        String name = reader.propertyName();
+                        values = properties.get(name);
+                        if (values == null) {
+                            values = new ArrayList<>();
+                            properties.put(name, values);
+                        }
+                    } else if (values != null && !reader.isEmpty()) {
+                        values.add(reader.string());
+                    }
+                }
+            }
+            if (block.size() > 0) {
+                index.add(block.write(channel));
+            }
+
+            ByteBuffer footer = ByteBuffer.allocate(4 + index.size() * 24 + 16);
+            long indexOffset = channel.position();
+            footer.putInt(index.size());
+            for (long[] entry : index) {
+                footer.putLong(entry[0]).putLong(entry[1]).putLong(entry[2]);
+            }
+            footer.putLong(records).putLong(indexOffset);
+            footer.flip();
+            writeFully(channel, footer);
+            return records;
+        }
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+
+    /**
+     * Columns of block being compiled
+     */
+    private static final class BlockWriter {
+        private final Map<String, Integer> dictionary = new HashMap<>();
+        private final List<String> strings = new ArrayList<>();
+        private final Column records = new Column(), atoms = new Column(), bonds = new Column(), keys = new Column(), valueIds = new Column(),
+                raws = new Column();
+        private int size, atomCount, bondCount, keyCount, valueCount;
+        private long firstOrdinal, stringBytes;
+
+        int size() {
+            return size;
+        }
+
+        /**
+         * @return approximate size of block being compiled
+         */
+        long bytes() {
+            return stringBytes + records.bytes.size() + atoms.bytes.size() + bonds.bytes.size() + keys.bytes.size() + valueIds.bytes.size()
+                    + raws.bytes.size();
+        }
+
+        private int id(String value) {
+            Integer id = dictionary.get(value);
+            if (id == null) {
+                id = strings.size();
+                dictionary.put(value, id);
+                strings.add(value);
+                stringBytes += 4 + value.length();
+            }
+            return id;
+        }
+
+        void add(long ordinal, long offset, long line, long hash, byte error, String reason,
+                 Map<String, List<String>> properties, Molecule structure, Bytes raw) throws IOException {
+            if (size == 0) {
+                firstOrdinal = ordinal;
+            }
+            size++;
+            int propertyCount = 0;
+            for (Map.Entry<String, List<String>> property : properties.entrySet()) {
+                // properties without values are left out, as in conversion of SDF
+                if (!property.getValue().isEmpty()) {
+                    propertyCount++;
+                    keys.out.writeInt(id(property.getKey()));
+                    keys.out.writeInt(property.getValue().size());
+                    for (String value : property.getValue()) {
+                        valueIds.out.writeInt(id(value));
+                    }
+                    keyCount++;
+                    valueCount += property.getValue().size();
+                }
+            }
+            records.out.writeLong(ordinal);
+            records.out.writeLong(offset);
+            records.out.writeLong(line);
+            records.out.writeLong(hash);
+            records.out.writeInt(structure.atoms.size());
+            records.out.writeInt(structure.bonds.size());
+            records.out.writeInt(propertyCount);
+            records.out.writeByte(error);
+            records.out.writeInt(reason != null ? id(reason) : -1);
+            // raw bytes are only needed to write rejects
+            records.out.writeInt(error != NO_ERROR ? raw.size() : 0);
+            if (error != NO_ERROR) {
+                raw.writeTo(raws.out);
+            }
+            for (Atom atom : structure.atoms) {
+                atoms.out.writeInt(id(atom.symbol));
+                atoms.out.writeFloat(atom.x);
+                atoms.out.writeFloat(atom.y);
+                atoms.out.writeFloat(atom.z);
+            }
+            for (Bond bond : structure.bonds) {
+                bonds.out.writeInt(bond.atom1);
+                bonds.out.writeInt(bond.atom2);
+                bonds.out.writeByte(bond.type);
+                bonds.out.writeByte(bond.stereo);
+            }
+            atomCount += structure.atoms.size();
+            bondCount += structure.bonds.size();
+        }
+
+        /**
+         * Write block and start a new one; columns are written to the file
+         * from their buffers, without assembling the block in memory
+         *
+         * @return block index entry: offset, length and first ordinal
+         */
+        long[] write(FileChannel channel) throws IOException {
+            long offset = channel.position();
+            // channel isn't closed with the stream, only flushed
+            DataOutputStream block = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(channel), 64 * 1024));
+            block.writeInt(size);
+            block.writeInt(atomCount);
+            block.writeInt(bondCount);
+            block.writeInt(keyCount);
+            block.writeInt(valueCount);
+            block.writeInt(strings.size());
+            for (String value : strings) {
+                byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+                block.writeInt(bytes.length);
+                block.write(bytes);
+            }
+            // atom and bond columns are stored as separate arrays
+            records.bytes.writeTo(block);
+            writeStrided(block, atoms.bytes, 16, new int[]{4, 4, 4, 4});
+            writeStrided(block, bonds.bytes, 10, new int[]{4, 4, 1, 1});
+            keys.bytes.writeTo(block);
+            valueIds.bytes.writeTo(block);
+            raws.bytes.writeTo(block);
+            block.flush();
+            long[] entry = {offset, channel.position() - offset, firstOrdinal};
+
+            dictionary.clear();
+            strings.clear();
+            stringBytes = 0;
+            records.reset();
+            atoms.reset();
+            bonds.reset();
+            keys.reset();
+            valueIds.reset();
+            raws.reset();
+            size = atomCount = bondCount = keyCount = valueCount = 0;
+            return entry;
+        }
+
+        /**
+         * Transpose rows of fixed-size fields into one array per field
+         */
+        private static void writeStrided(DataOutputStream out, Bytes rows, int stride, int[] fields) throws IOException {
+            int start = 0;
+            for (int field : fields) {
+                for (int row = 0; row < rows.size(); row += stride) {
+                    out.write(rows.array(), row + start, field);
+                }
+                start += field;
+            }
+        }
+    }
+
+    private static final class Column {
+        final Bytes bytes = new Bytes();
+        final DataOutputStream out = new DataOutputStream(bytes);
+
+        void reset() {
+            bytes.reset();
+        }
+    }
+
+    /**
+     * Column buffer readable without copying it
+     */
+    private static final class Bytes extends ByteArrayOutputStream {
+        byte[] array() {
+            return buf;
+        }
+    }
+
+    /**
+     * Reader of parse cache; blocks are memory-mapped when read
+     */
+    static final class Reader implements Closeable {
+        private final FileChannel channel;
+        private final long[] offsets;
+        private final long[] lengths;
+        private final long[] firstOrdinals;
+        private final long records;
+
+        /**
+         * Open parse cache
+         *
+         * @param path cache file
+         * @throws IOException if file can't be read or isn't a parse cache
+         */
+        Reader(Path path) throws IOException {
+            channel = FileChannel.open(path, StandardOpenOption.READ);
+            try {
+                ByteBuffer header = read(0, 8);
+                if (header.getInt() != MAGIC || header.getInt() != VERSION) {
+                    throw new IOException(path + " is not an SDFEater parse cache of this version");
+                }
+                ByteBuffer end = read(channel.size() - 16, 16);
+                records = end.getLong();
+                long indexOffset = end.getLong();
+                ByteBuffer index = read(indexOffset, (int) (channel.size() - 16 - indexOffset));
+                int blocks = index.getInt();
+                offsets = new long[blocks];
+                lengths = new long[blocks];
+                firstOrdinals = new long[blocks];
+                for (int i = 0; i < blocks; i++) {
+                    offsets[i] = index.getLong();
+                    lengths[i] = index.getLong();
+                    firstOrdinals[i] = index.getLong();
+                }
+            } catch (IOException | RuntimeException e) {
+                channel.close();
+                throw e;
+            }
+        }
+
+        private ByteBuffer read(long position, int length) throws IOException {
+            ByteBuffer buffer = ByteBuffer.allocate(length);
+            while (buffer.hasRemaining()) {
+                if (channel.read(buffer, position + buffer.position()) < 0) {
+                    throw new EOFException("Truncated parse cache");
+                }
+            }
+            buffer.flip();
+            return buffer;
+        }
+
+        /**
+         * @return number of records
+         */
+        long records() {
+            return records;
+        }
+
+        /**
+         * @return number of blocks
+         */
+        int blocks() {
+            return offsets.length;
+        }
+
+        /**
+         * @param block block number
+         * @return ordinal of first record in block
+         */
+        long firstOrdinal(int block) {
+            return firstOrdinals[block];
+        }
+
+        /**
+         * @param block block number
+         * @return position after the block in cache file
+         */
+        long end(int block) {
+            return offsets[block] + lengths[block];
+        }
+
+        /**
+         * Map block
+         *
+         * @param block block number
+         * @return decoded block
+         * @throws IOException if block can't be read
+         */
+        Block block(int block) throws IOException {
+            return new Block(channel.map(FileChannel.MapMode.READ_ONLY, offsets[block], lengths[block]));
+        }
+
+        @Override
+        public void close() throws IOException {
+            channel.close();
+        }
+    }
+
+    /**
+     * Records of one block
+     */
+    static final class Block {
+        private static final int RECORD_BYTES = 8 * 4 + 4 * 3 + 1 + 4 + 4;
+
+        private final ByteBuffer buffer;
+        private final int size;
+        private final int[] stringOffsets;
+        private final String[] strings;
+        private final int recordsStart, atomsStart, bondsStart, keysStart, valuesStart, rawsStart;
+        private final int atomCount, bondCount;
+        /**
+         * Index of first atom, bond, property and value of each record, and
+         * offset of its raw bytes
+         */
+        private final int[] firstAtom, firstBond, firstKey, firstValue, firstRaw;
+
+        private Block(ByteBuffer buffer) {
+            this.buffer = buffer;
+            size = buffer.getInt();
+            atomCount = buffer.getInt();
+            bondCount = buffer.getInt();
+            int keyCount = buffer.getInt();
+            int valueCount = buffer.getInt();
+            int stringCount = buffer.getInt();
+            stringOffsets = new int[stringCount];
+            strings = new String[stringCount];
+            for (int i = 0; i < stringCount; i++) {
+                stringOffsets[i] = buffer.position();
+                buffer.position(buffer.position() + 4 + buffer.getInt(buffer.position()));
+            }
+            recordsStart = buffer.position();
+            atomsStart = recordsStart + size * RECORD_BYTES;
+            bondsStart = atomsStart + atomCount * 16;
+            keysStart = bondsStart + bondCount * 10;
+            valuesStart = keysStart + keyCount * 8;
+            rawsStart = valuesStart + valueCount * 4;
+
+            firstAtom = new int[size + 1];
+            firstBond = new int[size + 1];
+            firstKey = new int[size + 1];
+            firstValue = new int[size + 1];
+            firstRaw = new int[size + 1];
+            for (int i = 0; i < size; i++) {
+                int record = recordsStart + i * RECORD_BYTES;
+                firstAtom[i + 1] = firstAtom[i] + buffer.getInt(record + 32);
+                firstBond[i + 1] = firstBond[i] + buffer.getInt(record + 36);
+                firstKey[i + 1] = firstKey[i] + buffer.getInt(record + 40);
+                firstRaw[i + 1] = firstRaw[i] + buffer.getInt(record + 49);
+                int values = 0;
+                for (int key = firstKey[i]; key < firstKey[i + 1]; key++) {
+                    values += buffer.getInt(keysStart + key * 8 + 4);
+                }
+                firstValue[i + 1] = firstValue[i] + values;
+            }
+        }
+
+        private String string(int id) {
+            String value = strings[id];
+            if (value == null) {
+                int length = buffer.getInt(stringOffsets[id]);
+                byte[] bytes = new byte[length];
+                ByteBuffer view = buffer.duplicate();
+                view.position(stringOffsets[id] + 4);
+                view.get(bytes);
+                value = strings[id] = new String(bytes, StandardCharsets.UTF_8);
+            }
+            return value;
+        }
+
+        /**
+         * @return number of records in block
+         */
+        int size() {
+            return size;
+        }
+
+        long ordinal(int record) {
+            return buffer.getLong(recordsStart + record * RECORD_BYTES);
+        }
+
+        /**
+         * @return byte offset of record in SDF file
+         */
+        long offset(int record) {
+            return buffer.getLong(recordsStart + record * RECORD_BYTES + 8);
+        }
+
+        /**
+         * @return first line number of record in SDF file
+         */
+        long line(int record) {
+            return buffer.getLong(recordsStart + record * RECORD_BYTES + 16);
+        }
+
+        /**
+         * @return record content hash, see {@link Manifest#contentHash(long)}
+         */
+        long hash(int record) {
+            return buffer.getLong(recordsStart + record * RECORD_BYTES + 24);
+        }
+
+        /**
+         * @return kind of record error
+         */
+        byte error(int record) {
+            return buffer.get(recordsStart + record * RECORD_BYTES + 44);
+        }
+
+        /**
+         * @return reason of record error, null if record has none
+         */
+        String errorReason(int record) {
+            int id = buffer.getInt(recordsStart + record * RECORD_BYTES + 45);
+            return id < 0 ? null : string(id);
+        }
+
+        /**
+         * @return raw bytes of record with error, without $$$$ line; empty
+         * if record has no error
+         */
+        ByteBuffer raw(int record) {
+            ByteBuffer view = buffer.duplicate();
+            view.limit(rawsStart + firstRaw[record + 1]).position(rawsStart + firstRaw[record]);
+            return view;
+        }
+
+        /**
+         * Fill molecule with record data
+         *
+         * @param record     record number in block
+         * @param molecule   empty molecule
+         * @param properties properties to add
+         * @param structure  true to add atoms and bonds
+         */
+        void load(int record, Molecule molecule, Predicate<String> properties, boolean structure) {
+            for (int key = firstKey[record], value = firstValue[record]; key < firstKey[record + 1]; key++) {
+                String name = string(buffer.getInt(keysStart + key * 8));
+                int values = buffer.getInt(keysStart + key * 8 + 4);
+                if (properties.test(name)) {
+                    for (int i = 0; i < values; i++) {
+                        molecule.addPropertyByName(name, string(buffer.getInt(valuesStart + (value + i) * 4)));
+                    }
+                }
+                value += values;
+            }
+            if (structure) {
+                for (int atom = firstAtom[record]; atom < firstAtom[record + 1]; atom++) {
+                    molecule.atoms.add(new Atom(string(buffer.getInt(atomsStart + atom * 4)),
+                            buffer.getFloat(atomsStart + atomCount * 4 + atom * 4),
+                            buffer.getFloat(atomsStart + atomCount * 8 + atom * 4),
+                            buffer.getFloat(atomsStart + atomCount * 12 + atom * 4)));
+                }
+                for (int bond = firstBond[record]; bond < firstBond[record + 1]; bond++) {
+                    molecule.bonds.add(new Bond(buffer.getInt(bondsStart + bond * 4),
+                            buffer.get(bondsStart + bondCount * 8 + bond),
+                            buffer.getInt(bondsStart + bondCount * 4 + bond * 4),
+                            buffer.get(bondsStart + bondCount * 9 + bond)));
+                }
+            }
+        }
+    }
+
+    /**
+     * Run compile command
+     *
+     * @param args command line arguments after "compile"
+     */
+    static void compile(String[] args) {
+        Options options = new Options();
+        Option input = new Option("i", "input", true, "input SDF file path");
+        input.setRequired(true);
+        options.addOption(input);
+        Option output = new Option("o", "output", true, "parse cache file path (input path with .sdfc extension by default)");
+        output.setRequired(false);
+        options.addOption(output);
+        HelpFormatter formatter = new HelpFormatter();
+        try {
+            CommandLine cmd = new DefaultParser().parse(options, args);
+            String in = cmd.getOptionValue("input");
+            Path out = Paths.get(cmd.getOptionValue("output", in.replaceFirst("\\.sdf$", "") + ".sdfc"));
+            long records = compile(Paths.get(in), out);
+            System.err.println(records + " records compiled to " + out);
+        } catch (IllegalArgumentException | ParseException e) {
+            System.err.println("Incorrect option selected" + (e.getMessage() != null ? ": " + e.getMessage() : ""));
+            formatter.printHelp("SDFEater.jar compile", options);
+        } catch (IOException e) {
+            System.err.println("Error: " + e.getMessage());
+            System.exit(2);
+        }
+    }
+}
@@ -0,0 +1,178 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2017-2019 Łukasz Szeremeta.
+ * Copyright 2018-2019 Dominik Tomaszuk.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package pl.edu.uwb.ii.sdfeater;
+
+import java.io.PrintStream;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Periodic progress report for --progress option
+ * <p>
+ * Parser only updates two atomic counters per record; a background daemon
+ * thread reads them and prints progress to standard error, so standard
+ * output is never affected. ETA uses exponentially smoothed throughput and
+ * is only shown if input size is known, i.e. not for pipes.
+ */
+class Progress {
+
+    /**
+     * Weight of the latest throughput sample in smoothed throughput
+     */
+    private static final double SMOOTHING = 0.3;
+
+    private final AtomicLong position = new AtomicLong();
+    private final AtomicLong records = new AtomicLong();
+    private final long intervalMillis;
+    private final PrintStream err;
+    private Thread thread;
+    private long total, startNanos, lastNanos, lastPosition;
+    private double smoothedRate = -1;
+
+    /**
+     * Progress class constructor
+     *
+     * @param intervalMillis time between reports in milliseconds
+     */
+    Progress(long intervalMillis) {
+        this.intervalMillis = intervalMillis;
+        this.err = System.err;
+    }
+
+    /**
+     * Start reporting thread
+     *
+     * @param total input size in bytes, 0 or less if unknown
+     */
+    void start(long total) {
+        this.total = total;
+        startNanos = lastNanos = System.nanoTime();
+        thread = new Thread(() -> {
+            try {
+                while (!Thread.currentThread().isInterrupted()) {
+                    Thread.sleep(intervalMillis);
+                    report(false);
+                }
+            } catch (InterruptedException e) {
+                // stopped
+            }
+        }, "SDFEater-progress");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Update counters after a record; called by parser
+     *
+     * @param bytes input bytes processed so far
+     */
+    void record(long bytes) {
+        position.lazySet(bytes);
+        records.lazySet(records.get() + 1);
+    }
+
+    /**
+     * Stop reporting thread and print final report
+     */
+    void stop() {
+        if (thread == null) {
+            return;
+        }
+        thread.interrupt();
+        try {
+            thread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        thread = null;
+        report(true);
+    }
+
+    /**
+     * Print one progress line
+     *
+     * @param done true for final report
+     */
+    private synchronized void report(boolean done) {
+        long now = System.nanoTime();
+        long bytes = position.get();
+        long count = records.get();
+        double interval = (now - lastNanos) / 1e9;
+        if (interval > 0) {
+            double rate = (bytes - lastPosition) / interval;
+            smoothedRate = smoothedRate < 0 ? rate : SMOOTHING * rate + (1 - SMOOTHING) * smoothedRate;
+        }
+        lastNanos = now;
+        lastPosition = bytes;
+        double elapsed = (now - startNanos) / 1e9;
+        err.println(format(bytes, count, elapsed, done));
+    }
+
+    /**
+     * Format progress line
+     *
+     * @param bytes   input bytes processed
+     * @param count   records processed
+     * @param elapsed seconds since start
+     * @param done    true for final report
+     * @return progress line
+     */
+    String format(long bytes, long count, double elapsed, boolean done) {
+        StringBuilder line = new StringBuilder("progress: ");
+        line.append(size(bytes));
+        if (total > 0) {
+            line.append(" / ").append(size(total))
+                    .append(String.format(Locale.ROOT, " (%.1f%%)", 100.0 * bytes / total));
+        }
+        line.append(", ").append(count).append(" records");
+        if (elapsed > 0) {
+            line.append(String.format(Locale.ROOT, ", %.1f records/s, %s/s", count / elapsed, size((long) (bytes / elapsed))));
+        }
+        if (done) {
+            line.append(", done in ").append(duration((long) elapsed));
+        } else if (total > 0 && smoothedRate > 0) {
+            line.append(", ETA ").append(duration((long) ((total - bytes) / smoothedRate)));
+        }
+        return line.toString();
+    }
+
+    private static String size(long bytes) {
+        if (bytes < 1024) {
+            return bytes + " B";
+        }
+        String[] units = {"KB", "MB", "GB", "TB"};
+        double value = bytes;
+        int unit = -1;
+        while (value >= 1024 && unit < units.length - 1) {
+            value /= 1024;
+            unit++;
+        }
+        return String.format(Locale.ROOT, "%.1f %s", value, units[unit]);
+    }
+
+    private static String duration(long seconds) {
+        return String.format(Locale.ROOT, "%d:%02d:%02d", seconds / 3600, seconds / 60 % 60, seconds % 60);
+    }
+}
@@ -0,0 +1,176 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2017-2019 Łukasz Szeremeta.
+ * Copyright 2018-2019 Dominik Tomaszuk.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package pl.edu.uwb.ii.sdfeater;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Per-record error handling
+ * <p>
+ * A record that can't be converted is skipped and reported to standard
+ * error. With a reject file, its raw bytes are written there as a valid SDF
+ * record with added {@code SDFEater.*} properties describing the error, so
+ * rejects can be fixed and converted again. A record whose bytes aren't
+ * known gets an empty molfile block. Conversion is aborted when more
+ * than the allowed number of records fail.
+ */
+class RecordErrors implements Closeable {
+
+    private final String rejectFile;
+    private final long maxErrors;
+    /**
+     * Empty molfile block of rejected record without its bytes
+     */
+    private static final byte[] EMPTY_MOLFILE = "\n  SDFEater\n\n  0  0  0  0  0  0  0  0  0  0999 V2000\nM  END\n"
+            .getBytes(StandardCharsets.US_ASCII);
+
+    /**
+     * Raw bytes of the current record, collected only with reject file
+     */
+    private byte[] record = new byte[8192];
+    private int recordLength;
+    private OutputStream rejects;
+    private long errors;
+
+    /**
+     * RecordErrors class constructor
+     *
+     * @param rejectFile path of reject SDF file, null if rejected records are not kept
+     * @param maxErrors  number of failed records after which conversion is aborted, negative for no limit
+     */
+    RecordErrors(String rejectFile, long maxErrors) {
+        this.rejectFile = rejectFile;
+        this.maxErrors = maxErrors;
+    }
+
+    /**
+     * @return true if raw lines of records have to be passed to {@link #line(LineReader)}
+     */
+    boolean isCollecting() {
+        return rejectFile != null;
+    }
+
+    /**
+     * Collect current line of the record
+     *
+     * @param reader input reader
+     */
+    void line(LineReader reader) {
+        int length = reader.rawLength();
+        ensureCapacity(length);
+        reader.copyLine(record, recordLength);
+        recordLength += length;
+    }
+
+    /**
+     * Collect the whole record, e.g. stored in parse cache
+     *
+     * @param raw record bytes, without $$$$ line
+     */
+    void record(ByteBuffer raw) {
+        int length = raw.remaining();
+        recordLength = 0;
+        ensureCapacity(length);
+        raw.get(record, 0, length);
+        recordLength = length;
+    }
+
+    private void ensureCapacity(int length) {
+        if (recordLength + length > record.length) {
+            record = Arrays.copyOf(record, Math.max(2 * record.length, recordLength + length));
+        }
+    }
+
+    /**
+     * Forget collected record after its end
+     */
+    void clear() {
+        recordLength = 0;
+    }
+
+    /**
+     * Report record that can't be converted
+     *
+     * @param ordinal record number, starting with 1
+     * @param offset  input byte offset of the record
+     * @param line    input line number of the record
+     * @param reason  error description
+     * @throws IOException if reject file can't be written or too many records failed
+     */
+    void reject(long ordinal, long offset, long line, String reason) throws IOException {
+        errors++;
+        System.err.println("Skipped record " + ordinal + " (line " + line + ", byte " + offset + "): " + reason);
+        if (rejectFile != null) {
+            if (rejects == null) {
+                rejects = new BufferedOutputStream(new FileOutputStream(rejectFile));
+            }
+            if (recordLength == 0) {
+                rejects.write(EMPTY_MOLFILE);
+            } else {
+                rejects.write(record, 0, recordLength);
+                if (record[recordLength - 1] != '\n') {
+                    rejects.write('\n');
+                }
+            }
+            StringBuilder data = new StringBuilder();
+            data.append("> <SDFEater.ordinal>\n").append(ordinal).append("\n\n");
+            data.append("> <SDFEater.offset>\n").append(offset).append("\n\n");
+            data.append("> <SDFEater.line>\n").append(line).append("\n\n");
+            data.append("> <SDFEater.reason>\n").append(reason.replace('\n', ' ')).append("\n\n");
+            data.append("$$$$\n");
+            rejects.write(data.toString().getBytes(StandardCharsets.UTF_8));
+        }
+        if (maxErrors >= 0 && errors > maxErrors) {
+            throw new IOException("too many errors, " + errors + " records failed (--max-errors " + maxErrors + ")");
+        }
+    }
+
+    /**
+     * @return number of records that failed
+     */
+    long getErrors() {
+        return errors;
+    }
+
+    /**
+     * Print number of failed records to standard error, if any
+     */
+    void printSummary() {
+        if (errors > 0) {
+            System.err.println(errors + " records skipped because of errors" + (rejectFile != null ? ", written to " + rejectFile : ""));
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (rejects != null) {
+            rejects.close();
+            rejects = null;
+        }
+    }
+}
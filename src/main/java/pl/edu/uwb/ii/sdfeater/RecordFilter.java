@@ -0,0 +1,440 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2017-2019 Łukasz Szeremeta.
+ * Copyright 2018-2019 Dominik Tomaszuk.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package pl.edu.uwb.ii.sdfeater;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.regex.Pattern;
+
+/**
+ * Record filter built from a {@code --where} expression over SDF properties
+ * <p>
+ * Grammar (keywords are case-insensitive):
+ * <pre>
+ * expr       := and ( ("or" | "||") and )*
+ * and        := unary ( ("and" | "&amp;&amp;") unary )*
+ * unary      := ("not" | "!") unary | "(" expr ")" | comparison
+ * comparison := name "exists"
+ *             | name ("=" | "!=" | "&lt;" | "&lt;=" | "&gt;" | "&gt;=" | "~") value
+ *             | name "in" "(" value ("," value)* ")"
+ *             | name "in" "@" path
+ * name       := word | "&lt;" any text "&gt;" | quoted string
+ * </pre>
+ * For example {@code Mass < 500 and <ChEBI ID> in @ids.txt} or {@code SMILES exists}.
+ * A comparison holds if any value of a multi-valued property matches it; values
+ * are compared as numbers when both sides are numbers. {@code @path} loads one
+ * value per line into a hash set.
+ * <p>
+ * The filter is evaluated while the record is read, with three-valued logic:
+ * properties not read yet are unknown, so a record can be rejected as soon as
+ * the known properties decide the result.
+ */
+class RecordFilter {
+
+    /**
+     * Root expression node
+     */
+    private final Node root;
+
+    /**
+     * Names of all properties used in expression
+     */
+    private final Set<String> propertyNames = new HashSet<>();
+
+    private final String expression;
+    private int pos;
+
+    /**
+     * RecordFilter class constructor
+     *
+     * @param expression filter expression
+     * @throws IOException if value list file can't be read
+     */
+    RecordFilter(String expression) throws IOException {
+        this.expression = expression;
+        this.root = parseOr();
+        skipSpaces();
+        if (pos < expression.length()) {
+            throw error("unexpected '" + expression.substring(pos) + "'");
+        }
+    }
+
+    /**
+     * Try to parse a number
+     *
+     * @param s String to parse
+     * @return number or null if s is not a number
+     */
+    private static Double toNumber(String s) {
+        if (s.isEmpty()) {
+            return null;
+        }
+        char c = s.charAt(0);
+        if (!(c >= '0' && c <= '9') && c != '-' && c != '+' && c != '.') {
+            return null;  // cheap reject before exception-based parse
+        }
+        try {
+            return Double.valueOf(s);
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Test molecule against filter
+     *
+     * @param molecule molecule with properties read so far
+     * @param complete true if all properties of the record were read
+     * @return TRUE or FALSE if result is known, null if it depends on properties not read yet
+     */
+    Boolean test(Molecule molecule, boolean complete) {
+        return root.eval(molecule, complete);
+    }
+
+    /**
+     * @return names of all properties used in expression
+     */
+    Set<String> getPropertyNames() {
+        return propertyNames;
+    }
+
+    private IllegalArgumentException error(String message) {
+        return new IllegalArgumentException("Invalid --where expression at position " + (pos + 1) + ": " + message);
+    }
+
+    private void skipSpaces() {
+        while (pos < expression.length() && Character.isWhitespace(expression.charAt(pos))) {
+            pos++;
+        }
+    }
+
+    /**
+     * Consume token if it's next in the expression
+     */
+    private boolean accept(String token) {
+        skipSpaces();
+        if (!expression.regionMatches(true, pos, token, 0, token.length())) {
+            return false;
+        }
+        int end = pos + token.length();
+        if (Character.isLetter(token.charAt(0)) && end < expression.length() && isWordChar(expression.charAt(end))) {
+            return false;  // keyword is only a prefix of a longer word
+        }
+        pos = end;
+        return true;
+    }
+
+    private boolean isWordChar(char c) {
+        return Character.isLetterOrDigit(c) || c == '_' || c == '-' || c == '.' || c == ':' || c == '+';
+    }
+
+    private Node parseOr() throws IOException {
+        Node left = parseAnd();
+        while (accept("or") || accept("||")) {
+            left = new Or(left, parseAnd());
+        }
+        return left;
+    }
+
+    private Node parseAnd() throws IOException {
+        Node left = parseUnary();
+        while (accept("and") || accept("&&")) {
+            left = new And(left, parseUnary());
+        }
+        return left;
+    }
+
+    private Node parseUnary() throws IOException {
+        if (accept("not") || (!lookingAt("!=") && accept("!"))) {
+            return new Not(parseUnary());
+        }
+        if (accept("(")) {
+            Node node = parseOr();
+            if (!accept(")")) {
+                throw error("')' expected");
+            }
+            return node;
+        }
+        return parseComparison();
+    }
+
+    private boolean lookingAt(String token) {
+        skipSpaces();
+        return expression.startsWith(token, pos);
+    }
+
+    private Node parseComparison() throws IOException {
+        String name = parseName();
+        propertyNames.add(name);
+        if (accept("exists")) {
+            return new Exists(name);
+        }
+        if (accept("in")) {
+            Set<String> set = new HashSet<>();
+            if (accept("@")) {
+                try (BufferedReader reader = Files.newBufferedReader(Paths.get(parseValue()), StandardCharsets.UTF_8)) {
+                    String line;
+                    while ((line = reader.readLine()) != null) {
+                        line = line.trim();
+                        if (!line.isEmpty()) {
+                            set.add(line);
+                        }
+                    }
+                }
+            } else if (accept("(")) {
+                do {
+                    set.add(parseValue());
+                } while (accept(","));
+                if (!accept(")")) {
+                    throw error("')' expected");
+                }
+            } else {
+                throw error("'(' or '@' expected after 'in'");
+            }
+            return new In(name, set);
+        }
+        for (String op : new String[]{"<=", ">=", "!=", "==", "=", "<", ">", "~"}) {
+            if (accept(op)) {
+                return new Compare(name, op, parseValue());
+            }
+        }
+        throw error("operator expected after property '" + name + "'");
+    }
+
+    private String parseName() {
+        skipSpaces();
+        if (accept("<")) {
+            int end = expression.indexOf('>', pos);
+            if (end < 0) {
+                throw error("'>' expected");
+            }
+            String name = expression.substring(pos, end);
+            pos = end + 1;
+            return name;
+        }
+        if (pos < expression.length() && (expression.charAt(pos) == '\'' || expression.charAt(pos) == '"')) {
+            return parseQuoted();
+        }
+        return parseWord("property name");
+    }
+
+    private String parseValue() {
+        skipSpaces();
+        if (pos < expression.length() && (expression.charAt(pos) == '\'' || expression.charAt(pos) == '"')) {
+            return parseQuoted();
+        }
+        return parseWord("value");
+    }
+
+    private String parseWord(String what) {
+        int start = pos;
+        while (pos < expression.length() && (isWordChar(expression.charAt(pos)) || expression.charAt(pos) == '/' || expression.charAt(pos) == '\\')) {
+            pos++;
+        }
+        if (start == pos) {
+            throw error(what + " expected");
+        }
+        return expression.substring(start, pos);
+    }
+
+    private String parseQuoted() {
+        char quote = expression.charAt(pos);
+        int end = expression.indexOf(quote, pos + 1);
+        if (end < 0) {
+            throw error("unterminated string");
+        }
+        String value = expression.substring(pos + 1, end);
+        pos = end + 1;
+        return value;
+    }
+
+    /**
+     * Expression node
+     */
+    private interface Node {
+        Boolean eval(Molecule molecule, boolean complete);
+    }
+
+    private static final class Or implements Node {
+        private final Node left, right;
+
+        Or(Node left, Node right) {
+            this.left = left;
+            this.right = right;
+        }
+
+        @Override
+        public Boolean eval(Molecule molecule, boolean complete) {
+            Boolean l = left.eval(molecule, complete);
+            if (Boolean.TRUE.equals(l)) {
+                return true;
+            }
+            Boolean r = right.eval(molecule, complete);
+            if (Boolean.TRUE.equals(r)) {
+                return true;
+            }
+            return l == null || r == null ? null : false;
+        }
+    }
+
+    private static final class And implements Node {
+        private final Node left, right;
+
+        And(Node left, Node right) {
+            this.left = left;
+            this.right = right;
+        }
+
+        @Override
+        public Boolean eval(Molecule molecule, boolean complete) {
+            Boolean l = left.eval(molecule, complete);
+            if (Boolean.FALSE.equals(l)) {
+                return false;
+            }
+            Boolean r = right.eval(molecule, complete);
+            if (Boolean.FALSE.equals(r)) {
+                return false;
+            }
+            return l == null || r == null ? null : true;
+        }
+    }
+
+    private static final class Not implements Node {
+        private final Node node;
+
+        Not(Node node) {
+            this.node = node;
+        }
+
+        @Override
+        public Boolean eval(Molecule molecule, boolean complete) {
+            Boolean v = node.eval(molecule, complete);
+            return v == null ? null : !v;
+        }
+    }
+
+    /**
+     * Base for nodes testing values of a single property
+     */
+    private abstract static class PropertyNode implements Node {
+        final String name;
+
+        PropertyNode(String name) {
+            this.name = name;
+        }
+
+        @Override
+        public Boolean eval(Molecule molecule, boolean complete) {
+            List<String> values = molecule.getPropertiesByName(name);
+            if (values == null) {
+                return complete ? false : null;
+            }
+            for (String value : values) {
+                if (matches(value)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        abstract boolean matches(String value);
+    }
+
+    private static final class Exists extends PropertyNode {
+        Exists(String name) {
+            super(name);
+        }
+
+        @Override
+        boolean matches(String value) {
+            return true;
+        }
+    }
+
+    private static final class In extends PropertyNode {
+        private final Set<String> set;
+
+        In(String name, Set<String> set) {
+            super(name);
+            this.set = set;
+        }
+
+        @Override
+        boolean matches(String value) {
+            return set.contains(value);
+        }
+    }
+
+    private static final class Compare extends PropertyNode {
+        private final String op;
+        private final String literal;
+        private final Double number;
+        private final Pattern pattern;
+
+        Compare(String name, String op, String literal) {
+            super(name);
+            this.op = op;
+            this.literal = literal;
+            this.number = toNumber(literal);
+            this.pattern = "~".equals(op) ? Pattern.compile(literal) : null;
+        }
+
+        @Override
+        boolean matches(String value) {
+            if (pattern != null) {
+                return pattern.matcher(value).find();
+            }
+            int cmp;
+            Double v = number != null ? toNumber(value) : null;
+            if (v != null) {
+                cmp = Double.compare(v, number);
+            } else {
+                cmp = value.compareTo(literal);
+            }
+            switch (op) {
+                case "=":
+                case "==":
+                    return cmp == 0;
+                case "!=":
+                    return cmp != 0;
+                case "<":
+                    return cmp < 0;
+                case "<=":
+                    return cmp <= 0;
+                case ">":
+                    return cmp > 0;
+                default:
+                    return cmp >= 0;
+            }
+        }
+    }
+}
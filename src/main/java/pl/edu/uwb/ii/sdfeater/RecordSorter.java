@@ -0,0 +1,805 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2017-2019 Łukasz Szeremeta.
+ * Copyright 2018-2019 Dominik Tomaszuk.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package pl.edu.uwb.ii.sdfeater;
+
+import org.apache.commons.cli.CommandLine;
+import org.apache.commons.cli.DefaultParser;
+import org.apache.commons.cli.HelpFormatter;
+import org.apache.commons.cli.Option;
+import org.apache.commons.cli.Options;
+import org.apache.commons.cli.ParseException;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * External merge sort of SDF records by property value
+ * <p>
+ * Records are read as raw byte ranges into chunks of the memory budget,
+ * with their encoded keys in off-heap buffers. Full chunks are sorted by
+ * worker threads, while the next chunk is read, and spilled to temporary run
+ * files; runs are merged by a k-way merge into a stream of sorted records,
+ * which is written as SDF or converted to an output format on the fly. Input
+ * that fits in one chunk is sorted in memory, without temporary files.
+ * <p>
+ * Records are copied byte for byte. Keys are compared as UTF-8 bytes (in
+ * code point order), or as numbers before other values with
+ * {@code --numeric}; records with equal keys keep their input order, and
+ * records without the property go last.
+ */
+class RecordSorter {
+
+    /**
+     * Default number of threads sorting and spilling chunks
+     */
+    static final int DEFAULT_WORKERS = Math.min(4, Runtime.getRuntime().availableProcessors());
+
+    /**
+     * Default memory budget in bytes of chunks
+     */
+    static final long DEFAULT_MEMORY = 256L * 1024 * 1024;
+
+    /**
+     * Key type tags, first byte of encoded keys
+     */
+    private static final byte NUMBER = 0, STRING = 1, MISSING = 2;
+
+    private static final Chunk END = new Chunk(0, 0);
+
+    private final String property;
+    private final boolean numeric;
+    private final int chunkBytes;
+    private final int workers;
+    private final Path temporary;
+
+    private final List<Path> runs = new ArrayList<>();
+    private final List<Chunk> chunks = new ArrayList<>();
+    private final BlockingQueue<Chunk> free;
+    private final BlockingQueue<Chunk> full;
+    private final List<Thread> threads = new ArrayList<>();
+    private volatile IOException failure;
+    private long records;
+
+    /**
+     * RecordSorter class constructor
+     *
+     * @param property  SDF property to sort by
+     * @param numeric   true to compare numeric values as numbers
+     * @param memory    memory budget in bytes of chunks; a record larger than
+     *                  one chunk gets a larger chunk
+     * @param workers   number of threads sorting and spilling chunks
+     * @param temporary directory of run files
+     */
+    RecordSorter(String property, boolean numeric, long memory, int workers, Path temporary) {
+        if (workers < 1) {
+            throw new IllegalArgumentException("sort needs at least one worker");
+        }
+        this.property = property;
+        this.numeric = numeric;
+        // one chunk is read while each worker sorts and spills another
+        this.chunkBytes = (int) Math.min(Integer.MAX_VALUE - 8, Math.max(1024 * 1024, memory / (workers + 1)));
+        this.workers = workers;
+        this.temporary = temporary;
+        this.free = new ArrayBlockingQueue<>(workers + 1);
+        this.full = new ArrayBlockingQueue<>(workers + 1);
+    }
+
+    /**
+     * Get number of sorted records
+     *
+     * @return number of records read by {@link #sort(InputStream)}
+     */
+    long getRecords() {
+        return records;
+    }
+
+    /**
+     * Get number of run files
+     *
+     * @return number of chunks spilled to temporary files, 0 if input was
+     * sorted in memory
+     */
+    int getRuns() {
+        return runs.size();
+    }
+
+    /**
+     * Sort records of SDF input
+     *
+     * @param input SDF input; read to the end, but not closed
+     * @return sorted records as SDF; temporary files are deleted when it's closed
+     * @throws IOException if input can't be read or runs can't be written
+     */
+    InputStream sort(InputStream input) throws IOException {
+        try {
+            return merge(read(input));
+        } catch (IOException | RuntimeException e) {
+            deleteRuns();
+            throw e;
+        } finally {
+            for (Thread thread : threads) {
+                thread.interrupt();
+            }
+        }
+    }
+
+    /**
+     * Read records into chunks, spilling full ones
+     *
+     * @return last chunk, not spilled
+     */
+    private Chunk read(InputStream input) throws IOException {
+        LineReader reader = new LineReader(input);
+        Chunk chunk = takeChunk();
+        byte[] record = new byte[64 * 1024];
+        int recordLength = 0;
+        String key = null;
+        boolean molfileReady = false;
+        boolean keyValue = false;   // next line is value of key property
+        while (reader.next()) {
+            int length = reader.rawLength();
+            if (recordLength + length > record.length) {
+                record = Arrays.copyOf(record, Math.max(2 * record.length, recordLength + length));
+            }
+            reader.copyLine(record, recordLength);
+            recordLength += length;
+            if (reader.startsWith("$$$$")) {
+                chunk = add(chunk, record, recordLength, key);
+                recordLength = 0;
+                key = null;
+                molfileReady = false;
+                keyValue = false;
+            } else if (!molfileReady) {
+                molfileReady = reader.startsWith("END", 3);
+            } else if (keyValue) {
+                keyValue = false;
+                if (!reader.isEmpty()) {
+                    key = reader.string();
+                }
+            } else if (key == null && reader.isPropertyHeader()) {
+                keyValue = reader.propertyName().equals(property);
+            }
+        }
+        // last record without $$$$ line
+        for (int i = 0; i < recordLength; i++) {
+            if ((record[i] & 0xff) > ' ') {
+                return add(chunk, record, recordLength, key);
+            }
+        }
+        return chunk;
+    }
+
+    /**
+     * Add record to chunk, or to next chunk if it's full
+     *
+     * @return chunk of following records
+     */
+    private Chunk add(Chunk chunk, byte[] record, int recordLength, String key) throws IOException {
+        if (record[recordLength - 1] != '\n') {
+            if (recordLength == record.length) {
+                record = Arrays.copyOf(record, recordLength + 1);
+            }
+            record[recordLength++] = '\n';
+        }
+        byte[] encoded = encode(key);
+        if (!chunk.fits(recordLength, encoded.length) && chunk.count > 0) {
+            spill(chunk);
+            chunk = takeChunk();
+        }
+        chunk.add(record, recordLength, encoded);
+        records++;
+        return chunk;
+    }
+
+    /**
+     * Encode key, so that unsigned byte order of encoded keys is the sort order
+     *
+     * @param key property value, null if record doesn't have it
+     * @return type tag followed by big-endian sortable bits of number or UTF-8 bytes of value
+     */
+    private byte[] encode(String key) {
+        if (key == null) {
+            return new byte[]{MISSING};
+        }
+        if (numeric) {
+            try {
+                double value = Double.parseDouble(key);
+                if (!Double.isNaN(value)) {
+                    long bits = Double.doubleToLongBits(value == 0 ? 0.0 : value);
+                    bits = bits < 0 ? ~bits : bits ^ Long.MIN_VALUE;
+                    return ByteBuffer.allocate(9).put(NUMBER).putLong(bits).array();
+                }
+            } catch (NumberFormatException e) {
+                // sorted as string, after numbers
+            }
+        }
+        byte[] value = key.getBytes(StandardCharsets.UTF_8);
+        byte[] encoded = new byte[value.length + 1];
+        encoded[0] = STRING;
+        System.arraycopy(value, 0, encoded, 1, value.length);
+        return encoded;
+    }
+
+    /**
+     * Get empty chunk, allocating it if all chunks of the budget aren't
+     * allocated yet; waits for a worker otherwise
+     */
+    private Chunk takeChunk() throws IOException {
+        Chunk chunk = free.poll();
+        if (chunk == null && chunks.size() < workers + 1) {
+            int keyBytes = Math.max(64 * 1024, chunkBytes / 8);
+            chunk = new Chunk(chunkBytes - keyBytes, keyBytes);
+            chunks.add(chunk);
+        }
+        while (chunk == null) {
+            check();
+            try {
+                chunk = free.poll(100, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted while sorting", e);
+            }
+        }
+        return chunk;
+    }
+
+    /**
+     * Hand chunk over to workers, which sort it and write it to next run file
+     */
+    private void spill(Chunk chunk) throws IOException {
+        check();
+        if (threads.isEmpty()) {
+            startWorkers();
+        }
+        chunk.run = Files.createTempFile(temporary, "sdfeater-sort-", ".run");
+        runs.add(chunk.run);
+        try {
+            full.put(chunk);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while sorting", e);
+        }
+    }
+
+    private void startWorkers() {
+        for (int i = 0; i < workers; i++) {
+            Thread thread = new Thread(() -> {
+                try {
+                    for (Chunk chunk = full.take(); chunk != END; chunk = full.take()) {
+                        if (failure == null) {
+                            try {
+                                chunk.write();
+                            } catch (IOException e) {
+                                failure = e;
+                            }
+                        }
+                        chunk.clear();
+                        free.put(chunk);
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }, "sdfeater-sort-" + i);
+            thread.setDaemon(true);
+            thread.start();
+            threads.add(thread);
+        }
+    }
+
+    private void check() throws IOException {
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    /**
+     * Merge spilled runs and last chunk
+     */
+    private InputStream merge(Chunk last) throws IOException {
+        if (runs.isEmpty()) {
+            return new Merge(new ChunkRun(last, 0), runs);
+        }
+        if (last.count > 0) {
+            spill(last);
+        }
+        for (int i = 0; i < threads.size(); i++) {
+            try {
+                full.put(END);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted while sorting", e);
+            }
+        }
+        for (Thread thread : threads) {
+            try {
+                thread.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted while sorting", e);
+            }
+        }
+        check();
+        chunks.clear();
+        free.clear();
+        Run[] sources = new Run[runs.size()];
+        for (int i = 0; i < sources.length; i++) {
+            sources[i] = new FileRun(runs.get(i), i);
+        }
+        return new Merge(sources, runs);
+    }
+
+    private void deleteRuns() {
+        for (Path run : runs) {
+            try {
+                Files.deleteIfExists(run);
+            } catch (IOException ignored) {
+                // already failing
+            }
+        }
+    }
+
+    /**
+     * Compare keys as unsigned bytes
+     */
+    private static int compare(byte[] a, int aLength, byte[] b, int bLength) {
+        for (int i = 0; i < Math.min(aLength, bLength); i++) {
+            int difference = (a[i] & 0xff) - (b[i] & 0xff);
+            if (difference != 0) {
+                return difference;
+            }
+        }
+        return aLength - bLength;
+    }
+
+    /**
+     * Records of memory budget part: record bytes on heap, keys off-heap
+     */
+    private static final class Chunk {
+        private byte[] records;
+        private ByteBuffer keys;
+        /**
+         * Record offset, record length, key offset and key length of each record
+         */
+        private int[] entries = new int[4 * 1024];
+        private int recordsSize;
+        int count;
+        /**
+         * Run file of spilled chunk
+         */
+        Path run;
+
+        Chunk(int recordBytes, int keyBytes) {
+            records = new byte[recordBytes];
+            keys = ByteBuffer.allocateDirect(keyBytes);
+        }
+
+        boolean fits(int recordLength, int keyLength) {
+            return recordsSize + recordLength <= records.length && keys.position() + keyLength <= keys.capacity()
+                    && recordsSize + recordLength >= 0;
+        }
+
+        void add(byte[] record, int recordLength, byte[] key) {
+            if (count == 0 && !fits(recordLength, key.length)) {
+                // record larger than a chunk
+                records = new byte[Math.max(records.length, recordLength)];
+                keys = ByteBuffer.allocateDirect(Math.max(keys.capacity(), key.length));
+            }
+            if (entries.length < 4 * (count + 1)) {
+                entries = Arrays.copyOf(entries, 2 * entries.length);
+            }
+            entries[4 * count] = recordsSize;
+            entries[4 * count + 1] = recordLength;
+            entries[4 * count + 2] = keys.position();
+            entries[4 * count + 3] = key.length;
+            System.arraycopy(record, 0, records, recordsSize, recordLength);
+            recordsSize += recordLength;
+            keys.put(key);
+            count++;
+        }
+
+        int compare(int a, int b) {
+            int aOffset = entries[4 * a + 2], aLength = entries[4 * a + 3];
+            int bOffset = entries[4 * b + 2], bLength = entries[4 * b + 3];
+            for (int i = 0; i < Math.min(aLength, bLength); i++) {
+                int difference = (keys.get(aOffset + i) & 0xff) - (keys.get(bOffset + i) & 0xff);
+                if (difference != 0) {
+                    return difference;
+                }
+            }
+            return aLength - bLength;
+        }
+
+        /**
+         * Sort record numbers by key; stable, so equal keys keep input order
+         *
+         * @return record numbers in key order
+         */
+        int[] order() {
+            int[] order = new int[count];
+            for (int i = 0; i < count; i++) {
+                order[i] = i;
+            }
+            sort(order, new int[count], 0, count);
+            return order;
+        }
+
+        private void sort(int[] order, int[] buffer, int from, int to) {
+            if (to - from <= 16) {
+                for (int i = from + 1; i < to; i++) {
+                    int record = order[i];
+                    int j = i;
+                    for (; j > from && compare(order[j - 1], record) > 0; j--) {
+                        order[j] = order[j - 1];
+                    }
+                    order[j] = record;
+                }
+                return;
+            }
+            int middle = (from + to) >>> 1;
+            sort(order, buffer, from, middle);
+            sort(order, buffer, middle, to);
+            if (compare(order[middle - 1], order[middle]) <= 0) {
+                return;
+            }
+            System.arraycopy(order, from, buffer, from, to - from);
+            for (int i = from, left = from, right = middle; i < to; i++) {
+                if (right == to || left < middle && compare(buffer[left], buffer[right]) <= 0) {
+                    order[i] = buffer[left++];
+                } else {
+                    order[i] = buffer[right++];
+                }
+            }
+        }
+
+        /**
+         * Write sorted records to run file: record count, then key length,
+         * key, record length and record of each record
+         */
+        void write() throws IOException {
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(run), 64 * 1024))) {
+                out.writeInt(count);
+                byte[] key = new byte[16];
+                for (int record : order()) {
+                    int keyLength = entries[4 * record + 3];
+                    if (key.length < keyLength) {
+                        key = new byte[keyLength];
+                    }
+                    for (int i = 0; i < keyLength; i++) {
+                        key[i] = keys.get(entries[4 * record + 2] + i);
+                    }
+                    out.writeInt(keyLength);
+                    out.write(key, 0, keyLength);
+                    out.writeInt(entries[4 * record + 1]);
+                    out.write(records, entries[4 * record], entries[4 * record + 1]);
+                }
+            }
+        }
+
+        void clear() {
+            recordsSize = 0;
+            count = 0;
+            keys.clear();
+            run = null;
+        }
+    }
+
+    /**
+     * Sorted records of a run, read one at a time
+     */
+    private abstract static class Run {
+        final int index;
+        byte[] key = new byte[16];
+        int keyLength;
+        byte[] record;
+        int recordOffset;
+        int recordLength;
+
+        Run(int index) {
+            this.index = index;
+        }
+
+        /**
+         * Advance to next record
+         *
+         * @return false if there are no more records
+         */
+        abstract boolean next() throws IOException;
+
+        void close() throws IOException {
+        }
+    }
+
+    /**
+     * Run of chunk sorted in memory
+     */
+    private static final class ChunkRun extends Run {
+        private final Chunk chunk;
+        private final int[] order;
+        private int next;
+
+        ChunkRun(Chunk chunk, int index) {
+            super(index);
+            this.chunk = chunk;
+            this.order = chunk.order();
+            this.record = chunk.records;
+        }
+
+        @Override
+        boolean next() {
+            if (next == order.length) {
+                return false;
+            }
+            int entry = 4 * order[next++];
+            recordOffset = chunk.entries[entry];
+            recordLength = chunk.entries[entry + 1];
+            return true;
+        }
+    }
+
+    /**
+     * Run spilled to temporary file
+     */
+    private static final class FileRun extends Run {
+        private final DataInputStream in;
+        private int remaining;
+
+        FileRun(Path file, int index) throws IOException {
+            super(index);
+            this.in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file), 64 * 1024));
+            this.remaining = in.readInt();
+            this.record = new byte[64 * 1024];
+        }
+
+        @Override
+        boolean next() throws IOException {
+            if (remaining == 0) {
+                return false;
+            }
+            remaining--;
+            keyLength = in.readInt();
+            if (key.length < keyLength) {
+                key = new byte[keyLength];
+            }
+            in.readFully(key, 0, keyLength);
+            recordLength = in.readInt();
+            if (record.length < recordLength) {
+                record = new byte[recordLength];
+            }
+            in.readFully(record, 0, recordLength);
+            return true;
+        }
+
+        @Override
+        void close() throws IOException {
+            in.close();
+        }
+    }
+
+    /**
+     * k-way merge of runs as stream of SDF records; runs are ordered by
+     * input, so they break ties of equal keys
+     */
+    private static final class Merge extends InputStream {
+        private final PriorityQueue<Run> queue;
+        private final Run[] sources;
+        private final List<Path> files;
+        private Run current;
+        private int position;
+        private boolean closed;
+
+        Merge(Run run, List<Path> files) throws IOException {
+            this(new Run[]{run}, files);
+        }
+
+        Merge(Run[] sources, List<Path> files) throws IOException {
+            this.sources = sources;
+            this.files = new ArrayList<>(files);
+            this.queue = new PriorityQueue<>(Math.max(1, sources.length), (a, b) -> {
+                int difference = compare(a.key, a.keyLength, b.key, b.keyLength);
+                return difference != 0 ? difference : a.index - b.index;
+            });
+            for (Run run : sources) {
+                if (run.next()) {
+                    queue.add(run);
+                }
+            }
+            current = queue.poll();
+        }
+
+        private boolean advance() throws IOException {
+            while (current != null && position == current.recordLength) {
+                if (current.next()) {
+                    queue.add(current);
+                }
+                current = queue.poll();
+                position = 0;
+            }
+            return current != null;
+        }
+
+        @Override
+        public int read() throws IOException {
+            return advance() ? current.record[current.recordOffset + position++] & 0xff : -1;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0) {
+                return 0;
+            }
+            if (!advance()) {
+                return -1;
+            }
+            int n = Math.min(len, current.recordLength - position);
+            System.arraycopy(current.record, current.recordOffset + position, b, off, n);
+            position += n;
+            return n;
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            IOException error = null;
+            for (Run run : sources) {
+                try {
+                    run.close();
+                } catch (IOException e) {
+                    error = e;
+                }
+            }
+            for (Path file : files) {
+                try {
+                    Files.deleteIfExists(file);
+                } catch (IOException e) {
+                    error = e;
+                }
+            }
+            if (error != null) {
+                throw error;
+            }
+        }
+    }
+
+    /**
+     * Run sort mode
+     *
+     * @param args sort mode command line arguments
+     */
+    static void sort(String[] args) {
+        Options options = new Options();
+        Option input = new Option("i", "input", true, "input SDF file path");
+        input.setRequired(true);
+        options.addOption(input);
+        Option by = new Option(null, "by", true, "SDF property to sort records by, e.g. 'ChEBI ID'");
+        by.setRequired(true);
+        options.addOption(by);
+        Option output = new Option("o", "output", true, "output file path (input path with .sorted.sdf, or .sorted.<extension> of format, by default)");
+        output.setRequired(false);
+        options.addOption(output);
+        Option formatarg = new Option("f", "format", true, "convert sorted records to this output format instead of writing SDF");
+        formatarg.setRequired(false);
+        options.addOption(formatarg);
+        Option subject = new Option("s", "subject", true, "subject type (iri, uuid, bnode; iri by default)");
+        subject.setRequired(false);
+        options.addOption(subject);
+        Option base = new Option("b", "base", true, "molecule subject base for 'iri' subject type");
+        base.setRequired(false);
+        options.addOption(base);
+        Option numeric = new Option(null, "numeric", false, "compare numeric values as numbers, before other values");
+        numeric.setRequired(false);
+        options.addOption(numeric);
+        Option memory = new Option(null, "memory", true, "memory budget in MB of sorted records (" + DEFAULT_MEMORY / 1024 / 1024 + " by default)");
+        memory.setRequired(false);
+        options.addOption(memory);
+        Option workers = new Option(null, "workers", true, "threads sorting and spilling records to temporary files (" + DEFAULT_WORKERS + " by default)");
+        workers.setRequired(false);
+        options.addOption(workers);
+        Option tmp = new Option(null, "tmp", true, "directory of temporary files (system temporary directory by default)");
+        tmp.setRequired(false);
+        options.addOption(tmp);
+        HelpFormatter formatter = new HelpFormatter();
+        try {
+            CommandLine cmd = new DefaultParser().parse(options, args);
+            String in = cmd.getOptionValue("input");
+            SDFEater.Format format = cmd.hasOption("format") ? SDFEater.Format.valueOf(cmd.getOptionValue("format")) : null;
+            Path out = Paths.get(cmd.getOptionValue("output", in.replaceFirst("\\.sdf$", "") + ".sorted." + (format != null ? format.extension() : "sdf")));
+            RecordSorter sorter = new RecordSorter(cmd.getOptionValue("by"), cmd.hasOption("numeric"),
+                    cmd.hasOption("memory") ? Long.parseLong(cmd.getOptionValue("memory")) * 1024 * 1024 : DEFAULT_MEMORY,
+                    cmd.hasOption("workers") ? Integer.parseInt(cmd.getOptionValue("workers")) : DEFAULT_WORKERS,
+                    Paths.get(cmd.getOptionValue("tmp", System.getProperty("java.io.tmpdir"))));
+            InputStream sorted;
+            try (InputStream sdf = Files.newInputStream(Paths.get(in))) {
+                sorted = sorter.sort(sdf);
+            }
+            try (InputStream records = sorted;
+                 OutputStream file = new BufferedOutputStream(Files.newOutputStream(out), 64 * 1024)) {
+                if (format == null) {
+                    byte[] buffer = new byte[64 * 1024];
+                    for (int n = records.read(buffer); n >= 0; n = records.read(buffer)) {
+                        file.write(buffer, 0, n);
+                    }
+                } else {
+                    write(records, format, cmd.getOptionValue("subject", SDFEater.Subject.iri.name()), cmd.getOptionValue("base"), file);
+                }
+            }
+            System.err.println(sorter.getRecords() + " records sorted" + (sorter.getRuns() > 0 ? " in " + sorter.getRuns() + " runs" : "") + " to " + out);
+        } catch (IllegalArgumentException | ParseException e) {
+            System.err.println("Incorrect option selected" + (e.getMessage() != null ? ": " + e.getMessage() : ""));
+            formatter.printHelp("SDFEater.jar sort", options);
+        } catch (IOException e) {
+            System.err.println("Error: " + e.getMessage());
+            System.exit(2);
+        }
+    }
+
+    /**
+     * Convert sorted records to output format
+     *
+     * @param records sorted SDF records
+     * @param format  output format
+     * @param subject subject type
+     * @param base    molecule subject base, null for default
+     * @param out     output; closed when done
+     * @throws IOException if output can't be written
+     */
+    static void write(InputStream records, SDFEater.Format format, String subject, String base, OutputStream out) throws IOException {
+        try (SdfReader reader = new SdfReader(records);
+             MoleculeWriter writer = new MoleculeWriter(format.name(), subject, base, out)) {
+            while (true) {
+                MoleculeView molecule;
+                try {
+                    molecule = reader.read();
+                } catch (IllegalArgumentException e) {
+                    System.err.println("Skipped record: " + e.getMessage());
+                    continue;
+                }
+                if (molecule == null) {
+                    break;
+                }
+                writer.write(molecule);
+            }
+        }
+    }
+}
@@ -35,7 +35,15 @@ import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.io.Reader;
 import java.lang.reflect.Type;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 /**
  * Main parser class
@@ -46,53 +54,183 @@ import java.util.Map;
 class SDFEater {
 
     /**
-     * Stores all Atoms data from periodic table
+     * Stores all Atoms data from periodic table; loaded on first use and
+     * shared read-only by all conversions
      */
-    static Map<String, Map<String, Object>> periodic_table_data;
+    private static final class PeriodicTable {
+        static final Map<String, Map<String, Object>> DATA = loadPeriodicTableData();
+    }
+
     /**
-     * Apache Jena Model for some formats
+     * Get all Atoms data from periodic table
+     *
+     * @return read-only map of atom symbols to their data
      */
-    static Model jenaModel;
+    static Map<String, Map<String, Object>> periodicTableData() {
+        return PeriodicTable.DATA;
+    }
 
     /**
      * Loads periodic data from JSON file to the Map
+     *
+     * @return read-only map of atom symbols to their data
      */
-    protected static void loadPeriodicTableData() {
+    private static Map<String, Map<String, Object>> loadPeriodicTableData() {
         Gson gson = new GsonBuilder().create();
         Type type = new TypeToken<Map<String, Map<String, String>>>() {
         }.getType();
         InputStream periodic_resource = SDFEater.class.getResourceAsStream("periodic_table.json");
         Reader periodic_reader = new InputStreamReader(periodic_resource);
-        periodic_table_data = gson.fromJson(periodic_reader, type);
+        Map<String, Map<String, Object>> periodic_table_data = gson.fromJson(periodic_reader, type);
+        for (Map.Entry<String, Map<String, Object>> entry : periodic_table_data.entrySet()) {
+            entry.setValue(Collections.unmodifiableMap(entry.getValue()));
+        }
+        return Collections.unmodifiableMap(periodic_table_data);
     }
 
     /**
-     * Initialize Apache Jena Model for some formats
+     * Create Apache Jena Model with prefixes used by formats
+     *
+     * @return new empty model
      */
-    static void initializeJenaModel() {
-        jenaModel = ModelFactory.createDefaultModel();
-        jenaModel.setNsPrefix("schema", "https://schema.org/");
-        jenaModel.setNsPrefix("rdf", "http://www.w3.org/1999/02/22-rdf-syntax-ns#");
+    static Model createJenaModel() {
+        Model model = ModelFactory.createDefaultModel();
+        model.setNsPrefix("schema", "https://schema.org/");
+        model.setNsPrefix("rdf", "http://www.w3.org/1999/02/22-rdf-syntax-ns#");
+        return model;
+    }
+
+    /**
+     * Parse comma-separated option value
+     *
+     * @param value option value
+     * @return set of trimmed non-empty items, null if value is null
+     */
+    static Set<String> parseList(String value) {
+        if (value == null) {
+            return null;
+        }
+        Set<String> items = new HashSet<>();
+        for (String item : value.split(",")) {
+            if (!item.trim().isEmpty()) {
+                items.add(item.trim());
+            }
+        }
+        return items;
+    }
+
+    /**
+     * Parse comma-separated output formats
+     *
+     * @param value option value
+     * @return formats in the given order, without repetitions
+     * @throws IllegalArgumentException if a format is not supported
+     */
+    static List<Format> parseFormats(String value) {
+        Set<Format> formats = new LinkedHashSet<>();
+        for (String item : value.split(",")) {
+            if (!item.trim().isEmpty()) {
+                formats.add(Format.valueOf(item.trim()));
+            }
+        }
+        if (formats.isEmpty()) {
+            throw new IllegalArgumentException("no output format");
+        }
+        return new ArrayList<>(formats);
     }
 
     /**
      * @param args the command line arguments
      */
     public static void main(String[] args) {
-        Molecule molecule = new Molecule();
+        if (args.length > 0 && args[0].equals("serve")) {
+            ConversionServer.serve(Arrays.copyOfRange(args, 1, args.length));
+            return;
+        }
+        if (args.length > 0 && args[0].equals("compile")) {
+            ParseCache.compile(Arrays.copyOfRange(args, 1, args.length));
+            return;
+        }
+        if (args.length > 0 && args[0].equals("sort")) {
+            RecordSorter.sort(Arrays.copyOfRange(args, 1, args.length));
+            return;
+        }
+        if (args.length > 0 && args[0].equals("watch")) {
+            DirectoryWatcher.watch(Arrays.copyOfRange(args, 1, args.length));
+            return;
+        }
         Options options = new Options();
-        Option input = new Option("i", "input", true, "input file path");
+        Option input = new Option("i", "input", true, "input file path (SDF file or parse cache written by the compile command)");
         input.setRequired(true);
         options.addOption(input);
-        Option formatarg = new Option("f", "format", true, "output format (cypher, cypheru, cypherp, cypherup, cvme, smiles, inchi, turtle, ntriples, rdfxml, rdfthrift, jsonldhtml, jsonld, rdfa, microdata)");
+        Option formatarg = new Option("f", "format", true, "output format (cypher, cypheru, cypherp, cypherup, cvme, smiles, inchi, turtle, ntriples, nquads, rdfxml, rdfthrift, jsonldhtml, jsonld, rdfa, microdata, ndjson, ndjsonfull), or comma-separated formats written in one pass");
         formatarg.setRequired(true);
         options.addOption(formatarg);
         Option subject = new Option("s", "subject", true, "subject type (iri, uuid, bnode; iri by default); for all formats excluding cypher, cvme, smiles, inchi");
         subject.setRequired(false);
         options.addOption(subject);
-        Option base = new Option("b", "base", true, "molecule subject base for 'iri' subject type ('" + molecule.subjectBase + "' by default)");
+        Option base = new Option("b", "base", true, "molecule subject base for 'iri' subject type ('" + ConversionContext.DEFAULT_SUBJECT_BASE + "' by default)");
         base.setRequired(false);
         options.addOption(base);
+        Option links = new Option(null, "links", true, "JSON file with URL templates of database links, added to or replacing built-in ones (for cypheru, cypherup, cvme, and schema.org url)");
+        links.setRequired(false);
+        options.addOption(links);
+        Option cypherRows = new Option(null, "cypher-rows", true, "maximum number of atoms and bonds in one Cypher statement (" + ConversionContext.DEFAULT_CYPHER_ROWS + " by default, 0 for no limit); larger molecules are written in chunks");
+        cypherRows.setRequired(false);
+        options.addOption(cypherRows);
+        Option includeProperties = new Option(null, "properties", true, "comma-separated SDF properties to keep (all by default)");
+        includeProperties.setRequired(false);
+        options.addOption(includeProperties);
+        Option excludeProperties = new Option(null, "exclude-properties", true, "comma-separated SDF properties to drop");
+        excludeProperties.setRequired(false);
+        options.addOption(excludeProperties);
+        Option dedupBy = new Option(null, "dedup-by", true, "drop records whose value of this property (e.g. InChIKey) was already seen");
+        dedupBy.setRequired(false);
+        options.addOption(dedupBy);
+        Option dedupMemory = new Option(null, "dedup-memory", true, "memory budget in MB for exact duplicate detection (256 by default); a probabilistic filter is used above it");
+        dedupMemory.setRequired(false);
+        options.addOption(dedupMemory);
+        Option where = new Option("w", "where", true, "keep only records matching expression over properties, e.g. \"Mass < 500 and <ChEBI ID> in @ids.txt\" or \"SMILES exists\"");
+        where.setRequired(false);
+        options.addOption(where);
+        Option stats = new Option(null, "stats", true, "print conversion statistics as JSON to standard error, or to the given file");
+        stats.setRequired(false);
+        stats.setOptionalArg(true);
+        options.addOption(stats);
+        Option progress = new Option(null, "progress", true, "report progress to standard error every given number of seconds (5 by default)");
+        progress.setRequired(false);
+        progress.setOptionalArg(true);
+        options.addOption(progress);
+        Option rejects = new Option(null, "rejects", true, "write records that can't be converted to this SDF file, with the error reason");
+        rejects.setRequired(false);
+        options.addOption(rejects);
+        Option maxErrors = new Option(null, "max-errors", true, "abort after more than this number of records can't be converted (no limit by default)");
+        maxErrors.setRequired(false);
+        options.addOption(maxErrors);
+        Option incremental = new Option(null, "incremental", true, "convert only records added or changed since the run which wrote this manifest file, and delete removed ones (Cypher statements, or a <manifest>.tombstones file for other formats)");
+        incremental.setRequired(false);
+        options.addOption(incremental);
+        Option key = new Option(null, "key", true, "SDF property identifying records for --incremental ('ChEBI ID' by default)");
+        key.setRequired(false);
+        options.addOption(key);
+        Option modelWorkers = new Option(null, "model-workers", true, "threads building RDF graph of turtle, rdfxml and rdfthrift formats (" + ModelBuilder.DEFAULT_WORKERS + " by default, 0 to build it in the reading thread)");
+        modelWorkers.setRequired(false);
+        options.addOption(modelWorkers);
+        Option modelMemory = new Option(null, "model-memory", true, "memory budget in MB of RDF graph of turtle, rdfxml and rdfthrift formats (a quarter of maximum heap by default); larger graphs are moved to temporary files");
+        modelMemory.setRequired(false);
+        options.addOption(modelMemory);
+        Option records = new Option(null, "records", true, "convert only this range of records of a parse cache, e.g. 1-100000");
+        records.setRequired(false);
+        options.addOption(records);
+        Option htmlPages = new Option(null, "html-pages", true, "write rdfa and microdata as a directory of pages of this many molecules, with index.html and sitemap.xml");
+        htmlPages.setRequired(false);
+        options.addOption(htmlPages);
+        Option htmlPerMolecule = new Option(null, "html-per-molecule", false, "write rdfa and microdata as a directory of pages of one molecule, with index.html and sitemap.xml");
+        htmlPerMolecule.setRequired(false);
+        options.addOption(htmlPerMolecule);
+        Option outputarg = new Option("o", "output", true, "path prefix of output files, each format is written to <prefix>.<extension> (standard output by default for one format, input path without extension for more)");
+        outputarg.setRequired(false);
+        options.addOption(outputarg);
         CommandLineParser parser = new DefaultParser();
         HelpFormatter formatter = new HelpFormatter();
         CommandLine cmd;
@@ -101,28 +239,71 @@ class SDFEater {
             String fileparam = cmd.getOptionValue("input");
             File file = new File(fileparam);
 
-            // load and set additional modules for formats
-            switch (cmd.getOptionValue("format")) {
-                case "cypherp":
-                case "cypherup":
-                    loadPeriodicTableData();
-                    break;
-                case "turtle":
-                case "ntriples":
-                case "rdfxml":
-                case "rdfthrift":
-                    initializeJenaModel();
-                    break;
-            }
+            List<Format> formats = parseFormats(cmd.getOptionValue("format"));
 
             // replace default base molecule IRI
+            String subjectBase = ConversionContext.DEFAULT_SUBJECT_BASE;
             if (cmd.getOptionValue("subject", Subject.iri.toString()).equals(Subject.iri.toString())) {
-                molecule.subjectBase = cmd.getOptionValue("base", molecule.subjectBase);
+                subjectBase = cmd.getOptionValue("base", subjectBase);
+            }
+            DatabaseLinks databaseLinks = cmd.hasOption("links") ? DatabaseLinks.load(Paths.get(cmd.getOptionValue("links"))) : DatabaseLinks.builtIn();
+            int rows = cmd.hasOption("cypher-rows") ? Integer.parseInt(cmd.getOptionValue("cypher-rows")) : ConversionContext.DEFAULT_CYPHER_ROWS;
+            Molecule molecule = new Molecule(new ConversionContext(subjectBase, System.out, databaseLinks, rows));
+
+            if (cmd.hasOption("properties") || cmd.hasOption("exclude-properties")) {
+                file.setPropertyProjection(parseList(cmd.getOptionValue("properties")), parseList(cmd.getOptionValue("exclude-properties")));
+            }
+
+            if (cmd.hasOption("where")) {
+                file.setRecordFilter(new RecordFilter(cmd.getOptionValue("where")));
+            }
+
+            if (cmd.hasOption("dedup-by")) {
+                long dedupBytes = Long.parseLong(cmd.getOptionValue("dedup-memory", "256")) * 1024 * 1024;
+                file.setDuplicateFilter(new DuplicateFilter(cmd.getOptionValue("dedup-by"), dedupBytes));
             }
 
-            file.parse(molecule, Format.valueOf(cmd.getOptionValue("format")), Subject.valueOf(cmd.getOptionValue("subject", Subject.iri.toString())));
+            if (cmd.hasOption("stats")) {
+                file.setStats(new Stats(cmd.getOptionValue("stats")));
+            }
+
+            if (cmd.hasOption("rejects") || cmd.hasOption("max-errors")) {
+                file.setRecordErrors(new RecordErrors(cmd.getOptionValue("rejects"), Long.parseLong(cmd.getOptionValue("max-errors", "-1"))));
+            }
+
+            if (cmd.hasOption("incremental")) {
+                file.setManifest(new Manifest(Paths.get(cmd.getOptionValue("incremental")), cmd.getOptionValue("key", "ChEBI ID")));
+            }
+
+            if (cmd.hasOption("model-workers") || cmd.hasOption("model-memory")) {
+                file.setModelBuilding(cmd.hasOption("model-workers") ? Integer.parseInt(cmd.getOptionValue("model-workers")) : ModelBuilder.DEFAULT_WORKERS,
+                        cmd.hasOption("model-memory") ? Long.parseLong(cmd.getOptionValue("model-memory")) * 1024 * 1024 : ModelBuilder.defaultMemory());
+            }
+
+            if (cmd.hasOption("records")) {
+                String[] range = cmd.getOptionValue("records").split("-", 2);
+                if (range.length != 2) {
+                    throw new IllegalArgumentException("--records needs a range, e.g. 1-100000");
+                }
+                file.setRecordRange(Long.parseLong(range[0].trim()), Long.parseLong(range[1].trim()));
+            }
+
+            if (cmd.hasOption("progress")) {
+                file.setProgress(new Progress((long) (Double.parseDouble(cmd.getOptionValue("progress", "5")) * 1000)));
+            }
+
+            if (cmd.hasOption("html-pages") || cmd.hasOption("html-per-molecule")) {
+                file.setHtmlPages(cmd.hasOption("html-per-molecule") ? 1 : Integer.parseInt(cmd.getOptionValue("html-pages")));
+            }
+
+            String output = cmd.getOptionValue("output");
+            boolean htmlDirectory = (cmd.hasOption("html-pages") || cmd.hasOption("html-per-molecule")) && formats.stream().anyMatch(Format::html);
+            if (output == null && (formats.size() > 1 || htmlDirectory)) {
+                output = fileparam.replaceFirst("\\.sdfc?$", "");
+            }
+            file.parse(molecule, formats, Subject.valueOf(cmd.getOptionValue("subject", Subject.iri.toString())), output);
         } catch (IllegalArgumentException e) {
-            System.err.println("Incorrect option selected");
+            System.err.println("Incorrect option selected" + (e.getMessage() != null ? ": " + e.getMessage() : ""));
             formatter.printHelp("SDFEater.jar", options);
         } catch (Exception e) {
             System.err.println("Error: " + e.getMessage());
@@ -134,21 +315,98 @@ class SDFEater {
      * Supported formats
      */
     public enum Format {
-        cypher,
-        cypheru,
-        cypherp,
-        cypherup,
-        cvme,
-        smiles,
-        inchi,
-        turtle,
-        ntriples,
-        rdfxml,
-        rdfthrift,
-        jsonldhtml,
-        jsonld,
-        rdfa,
-        microdata
+        cypher(true),
+        cypheru(true),
+        cypherp(true),
+        cypherup(true),
+        cvme(true, Molecule.CVME_KEYS),
+        smiles(false, "SMILES"),
+        inchi(false, "InChI"),
+        turtle(false, Molecule.SCHEMA_ORG_KEYS),
+        ntriples(false, Molecule.SCHEMA_ORG_KEYS),
+        nquads(false, Molecule.SCHEMA_ORG_KEYS),
+        rdfxml(false, Molecule.SCHEMA_ORG_KEYS),
+        rdfthrift(false, Molecule.SCHEMA_ORG_KEYS),
+        jsonldhtml(false, Molecule.SCHEMA_ORG_KEYS),
+        jsonld(false, Molecule.SCHEMA_ORG_KEYS),
+        rdfa(false, Molecule.SCHEMA_ORG_KEYS),
+        microdata(false, Molecule.SCHEMA_ORG_KEYS),
+        ndjson(false),
+        ndjsonfull(true);
+
+        /**
+         * True if format uses atoms and bonds from the CTAB block
+         */
+        final boolean structure;
+
+        /**
+         * SDF properties used by format, null if all of them
+         */
+        final Set<String> properties;
+
+        Format(boolean structure, String... properties) {
+            this.structure = structure;
+            this.properties = properties.length == 0 ? null : new HashSet<>(Arrays.asList(properties));
+        }
+
+        /**
+         * @return true if format is an HTML document of molecule fragments,
+         * which can be split into pages
+         */
+        boolean html() {
+            return this == rdfa || this == microdata;
+        }
+
+        /**
+         * @return true if format is written from Jena model after all molecules
+         */
+        boolean usesJenaModel() {
+            return this == turtle || this == rdfxml || this == rdfthrift;
+        }
+
+        /**
+         * @return true if format writes database IDs as links to their pages
+         */
+        boolean linksDatabases() {
+            return this == cypheru || this == cypherup || this == cvme;
+        }
+
+        /**
+         * @return file name extension of format output
+         */
+        String extension() {
+            switch (this) {
+                case cypher:
+                case cypheru:
+                case cypherp:
+                case cypherup:
+                    return "cypher";
+                case smiles:
+                    return "smi";
+                case turtle:
+                case cvme:
+                    return "ttl";
+                case ntriples:
+                    return "nt";
+                case nquads:
+                    return "nq";
+                case rdfxml:
+                    return "rdf";
+                case rdfthrift:
+                    return "trdf";
+                case jsonld:
+                    return "jsonld";
+                case ndjson:
+                case ndjsonfull:
+                    return "ndjson";
+                case jsonldhtml:
+                case rdfa:
+                case microdata:
+                    return "html";
+                default:
+                    return name();
+            }
+        }
     }
 
     /**
@@ -0,0 +1,216 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2017-2019 Łukasz Szeremeta.
+ * Copyright 2018-2019 Dominik Tomaszuk.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package pl.edu.uwb.ii.sdfeater;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.Executor;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * Streaming SDF reader for use of SDFEater as a library
+ * <p>
+ * Records are read one at a time and returned as immutable
+ * {@link MoleculeView}s, so files of any size can be processed. A reader can
+ * be consumed once, as an {@link Iterator}, a {@link Spliterator} or
+ * {@link Stream} (parallel streams split it into batches, so records are read
+ * sequentially and processed in parallel), or through a
+ * {@link MoleculePublisher} with backpressure. Molecules can be written in any
+ * output format with {@link MoleculeWriter}.
+ * <p>
+ * A malformed record throws {@link IllegalArgumentException} with its number
+ * and line; reading may continue with the next record.
+ *
+ * <pre>{@code
+ * try (SdfReader reader = SdfReader.open(Paths.get("chebi.sdf"));
+ *      MoleculeWriter writer = new MoleculeWriter("jsonld", Files.newOutputStream(Paths.get("chebi.jsonld")))) {
+ *     for (MoleculeView molecule : reader) {
+ *         if (molecule.getAtoms().size() < 50) {
+ *             writer.write(molecule);
+ *         }
+ *     }
+ * }
+ * }</pre>
+ */
+public final class SdfReader implements Iterable<MoleculeView>, Closeable {
+
+    private final LineReader reader;
+    /**
+     * Collects and parses CTAB lines of the current record
+     */
+    private final Molecule structure = new Molecule();
+    private long ordinal;
+    private boolean consumed;
+
+    /**
+     * SdfReader class constructor
+     *
+     * @param in SDF input; closed with the reader
+     */
+    public SdfReader(InputStream in) {
+        this.reader = new LineReader(in);
+    }
+
+    /**
+     * Open SDF file
+     *
+     * @param path SDF file path
+     * @return reader of the file
+     * @throws IOException if file can't be opened
+     */
+    public static SdfReader open(Path path) throws IOException {
+        return new SdfReader(Files.newInputStream(path));
+    }
+
+    /**
+     * Read next record
+     *
+     * @return next molecule, null at the end of input
+     * @throws IOException              on read error
+     * @throws IllegalArgumentException if record is malformed
+     */
+    public MoleculeView read() throws IOException {
+        Map<String, List<String>> properties = new LinkedHashMap<>();
+        List<String> values = null;  // values of current property
+        boolean molfileReady = false;
+        long line = -1;
+        while (reader.next()) {
+            if (line < 0) {
+                line = reader.lineNumber();
+            }
+            if (reader.startsWith("$$$$")) {
+                ordinal++;
+                try {
+                    if (!molfileReady) {
+                        throw new IllegalArgumentException("record without M  END line");
+                    }
+                    structure.parseStructure();
+                    return new MoleculeView(ordinal, properties, structure.atoms, structure.bonds);
+                } catch (IllegalArgumentException e) {
+                    throw new IllegalArgumentException("Malformed record " + ordinal + " at line " + line + ": " + e.getMessage(), e);
+                } finally {
+                    structure.clearAll();
+                }
+            }
+            if (reader.startsWith("END", 3)) {
+                molfileReady = true;
+            } else if (!molfileReady) {
+                if (!reader.isPropertiesBlockLine()) {
+                    structure.addCtabLine(reader.buffer(), reader.start(), reader.length());
+                }
+            } else if (!reader.isPropertiesBlockLine()) {
+                if (reader.isPropertyHeader()) {
+                    values = properties.computeIfAbsent(reader.propertyName(), name -> new ArrayList<>());
+                } else if (values != null && !reader.isEmpty()) {
+                    values.add(reader.string());
+                }
+            }
+        }
+        // lines after the last $$$$ don't form a record
+        structure.clearAll();
+        return null;
+    }
+
+    /**
+     * Iterate over molecules; may be called once
+     *
+     * @return iterator throwing {@link UncheckedIOException} on read errors
+     */
+    @Override
+    public Iterator<MoleculeView> iterator() {
+        if (consumed) {
+            throw new IllegalStateException("SdfReader can be consumed only once");
+        }
+        consumed = true;
+        return new Iterator<MoleculeView>() {
+            private MoleculeView next;
+
+            @Override
+            public boolean hasNext() {
+                if (next == null) {
+                    try {
+                        next = read();
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                }
+                return next != null;
+            }
+
+            @Override
+            public MoleculeView next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                MoleculeView molecule = next;
+                next = null;
+                return molecule;
+            }
+        };
+    }
+
+    @Override
+    public Spliterator<MoleculeView> spliterator() {
+        return Spliterators.spliteratorUnknownSize(iterator(), Spliterator.ORDERED | Spliterator.NONNULL | Spliterator.IMMUTABLE);
+    }
+
+    /**
+     * Stream of molecules; closing the stream closes the reader
+     *
+     * @param parallel true for parallel stream
+     * @return stream of molecules
+     */
+    public Stream<MoleculeView> stream(boolean parallel) {
+        return StreamSupport.stream(spliterator(), parallel).onClose(() -> {
+            try {
+                close();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        });
+    }
+
+    /**
+     * Publish molecules to a subscriber, which requests them as it can
+     * process them
+     *
+     * @param executor executor delivering molecules to the subscriber
+     * @return publisher for a single subscriber
+     */
+    public MoleculePublisher publisher(Executor executor) {
+        return new MoleculePublisher(this, executor);
+    }
+
+    @Override
+    public void close() throws IOException {
+        reader.close();
+    }
+}
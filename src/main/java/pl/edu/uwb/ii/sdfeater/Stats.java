@@ -0,0 +1,284 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2017-2019 Łukasz Szeremeta.
+ * Copyright 2018-2019 Dominik Tomaszuk.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package pl.edu.uwb.ii.sdfeater;
+
+import com.google.gson.GsonBuilder;
+
+import java.io.*;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Conversion statistics for --stats option
+ * <p>
+ * Counters are cheap {@link LongAdder}s, so they may be shared by parsing
+ * threads. Stage times are nanosecond totals: reading is measured inside
+ * input stream reads, writing inside output stream writes, and rendering is
+ * emitter time without writing. Time not spent in any other stage is reported
+ * as line classification.
+ */
+class Stats {
+
+    private final LongAdder bytesRead = new LongAdder();
+    private final LongAdder records = new LongAdder();
+    private final LongAdder molecules = new LongAdder();
+    private final LongAdder atoms = new LongAdder();
+    private final LongAdder bonds = new LongAdder();
+    private final LongAdder properties = new LongAdder();
+    private final LongAdder bytesWritten = new LongAdder();
+
+    private final LongAdder readNanos = new LongAdder();
+    private final LongAdder ctabNanos = new LongAdder();
+    private final LongAdder propertyNanos = new LongAdder();
+    private final LongAdder emitNanos = new LongAdder();
+    private final LongAdder writeNanos = new LongAdder();
+
+    /**
+     * Summary file path, null for standard error
+     */
+    private final String target;
+    private long startNanos, gcCount, gcTime;
+
+    /**
+     * Stats class constructor
+     *
+     * @param target summary file path, null to print it to standard error
+     */
+    Stats(String target) {
+        this.target = target;
+    }
+
+    /**
+     * Start measuring; resets heap peaks and remembers GC counters
+     */
+    void start() {
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP && pool.isValid()) {
+                pool.resetPeakUsage();
+            }
+        }
+        gcCount = gcCount();
+        gcTime = gcTime();
+        startNanos = System.nanoTime();
+    }
+
+    /**
+     * Count bytes and time of reads from input
+     *
+     * @param in input stream
+     * @return measured input stream
+     */
+    InputStream wrapInput(InputStream in) {
+        return new FilterInputStream(in) {
+            @Override
+            public int read() throws IOException {
+                long t = System.nanoTime();
+                int b = super.read();
+                readNanos.add(System.nanoTime() - t);
+                if (b >= 0) {
+                    bytesRead.increment();
+                }
+                return b;
+            }
+
+            @Override
+            public int read(byte[] b, int off, int len) throws IOException {
+                long t = System.nanoTime();
+                int n = super.read(b, off, len);
+                readNanos.add(System.nanoTime() - t);
+                if (n > 0) {
+                    bytesRead.add(n);
+                }
+                return n;
+            }
+        };
+    }
+
+    /**
+     * Count bytes and time of writes to output
+     *
+     * @param out output stream
+     * @return measured output stream
+     */
+    OutputStream wrapOutput(OutputStream out) {
+        return new FilterOutputStream(out) {
+            @Override
+            public void write(int b) throws IOException {
+                long t = System.nanoTime();
+                out.write(b);
+                writeNanos.add(System.nanoTime() - t);
+                bytesWritten.increment();
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) throws IOException {
+                long t = System.nanoTime();
+                out.write(b, off, len);
+                writeNanos.add(System.nanoTime() - t);
+                bytesWritten.add(len);
+            }
+
+            @Override
+            public void flush() throws IOException {
+                long t = System.nanoTime();
+                out.flush();
+                writeNanos.add(System.nanoTime() - t);
+            }
+        };
+    }
+
+    /**
+     * Count record read from input
+     */
+    void record() {
+        records.increment();
+    }
+
+    /**
+     * Count stored property value
+     *
+     * @param nanos time of decoding and storing value
+     */
+    void property(long nanos) {
+        properties.increment();
+        propertyNanos.add(nanos);
+    }
+
+    /**
+     * Count parsed CTAB block
+     *
+     * @param nanos     time of parsing
+     * @param atomCount number of atoms
+     * @param bondCount number of bonds
+     */
+    void ctab(long nanos, int atomCount, int bondCount) {
+        ctabNanos.add(nanos);
+        atoms.add(atomCount);
+        bonds.add(bondCount);
+    }
+
+    /**
+     * Count time of output format emitter
+     *
+     * @param nanos    emitter time including writing
+     * @param molecule true if a molecule was written, false for header or footer
+     */
+    void emit(long nanos, boolean molecule) {
+        emitNanos.add(nanos);
+        if (molecule) {
+            molecules.increment();
+        }
+    }
+
+    /**
+     * Build summary of collected values
+     *
+     * @return summary in JSON object order
+     */
+    Map<String, Object> summary() {
+        long elapsed = System.nanoTime() - startNanos;
+        double seconds = elapsed / 1e9;
+        long read = readNanos.sum(), ctab = ctabNanos.sum(), property = propertyNanos.sum();
+        long write = writeNanos.sum(), render = Math.max(0, emitNanos.sum() - write);
+        long classify = Math.max(0, elapsed - read - ctab - property - render - write);
+
+        Map<String, Object> stages = new LinkedHashMap<>();
+        stages.put("read", read);
+        stages.put("classify", classify);
+        stages.put("ctab", ctab);
+        stages.put("properties", property);
+        stages.put("render", render);
+        stages.put("write", write);
+
+        Map<String, Object> summary = new LinkedHashMap<>();
+        summary.put("elapsedNanos", elapsed);
+        summary.put("bytesRead", bytesRead.sum());
+        summary.put("bytesWritten", bytesWritten.sum());
+        summary.put("records", records.sum());
+        summary.put("molecules", molecules.sum());
+        summary.put("atoms", atoms.sum());
+        summary.put("bonds", bonds.sum());
+        summary.put("properties", properties.sum());
+        summary.put("moleculesPerSecond", seconds > 0 ? records.sum() / seconds : 0);
+        summary.put("megabytesPerSecond", seconds > 0 ? bytesRead.sum() / 1048576.0 / seconds : 0);
+        summary.put("stageNanos", stages);
+        summary.put("gcCount", gcCount() - gcCount);
+        summary.put("gcTimeMillis", gcTime() - gcTime);
+        summary.put("peakHeapBytes", peakHeap());
+        return summary;
+    }
+
+    /**
+     * Print summary as JSON to standard error or file
+     */
+    void report() {
+        String json = new GsonBuilder().setPrettyPrinting().create().toJson(summary());
+        if (target == null) {
+            System.err.println(json);
+            return;
+        }
+        try (Writer writer = new OutputStreamWriter(new FileOutputStream(target), StandardCharsets.UTF_8)) {
+            writer.write(json);
+            writer.write('\n');
+        } catch (IOException e) {
+            System.err.println("Error while writing stats: " + e.getMessage());
+        }
+    }
+
+    private static long gcCount() {
+        long count = 0;
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+            count += Math.max(0, gc.getCollectionCount());
+        }
+        return count;
+    }
+
+    private static long gcTime() {
+        long time = 0;
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+            time += Math.max(0, gc.getCollectionTime());
+        }
+        return time;
+    }
+
+    /**
+     * Sum of heap memory pool peaks since start
+     */
+    private static long peakHeap() {
+        long peak = 0;
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP && pool.isValid()) {
+                peak += pool.getPeakUsage().getUsed();
+            }
+        }
+        return peak;
+    }
+}
@@ -0,0 +1,59 @@
+package pl.edu.uwb.ii.sdfeater;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Concurrent conversion job tests
+ */
+class ConversionContextTest {
+
+    private static String convert(SDFEater.Format format, String subjectBase) {
+        return Conversions.convert(new File(Conversions.CHEBI_TEST.toString()), subjectBase, format, SDFEater.Subject.iri);
+    }
+
+    /**
+     * Test if conversions running at the same time have their own IDs, subject base and output
+     */
+    @Test
+    void concurrentConversionsAreIndependent() throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<String>> jobs = new ArrayList<>();
+            for (int i = 0; i < 16; i++) {
+                String subjectBase = "https://example.com/job" + i + "#m";
+                SDFEater.Format format = i % 2 == 0 ? SDFEater.Format.jsonld : SDFEater.Format.ntriples;
+                jobs.add(executor.submit(() -> convert(format, subjectBase)));
+            }
+            for (int i = 0; i < jobs.size(); i++) {
+                String subjectBase = "https://example.com/job" + i + "#m";
+                String out = jobs.get(i).get();
+                assertEquals(convert(i % 2 == 0 ? SDFEater.Format.jsonld : SDFEater.Format.ntriples, subjectBase), out);
+                assertTrue(out.contains(subjectBase + "0"));
+                assertTrue(out.contains(subjectBase + "1"));
+                assertFalse(out.contains(subjectBase + "2"));
+                assertFalse(out.contains("job" + (i + 1) + "#"));
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    /**
+     * Test if periodic table is loaded once and can't be changed
+     */
+    @Test
+    void periodicTableIsShared() {
+        assertSame(SDFEater.periodicTableData(), SDFEater.periodicTableData());
+        assertEquals("Carbon", SDFEater.periodicTableData().get("C").get("name"));
+        assertThrows(UnsupportedOperationException.class, () -> SDFEater.periodicTableData().clear());
+        assertThrows(UnsupportedOperationException.class, () -> SDFEater.periodicTableData().get("C").clear());
+    }
+}
@@ -0,0 +1,74 @@
+package pl.edu.uwb.ii.sdfeater;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Serve mode tests
+ */
+class ConversionServerTest {
+    private ConversionServer server;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        server = new ConversionServer(new InetSocketAddress("127.0.0.1", 0), 2);
+        server.start();
+    }
+
+    @AfterEach
+    void tearDown() {
+        server.stop(0);
+    }
+
+    private HttpURLConnection post(String query) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) new URL("http://127.0.0.1:" + server.getPort() + "/convert?" + query).openConnection();
+        connection.setRequestMethod("POST");
+        connection.setDoOutput(true);
+        try (OutputStream out = connection.getOutputStream()) {
+            out.write(Files.readAllBytes(Paths.get("src", "test", "resources", "chebi_test.sdf")));
+        }
+        return connection;
+    }
+
+    /**
+     * Test if request body is converted and streamed back in chunks
+     */
+    @Test
+    void convertsRequestBody() throws IOException {
+        HttpURLConnection connection = post("format=inchi");
+        assertEquals(200, connection.getResponseCode());
+        assertEquals("chunked", connection.getHeaderField("Transfer-Encoding"));
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        try (InputStream in = connection.getInputStream()) {
+            byte[] buffer = new byte[8192];
+            int n;
+            while ((n = in.read(buffer)) > 0) {
+                body.write(buffer, 0, n);
+            }
+        }
+        String[] lines = body.toString("UTF-8").trim().split("\\R");
+        assertEquals(2, lines.length);
+        assertTrue(lines[1].startsWith("InChI=1S/C10H16O"));
+    }
+
+    /**
+     * Test if unknown format is rejected before conversion
+     */
+    @Test
+    void unknownFormatIsBadRequest() throws IOException {
+        assertEquals(400, post("format=pdf").getResponseCode());
+    }
+}
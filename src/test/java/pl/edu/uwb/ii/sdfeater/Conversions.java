@@ -0,0 +1,76 @@
+package pl.edu.uwb.ii.sdfeater;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.io.UncheckedIOException;
+import java.io.UnsupportedEncodingException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+/**
+ * Conversion helpers shared by output tests; output goes to the job's own
+ * stream, so tests don't replace standard output
+ */
+final class Conversions {
+
+    static final Path CHEBI_TEST = Paths.get("src", "test", "resources", "chebi_test.sdf");
+
+    private Conversions() {
+    }
+
+    /**
+     * Convert SDF file
+     *
+     * @param input   SDF file or parse cache
+     * @param format  output format
+     * @param subject subject type
+     * @return output, decoded as UTF-8
+     */
+    static String convert(Path input, SDFEater.Format format, SDFEater.Subject subject) {
+        return convert(new File(input.toString()), ConversionContext.DEFAULT_SUBJECT_BASE, format, subject);
+    }
+
+    /**
+     * Convert configured file
+     *
+     * @param file        file with options set
+     * @param subjectBase molecule subject base
+     * @param format      output format
+     * @param subject     subject type
+     * @return output, decoded as UTF-8
+     */
+    static String convert(File file, String subjectBase, SDFEater.Format format, SDFEater.Subject subject) {
+        return new String(convertToBytes(file, subjectBase, format, subject), StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Convert configured file to binary or text output
+     *
+     * @param file        file with options set
+     * @param subjectBase molecule subject base
+     * @param format      output format
+     * @param subject     subject type
+     * @return output bytes
+     */
+    static byte[] convertToBytes(File file, String subjectBase, SDFEater.Format format, SDFEater.Subject subject) {
+        ByteArrayOutputStream captor = new ByteArrayOutputStream();
+        try {
+            ConversionContext context = new ConversionContext(subjectBase, new PrintStream(captor, true, "UTF-8"));
+            file.parse(new Molecule(context), format, subject);
+        } catch (UnsupportedEncodingException e) {
+            throw new UncheckedIOException(e);
+        }
+        return captor.toByteArray();
+    }
+
+    /**
+     * Replace random UUIDs of subjects and Cypher variables, so outputs can be compared
+     *
+     * @param output conversion output
+     * @return output with every UUID replaced by "uuid"
+     */
+    static String normalize(String output) {
+        return output.replaceAll("[0-9a-f]{8}([-_][0-9a-f]{4}){3}[-_][0-9a-f]{12}", "uuid");
+    }
+}
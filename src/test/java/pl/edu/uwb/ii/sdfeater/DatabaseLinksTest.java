@@ -0,0 +1,105 @@
+package pl.edu.uwb.ii.sdfeater;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * URL templates of database links tests
+ */
+class DatabaseLinksTest {
+
+    private static Map<String, List<String>> link(DatabaseLinks links, String property, String... values) {
+        DatabaseLinks.Link link = links.link(property);
+        Map<String, List<String>> linked = new HashMap<>();
+        for (String value : values) {
+            linked.computeIfAbsent(link != null ? link.property(property, value) : property, k -> new ArrayList<>())
+                    .add(link != null ? link.apply(value) : value);
+        }
+        return linked;
+    }
+
+    /**
+     * Test if built-in templates cut prefixes, replace spaces and rename properties
+     */
+    @Test
+    void builtInTemplates() {
+        DatabaseLinks links = DatabaseLinks.builtIn();
+        assertEquals(Collections.singletonList("https://www.ebi.ac.uk/chebi/searchId.do?chebiId=15377"),
+                link(links, "ChEBI ID", "CHEBI:15377").get("ChEBI ID"));
+        assertEquals(Collections.singletonList("http://www.ebi.ac.uk/intenz/query?q=EC+1.1.1.1"),
+                link(links, "IntEnz Database Links", "EC 1.1.1.1").get("IntEnz Database Links"));
+        assertEquals(Collections.singletonList("https://www.ncbi.nlm.nih.gov/pmc/articles/PMC123/"),
+                link(links, "PubMed Central Citation Links", "PMC123").get("PubMed Central Citation Links"));
+
+        Map<String, List<String>> pubChem = link(links, "PubChem Database Links", "CID: 962", "SID: 3303", "XID: 1");
+        assertEquals(Collections.singletonList("https://pubchem.ncbi.nlm.nih.gov/compound/962"), pubChem.get("PubChem Database Molecule Links"));
+        assertEquals(Collections.singletonList("https://pubchem.ncbi.nlm.nih.gov/substance/3303"), pubChem.get("PubChem Database Substance Links"));
+        assertEquals(Collections.singletonList("XID: 1"), pubChem.get("PubChem Database Links"));
+
+        assertEquals(Collections.singletonList("value"), link(links, "Unknown Database Links", "value").get("Unknown Database Links"));
+        assertEquals("https://go.drugbank.com/drugs/DB00001", links.url("DRUGBANK_ID", "DB00001"));
+        assertEquals("Water", links.url("ChEBI Name", "Water"));
+    }
+
+    /**
+     * Test if user templates add databases and replace built-in ones
+     */
+    @Test
+    void userTemplates(@TempDir Path dir) throws IOException {
+        Path file = dir.resolve("links.json");
+        Files.write(file, ("{\"links\": {\"ChEMBL Database Links\": \"https://www.ebi.ac.uk/chembl/compound_report_card/{value}/\","
+                + " \"UniProt Database Links\": \"https://rest.uniprot.org/uniprotkb/{value}\"},"
+                + " \"urls\": {\"ChEBI ID\": {\"prefix\": \"CHEBI:\", \"url\": \"http://purl.obolibrary.org/obo/CHEBI_{value}\"}}}")
+                .getBytes(StandardCharsets.UTF_8));
+        DatabaseLinks links = DatabaseLinks.load(file);
+        assertEquals(Arrays.asList("https://www.ebi.ac.uk/chembl/compound_report_card/CHEMBL1/", "https://www.ebi.ac.uk/chembl/compound_report_card/CHEMBL2/"),
+                link(links, "ChEMBL Database Links", "CHEMBL1", "CHEMBL2").get("ChEMBL Database Links"));
+        assertEquals(Collections.singletonList("https://rest.uniprot.org/uniprotkb/P12345"),
+                link(links, "UniProt Database Links", "P12345").get("UniProt Database Links"));
+        assertEquals(Collections.singletonList("https://www.rhea-db.org/reaction?id=10000"),
+                link(links, "Rhea Database Links", "10000").get("Rhea Database Links"));
+        assertEquals("http://purl.obolibrary.org/obo/CHEBI_15377", links.url("ChEBI ID", "CHEBI:15377"));
+
+        assertNull(DatabaseLinks.builtIn().link("ChEMBL Database Links"));
+    }
+
+    /**
+     * Test if links appended by the Cypher emitter are escaped as other strings
+     */
+    @Test
+    void cypherLinks(@TempDir Path dir) throws IOException {
+        Path file = dir.resolve("links.json");
+        Files.write(file, "{\"links\": {\"Wikipedia Database Links\": \"https://en.wikipedia.org/wiki/{value}\"}}".getBytes(StandardCharsets.UTF_8));
+        DatabaseLinks links = DatabaseLinks.load(file);
+        ByteArrayOutputStream captor = new ByteArrayOutputStream();
+        PrintStream out = new PrintStream(captor, true, "UTF-8");
+        Molecule molecule = new Molecule(new ConversionContext(ConversionContext.DEFAULT_SUBJECT_BASE, out, links));
+        molecule.addPropertyByName("Wikipedia Database Links", "Hund's rules");
+        molecule.addPropertyByName("PubChem Database Links", "CID: 962");
+        molecule.printCypher(false, links, out);
+        String cypher = new String(captor.toByteArray(), StandardCharsets.UTF_8);
+        assertTrue(cypher.contains(":Molecule {WikipediaDatabaseLinks: 'https://en.wikipedia.org/wiki/Hund\\'s rules', "
+                + "PubChemDatabaseMoleculeLinks: 'https://pubchem.ncbi.nlm.nih.gov/compound/962'})"), cypher);
+        assertEquals(Collections.singletonList("Hund's rules"), molecule.getPropertiesByName("Wikipedia Database Links"));
+    }
+
+    /**
+     * Test if template without value placeholder is rejected
+     */
+    @Test
+    void templateWithoutValue(@TempDir Path dir) throws IOException {
+        Path file = dir.resolve("links.json");
+        Files.write(file, "{\"links\": {\"ChEMBL Database Links\": \"https://www.ebi.ac.uk/chembl/\"}}".getBytes(StandardCharsets.UTF_8));
+        assertThrows(IllegalArgumentException.class, () -> DatabaseLinks.load(file));
+    }
+}
@@ -0,0 +1,86 @@
+package pl.edu.uwb.ii.sdfeater;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Watch mode tests
+ */
+class DirectoryWatcherTest {
+
+    /**
+     * Test if SDF files are converted and moved to done directory, other files are left alone and
+     * partial outputs of previous run are deleted
+     */
+    @Test
+    void convertsDroppedFiles(@TempDir Path dir) throws Exception {
+        Path leftover = Files.createDirectories(dir.resolve("out")).resolve("interrupted.smi.part");
+        Files.write(leftover, "partial".getBytes(StandardCharsets.UTF_8));
+        DirectoryWatcher watcher = new DirectoryWatcher(dir, dir.resolve("out"), SDFEater.Format.smiles, SDFEater.Subject.iri, null, 2, 100, null);
+        Thread thread = new Thread(() -> {
+            try {
+                watcher.run();
+            } catch (Exception e) {
+                fail(e);
+            }
+        });
+        thread.start();
+        Files.copy(Paths.get("src", "test", "resources", "chebi_test.sdf"), dir.resolve("chebi.sdf"));
+        Files.write(dir.resolve("broken.sdf"), new byte[0]);
+        Files.write(dir.resolve("notes.txt"), "not SDF".getBytes(StandardCharsets.UTF_8));
+
+        Path converted = dir.resolve("out").resolve("chebi.smi");
+        long deadline = System.currentTimeMillis() + 20000;
+        while (!(Files.exists(dir.resolve("done").resolve("chebi.sdf")) && Files.exists(dir.resolve("done").resolve("broken.sdf")))
+                && System.currentTimeMillis() < deadline) {
+            Thread.sleep(50);
+        }
+        watcher.stop();
+        thread.join();
+        assertTrue(watcher.awaitTermination(10000));
+
+        assertEquals(2, Files.readAllLines(converted).size());
+        assertFalse(Files.exists(dir.resolve("chebi.sdf")));
+        assertTrue(Files.exists(dir.resolve("notes.txt")));
+        assertFalse(Files.exists(dir.resolve("out").resolve("chebi.smi.part")));
+        assertFalse(Files.exists(leftover));
+    }
+
+    /**
+     * Test if file is converted when its marker appears before it
+     */
+    @Test
+    void markerBeforeFile(@TempDir Path dir) throws Exception {
+        DirectoryWatcher watcher = new DirectoryWatcher(dir, dir.resolve("out"), SDFEater.Format.smiles, SDFEater.Subject.iri, null, 1, 100, ".ready");
+        Thread thread = new Thread(() -> {
+            try {
+                watcher.run();
+            } catch (Exception e) {
+                fail(e);
+            }
+        });
+        thread.start();
+        Files.write(dir.resolve("chebi.sdf.ready"), new byte[0]);
+        Thread.sleep(300);
+        Files.copy(Paths.get("src", "test", "resources", "chebi_test.sdf"), dir.resolve("chebi.sdf.tmp"));
+        Files.move(dir.resolve("chebi.sdf.tmp"), dir.resolve("chebi.sdf"));
+
+        long deadline = System.currentTimeMillis() + 20000;
+        while (!Files.exists(dir.resolve("done").resolve("chebi.sdf")) && System.currentTimeMillis() < deadline) {
+            Thread.sleep(50);
+        }
+        watcher.stop();
+        thread.join();
+        assertTrue(watcher.awaitTermination(10000));
+
+        assertEquals(2, Files.readAllLines(dir.resolve("out").resolve("chebi.smi")).size());
+        assertFalse(Files.exists(dir.resolve("chebi.sdf.ready")));
+    }
+}
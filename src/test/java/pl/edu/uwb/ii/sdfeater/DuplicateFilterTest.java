@@ -0,0 +1,62 @@
+package pl.edu.uwb.ii.sdfeater;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Duplicate filter tests
+ */
+class DuplicateFilterTest {
+    private final ByteArrayOutputStream outputStreamCaptor = new ByteArrayOutputStream();
+
+    @BeforeEach
+    void setUp() {
+        System.setOut(new PrintStream(outputStreamCaptor));
+    }
+
+    /**
+     * Test if repeated records are dropped from the output
+     */
+    @Test
+    void repeatedRecordsAreDropped(@TempDir Path dir) throws IOException {
+        byte[] sdf = Files.readAllBytes(Paths.get("src", "test", "resources", "chebi_test.sdf"));
+        Path input = dir.resolve("twice.sdf");
+        Files.write(input, sdf);
+        Files.write(input, sdf, java.nio.file.StandardOpenOption.APPEND);
+
+        File file = new File(input.toString());
+        DuplicateFilter filter = new DuplicateFilter("InChIKey", 1024 * 1024);
+        file.setDuplicateFilter(filter);
+        file.parse(new Molecule(), SDFEater.Format.inchi, SDFEater.Subject.iri);
+
+        String[] lines = outputStreamCaptor.toString().trim().split("\\R");
+        assertEquals(2, lines.length);
+        assertEquals(2, filter.getDuplicates());
+        assertFalse(filter.isApproximate());
+    }
+
+    /**
+     * Test if duplicates are still detected after switching to probabilistic mode
+     */
+    @Test
+    void duplicatesDetectedBeyondMemoryBudget() {
+        DuplicateFilter filter = new DuplicateFilter("InChIKey", 0);
+        for (int i = 0; i < 100000; i++) {
+            filter.isDuplicate("KEY-" + i);
+        }
+        assertTrue(filter.isApproximate());
+        for (int i = 0; i < 100000; i++) {
+            assertTrue(filter.isDuplicate("KEY-" + i));
+        }
+    }
+}
@@ -0,0 +1,69 @@
+package pl.edu.uwb.ii.sdfeater;
+
+import com.google.gson.JsonParser;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Format-specific escaping of property values tests
+ */
+class EscapingTest {
+
+    private static final String NAME = "O'Neil \\ \"x\" <y> & z";
+
+    private static String convert(Path input, SDFEater.Format format) {
+        return Conversions.convert(input, format, SDFEater.Subject.iri);
+    }
+
+    private static Path input(Path dir) throws IOException {
+        String sdf = new String(Files.readAllBytes(Paths.get("src", "test", "resources", "chebi_test.sdf")), StandardCharsets.UTF_8);
+        Path input = dir.resolve("escaping.sdf");
+        Files.write(input, sdf.replace("(+)-2-fenchanone", NAME).getBytes(StandardCharsets.UTF_8));
+        return input;
+    }
+
+    /**
+     * Test if each format escapes raw value once, in its own way
+     */
+    @Test
+    void valuesAreEscapedOncePerFormat(@TempDir Path dir) throws IOException {
+        Path input = input(dir);
+        assertTrue(convert(input, SDFEater.Format.cypher).contains("'O\\'Neil \\\\ \"x\" <y> & z'"));
+        assertTrue(convert(input, SDFEater.Format.cvme).contains("'O\\'Neil \\\\ \"x\" <y> & z'"));
+        assertTrue(convert(input, SDFEater.Format.rdfa).contains(">O'Neil \\ \"x\" &lt;y&gt; &amp; z</div>"));
+
+        String jsonld = convert(input, SDFEater.Format.jsonld);
+        String names = JsonParser.parseString(jsonld).getAsJsonObject().get("@graph").getAsJsonArray().toString();
+        assertTrue(names.contains(new com.google.gson.JsonPrimitive(NAME).toString()));
+    }
+
+    /**
+     * Test if SMILES with backslashes is written unchanged
+     */
+    @Test
+    void smilesIsNotEscaped(@TempDir Path dir) throws IOException {
+        String sdf = new String(Files.readAllBytes(Paths.get("src", "test", "resources", "chebi_test.sdf")), StandardCharsets.UTF_8);
+        Path input = dir.resolve("smiles.sdf");
+        Files.write(input, sdf.replace("CC1(C)[C@@H]2CC[C@@](C)(C2)C1=O", "C/C=C\\C").getBytes(StandardCharsets.UTF_8));
+        assertTrue(convert(input, SDFEater.Format.smiles).contains("C/C=C\\C\n"));
+    }
+
+    /**
+     * Test if JSON strings are escaped like Gson does
+     */
+    @Test
+    void jsonStringMatchesGson() {
+        String value = "a\"b\\c\nd\re\tf\bg\fh\u0001i j żółć 😀 <&>'";
+        StringBuilder json = new StringBuilder();
+        Molecule.appendJSONString(json, value);
+        assertEquals(new com.google.gson.GsonBuilder().disableHtmlEscaping().create().toJson(value), json.toString());
+    }
+}
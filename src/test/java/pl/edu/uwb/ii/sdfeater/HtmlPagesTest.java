@@ -0,0 +1,91 @@
+package pl.edu.uwb.ii.sdfeater;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Collections;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Paginated and per-molecule RDFa and Microdata tests
+ */
+class HtmlPagesTest {
+
+    private static final String INPUT = Paths.get("src", "test", "resources", "chebi_test.sdf").toString();
+    private static final String BASE = "https://example.org/chebi/molecule#m";
+
+    private static String molecules(String html) {
+        StringBuilder molecules = new StringBuilder();
+        Matcher matcher = Pattern.compile("    <div (typeof='schema:MolecularEntity'|itemscope itemtype='http://schema.org/MolecularEntity').*?\n    </div>\n", Pattern.DOTALL).matcher(html);
+        while (matcher.find()) {
+            molecules.append(matcher.group());
+        }
+        return molecules.toString();
+    }
+
+    private static String read(Path file) throws IOException {
+        return new String(Files.readAllBytes(file), StandardCharsets.UTF_8);
+    }
+
+    private static String document(SDFEater.Format format) {
+        ByteArrayOutputStream captor = new ByteArrayOutputStream();
+        new File(INPUT).parse(new Molecule(new ConversionContext(BASE, new PrintStream(captor))), format, SDFEater.Subject.iri);
+        return new String(captor.toByteArray(), StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Test if pages hold molecules of the whole document, in order, and are
+     * listed by index page and sitemap
+     */
+    @Test
+    void pagesSplitDocument(@TempDir Path dir) throws IOException {
+        File file = new File(INPUT);
+        file.setHtmlPages(2);
+        file.parse(new Molecule(new ConversionContext(BASE, System.out)), Collections.singletonList(SDFEater.Format.rdfa),
+                SDFEater.Subject.iri, dir.resolve("chebi").toString());
+
+        Path pages = dir.resolve("chebi");
+        String whole = molecules(document(SDFEater.Format.rdfa));
+        StringBuilder paged = new StringBuilder();
+        String index = read(pages.resolve("index.html"));
+        String sitemap = read(pages.resolve("sitemap.xml"));
+        assertTrue(sitemap.contains("<loc>https://example.org/chebi/index.html</loc>"));
+        for (int page = 1; Files.exists(pages.resolve("page-" + page + ".html")); page++) {
+            String html = read(pages.resolve("page-" + page + ".html"));
+            assertTrue(html.startsWith("<!DOCTYPE html>"));
+            assertTrue(html.endsWith("</html>\n"));
+            assertTrue(index.contains("<a href='page-" + page + ".html'>"));
+            assertTrue(sitemap.contains("<loc>https://example.org/chebi/page-" + page + ".html</loc>"));
+            paged.append(molecules(html));
+        }
+        assertFalse(whole.isEmpty());
+        assertEquals(whole, paged.toString());
+    }
+
+    /**
+     * Test if each molecule gets its own page titled with its name
+     */
+    @Test
+    void pagePerMolecule(@TempDir Path dir) throws IOException {
+        File file = new File(INPUT);
+        file.setHtmlPages(1);
+        file.parse(new Molecule(new ConversionContext(BASE, System.out)), Collections.singletonList(SDFEater.Format.microdata),
+                SDFEater.Subject.iri, dir.resolve("chebi").toString());
+
+        Path pages = dir.resolve("chebi");
+        String first = read(pages.resolve("molecule-1.html"));
+        assertTrue(first.contains("<title>(-)-epicatechin</title>"));
+        assertEquals(molecules(first).split("itemtype='http://schema.org/MolecularEntity'").length, 2);
+        assertTrue(read(pages.resolve("index.html")).contains("<a href='molecule-1.html'>(-)-epicatechin</a>"));
+    }
+}
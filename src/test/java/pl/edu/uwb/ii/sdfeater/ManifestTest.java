@@ -0,0 +1,112 @@
+package pl.edu.uwb.ii.sdfeater;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Incremental conversion tests
+ */
+class ManifestTest {
+
+    private static String convert(Path input, Path manifest, SDFEater.Format format) throws IOException {
+        File file = new File(input.toString());
+        file.setManifest(new Manifest(manifest, "ChEBI ID"));
+        return Conversions.convert(file, ConversionContext.DEFAULT_SUBJECT_BASE, format, SDFEater.Subject.iri);
+    }
+
+    /**
+     * Test if second run writes only changed records and deletes removed ones
+     */
+    @Test
+    void onlyChangesAreConverted(@TempDir Path dir) throws IOException {
+        String sdf = new String(Files.readAllBytes(Paths.get("src", "test", "resources", "chebi_test.sdf")), StandardCharsets.UTF_8);
+        String first = sdf.substring(0, sdf.indexOf("$$$$") + 5);
+        String second = sdf.substring(first.length());
+        Path input = dir.resolve("input.sdf");
+        Path manifest = dir.resolve("manifest");
+
+        Files.write(input, sdf.getBytes(StandardCharsets.UTF_8));
+        String out = convert(input, manifest, SDFEater.Format.cypher);
+        assertTrue(out.contains("CHEBI:90"));
+        assertTrue(out.contains("CHEBI:165"));
+
+        assertFalse(convert(input, manifest, SDFEater.Format.cypher).contains("CREATE"));
+
+        Files.write(input, second.replace("fenchanone", "fenchone").getBytes(StandardCharsets.UTF_8));
+        out = convert(input, manifest, SDFEater.Format.cypher);
+        assertTrue(out.startsWith("MATCH (c:Molecule {ChEBIID: 'CHEBI:165'})\nOPTIONAL MATCH (c)-[:RELATED]->(a:Atom)\nDETACH DELETE c, a;\nCREATE"));
+        assertTrue(out.contains("fenchone"));
+        assertTrue(out.contains("MATCH (c:Molecule {ChEBIID: 'CHEBI:90'})"));
+        assertFalse(out.contains("epicatechin"));
+
+        Files.write(input, (second + first).getBytes(StandardCharsets.UTF_8));
+        out = convert(input, manifest, SDFEater.Format.cypher);
+        assertTrue(out.contains("fenchanone"));
+        assertTrue(out.contains("MATCH (c:Molecule {ChEBIID: 'CHEBI:165'})"));
+        assertTrue(out.contains("epicatechin"));
+        assertFalse(out.contains("MATCH (c:Molecule {ChEBIID: 'CHEBI:90'})"));
+
+        // formats with database links delete molecules by linked key
+        Path linked = dir.resolve("linked");
+        Files.write(input, sdf.getBytes(StandardCharsets.UTF_8));
+        assertTrue(convert(input, linked, SDFEater.Format.cypheru).contains("ChEBIID: 'https://www.ebi.ac.uk/chebi/searchId.do?chebiId=90'"));
+        Files.write(input, second.getBytes(StandardCharsets.UTF_8));
+        assertEquals("MATCH (c:Molecule {ChEBIID: 'https://www.ebi.ac.uk/chebi/searchId.do?chebiId=90'})\n"
+                + "OPTIONAL MATCH (c)-[:RELATED]->(a:Atom)\nDETACH DELETE c, a;\n", convert(input, linked, SDFEater.Format.cypheru));
+    }
+
+    /**
+     * Test if formats without deletions get tombstones file
+     */
+    @Test
+    void tombstones(@TempDir Path dir) throws IOException {
+        String sdf = new String(Files.readAllBytes(Paths.get("src", "test", "resources", "chebi_test.sdf")), StandardCharsets.UTF_8);
+        Path input = dir.resolve("input.sdf");
+        Path manifest = dir.resolve("manifest");
+        Files.write(input, sdf.getBytes(StandardCharsets.UTF_8));
+        convert(input, manifest, SDFEater.Format.smiles);
+
+        Files.write(input, sdf.substring(sdf.indexOf("$$$$") + 5).getBytes(StandardCharsets.UTF_8));
+        assertEquals("", convert(input, manifest, SDFEater.Format.smiles));
+        assertEquals("removed\tCHEBI:90\n", new String(Files.readAllBytes(dir.resolve("manifest.tombstones")), StandardCharsets.UTF_8));
+
+        convert(input, manifest, SDFEater.Format.smiles);
+        assertFalse(Files.exists(dir.resolve("manifest.tombstones")));
+    }
+
+    /**
+     * Test if manifest of many keys is read back
+     */
+    @Test
+    void manyKeys(@TempDir Path dir) throws IOException {
+        Path path = dir.resolve("manifest");
+        try (Manifest manifest = new Manifest(path, "ChEBI ID")) {
+            for (int i = 0; i < 100000; i++) {
+                manifest.add("CHEBI:" + i, i);
+            }
+            manifest.commit();
+        }
+        assertTrue(Files.size(path) < 100000 * 14);
+        List<String> removed = new ArrayList<>();
+        try (Manifest manifest = new Manifest(path, "ChEBI ID")) {
+            for (int i = 1; i < 100000; i++) {
+                assertEquals(i % 2 == 0 ? Manifest.Change.UNCHANGED : Manifest.Change.CHANGED, manifest.check("CHEBI:" + i, i - i % 2));
+            }
+            assertEquals(Manifest.Change.ADDED, manifest.check("CHEBI:100000", 0));
+            manifest.removed(removed::add);
+        }
+        assertEquals(1, removed.size());
+        assertEquals("CHEBI:0", removed.get(0));
+        assertThrows(IOException.class, () -> new Manifest(path, "InChIKey"));
+    }
+}
@@ -0,0 +1,89 @@
+package pl.edu.uwb.ii.sdfeater;
+
+import org.apache.jena.rdf.model.Model;
+import org.apache.jena.rdf.model.ModelFactory;
+import org.apache.jena.rdf.model.Resource;
+import org.apache.jena.riot.Lang;
+import org.apache.jena.riot.RDFParser;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Jena model building tests
+ */
+class ModelBuilderTest {
+
+    private static Model convert(SDFEater.Format format, Lang lang, int workers, long memory) {
+        File file = new File(Conversions.CHEBI_TEST.toString());
+        file.setModelBuilding(workers, memory);
+        Model model = ModelFactory.createDefaultModel();
+        byte[] output = Conversions.convertToBytes(file, ConversionContext.DEFAULT_SUBJECT_BASE, format, SDFEater.Subject.bnode);
+        RDFParser.source(new ByteArrayInputStream(output)).lang(lang).parse(model);
+        return model;
+    }
+
+    private static Molecule molecule(String id, String name) {
+        Molecule molecule = new Molecule();
+        molecule.addPropertyByName("ChEBI ID", id);
+        molecule.addPropertyByName("ChEBI Name", name);
+        return molecule;
+    }
+
+    /**
+     * Test if output of spilled partial graphs is the same as of single in-memory graph
+     */
+    @Test
+    void spilledGraphsGiveSameOutput() {
+        Model expected = convert(SDFEater.Format.turtle, Lang.TURTLE, 0, Long.MAX_VALUE);
+        assertEquals(24, expected.size());
+        assertTrue(expected.isIsomorphicWith(convert(SDFEater.Format.turtle, Lang.TURTLE, 2, 1)));
+        assertTrue(expected.isIsomorphicWith(convert(SDFEater.Format.rdfxml, Lang.RDFXML, 2, 1)));
+        assertTrue(expected.isIsomorphicWith(convert(SDFEater.Format.rdfthrift, Lang.RDFTHRIFT, 3, 1)));
+    }
+
+    /**
+     * Test if triples of subject are found in spill files
+     */
+    @Test
+    void subjectLookup() throws IOException {
+        Model model;
+        try (ModelBuilder builder = new ModelBuilder(2, 1)) {
+            for (int i = 0; i < 100; i++) {
+                builder.add(molecule("CHEBI:" + i, "name \"" + i + "\"\n"), SDFEater.Subject.uuid);
+            }
+            model = builder.build();
+            assertEquals(300, model.size());
+            assertEquals(100, model.listSubjects().toList().size());
+            Resource subject = model.listSubjects().next();
+            assertEquals(3, model.listStatements(subject, null, (String) null).toList().size());
+            String name = subject.getProperty(model.createProperty("http://schema.org/name")).getString();
+            assertTrue(name.matches("name \"\\d+\"\n"));
+        }
+    }
+
+    /**
+     * Test if every subject is found by binary search of runs holding many subjects
+     */
+    @Test
+    void subjectLookupInRuns() throws IOException {
+        try (ModelBuilder builder = new ModelBuilder(0, 2000)) {
+            for (int i = 0; i < 100; i++) {
+                builder.add(molecule("CHEBI:" + i, "name " + i), SDFEater.Subject.uuid);
+            }
+            Model model = builder.build();
+            // scan left open by consumer is closed with the builder
+            assertTrue(model.listStatements().hasNext());
+            List<Resource> subjects = model.listSubjects().toList();
+            assertEquals(100, subjects.size());
+            for (Resource subject : subjects) {
+                assertEquals(3, model.listStatements(subject, null, (String) null).toList().size());
+            }
+            assertFalse(model.listStatements(model.createResource("urn:uuid:none"), null, (String) null).hasNext());
+        }
+    }
+}
@@ -0,0 +1,68 @@
+package pl.edu.uwb.ii.sdfeater;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Single-pass multi-format output tests
+ */
+class MultiFormatTest {
+
+    private static final Path SDF = Conversions.CHEBI_TEST;
+
+    private static String read(Path path) throws IOException {
+        return Conversions.normalize(new String(Files.readAllBytes(path), StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Test if each format written in one pass is the same as written alone
+     */
+    @Test
+    void formatsMatchSingleConversions(@TempDir Path dir) throws IOException {
+        List<SDFEater.Format> formats = Arrays.asList(SDFEater.Format.cypher, SDFEater.Format.cypheru, SDFEater.Format.smiles,
+                SDFEater.Format.ntriples, SDFEater.Format.jsonld, SDFEater.Format.microdata);
+        String output = dir.resolve("chebi").toString();
+        new File(SDF.toString()).parse(new Molecule(), formats, SDFEater.Subject.uuid, output);
+
+        for (SDFEater.Format format : formats) {
+            assertEquals(Conversions.normalize(Conversions.convert(SDF, format, SDFEater.Subject.uuid)), read(Paths.get(File.outputPath(output, format, formats))), format.name());
+        }
+        assertTrue(Files.exists(dir.resolve("chebi.cypheru.cypher")));
+        assertTrue(Files.exists(dir.resolve("chebi.nt")));
+    }
+
+    /**
+     * Test if record with malformed atom line is skipped only by formats using atoms
+     */
+    @Test
+    void malformedStructureSkippedByStructureFormats(@TempDir Path dir) throws IOException {
+        String sdf = new String(Files.readAllBytes(SDF), StandardCharsets.UTF_8);
+        Path input = dir.resolve("bad.sdf");
+        Files.write(input, sdf.replaceFirst("-2.8644", "-2.8x44").getBytes(StandardCharsets.UTF_8));
+        List<SDFEater.Format> formats = Arrays.asList(SDFEater.Format.cypher, SDFEater.Format.jsonld);
+        String output = dir.resolve("bad").toString();
+
+        File file = new File(input.toString());
+        RecordErrors errors = new RecordErrors(null, -1);
+        file.setRecordErrors(errors);
+        file.parse(new Molecule(), formats, SDFEater.Subject.iri, output);
+
+        String cypher = read(dir.resolve("bad.cypher"));
+        assertFalse(cypher.contains("(-)-Epicatechin"));
+        assertTrue(cypher.contains("(+)-2-fenchanone"));
+        String jsonld = read(dir.resolve("bad.jsonld"));
+        assertTrue(jsonld.contains("(-)-Epicatechin"));
+        assertTrue(jsonld.contains("(+)-2-fenchanone"));
+        assertEquals(1, errors.getErrors());
+    }
+}
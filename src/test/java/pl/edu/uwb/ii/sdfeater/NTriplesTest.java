@@ -0,0 +1,75 @@
+package pl.edu.uwb.ii.sdfeater;
+
+import org.apache.jena.query.Dataset;
+import org.apache.jena.query.DatasetFactory;
+import org.apache.jena.rdf.model.Model;
+import org.apache.jena.rdf.model.ModelFactory;
+import org.apache.jena.rdf.model.Statement;
+import org.apache.jena.riot.Lang;
+import org.apache.jena.riot.RDFParser;
+import org.junit.jupiter.api.Test;
+
+import java.util.Iterator;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Native N-Triples and N-Quads writer tests; output is checked with Jena parser
+ */
+class NTriplesTest {
+
+    private static String convert(SDFEater.Format format, SDFEater.Subject subject) {
+        return Conversions.convert(Conversions.CHEBI_TEST, format, subject);
+    }
+
+    private static Model parse(String data, Lang lang) {
+        Model model = ModelFactory.createDefaultModel();
+        RDFParser.fromString(data).lang(lang).parse(model);
+        return model;
+    }
+
+    /**
+     * Test if N-Triples output has the same triples as Jena model of Turtle output
+     */
+    @Test
+    void ntriplesEqualsJenaModel() {
+        Model ntriples = parse(convert(SDFEater.Format.ntriples, SDFEater.Subject.bnode), Lang.NTRIPLES);
+        Model turtle = parse(convert(SDFEater.Format.turtle, SDFEater.Subject.bnode), Lang.TURTLE);
+        assertEquals(24, ntriples.size());
+        assertTrue(ntriples.isIsomorphicWith(turtle));
+    }
+
+    /**
+     * Test if each molecule has its own named graph in N-Quads output
+     */
+    @Test
+    void nquadsHaveGraphPerMolecule() {
+        Dataset dataset = DatasetFactory.create();
+        RDFParser.fromString(convert(SDFEater.Format.nquads, SDFEater.Subject.uuid)).lang(Lang.NQUADS).parse(dataset);
+        assertEquals(0, dataset.getDefaultModel().size());
+        int graphs = 0;
+        for (Iterator<String> names = dataset.listNames(); names.hasNext(); graphs++) {
+            String name = names.next();
+            assertTrue(name.startsWith("urn:uuid:"));
+            Model graph = dataset.getNamedModel(name);
+            assertEquals(12, graph.size());
+            for (Statement statement : graph.listStatements().toList()) {
+                assertEquals(name, statement.getSubject().getURI());
+            }
+        }
+        assertEquals(2, graphs);
+    }
+
+    /**
+     * Test if escaped literals are read back unchanged
+     */
+    @Test
+    void literalEscaping() {
+        String value = "a\"b\\c\nd\re\tf\u0001g żółć 😀";
+        StringBuilder triple = new StringBuilder("<urn:s> <urn:p> \"");
+        Molecule.appendNTriplesString(triple, value);
+        triple.append("\" .\n");
+        Model model = parse(triple.toString(), Lang.NTRIPLES);
+        assertEquals(value, model.listStatements().next().getString());
+    }
+}
@@ -1,16 +1,19 @@
 package pl.edu.uwb.ii.sdfeater;
 
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 
 import java.io.ByteArrayOutputStream;
 import java.io.PrintStream;
 import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.HashSet;
 
+import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertFalse;
 import static org.junit.jupiter.api.Assertions.assertTrue;
-import static pl.edu.uwb.ii.sdfeater.SDFEater.initializeJenaModel;
-import static pl.edu.uwb.ii.sdfeater.SDFEater.loadPeriodicTableData;
 
 /**
  * Output data tests
@@ -62,6 +65,31 @@ class OutputTest {
         assertTrue(stringContainsAllValues(out, required));
     }
 
+    /**
+     * Test if molecules larger than the Cypher statement limit are written in
+     * chunks finding atoms by molecule and id, with all atoms and bonds
+     */
+    @Test
+    void cypherLargeMoleculeIsChunked() {
+        file.parse(molecule, SDFEater.Format.cypher, SDFEater.Subject.iri);
+        String whole = outputStreamCaptor.toString();
+        outputStreamCaptor.reset();
+        file.parse(new Molecule(new ConversionContext(ConversionContext.DEFAULT_SUBJECT_BASE, System.out, DatabaseLinks.builtIn(), 4)),
+                SDFEater.Format.cypher, SDFEater.Subject.iri);
+        String chunked = outputStreamCaptor.toString();
+
+        assertFalse(chunked.contains(")-[:RELATED]->(a1_"));
+        assertTrue(chunked.contains("MATCH (c:Molecule {uuid: '"));
+        assertTrue(chunked.contains("id: bond.from}), (a2:Atom {molecule: '"));
+        for (String statement : chunked.split("\n;\n")) {
+            if (statement.startsWith("UNWIND")) {
+                assertTrue(statement.split("\n\\{").length <= 4);
+            }
+        }
+        assertEquals(whole.split(":Atom \\{symbol").length - 1, chunked.split("\\{symbol").length - 1);
+        assertEquals(whole.split("BOND_WITH \\{").length - 1, chunked.split("\\{from: ").length - 1);
+    }
+
     /**
      * Test if Cypher raw output contains all molecule data
      */
@@ -72,6 +100,32 @@ class OutputTest {
         assertTrue(stringContainsAllValues(out, testMoleculeData));
     }
 
+    /**
+     * Test if Cypher output contains only included properties
+     */
+    @Test
+    void cypherContainsOnlyIncludedProperties() {
+        file.setPropertyProjection(new HashSet<>(Arrays.asList("ChEBI ID", "SMILES")), null);
+        file.parse(molecule, SDFEater.Format.cypher, SDFEater.Subject.iri);
+        String out = outputStreamCaptor.toString();
+        assertTrue(stringContainsAllValues(out, new String[]{"ChEBIID: 'CHEBI:90'", "SMILES: 'CC1(C)[C@@H]2CC[C@@](C)(C2)C1=O'", "symbol:"}));
+        assertFalse(out.contains("InChIKey"));
+        assertFalse(out.contains("Definition"));
+    }
+
+    /**
+     * Test if Cypher output doesn't contain excluded properties
+     */
+    @Test
+    void cypherDoesNotContainExcludedProperties() {
+        file.setPropertyProjection(null, new HashSet<>(Arrays.asList("InChIKey", "Definition")));
+        file.parse(molecule, SDFEater.Format.cypher, SDFEater.Subject.iri);
+        String out = outputStreamCaptor.toString();
+        assertTrue(stringContainsAllValues(out, new String[]{"ChEBIID: 'CHEBI:90'", "SMILES:"}));
+        assertFalse(out.contains("InChIKey"));
+        assertFalse(out.contains("Definition"));
+    }
+
     // CYPHER (with URLs)
 
     /**
@@ -102,7 +156,6 @@ class OutputTest {
      */
     @Test
     void cypherPeriodicContainsRequiredStrings() {
-        loadPeriodicTableData();
         file.parse(molecule, SDFEater.Format.cypherp, SDFEater.Subject.iri);
         String out = outputStreamCaptor.toString();
         String[] required = {"CREATE (", "{", "}", ",", ")", ":", "'", ":", ")-[:", "]->(", "symbol:", "C", "x:", "y:", "z:", "atomicNumber:", "name:", "Carbon", "atomicMass:", "bondingType:"};
@@ -114,7 +167,6 @@ class OutputTest {
      */
     @Test
     void cypherPeriodicContainsAllMoleculeData() {
-        loadPeriodicTableData();
         file.parse(molecule, SDFEater.Format.cypherp, SDFEater.Subject.iri);
         String out = outputStreamCaptor.toString();
         assertTrue(stringContainsAllValues(out, testMoleculeData));
@@ -127,7 +179,6 @@ class OutputTest {
      */
     @Test
     void cypherAllContainsRequiredStrings() {
-        loadPeriodicTableData();
         file.parse(molecule, SDFEater.Format.cypherup, SDFEater.Subject.iri);
         String out = outputStreamCaptor.toString();
         String[] required = {"CREATE (", "{", "}", ",", ")", ":", "'", ":", ")-[:", "]->(", "symbol:", "C", "x:", "y:", "z:", "http", "//", "/", "atomicNumber:", "name:", "Carbon", "atomicMass:", "bondingType:"};
@@ -139,7 +190,6 @@ class OutputTest {
      */
     @Test
     void cypherAllContainsAllMoleculeData() {
-        loadPeriodicTableData();
         file.parse(molecule, SDFEater.Format.cypherup, SDFEater.Subject.iri);
         String out = outputStreamCaptor.toString();
         assertTrue(stringContainsAllValues(out, testMoleculeData));
@@ -201,7 +251,6 @@ class OutputTest {
      */
     @Test
     void turtleContainsRequiredStrings() {
-        initializeJenaModel();
         file.parse(molecule, SDFEater.Format.turtle, SDFEater.Subject.iri);
         String out = outputStreamCaptor.toString();
         String[] required = {"@prefix", "schema.org", "rdf", "MolecularEntity", "[", ";", "]", ".", "<", ">", "http", "//", ":", "\""};
@@ -213,7 +262,6 @@ class OutputTest {
      */
     @Test
     void turtleContainsAllMoleculeDataFields() {
-        initializeJenaModel();
         file.parse(molecule, SDFEater.Format.turtle, SDFEater.Subject.iri);
         String out = outputStreamCaptor.toString();
         assertTrue(stringContainsAllValues(out, testMoleculeDataFields));
@@ -224,7 +272,6 @@ class OutputTest {
      */
     @Test
     void turtleContainsAllMoleculeData() {
-        initializeJenaModel();
         file.parse(molecule, SDFEater.Format.turtle, SDFEater.Subject.iri);
         String out = outputStreamCaptor.toString();
         assertTrue(stringContainsAllValues(out, testMoleculeData));
@@ -235,7 +282,6 @@ class OutputTest {
      */
     @Test
     void turtleHaveIRISubject() {
-        initializeJenaModel();
         file.parse(molecule, SDFEater.Format.turtle, SDFEater.Subject.iri);
         String out = outputStreamCaptor.toString();
         String[] required = {"http", "example.com", "molecule", "#", "entity"};
@@ -247,7 +293,6 @@ class OutputTest {
      */
     @Test
     void turtleHaveUUIDSubject() {
-        initializeJenaModel();
         file.parse(molecule, SDFEater.Format.turtle, SDFEater.Subject.uuid);
         String out = outputStreamCaptor.toString();
         String[] required = {"urn:uuid:"};
@@ -259,7 +304,6 @@ class OutputTest {
      */
     @Test
     void turtleHaveBNodeSubject() {
-        initializeJenaModel();
         file.parse(molecule, SDFEater.Format.turtle, SDFEater.Subject.bnode);
         String out = outputStreamCaptor.toString();
         String[] required = {"[", "]"};
@@ -273,7 +317,6 @@ class OutputTest {
      */
     @Test
     void nTriplesContainsRequiredStrings() {
-        initializeJenaModel();
         file.parse(molecule, SDFEater.Format.ntriples, SDFEater.Subject.iri);
         String out = outputStreamCaptor.toString();
         String[] required = {"schema.org", "rdf", "MolecularEntity", ".", "<", ">", "http", "//", ":", "\""};
@@ -285,7 +328,6 @@ class OutputTest {
      */
     @Test
     void nTriplesContainsAllMoleculeDataFields() {
-        initializeJenaModel();
         file.parse(molecule, SDFEater.Format.ntriples, SDFEater.Subject.iri);
         String out = outputStreamCaptor.toString();
         assertTrue(stringContainsAllValues(out, testMoleculeDataFields));
@@ -296,7 +338,6 @@ class OutputTest {
      */
     @Test
     void nTriplesContainsAllMoleculeData() {
-        initializeJenaModel();
         file.parse(molecule, SDFEater.Format.ntriples, SDFEater.Subject.iri);
         String out = outputStreamCaptor.toString();
         assertTrue(stringContainsAllValues(out, testMoleculeData));
@@ -307,7 +348,6 @@ class OutputTest {
      */
     @Test
     void nTriplesHaveIRISubject() {
-        initializeJenaModel();
         file.parse(molecule, SDFEater.Format.ntriples, SDFEater.Subject.iri);
         String out = outputStreamCaptor.toString();
         String[] required = {"http", "example.com", "molecule", "#", "entity"};
@@ -319,7 +359,6 @@ class OutputTest {
      */
     @Test
     void nTriplesHaveUUIDSubject() {
-        initializeJenaModel();
         file.parse(molecule, SDFEater.Format.ntriples, SDFEater.Subject.uuid);
         String out = outputStreamCaptor.toString();
         String[] required = {"urn:uuid:"};
@@ -331,7 +370,6 @@ class OutputTest {
      */
     @Test
     void nTriplesHaveBNodeSubject() {
-        initializeJenaModel();
         file.parse(molecule, SDFEater.Format.ntriples, SDFEater.Subject.bnode);
         String out = outputStreamCaptor.toString();
         String[] required = {"_:"};
@@ -345,7 +383,6 @@ class OutputTest {
      */
     @Test
     void rdfXMLContainsRequiredStrings() {
-        initializeJenaModel();
         file.parse(molecule, SDFEater.Format.rdfxml, SDFEater.Subject.iri);
         String out = outputStreamCaptor.toString();
         String[] required = {"<", ">", "rdf:RDF", "xmlns:", "<rdf:Description", "type", "MolecularEntity", "schema", "</", "&lt;", "&gt;"};
@@ -357,7 +394,6 @@ class OutputTest {
      */
     @Test
     void rdfXMLContainsAllMoleculeDataFields() {
-        initializeJenaModel();
         file.parse(molecule, SDFEater.Format.rdfxml, SDFEater.Subject.iri);
         String out = outputStreamCaptor.toString();
         assertTrue(stringContainsAllValues(out, testMoleculeDataFields));
@@ -368,7 +404,6 @@ class OutputTest {
      */
     @Test
     void rdfXMLContainsAllMoleculeData() {
-        initializeJenaModel();
         file.parse(molecule, SDFEater.Format.rdfxml, SDFEater.Subject.iri);
         String out = outputStreamCaptor.toString();
         assertTrue(stringContainsAllValues(out, testMoleculeData));
@@ -379,7 +414,6 @@ class OutputTest {
      */
     @Test
     void rdfXMLHaveIRISubject() {
-        initializeJenaModel();
         file.parse(molecule, SDFEater.Format.rdfxml, SDFEater.Subject.iri);
         String out = outputStreamCaptor.toString();
         String[] required = {"http", "example.com", "molecule", "#", "entity"};
@@ -391,7 +425,6 @@ class OutputTest {
      */
     @Test
     void rdfXMLHaveUUIDSubject() {
-        initializeJenaModel();
         file.parse(molecule, SDFEater.Format.rdfxml, SDFEater.Subject.uuid);
         String out = outputStreamCaptor.toString();
         String[] required = {"urn:uuid:"};
@@ -403,7 +436,6 @@ class OutputTest {
      */
     @Test
     void rdfXMLHaveBNodeSubject() {
-        initializeJenaModel();
         file.parse(molecule, SDFEater.Format.rdfxml, SDFEater.Subject.bnode);
         String out = outputStreamCaptor.toString();
         String[] required = {"rdf:about"};
@@ -417,7 +449,6 @@ class OutputTest {
      */
     @Test
     void rdfthriftContainsRequiredStrings() {
-        initializeJenaModel();
         file.parse(molecule, SDFEater.Format.rdfthrift, SDFEater.Subject.iri);
         String out = outputStreamCaptor.toString();
         String[] required = {"schema", "rdf"};
@@ -429,7 +460,6 @@ class OutputTest {
      */
     @Test
     void rdfthriftContainsAllMoleculeDataFields() {
-        initializeJenaModel();
         file.parse(molecule, SDFEater.Format.rdfthrift, SDFEater.Subject.iri);
         String out = outputStreamCaptor.toString();
         assertTrue(stringContainsAllValues(out, testMoleculeDataFields));
@@ -440,7 +470,6 @@ class OutputTest {
      */
     @Test
     void rdfthriftContainsAllMoleculeData() {
-        initializeJenaModel();
         file.parse(molecule, SDFEater.Format.rdfthrift, SDFEater.Subject.iri);
         String out = outputStreamCaptor.toString();
         assertTrue(stringContainsAllValues(out, testMoleculeData));
@@ -451,7 +480,6 @@ class OutputTest {
      */
     @Test
     void rdfthriftHaveIRISubject() {
-        initializeJenaModel();
         file.parse(molecule, SDFEater.Format.rdfthrift, SDFEater.Subject.iri);
         String out = outputStreamCaptor.toString();
         String[] required = {"http", "example.com", "molecule", "#", "entity"};
@@ -463,7 +491,6 @@ class OutputTest {
      */
     @Test
     void rdfthriftHaveUUIDSubject() {
-        initializeJenaModel();
         file.parse(molecule, SDFEater.Format.rdfthrift, SDFEater.Subject.uuid);
         String out = outputStreamCaptor.toString();
         String[] required = {"urn:uuid:"};
@@ -475,7 +502,6 @@ class OutputTest {
      */
     @Test
     void rdfthriftHaveBNodeSubject() {
-        initializeJenaModel();
         file.parse(molecule, SDFEater.Format.rdfthrift, SDFEater.Subject.bnode);
         String out = outputStreamCaptor.toString();
         String[] required = {"http", "example.com", "molecule", "#", "entity", "urn:uuid:"};
@@ -581,6 +607,42 @@ class OutputTest {
         assertTrue(stringContainsAllValues(out, required));
     }
 
+    // NDJSON
+
+    /**
+     * Test if NDJSON output has one independent JSON object per molecule,
+     * with multi-valued properties as arrays
+     */
+    @Test
+    void ndjsonHasOneObjectPerLine() {
+        file.parse(molecule, SDFEater.Format.ndjson, SDFEater.Subject.iri);
+        String[] lines = outputStreamCaptor.toString().split("\n");
+        assertEquals(2, lines.length);
+        JsonObject first = JsonParser.parseString(lines[0]).getAsJsonObject();
+        assertEquals("https://example.com/molecule#entity0", first.get("id").getAsString());
+        assertEquals("CHEBI:90", first.getAsJsonObject("properties").get("ChEBI ID").getAsString());
+        assertTrue(first.getAsJsonObject("properties").get("PubMed Citation Links").isJsonArray());
+        assertTrue(first.getAsJsonObject("properties").get("Synonyms").isJsonPrimitive());
+        assertFalse(first.has("atoms"));
+        assertTrue(stringContainsAllValues(outputStreamCaptor.toString(), testMoleculeData));
+    }
+
+    /**
+     * Test if full NDJSON output has atoms and bonds as parallel arrays
+     */
+    @Test
+    void ndjsonFullHasStructureTables() {
+        file.parse(molecule, SDFEater.Format.ndjsonfull, SDFEater.Subject.uuid);
+        JsonObject first = JsonParser.parseString(outputStreamCaptor.toString().split("\n")[0]).getAsJsonObject();
+        assertTrue(first.get("id").getAsString().startsWith("urn:uuid:"));
+        JsonObject atoms = first.getAsJsonObject("atoms");
+        JsonObject bonds = first.getAsJsonObject("bonds");
+        assertTrue(atoms.getAsJsonArray("symbol").size() > 0);
+        assertEquals(atoms.getAsJsonArray("symbol").size(), atoms.getAsJsonArray("z").size());
+        assertTrue(bonds.getAsJsonArray("atom1").size() > 0);
+        assertEquals(bonds.getAsJsonArray("atom1").size(), bonds.getAsJsonArray("stereo").size());
+    }
+
     // RDFa
 
     /**
@@ -0,0 +1,63 @@
+package pl.edu.uwb.ii.sdfeater;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Parse cache tests
+ */
+class ParseCacheTest {
+
+    private static final Path SDF = Conversions.CHEBI_TEST;
+
+    private static String convert(File file, SDFEater.Format format) {
+        return Conversions.normalize(Conversions.convert(file, ConversionContext.DEFAULT_SUBJECT_BASE, format, SDFEater.Subject.uuid));
+    }
+
+    /**
+     * Test if conversion from compiled cache gives the same output as from SDF
+     */
+    @Test
+    void cacheMatchesText(@TempDir Path dir) throws IOException {
+        Path cache = dir.resolve("chebi_test.sdfc");
+        assertEquals(2, ParseCache.compile(SDF, cache));
+        assertTrue(ParseCache.isCache(cache));
+        assertFalse(ParseCache.isCache(SDF));
+        for (SDFEater.Format format : new SDFEater.Format[]{SDFEater.Format.cypher, SDFEater.Format.jsonld, SDFEater.Format.smiles}) {
+            assertEquals(convert(new File(SDF.toString()), format), convert(new File(cache.toString()), format));
+        }
+    }
+
+    /**
+     * Test if block of large records is closed before it has all records
+     */
+    @Test
+    void blockByteLimit(@TempDir Path dir) throws IOException {
+        Path cache = dir.resolve("chebi_test.sdfc");
+        assertEquals(2, ParseCache.compile(SDF, cache, 1));
+        try (ParseCache.Reader reader = new ParseCache.Reader(cache)) {
+            assertEquals(2, reader.blocks());
+            assertEquals(2, reader.firstOrdinal(1));
+        }
+        assertEquals(convert(new File(SDF.toString()), SDFEater.Format.cypher), convert(new File(cache.toString()), SDFEater.Format.cypher));
+    }
+
+    /**
+     * Test if record range selects records by ordinal
+     */
+    @Test
+    void recordRange(@TempDir Path dir) throws IOException {
+        Path cache = dir.resolve("chebi_test.sdfc");
+        ParseCache.compile(SDF, cache);
+        File file = new File(cache.toString());
+        file.setRecordRange(2, 2);
+        String out = convert(file, SDFEater.Format.cypher);
+        assertTrue(out.contains("CHEBI:165"));
+        assertFalse(out.contains("CHEBI:90"));
+    }
+}
@@ -0,0 +1,37 @@
+package pl.edu.uwb.ii.sdfeater;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Progress report tests
+ */
+class ProgressTest {
+
+    /**
+     * Test if piped input, with unknown size, is reported without percentage and ETA
+     */
+    @Test
+    void unknownSizeHasNoEta() {
+        Progress progress = new Progress(60000);
+        progress.start(-1);
+        progress.record(2048);
+        String line = progress.format(2048, 1, 2, false);
+        progress.stop();
+        assertEquals("progress: 2.0 KB, 1 records, 0.5 records/s, 1.0 KB/s", line);
+    }
+
+    /**
+     * Test if final report of known size input has percentage and total time
+     */
+    @Test
+    void knownSizeHasPercentage() {
+        Progress progress = new Progress(60000);
+        progress.start(4096);
+        String line = progress.format(4096, 4, 3725, true);
+        progress.stop();
+        assertTrue(line.startsWith("progress: 4.0 KB / 4.0 KB (100.0%), 4 records"));
+        assertTrue(line.endsWith("done in 1:02:05"));
+    }
+}
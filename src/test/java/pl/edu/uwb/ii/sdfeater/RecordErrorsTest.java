@@ -0,0 +1,79 @@
+package pl.edu.uwb.ii.sdfeater;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Per-record error handling tests
+ */
+class RecordErrorsTest {
+    private final ByteArrayOutputStream outputStreamCaptor = new ByteArrayOutputStream();
+
+    @BeforeEach
+    void setUp() {
+        System.setOut(new PrintStream(outputStreamCaptor));
+    }
+
+    /**
+     * Test if record with malformed atom line is rejected and the next one is still converted
+     */
+    @Test
+    void malformedRecordIsRejected(@TempDir Path dir) throws IOException {
+        String sdf = new String(Files.readAllBytes(Paths.get("src", "test", "resources", "chebi_test.sdf")), StandardCharsets.UTF_8);
+        Path input = dir.resolve("bad.sdf");
+        Path rejects = dir.resolve("rejects.sdf");
+        Files.write(input, sdf.replaceFirst("-2.8644", "-2.8x44").getBytes(StandardCharsets.UTF_8));
+
+        File file = new File(input.toString());
+        RecordErrors errors = new RecordErrors(rejects.toString(), 5);
+        file.setRecordErrors(errors);
+        file.parse(new Molecule(), SDFEater.Format.cypher, SDFEater.Subject.iri);
+
+        String out = outputStreamCaptor.toString();
+        assertFalse(out.contains("(-)-Epicatechin"));
+        assertTrue(out.contains("(+)-2-fenchanone"));
+        assertEquals(1, errors.getErrors());
+
+        String rejected = new String(Files.readAllBytes(rejects), StandardCharsets.UTF_8);
+        assertTrue(rejected.startsWith("\n  Marvin"));
+        assertTrue(rejected.contains("-2.8x44"));
+        assertTrue(rejected.contains("> <SDFEater.ordinal>\n1\n"));
+        assertTrue(rejected.contains("> <SDFEater.line>\n1\n"));
+        assertTrue(rejected.contains("> <SDFEater.reason>\njava.lang.NumberFormatException"));
+        assertTrue(rejected.trim().endsWith("$$$$"));
+        assertFalse(rejected.contains("fenchanone"));
+    }
+
+    /**
+     * Test if conversion of parse cache writes the same rejects as conversion of SDF
+     */
+    @Test
+    void cacheRejectsMatchText(@TempDir Path dir) throws IOException {
+        String sdf = new String(Files.readAllBytes(Paths.get("src", "test", "resources", "chebi_test.sdf")), StandardCharsets.UTF_8);
+        Path input = dir.resolve("bad.sdf");
+        Path cache = dir.resolve("bad.sdfc");
+        Files.write(input, sdf.replaceFirst("-2.8644", "-2.8x44").getBytes(StandardCharsets.UTF_8));
+        ParseCache.compile(input, cache);
+
+        Path[] rejects = {dir.resolve("text.sdf"), dir.resolve("cache.sdf")};
+        Path[] inputs = {input, cache};
+        for (int i = 0; i < 2; i++) {
+            File file = new File(inputs[i].toString());
+            file.setRecordErrors(new RecordErrors(rejects[i].toString(), 5));
+            file.parse(new Molecule(), SDFEater.Format.cypher, SDFEater.Subject.iri);
+        }
+        assertTrue(new String(Files.readAllBytes(rejects[1]), StandardCharsets.UTF_8).contains("-2.8x44"));
+        assertArrayEquals(Files.readAllBytes(rejects[0]), Files.readAllBytes(rejects[1]));
+    }
+}
@@ -0,0 +1,106 @@
+package pl.edu.uwb.ii.sdfeater;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Collections;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Record filter (--where) tests
+ */
+class RecordFilterTest {
+    private static final String EPICATECHIN_SMILES = "[H][C@@]1(Oc2cc(O)cc(O)c2C[C@H]1O)c1ccc(O)c(O)c1";
+    private static final String FENCHONE_SMILES = "CC1(C)[C@@H]2CC[C@@](C)(C2)C1=O";
+    private final ByteArrayOutputStream outputStreamCaptor = new ByteArrayOutputStream();
+    private final File file = new File(Paths.get("src", "test", "resources", "chebi_test.sdf").toFile().getAbsolutePath());
+
+    @BeforeEach
+    void setUp() {
+        System.setOut(new PrintStream(outputStreamCaptor));
+    }
+
+    private String filter(String expression, SDFEater.Format format) throws IOException {
+        file.setRecordFilter(new RecordFilter(expression));
+        file.parse(new Molecule(), format, SDFEater.Subject.iri);
+        return outputStreamCaptor.toString();
+    }
+
+    /**
+     * Test numeric comparison
+     */
+    @Test
+    void numericComparison() throws IOException {
+        String out = filter("Mass < 200", SDFEater.Format.smiles);
+        assertTrue(out.contains(FENCHONE_SMILES));
+        assertFalse(out.contains(EPICATECHIN_SMILES));
+    }
+
+    /**
+     * Test value list loaded from file
+     */
+    @Test
+    void valueListFromFile(@TempDir Path dir) throws IOException {
+        Path ids = dir.resolve("ids.txt");
+        Files.write(ids, Collections.singletonList("CHEBI:90"));
+        String out = filter("<ChEBI ID> in @" + ids, SDFEater.Format.smiles);
+        assertTrue(out.contains(EPICATECHIN_SMILES));
+        assertFalse(out.contains(FENCHONE_SMILES));
+    }
+
+    /**
+     * Test property existence and boolean operators
+     */
+    @Test
+    void existsAndBooleanOperators() throws IOException {
+        assertEquals("", filter("SMILES exists and not (Mass > 0)", SDFEater.Format.smiles).trim());
+        outputStreamCaptor.reset();
+        String out = filter("'ChEBI ID' = CHEBI:165 or NoSuchProperty exists", SDFEater.Format.smiles);
+        assertTrue(out.contains(FENCHONE_SMILES));
+        assertFalse(out.contains(EPICATECHIN_SMILES));
+    }
+
+    /**
+     * Test if atoms and bonds of accepted records are still parsed
+     */
+    @Test
+    void acceptedRecordsKeepStructure() throws IOException {
+        String out = filter("Mass >= 290", SDFEater.Format.cypher);
+        assertTrue(out.contains(":Atom {symbol: 'O'"));
+        assertTrue(out.contains("BOND_WITH"));
+        assertFalse(out.contains(FENCHONE_SMILES));
+    }
+
+    /**
+     * Test if formats writing database links are filtered by values in the file
+     */
+    @Test
+    void linkFormatFiltersFileValues(@TempDir Path dir) throws IOException {
+        String out = filter("<ChEBI ID> = CHEBI:90", SDFEater.Format.cypheru);
+        assertTrue(out.contains("ChEBIID: 'https://www.ebi.ac.uk/chebi/searchId.do?chebiId=90'"));
+        assertFalse(out.contains("chebiId=165"));
+        outputStreamCaptor.reset();
+        Path ids = dir.resolve("ids.txt");
+        Files.write(ids, Collections.singletonList("CHEBI:165"));
+        out = filter("<ChEBI ID> in @" + ids, SDFEater.Format.cypherup);
+        assertTrue(out.contains("chebiId=165"));
+        assertFalse(out.contains("chebiId=90"));
+    }
+
+    /**
+     * Test if invalid expression is rejected
+     */
+    @Test
+    void invalidExpression() {
+        assertThrows(IllegalArgumentException.class, () -> new RecordFilter("Mass <"));
+        assertThrows(IllegalArgumentException.class, () -> new RecordFilter("(SMILES exists"));
+    }
+}
@@ -0,0 +1,106 @@
+package pl.edu.uwb.ii.sdfeater;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * External record sort tests
+ */
+class RecordSorterTest {
+
+    private static final Path SDF = Paths.get("src", "test", "resources", "chebi_test.sdf");
+
+    private static String record(int number, String key) {
+        StringBuilder record = new StringBuilder("record-" + number + "\n\n\n  0  0  0  0  0  0  0  0  0  0999 V2000\nM  END\n");
+        if (key != null) {
+            record.append("> <Key>\n").append(key).append("\n\n");
+        }
+        char[] padding = new char[1000];
+        Arrays.fill(padding, 'x');
+        return record.append("> <Padding>\n").append(padding).append("\n\n$$$$\n").toString();
+    }
+
+    private static List<String> sort(RecordSorter sorter, String sdf) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (InputStream sorted = sorter.sort(new ByteArrayInputStream(sdf.getBytes(StandardCharsets.UTF_8)))) {
+            byte[] buffer = new byte[4096];
+            for (int n = sorted.read(buffer); n >= 0; n = sorted.read(buffer)) {
+                out.write(buffer, 0, n);
+            }
+        }
+        return Arrays.stream(out.toString("UTF-8").split("(?<=\\$\\$\\$\\$\n)")).collect(Collectors.toList());
+    }
+
+    /**
+     * Test if records spilled to many runs are merged in key order, stable,
+     * with records without key last, and temporary files are deleted
+     */
+    @Test
+    void externalSort(@TempDir Path dir) throws IOException {
+        StringBuilder sdf = new StringBuilder();
+        List<String> records = new ArrayList<>();
+        for (int i = 0; i < 4000; i++) {
+            String record = record(i, i % 10 == 0 ? null : "key-" + (i * 7919 % 500));
+            records.add(record);
+            sdf.append(record);
+        }
+        RecordSorter sorter = new RecordSorter("Key", false, 1, 2, dir);
+        List<String> sorted = sort(sorter, sdf.toString());
+        assertEquals(4000, sorter.getRecords());
+        assertTrue(sorter.getRuns() > 1);
+        try (Stream<Path> files = Files.list(dir)) {
+            assertEquals(0, files.count());
+        }
+        List<String> expected = new ArrayList<>(records);
+        expected.sort((a, b) -> {
+            String aKey = a.contains("<Key>") ? a.split("\n")[6] : "\uffff";
+            String bKey = b.contains("<Key>") ? b.split("\n")[6] : "\uffff";
+            return aKey.compareTo(bKey);
+        });
+        assertEquals(expected, sorted);
+    }
+
+    /**
+     * Test if numeric keys are compared as numbers, before other values
+     */
+    @Test
+    void numericSort(@TempDir Path dir) throws IOException {
+        String sdf = record(0, "10") + record(1, "abc") + record(2, "-2.5") + record(3, "9") + record(4, "1e1");
+        List<String> sorted = sort(new RecordSorter("Key", true, 1, 1, dir), sdf);
+        assertEquals(Arrays.asList(2, 3, 0, 4, 1), sorted.stream()
+                .map(record -> Integer.valueOf(record.substring(7, record.indexOf('\n'))))
+                .collect(Collectors.toList()));
+    }
+
+    /**
+     * Test if sorted records convert to output format
+     */
+    @Test
+    void sortToFormat(@TempDir Path dir) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        RecordSorter sorter = new RecordSorter("ChEBI ID", false, 1, 1, dir);
+        try (InputStream sdf = Files.newInputStream(SDF)) {
+            RecordSorter.write(sorter.sort(sdf), SDFEater.Format.smiles, SDFEater.Subject.iri.name(), null, out);
+        }
+        assertEquals(2, sorter.getRecords());
+        String[] smiles = out.toString("UTF-8").split("\n");
+        assertEquals(2, smiles.length);
+        assertNotEquals(smiles[0], smiles[1]);
+    }
+}
@@ -0,0 +1,183 @@
+package pl.edu.uwb.ii.sdfeater;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Public streaming API tests
+ */
+class SdfReaderTest {
+    private final Path input = Paths.get("src", "test", "resources", "chebi_test.sdf");
+
+    /**
+     * Test if molecules are read with raw values, atoms and bonds
+     */
+    @Test
+    void readsMolecules() throws IOException {
+        try (SdfReader reader = SdfReader.open(input)) {
+            Iterator<MoleculeView> molecules = reader.iterator();
+            MoleculeView first = molecules.next();
+            assertEquals(1, first.getOrdinal());
+            assertEquals("CHEBI:90", first.getProperty("ChEBI ID"));
+            assertEquals("ChEBI ID", first.getProperties().keySet().iterator().next());
+            assertEquals(22, first.getAtoms().size());
+            assertEquals(24, first.getBonds().size());
+            assertEquals("C", first.getAtoms().get(0).getSymbol());
+            assertThrows(UnsupportedOperationException.class, () -> first.getProperties().clear());
+
+            MoleculeView second = molecules.next();
+            assertEquals("(+)-2-fenchanone", second.getProperty("Synonyms"));
+            assertFalse(molecules.hasNext());
+            assertThrows(IllegalStateException.class, reader::iterator);
+        }
+    }
+
+    /**
+     * Test if values are not escaped and malformed record doesn't stop reading
+     */
+    @Test
+    void malformedRecordIsReported() throws IOException {
+        String sdf = "bad\n\n\n  1  0  0  0  0  0            999 V2000\n    0.0x00    0.0000    0.0000 C   0  0  0  0  0  0  0  0  0  0  0  0\nM  END\n$$$$\n"
+                + "good\n\n\n  0  0  0  0  0  0            999 V2000\nM  END\n> <Name>\nit's a \\ test\n\n$$$$\n";
+        try (SdfReader reader = new SdfReader(new ByteArrayInputStream(sdf.getBytes(StandardCharsets.UTF_8)))) {
+            IllegalArgumentException error = assertThrows(IllegalArgumentException.class, reader::read);
+            assertTrue(error.getMessage().startsWith("Malformed record 1 at line 1"));
+            assertEquals("it's a \\ test", reader.read().getProperty("Name"));
+            assertNull(reader.read());
+        }
+    }
+
+    /**
+     * Test if parallel stream gets all molecules
+     */
+    @Test
+    void parallelStream() throws IOException {
+        try (SdfReader reader = SdfReader.open(input)) {
+            List<String> ids = reader.stream(true).map(m -> m.getProperty("ChEBI ID")).sorted().collect(Collectors.toList());
+            assertEquals(2, ids.size());
+            assertEquals("CHEBI:90", ids.get(1));
+        }
+    }
+
+    /**
+     * Test if publisher delivers only requested molecules
+     */
+    @Test
+    void publisherRespectsDemand() throws Exception {
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        List<MoleculeView> received = new ArrayList<>();
+        CountDownLatch first = new CountDownLatch(1);
+        CountDownLatch complete = new CountDownLatch(1);
+        MoleculePublisher.Subscription[] subscription = new MoleculePublisher.Subscription[1];
+        SdfReader.open(input).publisher(executor).subscribe(new MoleculePublisher.Subscriber() {
+            @Override
+            public void onSubscribe(MoleculePublisher.Subscription s) {
+                subscription[0] = s;
+                s.request(1);
+            }
+
+            @Override
+            public void onNext(MoleculeView molecule) {
+                received.add(molecule);
+                first.countDown();
+            }
+
+            @Override
+            public void onError(Throwable throwable) {
+                fail(throwable);
+            }
+
+            @Override
+            public void onComplete() {
+                complete.countDown();
+            }
+        });
+        assertTrue(first.await(10, TimeUnit.SECONDS));
+        executor.submit(() -> null).get();
+        assertEquals(1, received.size());
+        subscription[0].request(5);
+        assertTrue(complete.await(10, TimeUnit.SECONDS));
+        assertEquals(2, received.size());
+        executor.shutdown();
+    }
+
+    /**
+     * Test if non-positive request is signalled as error from the executor
+     */
+    @Test
+    void publisherRejectsNonPositiveRequest() throws Exception {
+        ExecutorService executor = Executors.newSingleThreadExecutor(r -> new Thread(r, "publisher"));
+        CountDownLatch error = new CountDownLatch(1);
+        Throwable[] received = new Throwable[1];
+        String[] thread = new String[1];
+        SdfReader.open(input).publisher(executor).subscribe(new MoleculePublisher.Subscriber() {
+            @Override
+            public void onSubscribe(MoleculePublisher.Subscription s) {
+                s.request(0);
+            }
+
+            @Override
+            public void onNext(MoleculeView molecule) {
+                fail("molecule delivered without demand");
+            }
+
+            @Override
+            public void onError(Throwable throwable) {
+                received[0] = throwable;
+                thread[0] = Thread.currentThread().getName();
+                error.countDown();
+            }
+
+            @Override
+            public void onComplete() {
+                fail("completed after invalid request");
+            }
+        });
+        assertTrue(error.await(10, TimeUnit.SECONDS));
+        assertTrue(received[0] instanceof IllegalArgumentException);
+        assertEquals("publisher", thread[0]);
+        executor.shutdown();
+    }
+
+    /**
+     * Test if writer output matches the command line conversion
+     */
+    @Test
+    void writerWritesFormat() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (SdfReader reader = SdfReader.open(input);
+             MoleculeWriter writer = new MoleculeWriter("smiles", out)) {
+            for (MoleculeView molecule : reader) {
+                writer.write(molecule);
+            }
+        }
+        String[] lines = out.toString("UTF-8").trim().split("\\R");
+        assertEquals(2, lines.length);
+        assertEquals("[H][C@@]1(Oc2cc(O)cc(O)c2C[C@H]1O)c1ccc(O)c(O)c1", lines[0]);
+
+        out.reset();
+        try (SdfReader reader = SdfReader.open(input);
+             MoleculeWriter writer = new MoleculeWriter("turtle", out)) {
+            for (MoleculeView molecule : reader) {
+                writer.write(molecule);
+            }
+        }
+        assertTrue(out.toString("UTF-8").contains("PFTAWBLQPZVEMU-UKRRQHHQSA-N"));
+    }
+}
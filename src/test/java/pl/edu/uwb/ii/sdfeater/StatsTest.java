@@ -0,0 +1,44 @@
+package pl.edu.uwb.ii.sdfeater;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.nio.file.Paths;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Conversion statistics tests
+ */
+class StatsTest {
+    private final ByteArrayOutputStream outputStreamCaptor = new ByteArrayOutputStream();
+
+    @BeforeEach
+    void setUp() {
+        System.setOut(new PrintStream(outputStreamCaptor));
+    }
+
+    /**
+     * Test if counters match the test file and output is still written
+     */
+    @Test
+    void countersMatchInput() {
+        java.io.File input = Paths.get("src", "test", "resources", "chebi_test.sdf").toFile();
+        File file = new File(input.getAbsolutePath());
+        Stats stats = new Stats(null);
+        file.setStats(stats);
+        file.parse(new Molecule(), SDFEater.Format.cypher, SDFEater.Subject.iri);
+
+        Map<String, Object> summary = stats.summary();
+        assertEquals(input.length(), summary.get("bytesRead"));
+        assertEquals((long) outputStreamCaptor.size(), summary.get("bytesWritten"));
+        assertEquals(2L, summary.get("records"));
+        assertEquals(2L, summary.get("molecules"));
+        assertTrue((Long) summary.get("atoms") > 0);
+        assertTrue((Long) summary.get("bonds") > 0);
+        assertTrue(outputStreamCaptor.toString().contains("CREATE ("));
+    }
+}